@@ -0,0 +1,166 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import liquibase.change.AddColumnConfig;
+import liquibase.change.ColumnConfig;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+
+/**
+ * Benchmarks generating the alter statement of every change type. The changes, that support multiple
+ * columns, use the given number of columns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlterStatementBenchmark {
+    @Param({"AddColumn", "AddForeignKeyConstraint", "AddPrimaryKey", "AddUniqueConstraint", "CreateIndex",
+            "DropColumn", "DropForeignKeyConstraint", "DropIndex", "DropUniqueConstraint", "ModifyDataType"})
+    public String changeType;
+
+    @Param({"10", "500"})
+    public int columns;
+
+    private Database database;
+    private MariaDbToolsChange change;
+
+    @Setup
+    public void setup() {
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        change = createChange();
+    }
+
+    private String columnNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < columns; i++) {
+            names.add("col" + i);
+        }
+        return String.join(", ", names);
+    }
+
+    private MariaDbToolsChange createChange() {
+        switch (changeType) {
+        case "AddColumn": {
+            MariaDbToolsAddColumnChange c = new MariaDbToolsAddColumnChange();
+            c.setTableName("person");
+            for (int i = 0; i < columns; i++) {
+                AddColumnConfig column = new AddColumnConfig();
+                column.setName("col" + i);
+                column.setType("VARCHAR(255)");
+                column.setDefaultValue("default " + i);
+                column.setRemarks("column " + i);
+                c.addColumn(column);
+            }
+            return c;
+        }
+        case "AddForeignKeyConstraint": {
+            MariaDbToolsAddForeignKeyConstraintChange c = new MariaDbToolsAddForeignKeyConstraintChange();
+            c.setBaseTableName("address");
+            c.setBaseColumnNames(columnNames());
+            c.setReferencedTableName("person");
+            c.setReferencedColumnNames(columnNames());
+            c.setConstraintName("fk_address_person");
+            return c;
+        }
+        case "AddPrimaryKey": {
+            MariaDbToolsAddPrimaryKeyChange c = new MariaDbToolsAddPrimaryKeyChange();
+            c.setTableName("person");
+            c.setColumnNames(columnNames());
+            return c;
+        }
+        case "AddUniqueConstraint": {
+            MariaDbToolsAddUniqueConstraintChange c = new MariaDbToolsAddUniqueConstraintChange();
+            c.setTableName("person");
+            c.setColumnNames(columnNames());
+            c.setConstraintName("uq_person");
+            return c;
+        }
+        case "CreateIndex": {
+            MariaDbToolsCreateIndexChange c = new MariaDbToolsCreateIndexChange();
+            c.setTableName("person");
+            c.setIndexName("idx_person");
+            for (int i = 0; i < columns; i++) {
+                AddColumnConfig column = new AddColumnConfig();
+                column.setName("col" + i);
+                c.addColumn(column);
+            }
+            return c;
+        }
+        case "DropColumn": {
+            MariaDbToolsDropColumnChange c = new MariaDbToolsDropColumnChange();
+            c.setTableName("person");
+            for (int i = 0; i < columns; i++) {
+                ColumnConfig column = new ColumnConfig();
+                column.setName("col" + i);
+                c.addColumn(column);
+            }
+            return c;
+        }
+        case "DropForeignKeyConstraint": {
+            MariaDbToolsDropForeignKeyConstraintChange c = new MariaDbToolsDropForeignKeyConstraintChange();
+            c.setBaseTableName("address");
+            c.setConstraintName("fk_address_person");
+            return c;
+        }
+        case "DropIndex": {
+            MariaDbToolsDropIndexChange c = new MariaDbToolsDropIndexChange();
+            c.setTableName("person");
+            c.setIndexName("idx_person");
+            return c;
+        }
+        case "DropUniqueConstraint": {
+            MariaDbToolsDropUniqueConstraintChange c = new MariaDbToolsDropUniqueConstraintChange();
+            c.setTableName("person");
+            c.setConstraintName("uq_person");
+            return c;
+        }
+        case "ModifyDataType": {
+            MariaDbToolsModifyDataTypeChange c = new MariaDbToolsModifyDataTypeChange();
+            c.setTableName("person");
+            c.setColumnName("name");
+            c.setNewDataType("VARCHAR(300)");
+            return c;
+        }
+        default:
+            throw new IllegalArgumentException("Unknown change type " + changeType);
+        }
+    }
+
+    @Benchmark
+    public String generateAlterStatement() {
+        return change.generateAlterStatement(database);
+    }
+}
@@ -0,0 +1,115 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.parser.ChangeLogParser;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * Benchmarks parsing a large XML changelog, that uses the attributes of the extension's XSD.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChangeLogParserBenchmark {
+    /** the location of the XSD, as it is resolved by liquibase */
+    private static final String XSD_PATH = "raw.githubusercontent.com/liquibase/liquibase-mariadbtools/"
+            + "liquibase-mariadbtools-2.0.0/src/main/resources/dbchangelog-ext-liquibase-mariadbtools.xsd";
+
+    @Param({"50000"})
+    public int changeSets;
+
+    private Path directory;
+    private ResourceAccessor resourceAccessor;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("mariadbtools-benchmark");
+        Path xsd = directory.resolve(XSD_PATH);
+        Files.createDirectories(xsd.getParent());
+        try (InputStream in = ChangeLogParserBenchmark.class.getResourceAsStream("/dbchangelog-ext-liquibase-mariadbtools.xsd")) {
+            Files.copy(in, xsd);
+        }
+        try (Writer writer = Files.newBufferedWriter(directory.resolve("changelog.xml"), StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\"\n"
+                    + "        xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+                    + "        xmlns:liquibaseMariaDbTools=\"http://www.liquibase.org/xml/ns/dbchangelog-ext/liquibase-mariadbtools\"\n"
+                    + "        xsi:schemaLocation=\"http://www.liquibase.org/xml/ns/dbchangelog "
+                    + "http://www.liquibase.org/xml/ns/dbchangelog/dbchangelog-4.2.xsd\n"
+                    + "            http://www.liquibase.org/xml/ns/dbchangelog-ext/liquibase-mariadbtools https://" + XSD_PATH + "\">\n");
+            for (int i = 0; i < changeSets; i++) {
+                writer.write("    <changeSet id=\"" + i + "\" author=\"benchmark\">\n"
+                        + "        <addColumn tableName=\"table" + (i % 100) + "\" "
+                        + "liquibaseMariaDbTools:useMariaDbTools=\"" + (i % 2 == 0) + "\" "
+                        + "liquibaseMariaDbTools:mariaDbToolsOptions=\"--chunk-size=" + i + "\">\n"
+                        + "            <column name=\"col" + i + "\" type=\"varchar(255)\"/>\n"
+                        + "        </addColumn>\n"
+                        + "    </changeSet>\n");
+            }
+            writer.write("</databaseChangeLog>\n");
+        }
+        resourceAccessor = new FileSystemResourceAccessor(directory.toFile());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public DatabaseChangeLog parse() throws Exception {
+        Map<String, Object> scopeValues = new HashMap<>();
+        scopeValues.put(liquibase.Scope.Attr.resourceAccessor.name(), resourceAccessor);
+        return liquibase.Scope.child(scopeValues, () -> {
+            ChangeLogParser parser = ChangeLogParserFactory.getInstance().getParser("changelog.xml", resourceAccessor);
+            return parser.parse("changelog.xml", new ChangeLogParameters(), resourceAccessor);
+        });
+    }
+}
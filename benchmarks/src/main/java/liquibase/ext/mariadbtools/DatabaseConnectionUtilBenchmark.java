@@ -0,0 +1,101 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.mariadb.jdbc.MariaDbConnection;
+import org.mariadb.jdbc.UrlParser;
+import org.mariadb.jdbc.internal.protocol.MasterProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import liquibase.database.DatabaseConnection;
+import liquibase.database.jvm.JdbcConnection;
+
+/**
+ * Benchmarks determining host, port, user and password of the different connection types,
+ * which uses reflection to get hold of the password.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseConnectionUtilBenchmark {
+    @Param({"mysql", "mariadb", "dbcp", "dbcp2", "tomcat"})
+    public String type;
+
+    private DatabaseConnection connection;
+
+    @Setup
+    public void setup() throws Exception {
+        Connection jdbc;
+        switch (type) {
+        case "mysql":
+            Properties info = new Properties();
+            info.setProperty("user", "user");
+            info.setProperty("password", "xyz");
+            jdbc = new NoOpMySqlConnection("localhost", 3306, info, "testdb", "jdbc:mysql://");
+            break;
+        case "mariadb":
+            UrlParser urlParser = UrlParser.parse("jdbc:mariadb://127.0.0.1/testdb?user=user&password=xyz", null);
+            jdbc = new MariaDbConnection(new MasterProtocol(urlParser, null, new ReentrantLock(), null));
+            break;
+        case "dbcp":
+            jdbc = MockedDbcpPoolingConnection.create("user", "xyz");
+            break;
+        case "dbcp2":
+            jdbc = MockedDbcp2PoolingConnection.create("user", "xyz");
+            break;
+        case "tomcat":
+            jdbc = MockedTomcatJdbcConnection.create("user", "xyz");
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown connection type " + type);
+        }
+        connection = new JdbcConnection(jdbc);
+    }
+
+    @Benchmark
+    public void construct(Blackhole blackhole) {
+        DatabaseConnectionUtil util = new DatabaseConnectionUtil(connection);
+        blackhole.consume(util.getHost());
+        blackhole.consume(util.getPort());
+        blackhole.consume(util.getUser());
+        blackhole.consume(util.getPassword());
+    }
+
+    @Benchmark
+    public void forConnection(Blackhole blackhole) {
+        DatabaseConnectionUtil util = DatabaseConnectionUtil.forConnection(connection);
+        blackhole.consume(util.getDsn());
+        blackhole.consume(util.getPassword());
+    }
+}
@@ -0,0 +1,126 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.jvm.JdbcExecutor;
+
+/**
+ * Benchmarks processing the output of mariadb-schema-change with a fake toolkit, that prints
+ * progress lines as fast as possible: once only the output pump with the progress parser and
+ * once the whole execution of a statement including progress events and metrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class OutputPipelineBenchmark {
+    /** number of progress lines printed by the fake toolkit */
+    @Param({"10000", "1000000"})
+    public int lines;
+
+    private Path toolkitPath;
+    private Path script;
+    private Database database;
+    private MariaDbToolsSchemaChangeStatement statement;
+
+    @Setup
+    public void setup() throws IOException {
+        toolkitPath = Files.createTempDirectory("mariadbtools-toolkit");
+        script = toolkitPath.resolve(MariaDbToolsSchemaChangeStatement.COMMAND);
+        try (InputStream in = OutputPipelineBenchmark.class.getResourceAsStream("/fake-toolkit/"
+                + MariaDbToolsSchemaChangeStatement.COMMAND)) {
+            Files.copy(in, script);
+        }
+        if (!script.toFile().setExecutable(true)) {
+            throw new IOException("Couldn't make " + script + " executable");
+        }
+
+        System.setProperty(Configuration.LIQUIBASE_PASSWORD, "root");
+        System.setProperty(Configuration.ADDITIONAL_OPTIONS, "");
+        System.setProperty(Configuration.MARIADB_TOOLS_PATH, toolkitPath.toString());
+        MariaDbToolsSchemaChangeStatement.available = true;
+
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(new MockDatabaseConnection("jdbc:mysql://user@localhost:3306/testdb", "user@localhost"));
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        liquibase.Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+
+        statement = new MariaDbToolsSchemaChangeStatement("testdb", "person", "ADD COLUMN age INT NULL",
+                Optional.of("--fake-lines=" + lines));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(toolkitPath)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long pump() throws Exception {
+        ProcessBuilder pb = new ProcessBuilder(Arrays.asList(script.toString(), "--fake-lines=" + lines));
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        MariaDbToolsProgressParser parser = new MariaDbToolsProgressParser("testdb", "person");
+        AtomicLong events = new AtomicLong();
+        try (InputStream in = process.getInputStream()) {
+            MariaDbToolsOutputPump pump = new MariaDbToolsOutputPump(in, line -> {
+                if (parser.parse(line) != null) {
+                    events.incrementAndGet();
+                }
+            });
+            pump.start();
+            process.waitFor();
+            pump.join();
+        }
+        return events.get();
+    }
+
+    @Benchmark
+    public void runCommand() {
+        statement.runCommand(statement.buildCommand(database), database, false);
+    }
+}
@@ -0,0 +1,85 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+
+/**
+ * Benchmarks building the command line of mariadb-schema-change, which tokenizes the options and
+ * joins quoted arguments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchemaChangeStatementBenchmark {
+    /** number of options */
+    @Param({"10", "100", "1000"})
+    public int options;
+
+    private Database database;
+    private MariaDbToolsSchemaChangeStatement statement;
+
+    @Setup
+    public void setup() {
+        System.setProperty(Configuration.LIQUIBASE_PASSWORD, "root");
+        MariaDbToolsSchemaChangeStatement.available = true;
+
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(new MockDatabaseConnection("jdbc:mysql://user@localhost:3306/testdb", "user@localhost"));
+
+        StringBuilder optionsString = new StringBuilder();
+        for (int i = 0; i < options; i++) {
+            if (i % 3 == 0) {
+                // quoted arguments with spaces need to be joined again
+                optionsString.append("--set-vars=\"lock_wait_timeout=").append(i).append(", innodb_lock_wait_timeout=1\" ");
+            } else {
+                optionsString.append("--chunk-size=").append(i).append(' ');
+            }
+        }
+        statement = new MariaDbToolsSchemaChangeStatement("testdb", "person",
+                "ADD COLUMN address VARCHAR(255) NULL", Optional.of(optionsString.toString()));
+    }
+
+    @Benchmark
+    public List<String> buildCommand() {
+        return statement.buildCommand(database);
+    }
+
+    @Benchmark
+    public String printCommand() {
+        return statement.printCommand(database);
+    }
+}
@@ -14,6 +14,9 @@ package liquibase.ext.mariadbtools;
  * limitations under the License.
  */
 
+import java.io.File;
+import java.util.Locale;
+
 /**
  * Encapsulates runtime configuration for mariadb-tools.
  */
@@ -39,6 +42,135 @@ public final class Configuration {
     public static final String MARIADB_TOOLS_DEBUG = "liquibase.mariadbtools.mariadbtoolsdebug";
     /** Keep liquibase's database connection alive while mariadb-schema-change is running. */
     public static final String KEEPALIVE = "liquibase.mariadbtools.keepAlive";
+    /** Combine consecutive changes of one changeset, that alter the same table, into one mariadb-schema-change run. */
+    public static final String COALESCE_CHANGES = "liquibase.mariadbtools.coalesceChanges";
+    /** Merge consecutive pending changesets, that alter the same table, into one mariadb-schema-change run. */
+    public static final String MERGE_CHANGESETS = "liquibase.mariadbtools.mergeChangeSets";
+    /**
+     * Execute alters natively, if the server supports them without a table copy. Possible values are
+     * <code>off</code>, <code>instant</code> (only ALGORITHM=INSTANT) and <code>inplace</code>
+     * (ALGORITHM=INSTANT and ALGORITHM=INPLACE, LOCK=NONE).
+     */
+    public static final String NATIVE_ALTER = "liquibase.mariadbtools.nativeAlter";
+    /**
+     * Tables smaller than this size (data and indexes) are altered directly without mariadb tools.
+     * The size is given in bytes, optionally with the suffix K, M or G. 0 disables this check.
+     */
+    public static final String MIN_TABLE_SIZE = "liquibase.mariadbtools.minTableSize";
+    /** The default engine for the online schema change: "tool" (mariadb-schema-change) or "jvm" (in-JVM engine). */
+    public static final String ENGINE = "liquibase.mariadbtools.engine";
+    /** Number of parallel workers, that copy the rows, when using the in-JVM engine. */
+    public static final String ENGINE_THREADS = "liquibase.mariadbtools.engineThreads";
+    /** Target time in seconds for copying one chunk, when using the in-JVM engine. */
+    public static final String ENGINE_CHUNK_TIME = "liquibase.mariadbtools.engineChunkTime";
+    /** Maximum number of independent tables, that are altered concurrently. 1 disables parallel execution. */
+    public static final String PARALLEL_TABLES = "liquibase.mariadbtools.parallelTables";
+    /** Maximum number of concurrent schema changes against the same database server. */
+    public static final String PARALLEL_TABLES_PER_SERVER = "liquibase.mariadbtools.parallelTablesPerServer";
+    /**
+     * Maximum replica lag in seconds. The copy is paused while any replica lags behind more than this.
+     * 0 disables the replica lag check (<code>--recursion-method=none</code>).
+     */
+    public static final String MAX_REPLICA_LAG = "liquibase.mariadbtools.maxReplicaLag";
+    /**
+     * Seconds to wait, while the lag of a replica can't be determined, e.g. as it is unreachable or its replication
+     * is stopped. Afterwards the copy fails. 0 waits forever.
+     */
+    public static final String UNKNOWN_REPLICA_LAG_TIMEOUT = "liquibase.mariadbtools.unknownReplicaLagTimeout";
+    /**
+     * Comma separated list of replicas as <code>host[:port]</code>. If empty, the replicas are discovered
+     * via processlist and <code>SHOW SLAVE HOSTS</code>.
+     */
+    public static final String REPLICAS = "liquibase.mariadbtools.replicas";
+    /** Measure the replica lag with a heartbeat table, that is maintained by the extension. */
+    public static final String HEARTBEAT = "liquibase.mariadbtools.heartbeat";
+    /** Pause the copy, while the database is under load, see the throttle signals below. */
+    public static final String THROTTLE = "liquibase.mariadbtools.throttle";
+    /**
+     * Throttle, when Threads_running exceeds the baseline sampled before the schema change multiplied
+     * by this factor (at least 10). 0 disables this signal.
+     */
+    public static final String THROTTLE_THREADS_RUNNING = "liquibase.mariadbtools.throttleThreadsRunning";
+    /** Throttle, when the InnoDB history list length exceeds this value. 0 disables this signal. */
+    public static final String THROTTLE_HISTORY_LENGTH = "liquibase.mariadbtools.throttleHistoryLength";
+    /**
+     * Throttle, when more binlog bytes per second are written. The value is given in bytes, optionally
+     * with the suffix K, M or G. 0 disables this signal.
+     */
+    public static final String THROTTLE_BINLOG_RATE = "liquibase.mariadbtools.throttleBinlogRate";
+    /**
+     * File, that caches the result of <code>mariadb-schema-change --version</code> across JVMs, keyed by the
+     * resolved tool path, its size and modification time. Empty disables the cache.
+     */
+    public static final String PROBE_CACHE = "liquibase.mariadbtools.probeCache";
+    /**
+     * Record the copy progress, so that a schema change can be resumed after a crash. The in-JVM engine uses the
+     * checkpoint table <code>mariadbtools_checkpoint</code>, mariadb-schema-change (3.6.0 and later) its history.
+     */
+    public static final String RESUME = "liquibase.mariadbtools.resume";
+    /** Annotate the statements of updateSQL with the estimated cost of each schema change. */
+    public static final String ESTIMATE = "liquibase.mariadbtools.estimate";
+    /**
+     * Throughput in rows per second, that is assumed for the estimates, until a schema change has been measured.
+     */
+    public static final String ESTIMATE_ROWS_PER_SECOND = "liquibase.mariadbtools.estimateRowsPerSecond";
+    /** File, to which a record of every executed schema change is appended. Empty disables it. */
+    public static final String HISTORY_FILE = "liquibase.mariadbtools.historyFile";
+    /** Record every executed schema change in the table <code>mariadbtools_history</code> of the target schema. */
+    public static final String HISTORY_TABLE = "liquibase.mariadbtools.historyTable";
+    /** Number of lines of the output of mariadb-schema-change, that are included in the error if it fails. */
+    public static final String OUTPUT_TAIL_LINES = "liquibase.mariadbtools.outputTailLines";
+    /** Maximum number of lines of the output of mariadb-schema-change, that are logged per second. */
+    public static final String OUTPUT_LOG_RATE = "liquibase.mariadbtools.outputLogRate";
+    /**
+     * Seconds to wait for an aborted mariadb-schema-change to exit and drop its triggers, before it is killed.
+     */
+    public static final String ABORT_TIMEOUT = "liquibase.mariadbtools.abortTimeout";
+    /**
+     * Drop the triggers and tables left behind by aborted online schema changes, before the first schema change
+     * of an update is executed, see {@link MariaDbToolsSweeper}.
+     */
+    public static final String SWEEP = "liquibase.mariadbtools.sweep";
+    /** Seconds since their last modification, after which triggers and tables are considered left behind. */
+    public static final String SWEEP_MIN_AGE = "liquibase.mariadbtools.sweepMinAge";
+    /** Drop the old tables {@code _<table>_old} as well, when sweeping. These are often kept deliberately. */
+    public static final String SWEEP_OLD_TABLES = "liquibase.mariadbtools.sweepOldTables";
+    /**
+     * Seconds to wait for long-running transactions on the table, before the schema change is started.
+     * The schema change fails, if the table is still used afterwards. 0 disables the check.
+     */
+    public static final String LOCK_GUARD_TIMEOUT = "liquibase.mariadbtools.lockGuardTimeout";
+    /** Seconds, after which an open transaction or a running statement is considered long-running. */
+    public static final String LOCK_GUARD_TRANSACTION_AGE = "liquibase.mariadbtools.lockGuardTransactionAge";
+    /**
+     * The <code>lock_wait_timeout</code> in seconds for mariadb-schema-change, native alters and the statements of
+     * the in-JVM engine, that need a metadata lock. 0 keeps the default.
+     */
+    public static final String LOCK_WAIT_TIMEOUT = "liquibase.mariadbtools.lockWaitTimeout";
+    /** How often a statement, that timed out waiting for a metadata lock, is retried. */
+    public static final String LOCK_WAIT_RETRIES = "liquibase.mariadbtools.lockWaitRetries";
+    /**
+     * Watch the metadata locks of the table, while a schema change creates the triggers or swaps the tables,
+     * and log the blocking sessions.
+     */
+    public static final String BLOCKER_MONITOR = "liquibase.mariadbtools.blockerMonitor";
+    /**
+     * Seconds, after which a session, that blocks a schema change and is idle in its transaction, is killed.
+     * 0 never kills sessions.
+     */
+    public static final String BLOCKER_KILL_IDLE = "liquibase.mariadbtools.blockerKillIdle";
+    /** Maximum number of databases, that {@link MariaDbToolsFanOutRunner} updates at once. */
+    public static final String FAN_OUT_THREADS = "liquibase.mariadbtools.fanOutThreads";
+    /** Maximum number of databases on the same server, that {@link MariaDbToolsFanOutRunner} updates at once. */
+    public static final String FAN_OUT_PER_HOST = "liquibase.mariadbtools.fanOutPerHost";
+    /** The JDBC URL of the server for the schema names given to {@link MariaDbToolsFanOutRunner}. */
+    public static final String FAN_OUT_URL = "liquibase.mariadbtools.fanOutUrl";
+    /** Publish MBeans with the metrics of the running schema changes. */
+    public static final String JMX = "liquibase.mariadbtools.jmx";
+    /** File for the Prometheus textfile collector, to which the metrics are written. Empty disables it. */
+    public static final String PROMETHEUS_FILE = "liquibase.mariadbtools.prometheusFile";
+    /** Interval in seconds, in which the Prometheus textfile is written. */
+    public static final String PROMETHEUS_INTERVAL = "liquibase.mariadbtools.prometheusInterval";
 
     private static final String DEFAULT_ADDITIONAL_OPTIONS = "--preserve-triggers --alter-foreign-keys-method=auto --nocheck-unique-key-change";
 
@@ -81,4 +213,214 @@ public final class Configuration {
     public static boolean isKeepAlive() {
         return Boolean.parseBoolean(System.getProperty(KEEPALIVE, "true"));
     }
+
+    public static boolean isCoalesceChanges() {
+        return Boolean.parseBoolean(System.getProperty(COALESCE_CHANGES, "true"));
+    }
+
+    public static boolean isMergeChangeSets() {
+        return Boolean.parseBoolean(System.getProperty(MERGE_CHANGESETS, "false"));
+    }
+
+    /**
+     * Checks whether alters with the given algorithm may be executed natively.
+     * @param algorithm the algorithm as determined by {@link MariaDbToolsAlterClassifier}
+     * @return <code>true</code> if the alter should be executed natively instead of with mariadb-schema-change
+     */
+    public static boolean isNativeAlterAllowed(MariaDbToolsAlterClassifier.Algorithm algorithm) {
+        String value = System.getProperty(NATIVE_ALTER, "off").trim();
+        switch (algorithm) {
+            case INSTANT:
+                return "instant".equalsIgnoreCase(value) || "inplace".equalsIgnoreCase(value);
+            case INPLACE:
+                return "inplace".equalsIgnoreCase(value);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets the minimum table size for using mariadb tools.
+     * @return the size in bytes, 0 if disabled
+     * @see #MIN_TABLE_SIZE
+     */
+    public static long getMinTableSize() {
+        return getSize(MIN_TABLE_SIZE);
+    }
+
+    /**
+     * Parses a size property given in bytes, optionally with the suffix K, M or G.
+     */
+    private static long getSize(String property) {
+        String value = System.getProperty(property, "0").trim().toUpperCase(Locale.ROOT);
+        long factor = 1;
+        if (value.endsWith("K")) {
+            factor = 1024L;
+        } else if (value.endsWith("M")) {
+            factor = 1024L * 1024L;
+        } else if (value.endsWith("G")) {
+            factor = 1024L * 1024L * 1024L;
+        }
+        if (factor > 1) {
+            value = value.substring(0, value.length() - 1).trim();
+        }
+        try {
+            return Long.parseLong(value) * factor;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + property + ": " + System.getProperty(property), e);
+        }
+    }
+
+    public static String getEngine() {
+        return System.getProperty(ENGINE, MariaDbToolsJvmEngine.ENGINE_TOOL);
+    }
+
+    public static int getEngineThreads() {
+        return Math.max(1, Integer.parseInt(System.getProperty(ENGINE_THREADS, "4").trim()));
+    }
+
+    public static double getEngineChunkTime() {
+        return Double.parseDouble(System.getProperty(ENGINE_CHUNK_TIME, "0.5").trim());
+    }
+
+    public static int getParallelTables() {
+        return Math.max(1, Integer.parseInt(System.getProperty(PARALLEL_TABLES, "1").trim()));
+    }
+
+    public static int getParallelTablesPerServer() {
+        String value = System.getProperty(PARALLEL_TABLES_PER_SERVER);
+        if (value == null || value.trim().isEmpty()) {
+            return getParallelTables();
+        }
+        return Math.max(1, Integer.parseInt(value.trim()));
+    }
+
+    public static boolean isJmx() {
+        return Boolean.parseBoolean(System.getProperty(JMX, "true"));
+    }
+
+    public static String getPrometheusFile() {
+        return System.getProperty(PROMETHEUS_FILE, "").trim();
+    }
+
+    public static int getPrometheusInterval() {
+        return Math.max(1, Integer.parseInt(System.getProperty(PROMETHEUS_INTERVAL, "15").trim()));
+    }
+
+    public static int getMaxReplicaLag() {
+        return Math.max(0, Integer.parseInt(System.getProperty(MAX_REPLICA_LAG, "0").trim()));
+    }
+
+    public static int getUnknownReplicaLagTimeout() {
+        return Math.max(0, Integer.parseInt(System.getProperty(UNKNOWN_REPLICA_LAG_TIMEOUT, "600").trim()));
+    }
+
+    public static String getReplicas() {
+        return System.getProperty(REPLICAS, "").trim();
+    }
+
+    public static boolean isHeartbeat() {
+        return Boolean.parseBoolean(System.getProperty(HEARTBEAT, "false"));
+    }
+
+    public static boolean isThrottle() {
+        return Boolean.parseBoolean(System.getProperty(THROTTLE, "false"));
+    }
+
+    public static double getThrottleThreadsRunning() {
+        return Double.parseDouble(System.getProperty(THROTTLE_THREADS_RUNNING, "2").trim());
+    }
+
+    public static long getThrottleHistoryLength() {
+        return Long.parseLong(System.getProperty(THROTTLE_HISTORY_LENGTH, "1000000").trim());
+    }
+
+    public static long getThrottleBinlogRate() {
+        return getSize(THROTTLE_BINLOG_RATE);
+    }
+
+    public static String getProbeCache() {
+        return System.getProperty(PROBE_CACHE,
+                new File(System.getProperty("java.io.tmpdir"), "liquibase-mariadbtools-probe.properties").getPath()).trim();
+    }
+
+    public static boolean isResume() {
+        return Boolean.parseBoolean(System.getProperty(RESUME, "false"));
+    }
+
+    public static boolean isEstimate() {
+        return Boolean.parseBoolean(System.getProperty(ESTIMATE, "true"));
+    }
+
+    public static double getEstimateRowsPerSecond() {
+        return Math.max(1, Double.parseDouble(System.getProperty(ESTIMATE_ROWS_PER_SECOND, "10000").trim()));
+    }
+
+    public static String getHistoryFile() {
+        return System.getProperty(HISTORY_FILE, "").trim();
+    }
+
+    public static boolean isHistoryTable() {
+        return Boolean.parseBoolean(System.getProperty(HISTORY_TABLE, "false"));
+    }
+
+    public static int getOutputTailLines() {
+        return Math.max(0, Integer.parseInt(System.getProperty(OUTPUT_TAIL_LINES, "50").trim()));
+    }
+
+    public static int getOutputLogRate() {
+        return Math.max(1, Integer.parseInt(System.getProperty(OUTPUT_LOG_RATE, "100").trim()));
+    }
+
+    public static int getAbortTimeout() {
+        return Math.max(0, Integer.parseInt(System.getProperty(ABORT_TIMEOUT, "30").trim()));
+    }
+
+    public static boolean isSweep() {
+        return Boolean.parseBoolean(System.getProperty(SWEEP, "false"));
+    }
+
+    public static int getSweepMinAge() {
+        return Math.max(0, Integer.parseInt(System.getProperty(SWEEP_MIN_AGE, "3600").trim()));
+    }
+
+    public static boolean isSweepOldTables() {
+        return Boolean.parseBoolean(System.getProperty(SWEEP_OLD_TABLES, "false"));
+    }
+
+    public static int getLockGuardTimeout() {
+        return Math.max(0, Integer.parseInt(System.getProperty(LOCK_GUARD_TIMEOUT, "300").trim()));
+    }
+
+    public static int getLockGuardTransactionAge() {
+        return Math.max(0, Integer.parseInt(System.getProperty(LOCK_GUARD_TRANSACTION_AGE, "10").trim()));
+    }
+
+    public static int getLockWaitTimeout() {
+        return Math.max(0, Integer.parseInt(System.getProperty(LOCK_WAIT_TIMEOUT, "2").trim()));
+    }
+
+    public static int getLockWaitRetries() {
+        return Math.max(0, Integer.parseInt(System.getProperty(LOCK_WAIT_RETRIES, "10").trim()));
+    }
+
+    public static boolean isBlockerMonitor() {
+        return Boolean.parseBoolean(System.getProperty(BLOCKER_MONITOR, "true"));
+    }
+
+    public static int getBlockerKillIdle() {
+        return Math.max(0, Integer.parseInt(System.getProperty(BLOCKER_KILL_IDLE, "0").trim()));
+    }
+
+    public static int getFanOutThreads() {
+        return Math.max(1, Integer.parseInt(System.getProperty(FAN_OUT_THREADS, "16").trim()));
+    }
+
+    public static int getFanOutPerHost() {
+        return Math.max(1, Integer.parseInt(System.getProperty(FAN_OUT_PER_HOST, "2").trim()));
+    }
+
+    public static String getFanOutUrl() {
+        return System.getProperty(FAN_OUT_URL, "").trim();
+    }
 }
@@ -18,11 +18,21 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,6 +44,8 @@ import liquibase.logging.Logger;
 /**
  * Wraps a {@link DatabaseConnection} to have easy access
  * to its connection properties like host, port, user and password.
+ *
+ * <p>Use {@link #forConnection(DatabaseConnection)} to reuse the resolved properties of a connection.
  */
 public class DatabaseConnectionUtil {
     private static final String DEFAULT_LIQUIBASE_PROPERTIES_FILENAME = "liquibase.properties";
@@ -41,18 +53,84 @@ public class DatabaseConnectionUtil {
     /** The name of the password property. */
     private static final String PASSWORD_PROPERTY_NAME = "password";
 
+    /** The driver properties, that are not carried over to other connections, in lower case. */
+    private static final Set<String> SERVER_AND_CREDENTIAL_PROPERTIES = new HashSet<>(Arrays.asList(
+            "host", "port", "dbname", "num_hosts", "user", PASSWORD_PROPERTY_NAME));
+
+    private static final String URL_PREFIX = "jdbc:(?:mysql|mariadb):(?:replication:|loadbalance:|sequential:|aurora:)?//";
+    private static final Pattern HOST_PATTERN = Pattern.compile(URL_PREFIX + "([^@]+@)?([^:/]+)");
+    private static final Pattern PORT_PATTERN = Pattern.compile(URL_PREFIX + "[^:/]+:(\\d+)");
+    private static final Pattern REPLACE_HOST_PATTERN = Pattern.compile(
+            "jdbc:(mysql|mariadb):(?:replication:|loadbalance:|sequential:|aurora:)?//([^@/]+@)?([^/?]+)");
+
+    /**
+     * The resolved properties per connection. The connections are held weakly, so that pooled
+     * connections can still be collected.
+     */
+    private static final Map<DatabaseConnection, DatabaseConnectionUtil> CACHE =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** The reflective handles needed to read the password, resolved once per jdbc connection class. */
+    private static final ClassValue<ConnectionClass> CONNECTION_CLASSES = new ClassValue<ConnectionClass>() {
+        @Override
+        protected ConnectionClass computeValue(Class<?> type) {
+            return new ConnectionClass(type);
+        }
+    };
+
+    /** The tomcat-jdbc PooledConnection class per invocation handler class of a connection proxy. */
+    private static final ClassValue<Class<?>> TOMCAT_POOLED_CONNECTION_CLASSES = new ClassValue<Class<?>>() {
+        @Override
+        protected Class<?> computeValue(Class<?> type) {
+            return ReflectionUtils.loadClass("org.apache.tomcat.jdbc.pool.PooledConnection", type.getClassLoader());
+        }
+    };
+
     private Logger log = Scope.getCurrentScope().getLog(DatabaseConnectionUtil.class);
 
+    private final WeakReference<DatabaseConnection> connection;
+    private final String url;
+    private final String connectionUserName;
     private final String host;
     private final String port;
     private final String user;
-    private final String password;
+    private final String dsn;
+
+    private boolean passwordResolved;
+    private String password;
+    private Properties driverProperties;
 
     public DatabaseConnectionUtil(DatabaseConnection connection) {
-        this.host = determineHost(connection.getURL());
-        this.port = determinePort(connection.getURL());
-        this.user = determineUser(connection.getConnectionUserName());
-        this.password = determinePassword(connection);
+        this.connection = new WeakReference<>(connection);
+        this.url = connection.getURL();
+        this.connectionUserName = connection.getConnectionUserName();
+        this.host = determineHost(url);
+        this.port = determinePort(url);
+        this.user = determineUser(connectionUserName);
+        this.dsn = "h=" + host + ",P=" + port + ",u=" + user;
+    }
+
+    /**
+     * Gets the properties of the given connection. They are resolved only once per connection,
+     * as long as its url and user name don't change.
+     * @param connection the connection
+     * @return the properties
+     */
+    public static DatabaseConnectionUtil forConnection(DatabaseConnection connection) {
+        synchronized (CACHE) {
+            DatabaseConnectionUtil util = CACHE.get(connection);
+            if (util == null || !util.isFor(connection)) {
+                util = new DatabaseConnectionUtil(connection);
+                CACHE.put(connection, util);
+            }
+            return util;
+        }
+    }
+
+    private boolean isFor(DatabaseConnection connection) {
+        // the cache compares the connections by equality, but the properties belong to this very instance
+        return this.connection.get() == connection && Objects.equals(url, connection.getURL())
+                && Objects.equals(connectionUserName, connection.getConnectionUserName());
     }
 
     public String getHost() {
@@ -67,13 +145,92 @@ public class DatabaseConnectionUtil {
         return this.user;
     }
 
-    public String getPassword() {
-        return this.password;
+    /**
+     * Gets the password. The system property {@link Configuration#LIQUIBASE_PASSWORD} takes
+     * precedence, otherwise the password is read from the connection or the liquibase.properties file.
+     * @return the password or <code>null</code> if it is unknown
+     */
+    public synchronized String getPassword() {
+        String liquibasePassword = Configuration.getLiquibasePassword();
+        if (liquibasePassword != null) {
+            return liquibasePassword;
+        }
+        if (!passwordResolved) {
+            DatabaseConnection con = connection.get();
+            password = con != null ? determinePassword(con) : null;
+            passwordResolved = true;
+        }
+        return password;
+    }
+
+    /**
+     * Gets the properties, that the jdbc driver of the connection has been configured with, e.g. for SSL.
+     * The user, the password and the server address are not included.
+     * @return the properties, empty if they can't be determined
+     */
+    public synchronized Properties getDriverProperties() {
+        if (driverProperties == null) {
+            DatabaseConnection con = connection.get();
+            driverProperties = con != null ? determineDriverProperties(con) : new Properties();
+        }
+        Properties copy = new Properties();
+        copy.putAll(driverProperties);
+        return copy;
+    }
+
+    /**
+     * Gets the connection part of the DSN for the toolkit, e.g. {@code h=localhost,P=3306,u=user}.
+     * @return the dsn
+     */
+    public String getDsn() {
+        return this.dsn;
+    }
+
+    /**
+     * Opens a new, separate jdbc connection to the same database with the same credentials
+     * and driver properties as the given connection.
+     * @param connection the connection used by liquibase
+     * @return the new connection, must be closed by the caller
+     * @throws SQLException if the connection can't be opened
+     */
+    public static Connection openConnection(DatabaseConnection connection) throws SQLException {
+        return DriverManager.getConnection(connection.getURL(), connectionProperties(connection));
+    }
+
+    /**
+     * Opens a new jdbc connection to another server, e.g. a replica, with the same credentials
+     * and driver properties as the given connection.
+     * @param connection the connection used by liquibase
+     * @param host the host of the other server
+     * @param port the port of the other server
+     * @return the new connection, must be closed by the caller
+     * @throws SQLException if the connection can't be opened
+     */
+    public static Connection openConnection(DatabaseConnection connection, String host, String port) throws SQLException {
+        return DriverManager.getConnection(replaceHost(connection.getURL(), host, port), connectionProperties(connection));
+    }
+
+    private static Properties connectionProperties(DatabaseConnection connection) {
+        DatabaseConnectionUtil util = forConnection(connection);
+        Properties info = util.getDriverProperties();
+        info.setProperty("user", util.getUser());
+        if (util.getPassword() != null) {
+            info.setProperty(PASSWORD_PROPERTY_NAME, util.getPassword());
+        }
+        return info;
+    }
+
+    static String replaceHost(String url, String host, String port) {
+        Matcher m = REPLACE_HOST_PATTERN.matcher(url);
+        if (m.find()) {
+            String userInfo = m.group(2) != null ? m.group(2) : "";
+            return "jdbc:" + m.group(1) + "://" + userInfo + host + ":" + port + url.substring(m.end());
+        }
+        return url;
     }
 
     private static String determineHost(String url) {
-        Pattern p = Pattern.compile("jdbc:(?:mysql|mariadb):(?:replication:|loadbalance:|sequential:|aurora:)?//([^@]+@)?([^:/]+)");
-        Matcher m = p.matcher(url);
+        Matcher m = HOST_PATTERN.matcher(url);
         if (m.find()) {
             return m.group(2);
         }
@@ -81,8 +238,7 @@ public class DatabaseConnectionUtil {
     }
 
     private static String determinePort(String url) {
-        Pattern p = Pattern.compile("jdbc:(?:mysql|mariadb):(?:replication:|loadbalance:|sequential:|aurora:)?//[^:/]+:(\\d+)");
-        Matcher m = p.matcher(url);
+        Matcher m = PORT_PATTERN.matcher(url);
         if (m.find()) {
             return m.group(1);
         }
@@ -96,46 +252,74 @@ public class DatabaseConnectionUtil {
         return connectionUserName;
     }
 
-    private String determinePassword(DatabaseConnection connection) {
-        String liquibasePassword = Configuration.getLiquibasePassword();
-        if (liquibasePassword != null) {
-            return liquibasePassword;
+    private Connection getDriverConnection(JdbcConnection connection) {
+        Connection jdbcCon = connection.getWrappedConnection();
+        jdbcCon = getDelegatedDbcpConnection(jdbcCon);
+        jdbcCon = getDelegatedDbcp2Connection(jdbcCon);
+        return getUnderlyingJdbcConnectionFromProxy(jdbcCon);
+    }
+
+    private Properties determineDriverProperties(DatabaseConnection connection) {
+        Properties result = new Properties();
+        if (!(connection instanceof JdbcConnection)) {
+            return result;
         }
-    
-        if (connection instanceof JdbcConnection) {
-            try {
-                Connection jdbcCon = ((JdbcConnection) connection).getWrappedConnection();
-                jdbcCon = getDelegatedDbcpConnection(jdbcCon);
-                jdbcCon = getDelegatedDbcp2Connection(jdbcCon);
-                jdbcCon = getUnderlyingJdbcConnectionFromProxy(jdbcCon);
-    
-                Class<?> connectionImplClass = ReflectionUtils.findClass(jdbcCon.getClass().getClassLoader(),
-                        "com.mysql.jdbc.ConnectionImpl",   // MySQL Connector 5.1.38: com.mysql.jdbc.ConnectionImpl
-                        "com.mysql.cj.jdbc.ConnectionImpl" // MySQL Connector 6.0.4: com.mysql.cj.jdbc.ConnectionImpl
-                    );
-    
-                Class<?> mariadbConnectionClass = ReflectionUtils.findClass(jdbcCon.getClass().getClassLoader(),
-                        "org.mariadb.jdbc.MariaDbConnection");
-    
-                boolean isMySQL = false;
-                boolean isMariaDB = false;
-    
-                if (connectionImplClass != null && connectionImplClass.isInstance(jdbcCon)) {
-                    isMySQL = true;
+        try {
+            Connection jdbcCon = getDriverConnection((JdbcConnection) connection);
+            ConnectionClass connectionClass = CONNECTION_CLASSES.get(jdbcCon.getClass());
+            Properties props = new Properties();
+            if (connectionClass.connectionImplClass != null) {
+                props.putAll(ReflectionUtils.<Properties>readField(connectionClass.connectionImplClass, jdbcCon, "props"));
+            } else if (connectionClass.mariadbConnectionClass != null) {
+                // the options, that differ from the defaults, as url parameters: ?user=...&useSsl=true&...
+                Object protocol = ReflectionUtils.readField(connectionClass.mariadbConnectionClass, jdbcCon, "protocol");
+                Object urlParser = ReflectionUtils.invokeMethod(protocol.getClass(), protocol, "getUrlParser");
+                Object options = ReflectionUtils.invokeMethod(urlParser.getClass(), urlParser, "getOptions");
+                Object haMode = ReflectionUtils.invokeMethod(urlParser.getClass(), urlParser, "getHaMode");
+                StringBuilder parameters = new StringBuilder();
+                ClassLoader loader = urlParser.getClass().getClassLoader();
+                ReflectionUtils.loadClass("org.mariadb.jdbc.util.DefaultOptions", loader).getMethod("propertyString",
+                        ReflectionUtils.loadClass("org.mariadb.jdbc.util.Options", loader),
+                        ReflectionUtils.loadClass("org.mariadb.jdbc.internal.util.constant.HaMode", loader),
+                        StringBuilder.class).invoke(null, options, haMode, parameters);
+                for (String parameter : parameters.toString().replaceFirst("^\\?", "").split("&")) {
+                    int separator = parameter.indexOf('=');
+                    if (separator > 0) {
+                        props.setProperty(parameter.substring(0, separator), parameter.substring(separator + 1));
+                    }
                 }
-                if (mariadbConnectionClass != null && mariadbConnectionClass.isInstance(jdbcCon)) {
-                    isMariaDB = true;
+            }
+            for (String name : props.stringPropertyNames()) {
+                if (!isServerOrCredentialProperty(name)) {
+                    result.setProperty(name, props.getProperty(name));
                 }
+            }
+        } catch (Exception e) {
+            log.warning("Couldn't determine the driver properties from JdbcConnection", e);
+        }
+        return result;
+    }
+
+    private static boolean isServerOrCredentialProperty(String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        return SERVER_AND_CREDENTIAL_PROPERTIES.contains(key) || key.startsWith("host.") || key.startsWith("port.");
+    }
+
+    private String determinePassword(DatabaseConnection connection) {
+        if (connection instanceof JdbcConnection) {
+            try {
+                Connection jdbcCon = getDriverConnection((JdbcConnection) connection);
     
-                if (isMySQL) {
+                ConnectionClass connectionClass = CONNECTION_CLASSES.get(jdbcCon.getClass());
+                if (connectionClass.connectionImplClass != null) {
                     // ConnectionImpl stores the properties, and the jdbc connection is a subclass of it...
-                    Properties props = ReflectionUtils.readField(connectionImplClass, jdbcCon, "props");
+                    Properties props = ReflectionUtils.readField(connectionClass.connectionImplClass, jdbcCon, "props");
                     String password = props.getProperty(PASSWORD_PROPERTY_NAME);
                     if (password != null && !password.trim().isEmpty()) {
                         return password;
                     }
-                } else if (isMariaDB) {
-                    Object protocol = ReflectionUtils.readField(mariadbConnectionClass, jdbcCon, "protocol");
+                } else if (connectionClass.mariadbConnectionClass != null) {
+                    Object protocol = ReflectionUtils.readField(connectionClass.mariadbConnectionClass, jdbcCon, "protocol");
                     Object urlParser = ReflectionUtils.invokeMethod(protocol.getClass(), protocol, "getUrlParser");
                     Object password = ReflectionUtils.invokeMethod(urlParser.getClass(), urlParser, "getPassword");
                     if (password != null && !password.toString().trim().isEmpty()) {
@@ -169,7 +353,7 @@ public class DatabaseConnectionUtil {
     private Connection getUnderlyingJdbcConnectionFromProxy(Connection wrappedConnection) {
         if (Proxy.isProxyClass(wrappedConnection.getClass())) {
             InvocationHandler invocationHandler = Proxy.getInvocationHandler(wrappedConnection);
-            Class<?> pooledConnectionClass = ReflectionUtils.loadClass("org.apache.tomcat.jdbc.pool.PooledConnection", invocationHandler.getClass().getClassLoader());
+            Class<?> pooledConnectionClass = TOMCAT_POOLED_CONNECTION_CLASSES.get(invocationHandler.getClass());
 
             if (pooledConnectionClass != null) {
                 try {
@@ -188,13 +372,13 @@ public class DatabaseConnectionUtil {
     }
 
     private Connection getDelegatedDbcpConnection(Connection con) {
-        Connection result = ReflectionUtils.invokeMethod("org.apache.commons.dbcp.DelegatingConnection",
+        Connection result = ReflectionUtils.invokeMethod(CONNECTION_CLASSES.get(con.getClass()).dbcpConnectionClass,
                 con, "getInnermostDelegateInternal");
         return result != null ? result : con;
     }
 
     private Connection getDelegatedDbcp2Connection(Connection con) {
-        Connection result = ReflectionUtils.invokeMethod("org.apache.commons.dbcp2.DelegatingConnection",
+        Connection result = ReflectionUtils.invokeMethod(CONNECTION_CLASSES.get(con.getClass()).dbcp2ConnectionClass,
                 con, "getInnermostDelegateInternal");
         return result != null ? result : con;
     }
@@ -223,4 +407,32 @@ public class DatabaseConnectionUtil {
         }
         return properties;
     }
+
+    /**
+     * The driver and pool classes, which a jdbc connection class is an instance of.
+     */
+    private static final class ConnectionClass {
+        private final Class<?> dbcpConnectionClass;
+        private final Class<?> dbcp2ConnectionClass;
+        private final Class<?> connectionImplClass;
+        private final Class<?> mariadbConnectionClass;
+
+        private ConnectionClass(Class<?> type) {
+            ClassLoader loader = type.getClassLoader() != null ? type.getClassLoader() : ClassLoader.getSystemClassLoader();
+            dbcpConnectionClass = assignableFrom(type,
+                    ReflectionUtils.loadClass("org.apache.commons.dbcp.DelegatingConnection", loader));
+            dbcp2ConnectionClass = assignableFrom(type,
+                    ReflectionUtils.loadClass("org.apache.commons.dbcp2.DelegatingConnection", loader));
+            connectionImplClass = assignableFrom(type, ReflectionUtils.findClass(loader,
+                    "com.mysql.jdbc.ConnectionImpl",   // MySQL Connector 5.1.38: com.mysql.jdbc.ConnectionImpl
+                    "com.mysql.cj.jdbc.ConnectionImpl" // MySQL Connector 6.0.4: com.mysql.cj.jdbc.ConnectionImpl
+                ));
+            mariadbConnectionClass = assignableFrom(type,
+                    ReflectionUtils.loadClass("org.mariadb.jdbc.MariaDbConnection", loader));
+        }
+
+        private static Class<?> assignableFrom(Class<?> type, Class<?> clazz) {
+            return clazz != null && clazz.isAssignableFrom(type) ? clazz : null;
+        }
+    }
 }
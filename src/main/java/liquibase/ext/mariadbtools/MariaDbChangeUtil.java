@@ -33,12 +33,18 @@ import liquibase.executor.LoggingExecutor;
 import liquibase.logging.Logger;
 import liquibase.statement.SqlStatement;
 import liquibase.statement.core.CommentStatement;
+import liquibase.statement.core.RawSqlStatement;
 
 public class MariaDbChangeUtil {
 
     private static Logger log = Scope.getCurrentScope().getLog(MariaDbChangeUtil.class);
     private static Map<String, Boolean> alreadyLogged = new HashMap<String, Boolean>();
 
+    static {
+        // the probe is usually started by MariaDbToolsLockService already, this covers changes used without liquibase commands
+        MariaDbToolsToolkitProbe.start();
+    }
+
     /**
      * Determines whether *SQL (updateSQL/rollbackSQL) is executed or whether
      * the statements should be executed directly.
@@ -71,6 +77,10 @@ public class MariaDbChangeUtil {
         ChangeSet changeSet = ((Change)change).getChangeSet();
         if (changeSet != null) {
             changeSetId = changeSet.getId() + ":" + changeSet.getAuthor();
+            if (!isChangeOf(changeSet, change)) {
+                // a rollback change refers to the changeset it rolls back, it is not planned together with its changes
+                changeSet = null;
+            }
         }
 
         if (change.getUseMariaDbTools() == null && !Configuration.getDefaultOn()) {
@@ -92,14 +102,95 @@ public class MariaDbChangeUtil {
         // Note: MariaDB is a subclass of MySQLDatabase - so the MariaDbTools changes are
         // used for both MySQLDatabase and MariaDBDatabase.
         if (database instanceof MySQLDatabase) {
-            if (MariaDbToolsSchemaChangeStatement.isAvailable()) {
-                MariaDbToolsSchemaChangeStatement statement = new MariaDbToolsSchemaChangeStatement(
-                        change.getTargetDatabaseName(),
-                        change.getTargetTableName(),
-                        change.generateAlterStatement(database),
-                        Optional.ofNullable(change.getMariaDbToolsOptions()));
-
-                if (isDryRun(database)) {
+            List<MariaDbToolsChange> group = MariaDbToolsChangeCoalescer.findGroup(change);
+            if (MariaDbToolsJvmEngine.isSelected(change) || MariaDbToolsSchemaChangeStatement.isAvailable()) {
+                if (isDryRun(database) ? MariaDbToolsChangeSetPlanner.isPrinted(database, changeSet)
+                        : MariaDbToolsChangeSetPlanner.isCovered(database, changeSet)) {
+                    log.info("Changeset " + changeSetId + " has already been executed together with a preceding changeset");
+                    statements.clear();
+                    if (isDryRun(database)) {
+                        statements.add(new CommentStatement("Changeset " + changeSetId + " is included in a preceding mariadb-schema-change run"));
+                        if (!Configuration.noAlterSqlDryMode()) {
+                            statements.addAll(Arrays.asList(originalStatements));
+                        }
+                    }
+                    return statements.toArray(new SqlStatement[statements.size()]);
+                }
+
+                if (MariaDbToolsParallelScheduler.isScheduled(database, changeSet)) {
+                    // this changeset is already running in the background
+                    statements.clear();
+                    if (changeSet.getChanges().get(0) == change) {
+                        statements.add(new MariaDbToolsAwaitStatement(changeSet));
+                    }
+                    return statements.toArray(new SqlStatement[statements.size()]);
+                }
+
+                // after the checks above: a changeset executed with a preceding one must not be executed again directly
+                if (MariaDbToolsTableSizeService.getInstance().isSmallTable(database, changeSet, group)) {
+                    log.fine("Not using mariadb tools, because table " + change.getTargetTableName() + " is smaller than "
+                            + Configuration.MIN_TABLE_SIZE + ". " + changeSetId + ":" + change.getChangeName());
+                    return originalStatements;
+                }
+
+                if (group.get(0) != change) {
+                    // this change is executed together with the first change of the group
+                    log.fine("Change " + changeSetId + ":" + change.getChangeName() + " is executed together with "
+                            + group.get(0).getChangeName() + " in one single mariadb tools run");
+                    statements.clear();
+                    if (isDryRun(database)) {
+                        statements.add(new CommentStatement("The following change is included in the mariadb-schema-change run above"));
+                        if (!Configuration.noAlterSqlDryMode()) {
+                            statements.addAll(Arrays.asList(originalStatements));
+                        }
+                    }
+                    return statements.toArray(new SqlStatement[statements.size()]);
+                }
+
+                List<ChangeSet> mergedChangeSets = MariaDbToolsChangeSetPlanner.findMergeableChangeSets(group, database);
+                List<MariaDbToolsChange> changes = new ArrayList<>(group);
+                for (ChangeSet merged : mergedChangeSets) {
+                    for (Change c : merged.getChanges()) {
+                        changes.add((MariaDbToolsChange) c);
+                    }
+                }
+
+                MariaDbToolsSchemaChangeStatement statement;
+                if (MariaDbToolsJvmEngine.isSelected(change)) {
+                    statement = new MariaDbToolsJvmSchemaChangeStatement(
+                            change.getTargetDatabaseName(),
+                            change.getTargetTableName(),
+                            MariaDbToolsChangeCoalescer.generateAlterStatement(changes, database),
+                            Optional.ofNullable(change.getMariaDbToolsOptions()));
+                } else {
+                    statement = new MariaDbToolsSchemaChangeStatement(
+                            change.getTargetDatabaseName(),
+                            change.getTargetTableName(),
+                            MariaDbToolsChangeCoalescer.generateAlterStatement(changes, database),
+                            Optional.ofNullable(change.getMariaDbToolsOptions()));
+                }
+                statement.setMergedChangeSets(mergedChangeSets);
+                statement.setChangeSet(changeSet);
+
+                MariaDbToolsNativeAlterStatement nativeStatement = createNativeStatement(statement, database);
+                if (nativeStatement != null) {
+                    statements.clear();
+                    if (isDryRun(database)) {
+                        MariaDbToolsChangeSetPlanner.markPrinted(database, mergedChangeSets);
+                        String sql = nativeStatement.getSql(database);
+                        if (Configuration.noAlterSqlDryMode()) {
+                            statements.add(new CommentStatement(sql));
+                        } else {
+                            statements.add(new CommentStatement("Executed natively with ALGORITHM="
+                                    + nativeStatement.getAlgorithm() + ", falls back to: " + statement.printCommand(database)));
+                            statements.add(new RawSqlStatement(sql));
+                        }
+                        addEstimate(statements, 1, database, change, statement, nativeStatement.getAlgorithm());
+                    } else {
+                        statements.add(nativeStatement);
+                    }
+                } else if (isDryRun(database)) {
+                    MariaDbToolsChangeSetPlanner.markPrinted(database, mergedChangeSets);
                     CommentStatement commentStatement = new CommentStatement(statement.printCommand(database));
 
                     if (Configuration.noAlterSqlDryMode()) {
@@ -109,6 +200,7 @@ public class MariaDbChangeUtil {
                         statements.add(0, commentStatement);
                         statements.add(1, new CommentStatement("Instead of the following statements, pt-online-schema-change will be used"));
                     }
+                    addEstimate(statements, 1, database, change, statement, null);
                 } else {
                     statements.clear();
                     statements.add(statement);
@@ -124,6 +216,76 @@ public class MariaDbChangeUtil {
         return statements.toArray(new SqlStatement[statements.size()]);
     }
 
+    private static boolean isChangeOf(ChangeSet changeSet, MariaDbToolsChange change) {
+        for (Change c : changeSet.getChanges()) {
+            if (c == change) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a statement to execute the alter natively, if the server supports the alter without
+     * a table copy and this is enabled via {@link Configuration#NATIVE_ALTER}.
+     * @param statement the mariadb-schema-change statement, used as fallback
+     * @param database the database
+     * @return the native statement or <code>null</code>, if mariadb-schema-change needs to be used
+     */
+    private static MariaDbToolsNativeAlterStatement createNativeStatement(MariaDbToolsSchemaChangeStatement statement,
+                                                                          Database database) {
+        if (!Configuration.isNativeAlterAllowed(MariaDbToolsAlterClassifier.Algorithm.INSTANT)) {
+            return null;
+        }
+        MariaDbToolsAlterClassifier.Algorithm algorithm = MariaDbToolsAlterClassifier.classify(
+                statement.getAlterStatement(), MariaDbToolsAlterClassifier.getServerInfo(database),
+                MariaDbToolsTypeWideningAnalyzer.forAlter(database, statement.getDatabaseName(),
+                        statement.getTableName(), statement.getAlterStatement()));
+        if (!Configuration.isNativeAlterAllowed(algorithm)) {
+            return null;
+        }
+        log.fine("Using ALGORITHM=" + algorithm + " instead of mariadb tools for table " + statement.getTableName());
+        return new MariaDbToolsNativeAlterStatement(statement, algorithm);
+    }
+
+    /**
+     * Adds the estimated cost of the schema change and the running total of the changelog as comments.
+     * @param statements the statements
+     * @param index the position of the comments
+     * @param database the database
+     * @param change the change, that is executed with the schema change, it is counted once in the total
+     * @param statement the schema change
+     * @param algorithm the algorithm, if the alter is executed natively, <code>null</code> for a table copy
+     * @see MariaDbToolsCostEstimator
+     */
+    private static void addEstimate(List<SqlStatement> statements, int index, Database database, MariaDbToolsChange change,
+                                    MariaDbToolsSchemaChangeStatement statement, MariaDbToolsAlterClassifier.Algorithm algorithm) {
+        // the statements generated while validating the changelog are not printed
+        if (!Configuration.isEstimate() || MariaDbToolsUpdateRun.isValidating()) {
+            return;
+        }
+        MariaDbToolsCostEstimator estimator = MariaDbToolsCostEstimator.getInstance();
+        MariaDbToolsCostEstimator.Estimate estimate = estimator.estimate(database, statement, algorithm, change);
+        if (estimate != null) {
+            statements.add(index, new CommentStatement(estimate.toString()));
+            statements.add(index + 1, new CommentStatement(estimator.getSummary(database).toString()));
+        }
+    }
+
+    /**
+     * Determines whether mariadb tools should be used for the given change, taking
+     * the change's flag and the system properties into account. Does not check, whether
+     * mariadb tools is actually available.
+     * @param change the change
+     * @return <code>true</code> if the change should be executed with mariadb tools
+     */
+    public static boolean isMariaDbToolsEnabled(MariaDbToolsChange change) {
+        if (change.getUseMariaDbTools() == null) {
+            return Configuration.getDefaultOn() && !Configuration.skipChange(change.getChangeName());
+        }
+        return change.getUseMariaDbTools() && !Configuration.skipChange(change.getChangeName());
+    }
+
     /**
      * Logs a warning only if it hasn't been logged yet to prevent logging the same warning over and over again.
      */
@@ -157,7 +319,7 @@ public class MariaDbChangeUtil {
                 && (!MariaDbToolsSchemaChangeStatement.getVersion().isGreaterOrEqualThan("2.2.21")
                         || MariaDbToolsSchemaChangeStatement.getVersion().isGreaterOrEqualThan("3.0.0"))) {
             log.warning("Applying workaround for pt-osc bug https://jira.percona.com/browse/PT-381 for table " + baseTableName);
-            return "_" + referencedTableName + "_new";
+            return MariaDbToolsJvmEngine.getShadowTableName(referencedTableName);
         }
 
         return referencedTableName;
@@ -0,0 +1,201 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.DatabaseException;
+import liquibase.logging.Logger;
+
+/**
+ * Stops an aborted mariadb-schema-change and removes what it leaves behind.
+ *
+ * <p>A schema change is aborted, if the thread running it is interrupted or the JVM shuts down, e.g. on SIGTERM.
+ * The tool is asked to terminate (SIGTERM on unix), so that it can drop its triggers itself, and is killed, if
+ * it doesn't exit within {@link Configuration#ABORT_TIMEOUT}. Afterwards the remaining {@code pt_osc_*} triggers
+ * of the table and the new table are dropped via JDBC. Both are kept, if the tool runs with
+ * {@code --nodrop-new-table}, so that the schema change can be resumed, see {@link MariaDbToolsCheckpoint}:
+ * without the triggers, the rows written meanwhile would be missing in the new table.
+ */
+public class MariaDbToolsAbortHandler implements AutoCloseable {
+    static final String TRIGGER_PREFIX = "pt_osc_";
+    private static final Pattern NEW_TABLE = Pattern.compile("Created new table `?([^`.\\s]+)`?\\.`?([^`\\s]+?)`? OK");
+
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsAbortHandler.class);
+
+    /** the handlers of the running schema changes, aborted by the shutdown hook */
+    private static final Set<MariaDbToolsAbortHandler> running = ConcurrentHashMap.newKeySet();
+    private static Thread shutdownHook;
+
+    private final Process process;
+    private final Database database;
+    private final String schema;
+    private final String table;
+    private final boolean keepNewTable;
+    private final AtomicBoolean aborted = new AtomicBoolean();
+
+    private volatile String newTableSchema;
+    private volatile String newTable;
+
+    MariaDbToolsAbortHandler(Process process, Database database, String schema, String table, boolean keepNewTable) {
+        this.process = process;
+        this.database = database;
+        this.schema = schema;
+        this.table = table;
+        this.keepNewTable = keepNewTable;
+    }
+
+    /**
+     * Registers a started mariadb-schema-change, so that it is aborted, when the JVM shuts down.
+     * @param process the process of the tool
+     * @param database the database
+     * @param schema the schema of the table
+     * @param table the altered table
+     * @param keepNewTable whether the new table and the triggers are kept for resuming the schema change
+     * @return the handler, must be closed when the tool has exited
+     */
+    public static MariaDbToolsAbortHandler register(Process process, Database database, String schema, String table,
+            boolean keepNewTable) {
+        MariaDbToolsAbortHandler handler = new MariaDbToolsAbortHandler(process, database, schema, table, keepNewTable);
+        installShutdownHook();
+        running.add(handler);
+        return handler;
+    }
+
+    private static synchronized void installShutdownHook() {
+        if (shutdownHook != null) {
+            return;
+        }
+        shutdownHook = new Thread(() -> {
+            for (MariaDbToolsAbortHandler handler : running) {
+                handler.abort();
+            }
+        }, "mariadbtools-abort");
+        try {
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            log.fine("The JVM is already shutting down", e);
+        }
+    }
+
+    /**
+     * Remembers the new table, which the tool reports in its output.
+     * @param line one line of output of the tool
+     */
+    public void onOutput(String line) {
+        if (line != null && newTable == null) {
+            Matcher m = NEW_TABLE.matcher(line);
+            if (m.find()) {
+                newTableSchema = m.group(1);
+                newTable = m.group(2);
+            }
+        }
+    }
+
+    String getNewTable() {
+        return newTable;
+    }
+
+    /**
+     * Terminates the tool, waits for it to exit and removes the remaining triggers and the new table.
+     * Does nothing, if it has already been aborted.
+     */
+    public void abort() {
+        if (!aborted.compareAndSet(false, true)) {
+            return;
+        }
+        log.warning("Aborting mariadb-schema-change of table " + schema + "." + table);
+        process.destroy();
+        try {
+            int timeout = Configuration.getAbortTimeout();
+            if (!process.waitFor(timeout, TimeUnit.SECONDS)) {
+                log.warning("mariadb-schema-change didn't exit within " + timeout + " seconds, killing it");
+                process.destroyForcibly().waitFor(timeout, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        cleanup();
+    }
+
+    /**
+     * Drops the triggers of the tool on the table and the new table, unless they are kept for resuming.
+     */
+    void cleanup() {
+        if (!(database.getConnection() instanceof JdbcConnection)) {
+            return;
+        }
+        if (keepNewTable) {
+            log.info("Keeping the triggers " + TRIGGER_PREFIX + "* and the new table of table " + schema + "." + table
+                    + " for resuming the schema change");
+            return;
+        }
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        try {
+            List<String> triggers = new ArrayList<>();
+            try (PreparedStatement stmt = connection.prepareStatement("SELECT TRIGGER_NAME FROM information_schema.TRIGGERS "
+                    + "WHERE EVENT_OBJECT_SCHEMA = ? AND EVENT_OBJECT_TABLE = ? AND TRIGGER_NAME LIKE ?")) {
+                stmt.setString(1, schema);
+                stmt.setString(2, table);
+                stmt.setString(3, TRIGGER_PREFIX.replace("_", "\\_") + "%");
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        triggers.add(rs.getString(1));
+                    }
+                }
+            }
+            try (Statement stmt = connection.createStatement()) {
+                for (String trigger : triggers) {
+                    log.info("Dropping trigger " + trigger + " left behind by mariadb-schema-change");
+                    stmt.execute("DROP TRIGGER IF EXISTS " + database.escapeTableName(schema, null, trigger));
+                }
+                if (newTable != null) {
+                    log.info("Dropping table " + newTable + " left behind by mariadb-schema-change");
+                    stmt.execute("DROP TABLE IF EXISTS " + database.escapeTableName(newTableSchema, null, newTable));
+                }
+            }
+        } catch (SQLException | DatabaseException e) {
+            log.warning("Couldn't remove the triggers " + TRIGGER_PREFIX + "* and the new table of table " + schema + "."
+                    + table + ", please drop them manually", e);
+        }
+    }
+
+    /**
+     * Unregisters the schema change, when the tool has exited.
+     */
+    @Override
+    public void close() {
+        running.remove(this);
+    }
+
+    static boolean isRegistered(MariaDbToolsAbortHandler handler) {
+        return running.contains(handler);
+    }
+}
@@ -200,6 +200,8 @@ public class MariaDbToolsAddColumnChange extends AddColumnChange implements Mari
 
     private String mariaDbOptions;
 
+    private String mariaDbToolsEngine;
+
     @Override
     public String getChangeName() {
         return NAME;
@@ -227,11 +229,23 @@ public class MariaDbToolsAddColumnChange extends AddColumnChange implements Mari
         this.mariaDbOptions = mariaDbToolsOptions;
     }
 
+    @Override
+    @DatabaseChangeProperty(requiredForDatabase = {})
+    public String getMariaDbToolsEngine() {
+        return mariaDbToolsEngine;
+    }
+
+    @Override
+    public void setMariaDbToolsEngine(String mariaDbToolsEngine) {
+        this.mariaDbToolsEngine = mariaDbToolsEngine;
+    }
+
     @Override
     public Set<String> getSerializableFields() {
         Set<String> fields = new HashSet<>(super.getSerializableFields());
         fields.remove("useMariaDbTools");
         fields.remove("mariaDbToolsOptions");
+        fields.remove("mariaDbToolsEngine");
         return Collections.unmodifiableSet(fields);
     }
     //CPD-ON
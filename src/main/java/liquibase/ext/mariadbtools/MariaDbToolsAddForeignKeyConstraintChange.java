@@ -124,6 +124,8 @@ public class MariaDbToolsAddForeignKeyConstraintChange extends AddForeignKeyCons
 
     private String mariaDbToolsOptions;
 
+    private String mariaDbToolsEngine;
+
     @Override
     public String getChangeName() {
         return NAME;
@@ -151,11 +153,23 @@ public class MariaDbToolsAddForeignKeyConstraintChange extends AddForeignKeyCons
         this.mariaDbToolsOptions = mariaDbToolsOptions;
     }
 
+    @Override
+    @DatabaseChangeProperty(requiredForDatabase = {})
+    public String getMariaDbToolsEngine() {
+        return mariaDbToolsEngine;
+    }
+
+    @Override
+    public void setMariaDbToolsEngine(String mariaDbToolsEngine) {
+        this.mariaDbToolsEngine = mariaDbToolsEngine;
+    }
+
     @Override
     public Set<String> getSerializableFields() {
         Set<String> fields = new HashSet<>(super.getSerializableFields());
         fields.remove("useMariaDbTools");
         fields.remove("mariaDbToolsOptions");
+        fields.remove("mariaDbToolsEngine");
         return Collections.unmodifiableSet(fields);
     }
     //CPD-ON
@@ -90,6 +90,8 @@ public class MariaDbToolsAddPrimaryKeyChange extends AddPrimaryKeyChange impleme
 
     private String mariaDbToolsOptions;
 
+    private String mariaDbToolsEngine;
+
     @Override
     public String getChangeName() {
         return NAME;
@@ -117,11 +119,23 @@ public class MariaDbToolsAddPrimaryKeyChange extends AddPrimaryKeyChange impleme
         this.mariaDbToolsOptions = mariaDbToolsOptions;
     }
 
+    @Override
+    @DatabaseChangeProperty(requiredForDatabase = {})
+    public String getMariaDbToolsEngine() {
+        return mariaDbToolsEngine;
+    }
+
+    @Override
+    public void setMariaDbToolsEngine(String mariaDbToolsEngine) {
+        this.mariaDbToolsEngine = mariaDbToolsEngine;
+    }
+
     @Override
     public Set<String> getSerializableFields() {
         Set<String> fields = new HashSet<>(super.getSerializableFields());
         fields.remove("useMariaDbTools");
         fields.remove("mariaDbToolsOptions");
+        fields.remove("mariaDbToolsEngine");
         return Collections.unmodifiableSet(fields);
     }
     //CPD-ON
@@ -0,0 +1,244 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.core.MariaDBDatabase;
+import liquibase.exception.DatabaseException;
+import liquibase.logging.Logger;
+
+/**
+ * Classifies the alter statements generated by the {@link MariaDbToolsChange}s, whether they can be
+ * executed natively by the server without copying the table.
+ *
+ * <p>The classification is conservative: only operations, that are documented to support
+ * {@code ALGORITHM=INSTANT} or {@code ALGORITHM=INPLACE, LOCK=NONE} without rebuilding the table
+ * for the given server flavour and version are classified as such. Everything else needs
+ * a table copy and is executed with mariadb-schema-change.
+ */
+public class MariaDbToolsAlterClassifier {
+    private static final Logger log = Scope.getCurrentScope().getLog(MariaDbToolsAlterClassifier.class);
+
+    private static final Pattern MARIADB_VERSION = Pattern.compile("(\\d+\\.\\d+\\.\\d+)-MariaDB");
+    private static final Pattern VERSION = Pattern.compile("(\\d+\\.\\d+\\.\\d+)");
+    private static final Pattern QUOTED = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'");
+
+    /**
+     * The algorithm, that is needed for an alter statement.
+     * The order matters: the "higher" algorithm is the more expensive one.
+     */
+    public enum Algorithm {
+        INSTANT(", ALGORITHM=INSTANT"),
+        INPLACE(", ALGORITHM=INPLACE, LOCK=NONE"),
+        COPY("");
+
+        private final String clause;
+
+        Algorithm(String clause) {
+            this.clause = clause;
+        }
+
+        /**
+         * @return the clause, that needs to be appended to the alter table statement.
+         */
+        public String getClause() {
+            return clause;
+        }
+    }
+
+    /**
+     * Information about the database server flavour and version.
+     */
+    public static class ServerInfo {
+        private final boolean mariaDb;
+        private final MariaDbToolsToolkitVersion version;
+
+        public ServerInfo(boolean mariaDb, String version) {
+            this.mariaDb = mariaDb;
+            this.version = new MariaDbToolsToolkitVersion(version);
+        }
+
+        public boolean isMariaDb() {
+            return mariaDb;
+        }
+
+        public boolean isAtLeast(String otherVersion) {
+            return version.isGreaterOrEqualThan(otherVersion);
+        }
+
+        @Override
+        public String toString() {
+            return (mariaDb ? "MariaDB " : "MySQL ") + version;
+        }
+    }
+
+    private MariaDbToolsAlterClassifier() { }
+
+    /**
+     * Determines the server flavour and version of the given database.
+     * @param database the database
+     * @return the server info or <code>null</code>, if it can't be determined
+     */
+    public static ServerInfo getServerInfo(Database database) {
+        if (database.getConnection() == null) {
+            return null;
+        }
+        try {
+            String productVersion = database.getDatabaseProductVersion();
+            if (productVersion == null) {
+                return null;
+            }
+            Matcher matcher = MARIADB_VERSION.matcher(productVersion);
+            if (matcher.find()) {
+                return new ServerInfo(true, matcher.group(1));
+            }
+            matcher = VERSION.matcher(productVersion);
+            if (matcher.find()) {
+                return new ServerInfo(database instanceof MariaDBDatabase, matcher.group(1));
+            }
+        } catch (DatabaseException | RuntimeException e) {
+            log.fine("Couldn't determine the database version", e);
+        }
+        return null;
+    }
+
+    /**
+     * Classifies the given alter statement.
+     * @param alter the alter statement, might consist of multiple comma separated operations
+     * @param server the server flavour and version, might be <code>null</code>
+     * @return the most expensive algorithm of the operations, that works for all of them
+     */
+    public static Algorithm classify(String alter, ServerInfo server) {
+        return classify(alter, server, null);
+    }
+
+    /**
+     * Classifies the given alter statement.
+     * @param alter the alter statement, might consist of multiple comma separated operations
+     * @param server the server flavour and version, might be <code>null</code>
+     * @param analyzer the analyzer for {@code MODIFY} operations, might be <code>null</code> to classify them
+     *     as copy
+     * @return the most expensive algorithm of the operations, that works for all of them
+     */
+    public static Algorithm classify(String alter, ServerInfo server, MariaDbToolsTypeWideningAnalyzer analyzer) {
+        if (server == null || alter == null || alter.trim().isEmpty()) {
+            return Algorithm.COPY;
+        }
+
+        // the most expensive operation determines the algorithm of the whole statement
+        Algorithm result = Algorithm.INSTANT;
+        for (String operation : splitOperations(alter)) {
+            Algorithm algorithm = classifyOperation(operation, server, analyzer);
+            if (algorithm.compareTo(result) > 0) {
+                result = algorithm;
+            }
+        }
+        return result;
+    }
+
+    static Algorithm classifyOperation(String operation, ServerInfo server) {
+        return classifyOperation(operation, server, null);
+    }
+
+    static Algorithm classifyOperation(String operation, ServerInfo server, MariaDbToolsTypeWideningAnalyzer analyzer) {
+        String op = QUOTED.matcher(operation).replaceAll("''").trim().toUpperCase(Locale.ROOT);
+
+        if (op.startsWith("ADD COLUMN ")) {
+            if (op.contains(" AUTO_INCREMENT") || op.contains(" PRIMARY KEY") || op.contains(" UNIQUE")) {
+                return Algorithm.COPY;
+            }
+            boolean atEnd = !op.contains(" AFTER ") && !op.endsWith(" FIRST");
+            if (server.isMariaDb()) {
+                if (server.isAtLeast("10.4.0") || (atEnd && server.isAtLeast("10.3.2"))) {
+                    return Algorithm.INSTANT;
+                }
+            } else if (server.isAtLeast("8.0.29") || (atEnd && server.isAtLeast("8.0.12"))) {
+                return Algorithm.INSTANT;
+            }
+            return Algorithm.COPY;
+        }
+        if (op.startsWith("DROP COLUMN ")) {
+            if (server.isMariaDb() ? server.isAtLeast("10.4.0") : server.isAtLeast("8.0.29")) {
+                return Algorithm.INSTANT;
+            }
+            return Algorithm.COPY;
+        }
+        if (isAddSecondaryIndex(op)) {
+            return server.isMariaDb() || server.isAtLeast("5.6.0") ? Algorithm.INPLACE : Algorithm.COPY;
+        }
+        if (op.startsWith("DROP INDEX ") || op.startsWith("DROP KEY ")) {
+            return server.isMariaDb() || server.isAtLeast("5.6.0") ? Algorithm.INPLACE : Algorithm.COPY;
+        }
+        if (op.startsWith("MODIFY ") && analyzer != null) {
+            return analyzer.classify(operation, server);
+        }
+
+        // Note: DROP FOREIGN KEY would be supported INPLACE, but the constraint name is already
+        // adjusted for the renamed constraints of mariadb-schema-change. Adding foreign keys, primary
+        // keys and modifying columns (unless only the metadata changes, see MariaDbToolsTypeWideningAnalyzer)
+        // requires a table copy or rebuild.
+        return Algorithm.COPY;
+    }
+
+    private static boolean isAddSecondaryIndex(String op) {
+        if (op.contains("((")) {
+            // functional index
+            return false;
+        }
+        return op.startsWith("ADD INDEX ") || op.startsWith("ADD KEY ")
+                || op.startsWith("ADD UNIQUE ")
+                || op.matches("ADD CONSTRAINT \\S+ UNIQUE .*");
+    }
+
+    /**
+     * Splits the alter statement into the single operations, respecting parentheses and quotes.
+     * @param alter the alter statement
+     * @return the list of operations
+     */
+    static List<String> splitOperations(String alter) {
+        List<String> result = new ArrayList<>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < alter.length(); i++) {
+            char c = alter.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                result.add(alter.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        result.add(alter.substring(start).trim());
+        return result;
+    }
+}
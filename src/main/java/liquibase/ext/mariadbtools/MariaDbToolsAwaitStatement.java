@@ -0,0 +1,51 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import liquibase.changelog.ChangeSet;
+import liquibase.database.Database;
+import liquibase.sql.Sql;
+import liquibase.statement.core.RuntimeStatement;
+
+/**
+ * Statement, that waits for the schema change of a changeset, that has been started
+ * in the background by {@link MariaDbToolsParallelScheduler}.
+ */
+public class MariaDbToolsAwaitStatement extends RuntimeStatement {
+    private final ChangeSet changeSet;
+
+    public MariaDbToolsAwaitStatement(ChangeSet changeSet) {
+        this.changeSet = changeSet;
+    }
+
+    public ChangeSet getChangeSet() {
+        return changeSet;
+    }
+
+    /**
+     * Waits until the background schema change is finished. Does not generate any Sql.
+     * @return always <code>null</code>
+     */
+    @Override
+    public Sql[] generate(Database database) {
+        MariaDbToolsParallelScheduler.await(database, changeSet);
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return MariaDbToolsAwaitStatement.class.getSimpleName() + "[changeSet: " + changeSet + "]";
+    }
+}
@@ -0,0 +1,310 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.ext.mariadbtools.MariaDbToolsProgressEvent.Phase;
+import liquibase.logging.Logger;
+
+/**
+ * Watches the metadata locks of the table, while a schema change creates the triggers, swaps the tables or
+ * drops the triggers.
+ *
+ * <p>These phases need an exclusive metadata lock. While the schema change waits for it, all other queries of
+ * the table queue behind it. The monitor polls from a separate connection, logs the sessions, that hold
+ * a metadata lock on the table, and the number of queued sessions. The lock holders are taken from
+ * {@code performance_schema.metadata_locks} or, on MariaDB, from the plugin {@code METADATA_LOCK_INFO}.
+ *
+ * <p>If {@link Configuration#BLOCKER_KILL_IDLE} is set, blocking sessions, that have been idle in their
+ * transaction for longer, are killed. Liquibase's own connection is never killed.
+ */
+public class MariaDbToolsBlockerMonitor implements MariaDbToolsProgressListener, AutoCloseable {
+    static final long POLL_MILLIS = 1000;
+    private static final Set<Phase> LOCKING_PHASES = EnumSet.of(Phase.CREATING_TRIGGERS, Phase.SWAPPING,
+            Phase.DROPPING_TRIGGERS);
+
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsBlockerMonitor.class);
+
+    private final String schema;
+    private final String table;
+    private final MariaDbToolsJvmEngine.ConnectionFactory connectionFactory;
+    private final long ownConnectionId;
+    private final int killIdleSeconds;
+    private final Pattern usesTable;
+
+    private volatile boolean active;
+    private ScheduledExecutorService scheduler;
+    private Connection connection;
+    private String lastReport;
+
+    MariaDbToolsBlockerMonitor(String schema, String table, MariaDbToolsJvmEngine.ConnectionFactory connectionFactory,
+                               long ownConnectionId, int killIdleSeconds) {
+        this.schema = schema;
+        this.table = table;
+        this.connectionFactory = connectionFactory;
+        this.ownConnectionId = ownConnectionId;
+        this.killIdleSeconds = killIdleSeconds;
+        this.usesTable = Pattern.compile("(?<![\\w$])" + Pattern.quote(table) + "(?![\\w$])", Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Starts monitoring the schema change of the given table.
+     * @param database the database
+     * @param schema the schema of the table
+     * @param table the table
+     * @return the monitor, that needs to be closed after the schema change, or <code>null</code> if disabled
+     */
+    public static MariaDbToolsBlockerMonitor start(Database database, String schema, String table) {
+        if (!Configuration.isBlockerMonitor() || !(database.getConnection() instanceof JdbcConnection)
+                || !MariaDbChangeUtil.isConnected(database)) {
+            return null;
+        }
+        MariaDbToolsBlockerMonitor monitor = new MariaDbToolsBlockerMonitor(schema, table,
+                () -> DatabaseConnectionUtil.openConnection(database.getConnection()),
+                getConnectionId((JdbcConnection) database.getConnection()), Configuration.getBlockerKillIdle());
+        monitor.startPolling();
+        MariaDbToolsProgressNotifier.getInstance().addListener(monitor);
+        return monitor;
+    }
+
+    private static long getConnectionId(JdbcConnection connection) {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT CONNECTION_ID()")) {
+            return rs.next() ? rs.getLong(1) : -1;
+        } catch (Exception e) {
+            log.fine("Couldn't determine the connection id", e);
+            return -1;
+        }
+    }
+
+    private void startPolling() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mariadbtools-blocker-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::poll, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onProgress(MariaDbToolsProgressEvent event) {
+        if (table.equals(event.getTableName()) && (schema == null || schema.equals(event.getDatabaseName()))) {
+            active = LOCKING_PHASES.contains(event.getPhase());
+        }
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    private void poll() {
+        if (!active) {
+            return;
+        }
+        try {
+            if (connection == null || connection.isClosed()) {
+                connection = connectionFactory.open();
+            }
+            check(connection);
+        } catch (SQLException | RuntimeException e) {
+            log.fine("Couldn't check the metadata locks of table " + schema + "." + table, e);
+            closeConnection();
+        }
+    }
+
+    /**
+     * Checks once, whether the schema change waits for a metadata lock, logs the blocking sessions and kills
+     * them, if they are idle.
+     * @param connection the connection to check with
+     * @return the killed sessions
+     * @throws SQLException if the processlist can't be read
+     */
+    List<Long> check(Connection connection) throws SQLException {
+        Map<Long, Session> sessions = new LinkedHashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT ID, USER, HOST, COMMAND, TIME, STATE, INFO "
+                     + "FROM information_schema.PROCESSLIST WHERE ID <> CONNECTION_ID()")) {
+            while (rs.next()) {
+                sessions.put(rs.getLong(1), new Session(rs.getString(2), rs.getString(3), rs.getString(4),
+                        rs.getLong(5), rs.getString(6), rs.getString(7)));
+            }
+        }
+        Set<Long> waiters = new LinkedHashSet<>();
+        for (Map.Entry<Long, Session> session : sessions.entrySet()) {
+            String state = session.getValue().state;
+            String info = session.getValue().info;
+            if (state != null && state.contains("metadata lock") && info != null && usesTable.matcher(info).find()) {
+                waiters.add(session.getKey());
+            }
+        }
+        if (waiters.isEmpty()) {
+            lastReport = null;
+            return new ArrayList<>();
+        }
+
+        Map<Long, Long> transactionAges = getTransactionAges(connection);
+        List<Long> killed = new ArrayList<>();
+        StringBuilder report = new StringBuilder("Schema change of table " + schema + "." + table
+                + " waits for a metadata lock, " + waiters.size() + " session(s) queued");
+        Set<Long> holders = getMetadataLockHolders(connection);
+        holders.removeAll(waiters);
+        if (holders.isEmpty()) {
+            report.append(", the blocking session is unknown");
+        } else {
+            report.append(", blocked by:");
+        }
+        for (Long id : holders) {
+            Session session = sessions.get(id);
+            if (session == null) {
+                continue;
+            }
+            Long transactionAge = transactionAges.get(id);
+            report.append("\n  thread ").append(id).append(" (").append(session.user).append('@').append(session.host)
+                    .append(", ").append(session.command).append(" for ").append(session.time).append(" s");
+            if (transactionAge != null) {
+                report.append(", transaction open for ").append(transactionAge).append(" s");
+            }
+            if (session.info != null) {
+                report.append(": ").append(session.info);
+            }
+            report.append(')');
+            if (killIdleSeconds > 0 && "Sleep".equals(session.command) && session.time >= killIdleSeconds && id != ownConnectionId) {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("KILL " + id);
+                    killed.add(id);
+                    report.append(" - killed");
+                } catch (SQLException e) {
+                    log.warning("Couldn't kill thread " + id + ", that blocks table " + schema + "." + table, e);
+                }
+            }
+        }
+        String text = report.toString();
+        if (!killed.isEmpty() || !text.equals(lastReport)) {
+            log.warning(text);
+        }
+        lastReport = text;
+        return killed;
+    }
+
+    private static final class Session {
+        private final String user;
+        private final String host;
+        private final String command;
+        private final long time;
+        private final String state;
+        private final String info;
+
+        private Session(String user, String host, String command, long time, String state, String info) {
+            this.user = user;
+            this.host = host;
+            this.command = command;
+            this.time = time;
+            this.state = state;
+            this.info = info;
+        }
+    }
+
+    /**
+     * Determines the sessions, that hold a metadata lock on the table.
+     */
+    private Set<Long> getMetadataLockHolders(Connection connection) {
+        Set<Long> result = query(connection, "SELECT t.PROCESSLIST_ID FROM performance_schema.metadata_locks m "
+                + "JOIN performance_schema.threads t ON t.THREAD_ID = m.OWNER_THREAD_ID "
+                + "WHERE m.OBJECT_TYPE = 'TABLE' AND m.OBJECT_SCHEMA = ? AND m.OBJECT_NAME = ? "
+                + "AND m.LOCK_STATUS = 'GRANTED'");
+        if (result.isEmpty()) {
+            // the performance schema or its mdl instrument is disabled, MariaDB provides a plugin instead
+            result = query(connection, "SELECT THREAD_ID FROM information_schema.METADATA_LOCK_INFO "
+                    + "WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ?");
+        }
+        return result;
+    }
+
+    private Set<Long> query(Connection connection, String sql) {
+        Set<Long> result = new LinkedHashSet<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, schema);
+            stmt.setString(2, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.add(rs.getLong(1));
+                }
+            }
+        } catch (SQLException e) {
+            log.fine("Couldn't read the metadata locks of table " + schema + "." + table, e);
+        }
+        return result;
+    }
+
+    private static Map<Long, Long> getTransactionAges(Connection connection) {
+        Map<Long, Long> result = new HashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT trx_mysql_thread_id, TIMESTAMPDIFF(SECOND, trx_started, NOW()) "
+                     + "FROM information_schema.INNODB_TRX")) {
+            while (rs.next()) {
+                result.put(rs.getLong(1), rs.getLong(2));
+            }
+        } catch (SQLException e) {
+            log.fine("Couldn't read the open transactions", e);
+        }
+        return result;
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.fine("Couldn't close the connection", e);
+            }
+            connection = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        MariaDbToolsProgressNotifier.getInstance().removeListener(this);
+        active = false;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeConnection();
+    }
+}
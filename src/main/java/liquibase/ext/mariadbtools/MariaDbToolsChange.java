@@ -27,6 +27,14 @@ public interface MariaDbToolsChange extends Change {
 
     void setMariaDbToolsOptions(String mariaDbToolsOptions);
 
+    /**
+     * @return the engine, that performs the online schema change: "tool" or "jvm".
+     *     <code>null</code> to use the default engine, see {@link Configuration#ENGINE}.
+     */
+    String getMariaDbToolsEngine();
+
+    void setMariaDbToolsEngine(String mariaDbToolsEngine);
+
     String getChangeName();
 
     String getTargetDatabaseName();
@@ -0,0 +1,190 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+import liquibase.change.AddColumnConfig;
+import liquibase.change.Change;
+import liquibase.change.ColumnConfig;
+import liquibase.change.ConstraintsConfig;
+import liquibase.changelog.ChangeSet;
+import liquibase.database.Database;
+
+/**
+ * Groups the changes of a single changeset, that alter the same table, so that
+ * they can be executed with one single mariadb-schema-change run. That way, the
+ * table is copied only once instead of once per change.
+ *
+ * <p>Only consecutive changes are combined, so that the order of the changes within
+ * the changeset is preserved. Changes, that would create, drop or modify the same
+ * column, index or constraint, are not combined, since MySQL/MariaDB doesn't allow
+ * this within one single ALTER TABLE statement.
+ */
+public class MariaDbToolsChangeCoalescer {
+
+    private MariaDbToolsChangeCoalescer() { }
+
+    /**
+     * Determines the group of changes, the given change is executed with.
+     * The first change in the group is the one, that executes the whole group.
+     *
+     * @param change the change
+     * @return the group of changes, in changeset order. Contains at least the given change.
+     */
+    public static List<MariaDbToolsChange> findGroup(MariaDbToolsChange change) {
+        ChangeSet changeSet = change.getChangeSet();
+        if (!Configuration.isCoalesceChanges() || changeSet == null || !MariaDbChangeUtil.isMariaDbToolsEnabled(change)) {
+            return Collections.singletonList(change);
+        }
+
+        List<MariaDbToolsChange> group = new ArrayList<>();
+        for (Change c : changeSet.getChanges()) {
+            if (c == change) {
+                if (!group.isEmpty() && !canJoin(group, change)) {
+                    group.clear();
+                }
+                group.add(change);
+            } else if (canJoin(group, c)) {
+                group.add((MariaDbToolsChange) c);
+            } else if (group.contains(change)) {
+                break;
+            } else {
+                group.clear();
+                if (canStartGroup(change, c)) {
+                    group.add((MariaDbToolsChange) c);
+                }
+            }
+        }
+        return group.contains(change) ? group : Collections.singletonList(change);
+    }
+
+    /**
+     * Combines the alter statements of all changes of the group into one single alter statement.
+     * @param group the group as determined by {@link #findGroup(MariaDbToolsChange)}
+     * @param database the database
+     * @return the comma separated alter statements
+     */
+    public static String generateAlterStatement(List<MariaDbToolsChange> group, Database database) {
+        StringBuilder alter = new StringBuilder();
+        for (MariaDbToolsChange c : group) {
+            if (alter.length() > 0) {
+                alter.append(", ");
+            }
+            alter.append(c.generateAlterStatement(database));
+        }
+        return alter.toString();
+    }
+
+    private static boolean canStartGroup(MariaDbToolsChange change, Change candidate) {
+        return candidate instanceof MariaDbToolsChange
+                && isCompatible(change, (MariaDbToolsChange) candidate);
+    }
+
+    static boolean canJoin(List<MariaDbToolsChange> group, Change candidate) {
+        if (group.isEmpty() || !(candidate instanceof MariaDbToolsChange)) {
+            return false;
+        }
+        MariaDbToolsChange other = (MariaDbToolsChange) candidate;
+        if (!isCompatible(group.get(0), other)) {
+            return false;
+        }
+        Set<String> touched = touchedObjects(other);
+        for (MariaDbToolsChange member : group) {
+            if (!Collections.disjoint(touched, touchedObjects(member))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isCompatible(MariaDbToolsChange a, MariaDbToolsChange b) {
+        return MariaDbChangeUtil.isMariaDbToolsEnabled(a)
+                && MariaDbChangeUtil.isMariaDbToolsEnabled(b)
+                && Objects.equals(a.getTargetDatabaseName(), b.getTargetDatabaseName())
+                && Objects.equals(a.getTargetTableName(), b.getTargetTableName())
+                && Objects.equals(a.getMariaDbToolsOptions(), b.getMariaDbToolsOptions())
+                && MariaDbToolsJvmEngine.isSelected(a) == MariaDbToolsJvmEngine.isSelected(b);
+    }
+
+    /**
+     * Determines the columns, indexes and constraints, which are created, dropped or modified
+     * by the given change.
+     * @param change the change
+     * @return the set of object keys, e.g. "column:name" or "index:name"
+     */
+    static Set<String> touchedObjects(MariaDbToolsChange change) {
+        Set<String> result = new HashSet<>();
+        if (change instanceof MariaDbToolsAddColumnChange) {
+            for (AddColumnConfig column : ((MariaDbToolsAddColumnChange) change).getColumns()) {
+                add(result, "column", column.getName());
+                ConstraintsConfig constraints = column.getConstraints();
+                if (constraints != null) {
+                    add(result, "fk", constraints.getForeignKeyName());
+                    add(result, "index", constraints.getUniqueConstraintName());
+                }
+            }
+        } else if (change instanceof MariaDbToolsDropColumnChange) {
+            MariaDbToolsDropColumnChange dropColumn = (MariaDbToolsDropColumnChange) change;
+            if (dropColumn.getColumns() != null && !dropColumn.getColumns().isEmpty()) {
+                for (ColumnConfig column : dropColumn.getColumns()) {
+                    add(result, "column", column.getName());
+                }
+            } else {
+                add(result, "column", dropColumn.getColumnName());
+            }
+        } else if (change instanceof MariaDbToolsModifyDataTypeChange) {
+            add(result, "column", ((MariaDbToolsModifyDataTypeChange) change).getColumnName());
+        } else if (change instanceof MariaDbToolsAddForeignKeyConstraintChange) {
+            add(result, "fk", ((MariaDbToolsAddForeignKeyConstraintChange) change).getConstraintName());
+        } else if (change instanceof MariaDbToolsDropForeignKeyConstraintChange) {
+            add(result, "fk", ((MariaDbToolsDropForeignKeyConstraintChange) change).getConstraintName());
+        } else if (change instanceof MariaDbToolsAddPrimaryKeyChange) {
+            result.add("pk");
+        } else if (change instanceof MariaDbToolsAddUniqueConstraintChange) {
+            add(result, "index", ((MariaDbToolsAddUniqueConstraintChange) change).getConstraintName());
+        } else if (change instanceof MariaDbToolsDropUniqueConstraintChange) {
+            add(result, "index", ((MariaDbToolsDropUniqueConstraintChange) change).getConstraintName());
+        } else if (change instanceof MariaDbToolsCreateIndexChange) {
+            add(result, "index", ((MariaDbToolsCreateIndexChange) change).getIndexName());
+        } else if (change instanceof MariaDbToolsDropIndexChange) {
+            add(result, "index", ((MariaDbToolsDropIndexChange) change).getIndexName());
+        } else {
+            // unknown change: don't combine it with anything
+            result.add("change:" + System.identityHashCode(change));
+        }
+        return result;
+    }
+
+    private static void add(Set<String> objects, String type, String name) {
+        if (name == null) {
+            return;
+        }
+        String normalized = name.toLowerCase(Locale.ROOT);
+        // pt-osc prefixes foreign key names with underscores, see MariaDbToolsConstraintsService
+        if ("fk".equals(type)) {
+            while (normalized.startsWith("_")) {
+                normalized = normalized.substring(1);
+            }
+        }
+        objects.add(type + ":" + normalized);
+    }
+}
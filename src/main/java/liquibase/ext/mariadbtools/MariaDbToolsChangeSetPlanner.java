@@ -0,0 +1,239 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import liquibase.RuntimeEnvironment;
+import liquibase.Scope;
+import liquibase.change.Change;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.changelog.filter.ContextChangeSetFilter;
+import liquibase.changelog.filter.DbmsChangeSetFilter;
+import liquibase.changelog.filter.LabelChangeSetFilter;
+import liquibase.changelog.filter.ShouldRunChangeSetFilter;
+import liquibase.database.Database;
+import liquibase.exception.DatabaseException;
+import liquibase.logging.Logger;
+
+/**
+ * Looks ahead through the pending changesets of an update and finds the changesets,
+ * that directly follow a changeset and only alter the same table. These changesets are
+ * executed together with the preceding changeset in one single mariadb-schema-change run.
+ *
+ * <p>The covered changesets are remembered once the combined run succeeded. When liquibase
+ * reaches them, they don't generate any statements anymore and are just marked as ran. With updateSQL,
+ * the merged changesets are remembered separately as printed, so that they are never
+ * considered executed. Both are discarded at the end of the update, see {@link MariaDbToolsUpdateRun}.
+ *
+ * <p>This is disabled by default and can be enabled via {@link Configuration#MERGE_CHANGESETS}.
+ */
+public class MariaDbToolsChangeSetPlanner {
+    private static final Logger log = Scope.getCurrentScope().getLog(MariaDbToolsChangeSetPlanner.class);
+
+    private static final Map<Database, Set<String>> covered = new WeakHashMap<>();
+    private static final Map<Database, Set<String>> printed = new WeakHashMap<>();
+
+    private MariaDbToolsChangeSetPlanner() { }
+
+    /**
+     * Finds the changesets following the changeset of the given group, that can be merged
+     * into the same mariadb-schema-change run.
+     *
+     * @param group the group of changes, that is executed together. See {@link MariaDbToolsChangeCoalescer#findGroup(MariaDbToolsChange)}.
+     * @param database the database
+     * @return the list of changesets, that can be merged. Might be empty.
+     */
+    public static List<ChangeSet> findMergeableChangeSets(List<MariaDbToolsChange> group, Database database) {
+        MariaDbToolsChange last = group.get(group.size() - 1);
+        ChangeSet changeSet = last.getChangeSet();
+        if (!Configuration.isMergeChangeSets() || changeSet == null || changeSet.getChangeLog() == null) {
+            return Collections.emptyList();
+        }
+        List<Change> changes = changeSet.getChanges();
+        if (changes.get(changes.size() - 1) != last) {
+            // the group is not at the end of the changeset, so following changesets are not consecutive
+            return Collections.emptyList();
+        }
+
+        List<ChangeSet> changeSets = changeSet.getChangeLog().getChangeSets();
+        int index = changeSets.indexOf(changeSet);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+
+        List<MariaDbToolsChange> merged = new ArrayList<>(group);
+        List<ChangeSet> result = new ArrayList<>();
+        for (ChangeSet candidate : changeSets.subList(index + 1, changeSets.size())) {
+            if (!isPending(candidate, database) || !canMerge(merged, candidate)) {
+                break;
+            }
+            for (Change c : candidate.getChanges()) {
+                merged.add((MariaDbToolsChange) c);
+            }
+            result.add(candidate);
+        }
+
+        if (!result.isEmpty()) {
+            log.info("Merging " + result.size() + " following changesets into the mariadb tools run for table "
+                    + last.getTargetTableName() + " of changeset " + key(changeSet));
+        }
+        return result;
+    }
+
+    private static boolean canMerge(List<MariaDbToolsChange> merged, ChangeSet candidate) {
+        if (candidate.getChanges().isEmpty()) {
+            return false;
+        }
+        List<MariaDbToolsChange> group = new ArrayList<>(merged);
+        for (Change c : candidate.getChanges()) {
+            if (!MariaDbToolsChangeCoalescer.canJoin(group, c)) {
+                return false;
+            }
+            group.add((MariaDbToolsChange) c);
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the changeset will be executed during this update without any
+     * further conditions. Changesets with preconditions or that run always or on change
+     * are never merged. Outside of an update, that reaches all pending changesets, no changeset
+     * is pending, see {@link MariaDbToolsUpdateRun}.
+     */
+    static boolean isPending(ChangeSet candidate, Database database) {
+        if (!MariaDbToolsUpdateRun.isLookAheadAllowed(database)) {
+            return false;
+        }
+        if (candidate.isIgnore() || candidate.isAlwaysRun() || candidate.isRunOnChange()
+                || Boolean.FALSE.equals(candidate.getFailOnError())) {
+            return false;
+        }
+        if (candidate.getPreconditions() != null && !candidate.getPreconditions().getNestedPreconditions().isEmpty()) {
+            return false;
+        }
+        if (!new DbmsChangeSetFilter(database).accepts(candidate).isAccepted()) {
+            return false;
+        }
+
+        RuntimeEnvironment env = getRuntimeEnvironment(candidate.getChangeLog());
+        if (env != null) {
+            if (!new ContextChangeSetFilter(env.getContexts()).accepts(candidate).isAccepted()
+                    || !new LabelChangeSetFilter(env.getLabels()).accepts(candidate).isAccepted()) {
+                return false;
+            }
+        } else if ((candidate.getContexts() != null && !candidate.getContexts().isEmpty())
+                || (candidate.getLabels() != null && !candidate.getLabels().isEmpty())) {
+            // we don't know the contexts/labels of this run
+            return false;
+        }
+
+        try {
+            return new ShouldRunChangeSetFilter(database).accepts(candidate).isAccepted();
+        } catch (DatabaseException | RuntimeException e) {
+            log.fine("Couldn't determine whether changeset " + key(candidate) + " already ran", e);
+            return false;
+        }
+    }
+
+    private static RuntimeEnvironment getRuntimeEnvironment(DatabaseChangeLog changeLog) {
+        if (changeLog.getRuntimeEnvironment() != null) {
+            return changeLog.getRuntimeEnvironment();
+        }
+        return changeLog.getRootChangeLog().getRuntimeEnvironment();
+    }
+
+    /**
+     * Remembers, that the given changesets have been executed as part of a merged run.
+     * @param database the database
+     * @param changeSets the merged changesets
+     */
+    public static void markCovered(Database database, Collection<ChangeSet> changeSets) {
+        add(covered, database, changeSets);
+    }
+
+    /**
+     * Checks whether the given changeset has already been executed as part of a merged run.
+     * @param database the database
+     * @param changeSet the changeset, might be <code>null</code>
+     * @return <code>true</code> if the changeset doesn't need to be executed anymore
+     */
+    public static boolean isCovered(Database database, ChangeSet changeSet) {
+        return contains(covered, database, changeSet);
+    }
+
+    /**
+     * Remembers, that the given changesets have been printed by updateSQL as part of a merged run.
+     * @param database the database
+     * @param changeSets the merged changesets
+     */
+    public static void markPrinted(Database database, Collection<ChangeSet> changeSets) {
+        add(printed, database, changeSets);
+    }
+
+    /**
+     * Checks whether the given changeset has already been printed by updateSQL as part of a merged run.
+     * @param database the database
+     * @param changeSet the changeset, might be <code>null</code>
+     * @return <code>true</code> if the changeset doesn't need to be printed anymore
+     */
+    public static boolean isPrinted(Database database, ChangeSet changeSet) {
+        return contains(printed, database, changeSet);
+    }
+
+    /**
+     * Discards the covered and printed changesets at the end of an update.
+     * @param database the database
+     */
+    static void reset(Database database) {
+        synchronized (covered) {
+            covered.remove(database);
+        }
+        synchronized (printed) {
+            printed.remove(database);
+        }
+    }
+
+    private static void add(Map<Database, Set<String>> map, Database database, Collection<ChangeSet> changeSets) {
+        synchronized (map) {
+            Set<String> keys = map.computeIfAbsent(database, d -> new HashSet<>());
+            for (ChangeSet changeSet : changeSets) {
+                keys.add(key(changeSet));
+            }
+        }
+    }
+
+    private static boolean contains(Map<Database, Set<String>> map, Database database, ChangeSet changeSet) {
+        if (changeSet == null) {
+            return false;
+        }
+        synchronized (map) {
+            Set<String> keys = map.get(database);
+            return keys != null && keys.contains(key(changeSet));
+        }
+    }
+
+    private static String key(ChangeSet changeSet) {
+        return changeSet.getFilePath() + "::" + changeSet.getId() + "::" + changeSet.getAuthor();
+    }
+}
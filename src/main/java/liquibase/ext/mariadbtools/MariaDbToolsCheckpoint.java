@@ -0,0 +1,350 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.DatabaseException;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.logging.Logger;
+import liquibase.structure.core.Catalog;
+import liquibase.structure.core.Table;
+
+/**
+ * Records the copy progress of a schema change, so that it can be resumed after a crash.
+ *
+ * <p>The in-JVM engine stores the shadow table and the chunk boundary, up to which all rows have been copied,
+ * in the table {@code mariadbtools_checkpoint} of the altered schema. Chunks might complete out of order, so
+ * the boundary only advances, once all chunks below are copied. The shadow table and the triggers are kept,
+ * when the copy fails, so that a rerun of the same change continues at the boundary.
+ *
+ * <p>mariadb-schema-change records its progress itself with {@code --history}, see
+ * {@link #getToolOptions(Database, String, String, String)}.
+ *
+ * @see Configuration#RESUME
+ */
+public class MariaDbToolsCheckpoint {
+    static final String CHECKPOINT_TABLE = "mariadbtools_checkpoint";
+    static final String TOOL_HISTORY_TABLE = "percona.pt_osc_history";
+    static final String TOOL_MIN_VERSION = "3.6.0";
+
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsCheckpoint.class);
+
+    private final String checkpointTable;
+    private final String table;
+    private final String shadowTable;
+    private final String alter;
+
+    /** completed chunks above the boundary: start to end */
+    private final TreeMap<Long, Long> completed = new TreeMap<>();
+    private long boundary;
+    private boolean stale;
+
+    /**
+     * @param database the database
+     * @param schema the schema of the table
+     * @param table the altered table
+     * @param shadowTable the shadow table
+     * @param alter the alter statement
+     */
+    public MariaDbToolsCheckpoint(Database database, String schema, String table, String shadowTable, String alter) {
+        this.checkpointTable = database.escapeTableName(schema, null, CHECKPOINT_TABLE);
+        this.table = table;
+        this.shadowTable = shadowTable;
+        this.alter = alter;
+    }
+
+    /**
+     * Loads the checkpoint of an earlier, unfinished run of the same alter.
+     * @param connection the connection
+     * @param shadowExists whether the shadow table of the earlier run still exists
+     * @param triggersExist whether the triggers of the earlier run still exist
+     * @return the chunk boundary, up to which the rows have been copied ({@link Long#MIN_VALUE} if no chunk has been
+     *     copied yet), or <code>null</code> if the schema change can't be resumed
+     * @throws SQLException if the checkpoint table can't be accessed
+     */
+    public Long load(Connection connection, boolean shadowExists, boolean triggersExist) throws SQLException {
+        createTable(connection);
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT shadow_table, alter_statement, chunk_boundary FROM "
+                + checkpointTable + " WHERE table_name = ?")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                String lastBoundary = rs.getString(3);
+                stale = true;
+                if (!shadowTable.equals(rs.getString(1)) || !alter.equals(rs.getString(2))) {
+                    log.info("Ignoring checkpoint of table " + table + ", as it belongs to a different alter");
+                    return null;
+                }
+                if (!shadowExists || !triggersExist) {
+                    log.info("Ignoring checkpoint of table " + table + ", as the shadow table or the triggers don't exist anymore");
+                    return null;
+                }
+                stale = false;
+                long result = lastBoundary != null ? Long.parseLong(lastBoundary) : Long.MIN_VALUE;
+                log.info("Resuming schema change of table " + table + " after "
+                        + (lastBoundary != null ? lastBoundary : "the beginning"));
+                return result;
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if {@link #load(Connection, boolean, boolean)} found a checkpoint of this table, that
+     *     can't be resumed. The shadow table and triggers are leftovers of the earlier run.
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Records the start of a new copy.
+     * @param connection the connection
+     * @throws SQLException if the checkpoint couldn't be written
+     */
+    public void start(Connection connection) throws SQLException {
+        createTable(connection);
+        try (PreparedStatement stmt = connection.prepareStatement("REPLACE INTO " + checkpointTable
+                + " (table_name, shadow_table, alter_statement, chunk_boundary) VALUES (?, ?, ?, NULL)")) {
+            stmt.setString(1, table);
+            stmt.setString(2, shadowTable);
+            stmt.setString(3, alter);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Sets the boundary, after which the copy starts.
+     * @param boundary the last copied primary key value, <code>min - 1</code> for a new copy
+     */
+    public synchronized void begin(long boundary) {
+        this.boundary = boundary;
+        completed.clear();
+    }
+
+    /**
+     * @return the chunk boundary, up to which all rows have been copied
+     */
+    public synchronized long getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * Records a copied chunk and stores the new boundary, if it advanced.
+     * @param connection the connection
+     * @param start the first primary key value of the chunk
+     * @param end the last primary key value of the chunk
+     * @throws SQLException if the checkpoint couldn't be written
+     */
+    public void chunkCopied(Connection connection, long start, long end) throws SQLException {
+        long newBoundary;
+        synchronized (this) {
+            completed.put(start, end);
+            long last = boundary;
+            Map.Entry<Long, Long> next = completed.firstEntry();
+            while (next != null && next.getKey() == boundary + 1) {
+                boundary = next.getValue();
+                completed.pollFirstEntry();
+                next = completed.firstEntry();
+            }
+            if (boundary == last) {
+                return;
+            }
+            newBoundary = boundary;
+        }
+        try (PreparedStatement stmt = connection.prepareStatement("UPDATE " + checkpointTable
+                + " SET chunk_boundary = ? WHERE table_name = ? AND (chunk_boundary IS NULL OR chunk_boundary < ?)")) {
+            stmt.setLong(1, newBoundary);
+            stmt.setString(2, table);
+            stmt.setLong(3, newBoundary);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Removes the checkpoint after the tables have been swapped.
+     * @param connection the connection
+     */
+    public void finish(Connection connection) {
+        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM " + checkpointTable + " WHERE table_name = ?")) {
+            stmt.setString(1, table);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            log.warning("Couldn't remove checkpoint of table " + table, e);
+        }
+    }
+
+    private void createTable(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + checkpointTable + " (table_name VARCHAR(64) NOT NULL PRIMARY KEY, "
+                    + "shadow_table VARCHAR(64) NOT NULL, alter_statement TEXT NOT NULL, chunk_boundary BIGINT NULL, "
+                    + "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP)");
+        }
+    }
+
+    /**
+     * Determines the options for mariadb-schema-change: with {@code --history} the tool records its progress,
+     * {@code --nodrop-new-table} and {@code --nodrop-triggers} keep the new table and the triggers after a failure.
+     * The tool then keeps the old table after a successful swap, see {@link #dropOldTable(Database, String, String)}.
+     * If an unfinished job of the same
+     * alter is found in the history, it is continued with {@code --resume}. A job can only be continued, if its
+     * new table and its triggers still exist: without the triggers, the rows written meanwhile are missing in the new
+     * table. Otherwise the remaining triggers and the new table are dropped and the schema change starts anew.
+     *
+     * @param database the database
+     * @param schema the schema of the table
+     * @param table the table
+     * @param alter the alter statement
+     * @return the options, empty if resuming is disabled or not supported by the installed tool
+     */
+    public static List<String> getToolOptions(Database database, String schema, String table, String alter) {
+        List<String> options = new ArrayList<>();
+        if (!Configuration.isResume() || MariaDbChangeUtil.isDryRun(database)
+                || !MariaDbToolsSchemaChangeStatement.getVersion().isGreaterOrEqualThan(TOOL_MIN_VERSION)) {
+            return options;
+        }
+        options.add("--history");
+        options.add("--nodrop-new-table");
+        options.add("--nodrop-triggers");
+        Long jobId = findToolJob(database, schema, table, alter);
+        if (jobId != null) {
+            log.info("Resuming job " + jobId + " of mariadb-schema-change for table " + table);
+            options.add("--resume=" + jobId);
+        }
+        return options;
+    }
+
+    /**
+     * Drops the old table and its triggers, that mariadb-schema-change keeps after a successful swap, when it runs
+     * with {@code --nodrop-triggers}. The tool renames the table to {@code _<table>_old}, prefixed with further
+     * underscores, if that name is taken.
+     *
+     * @param database the database
+     * @param schema the schema of the table
+     * @param table the altered table
+     */
+    public static void dropOldTable(Database database, String schema, String table) {
+        if (!(database.getConnection() instanceof JdbcConnection)) {
+            return;
+        }
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        Pattern oldTablePattern = Pattern.compile("_+" + Pattern.quote(table) + "_old");
+        try {
+            Map<String, String> triggers = new TreeMap<>();
+            try (PreparedStatement stmt = connection.prepareStatement("SELECT TRIGGER_NAME, EVENT_OBJECT_TABLE "
+                    + "FROM information_schema.TRIGGERS "
+                    + "WHERE TRIGGER_SCHEMA = ? AND TRIGGER_NAME LIKE ? AND EVENT_OBJECT_TABLE LIKE ?")) {
+                stmt.setString(1, schema);
+                stmt.setString(2, MariaDbToolsAbortHandler.TRIGGER_PREFIX.replace("_", "\\_") + "%");
+                stmt.setString(3, "\\_%\\_old");
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (oldTablePattern.matcher(rs.getString(2)).matches()) {
+                            triggers.put(rs.getString(1), rs.getString(2));
+                        }
+                    }
+                }
+            }
+            try (Statement stmt = connection.createStatement()) {
+                for (String trigger : triggers.keySet()) {
+                    stmt.execute("DROP TRIGGER IF EXISTS " + database.escapeObjectName(schema, Catalog.class) + "."
+                            + database.escapeObjectName(trigger, Table.class));
+                }
+                for (String oldTable : new TreeSet<>(triggers.values())) {
+                    log.info("Dropping old table " + oldTable + " kept by mariadb-schema-change");
+                    stmt.execute("DROP TABLE IF EXISTS " + database.escapeTableName(schema, null, oldTable));
+                }
+            }
+        } catch (SQLException | DatabaseException e) {
+            log.warning("Couldn't remove the old table of table " + schema + "." + table
+                    + " and its triggers " + MariaDbToolsAbortHandler.TRIGGER_PREFIX + "*, please drop them manually", e);
+        }
+    }
+
+    private static Long findToolJob(Database database, String schema, String table, String alter) {
+        if (!(database.getConnection() instanceof JdbcConnection)) {
+            return null;
+        }
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        long jobId;
+        String newTable;
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT h.job_id, h.new_table_name FROM "
+                + TOOL_HISTORY_TABLE + " h "
+                + "JOIN information_schema.TABLES t ON t.TABLE_SCHEMA = h.db AND t.TABLE_NAME = h.new_table_name "
+                + "WHERE h.db = ? AND h.tbl = ? AND h.altr = ? AND h.done = 'no' ORDER BY h.job_id DESC LIMIT 1")) {
+            stmt.setString(1, schema);
+            stmt.setString(2, table);
+            stmt.setString(3, alter);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                jobId = rs.getLong(1);
+                newTable = rs.getString(2);
+            }
+        } catch (SQLException | DatabaseException e) {
+            // the history table doesn't exist before the first run with --history
+            log.fine("Couldn't read the history of mariadb-schema-change", e);
+            return null;
+        }
+
+        try {
+            List<String> triggers = new ArrayList<>();
+            try (PreparedStatement stmt = connection.prepareStatement("SELECT TRIGGER_NAME FROM information_schema.TRIGGERS "
+                    + "WHERE TRIGGER_SCHEMA = ? AND EVENT_OBJECT_TABLE = ? AND TRIGGER_NAME LIKE ?")) {
+                stmt.setString(1, schema);
+                stmt.setString(2, table);
+                stmt.setString(3, MariaDbToolsAbortHandler.TRIGGER_PREFIX.replace("_", "\\_") + "%");
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        triggers.add(rs.getString(1));
+                    }
+                }
+            }
+            if (triggers.size() == 3) {
+                return jobId;
+            }
+            log.info("Not resuming job " + jobId + " of mariadb-schema-change for table " + table
+                    + ", as its triggers don't exist anymore. Dropping " + triggers + " and " + newTable);
+            try (Statement stmt = connection.createStatement()) {
+                // the triggers first, they would fail any write once the new table is gone
+                for (String trigger : triggers) {
+                    stmt.execute("DROP TRIGGER IF EXISTS " + database.escapeObjectName(schema, Catalog.class) + "."
+                            + database.escapeObjectName(trigger, Table.class));
+                }
+                stmt.execute("DROP TABLE IF EXISTS " + database.escapeTableName(schema, null, newTable));
+            }
+        } catch (SQLException | DatabaseException e) {
+            throw new UnexpectedLiquibaseException("Couldn't discard job " + jobId + " of mariadb-schema-change for table "
+                    + table, e);
+        }
+        return null;
+    }
+}
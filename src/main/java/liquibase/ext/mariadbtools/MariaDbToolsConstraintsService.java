@@ -17,18 +17,11 @@ package liquibase.ext.mariadbtools;
 import java.util.Collections;
 import java.util.List;
 
-import liquibase.CatalogAndSchema;
 import liquibase.Scope;
 import liquibase.database.Database;
 import liquibase.exception.DatabaseException;
 import liquibase.exception.UnexpectedLiquibaseException;
 import liquibase.logging.Logger;
-import liquibase.snapshot.InvalidExampleException;
-import liquibase.snapshot.SnapshotControl;
-import liquibase.snapshot.SnapshotGeneratorFactory;
-import liquibase.structure.core.ForeignKey;
-import liquibase.structure.core.PrimaryKey;
-import liquibase.structure.core.Table;
 
 public class MariaDbToolsConstraintsService {
     private static MariaDbToolsConstraintsService instance = new MariaDbToolsConstraintsService();
@@ -72,29 +65,18 @@ public class MariaDbToolsConstraintsService {
         log.fine("Searching for all foreign keys in table " + change.getBaseTableName());
 
         try {
-            SnapshotControl control = new SnapshotControl(database);
-            control.getTypesToInclude().add(ForeignKey.class);
-            CatalogAndSchema catalogAndSchema = new CatalogAndSchema(change.getBaseTableCatalogName(), change.getBaseTableSchemaName())
-                    .standardize(database);
-            Table target = SnapshotGeneratorFactory.getInstance().createSnapshot(new Table(catalogAndSchema.getCatalogName(), catalogAndSchema.getSchemaName(),
-                    database.correctObjectName(change.getBaseTableName(), Table.class)), database);
-
-            List<ForeignKey> results = (target == null) ? Collections.<ForeignKey> emptyList() : target.getOutgoingForeignKeys();
-            for (ForeignKey fk : results) {
-                Table baseTable = fk.getForeignKeyTable();
-                String constraintName = fk.getName();
-                log.fine("Found FK: " + baseTable.getName() + "." + constraintName);
-
-                if (baseTable.getName().equalsIgnoreCase(change.getBaseTableName())
-                    && constraintName.endsWith(change.getConstraintName())) {
-                        log.fine("Found current foreign key constraint " + constraintName);
-                        return constraintName;
+            MariaDbToolsMetadataCache.TableMetadata table = MariaDbToolsMetadataCache.getInstance().getTable(database, change);
+            List<String> results = (table == null) ? Collections.<String> emptyList() : table.getForeignKeys();
+            for (String constraintName : results) {
+                log.fine("Found FK: " + change.getBaseTableName() + "." + constraintName);
+
+                if (constraintName.endsWith(change.getConstraintName())) {
+                    log.fine("Found current foreign key constraint " + constraintName);
+                    return constraintName;
                 }
             }
         } catch (DatabaseException e) {
             throw new UnexpectedLiquibaseException("Failed to find foreign keys for table: " + change.getBaseTableName(), e);
-        } catch (InvalidExampleException e) {
-            throw new UnexpectedLiquibaseException("Failed to find foreign keys for table: " + change.getBaseTableName(), e);
         }
 
         log.warning("No foreign key with name " + change.getConstraintName() + " found.");
@@ -127,7 +109,7 @@ public class MariaDbToolsConstraintsService {
     /**
      * Checks whether the table, to which a primary key should be added, has already a primary key.
      *
-     * <p>Note: This needs database access.
+     * <p>Note: This needs database access. The result is cached during validation, see {@link MariaDbToolsMetadataCache}.
      *
      * @param database the database
      * @param change the add primary key change
@@ -140,17 +122,16 @@ public class MariaDbToolsConstraintsService {
             log.fine("Searching for primary key in table " + change.getTableName());
 
             try {
-                PrimaryKey primaryKeyExample = new PrimaryKey("primary", change.getCatalogName(), change.getSchemaName(), change.getTableName());
-                result = SnapshotGeneratorFactory.getInstance().has(primaryKeyExample, database);
+                MariaDbToolsMetadataCache.TableMetadata table = MariaDbToolsMetadataCache.getInstance().getTable(database, change);
+                result = table != null && table.hasPrimaryKey();
             } catch (DatabaseException e) {
-                // this might happen, if the table does not exist yet.
-                // the primary key is checked already during changelog validation before any change might have been executed.
+                // the primary key is checked already during changelog validation, before any change is executed
                 log.fine("Failed to find primary key for table: " + change.getTableName(), e);
-            } catch (InvalidExampleException e) {
-                throw new UnexpectedLiquibaseException("Failed to find primary key for table: " + change.getTableName(), e);
             }
 
-            log.fine("No primary key in table " + change.getTableName() + " found.");
+            if (!result) {
+                log.fine("No primary key in table " + change.getTableName() + " found.");
+            }
         }
         return result;
     }
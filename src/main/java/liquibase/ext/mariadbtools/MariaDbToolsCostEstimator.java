@@ -0,0 +1,274 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import liquibase.database.Database;
+import liquibase.ext.mariadbtools.MariaDbToolsAlterClassifier.Algorithm;
+
+/**
+ * Estimates the cost of schema changes for the output of updateSQL: the execution path, the size of the table,
+ * the additional disk space for the shadow table and the duration.
+ *
+ * <p>The duration is based on the throughput of earlier runs of the table, see {@link MariaDbToolsHistory}, the
+ * average throughput of the schema changes measured so far, see {@link MariaDbToolsMetrics}, or on
+ * {@link Configuration#ESTIMATE_ROWS_PER_SECOND}. The estimates of one
+ * changelog are summed up, so that the last estimate contains the total of the whole changelog. The total is
+ * discarded, when the liquibase command is finished, see {@link MariaDbToolsUpdateRun}.
+ */
+public class MariaDbToolsCostEstimator {
+    private static MariaDbToolsCostEstimator instance = new MariaDbToolsCostEstimator();
+
+    private final Map<Database, Summary> summaries = new WeakHashMap<>();
+
+    public static MariaDbToolsCostEstimator getInstance() {
+        return instance;
+    }
+
+    /**
+     * The estimated cost of one schema change.
+     */
+    public static class Estimate {
+        private final String tableName;
+        private final String path;
+        private final long rows;
+        private final long bytes;
+        private final long extraBytes;
+        private final long seconds;
+
+        public Estimate(String tableName, String path, long rows, long bytes, long extraBytes, long seconds) {
+            this.tableName = tableName;
+            this.path = path;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.extraBytes = extraBytes;
+            this.seconds = seconds;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        /**
+         * @return instant, inplace or copy with the engine
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the additional disk space needed while the schema change runs
+         */
+        public long getExtraBytes() {
+            return extraBytes;
+        }
+
+        public long getSeconds() {
+            return seconds;
+        }
+
+        @Override
+        public String toString() {
+            return "Estimate for " + tableName + ": " + path + ", ~" + rows + " rows, " + formatBytes(bytes)
+                    + ", extra disk " + formatBytes(extraBytes) + ", duration ~" + formatDuration(seconds);
+        }
+    }
+
+    /**
+     * The sum of all estimates of one changelog.
+     */
+    public static class Summary {
+        private final Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        private int changes;
+        private int copies;
+        private long bytes;
+        private long extraBytes;
+        private long seconds;
+
+        synchronized void add(Object key, Estimate estimate) {
+            if (!counted.add(key)) {
+                return;
+            }
+            changes++;
+            if (estimate.getPath().startsWith("copy")) {
+                copies++;
+            }
+            bytes += estimate.getBytes();
+            extraBytes = Math.max(extraBytes, estimate.getExtraBytes());
+            seconds += estimate.getSeconds();
+        }
+
+        public synchronized int getChanges() {
+            return changes;
+        }
+
+        public synchronized int getCopies() {
+            return copies;
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the largest additional disk space of a single schema change, as they run one after the other
+         */
+        public synchronized long getExtraBytes() {
+            return extraBytes;
+        }
+
+        public synchronized long getSeconds() {
+            return seconds;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Estimated total: " + changes + " schema changes (" + copies + " with table copy), "
+                    + formatBytes(bytes) + " of tables, peak extra disk " + formatBytes(extraBytes)
+                    + ", duration ~" + formatDuration(seconds);
+        }
+    }
+
+    /**
+     * Estimates the cost of the given schema change and adds it to the summary of the database.
+     *
+     * <p>Note: This needs database access, see {@link MariaDbToolsTableSizeService}.
+     *
+     * @param database the database
+     * @param statement the schema change
+     * @param algorithm the algorithm, if the alter is executed natively, <code>null</code> for a table copy
+     * @return the estimate or <code>null</code>, if the size of the table can't be determined
+     */
+    public Estimate estimate(Database database, MariaDbToolsSchemaChangeStatement statement, Algorithm algorithm) {
+        return estimate(database, statement, algorithm, new Object());
+    }
+
+    /**
+     * Estimates the cost of the given schema change and adds it to the summary of the database, unless a schema
+     * change with the same key has already been added. Liquibase generates the statements of a change several
+     * times, e.g. to check whether they are volatile.
+     *
+     * @param database the database
+     * @param statement the schema change
+     * @param algorithm the algorithm, if the alter is executed natively, <code>null</code> for a table copy
+     * @param key identifies the schema change, e.g. the change, that is executed with it
+     * @return the estimate or <code>null</code>, if the size of the table can't be determined
+     */
+    public Estimate estimate(Database database, MariaDbToolsSchemaChangeStatement statement, Algorithm algorithm,
+                             Object key) {
+        MariaDbToolsTableSizeService.TableSize size = MariaDbToolsTableSizeService.getInstance()
+                .getTableSize(database, statement.getDatabaseName(), statement.getTableName());
+        if (size == null) {
+            return null;
+        }
+
+        String path;
+        long extraBytes;
+        long seconds = 0;
+        if (algorithm == Algorithm.INSTANT) {
+            path = "instant";
+            extraBytes = 0;
+        } else {
+            // a copy needs a full shadow table, inplace might need to rebuild the table as well
+            path = algorithm == Algorithm.INPLACE ? "inplace"
+                    : "copy with " + (statement instanceof MariaDbToolsJvmSchemaChangeStatement
+                        ? "in-JVM engine" : "mariadb-schema-change");
+            extraBytes = size.getBytes();
+        }
+
+        String schema = statement.getDatabaseName() != null ? statement.getDatabaseName() : database.getLiquibaseCatalogName();
+        if (algorithm != Algorithm.INSTANT) {
+            seconds = (long) Math.ceil(size.getRows() / getRowsPerSecond(database, schema, statement.getTableName()));
+        }
+        Estimate estimate = new Estimate(schema != null ? schema + "." + statement.getTableName() : statement.getTableName(),
+                path, size.getRows(), size.getBytes(), extraBytes, seconds);
+        getSummary(database).add(key, estimate);
+        return estimate;
+    }
+
+    /**
+     * @param database the database
+     * @return the sum of the estimates so far
+     */
+    public synchronized Summary getSummary(Database database) {
+        return summaries.computeIfAbsent(database, d -> new Summary());
+    }
+
+    /**
+     * Discards the summary of the database, so that the next changelog starts with an empty total.
+     * @param database the database
+     */
+    public synchronized void reset(Database database) {
+        summaries.remove(database);
+    }
+
+    /**
+     * Determines the throughput of the given table: the average of its recent runs recorded in the
+     * {@link MariaDbToolsHistory}, otherwise the throughput of the runs so far.
+     * @param database the database
+     * @param schema the schema of the table
+     * @param table the table
+     * @return rows per second
+     */
+    double getRowsPerSecond(Database database, String schema, String table) {
+        double rowsPerSecond = MariaDbToolsHistory.getInstance().getRowsPerSecond(database, schema, table);
+        return rowsPerSecond > 0 ? rowsPerSecond : getRowsPerSecond();
+    }
+
+    /**
+     * Determines the throughput: the average of the successful runs so far, otherwise the configured default.
+     * @return rows per second
+     */
+    double getRowsPerSecond() {
+        double sum = 0;
+        int count = 0;
+        for (MariaDbToolsRunMetrics run : MariaDbToolsMetrics.getInstance().getLastRuns()) {
+            if (run.getExitCode() == 0 && run.getRowsPerSecond() > 0) {
+                sum += run.getRowsPerSecond();
+                count++;
+            }
+        }
+        return count > 0 ? sum / count : Configuration.getEstimateRowsPerSecond();
+    }
+
+    static String formatBytes(long bytes) {
+        String[] units = {"B", "KB", "MB", "GB", "TB"};
+        double value = bytes;
+        int unit = 0;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return unit == 0 ? bytes + " B" : String.format(Locale.ROOT, "%.1f %s", value, units[unit]);
+    }
+
+    static String formatDuration(long seconds) {
+        return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
@@ -112,6 +112,8 @@ public class MariaDbToolsCreateIndexChange extends CreateIndexChange implements
 
     private String mariaDbToolsOptions;
 
+    private String mariaDbToolsEngine;
+
     @Override
     public String getChangeName() {
         return NAME;
@@ -139,11 +141,23 @@ public class MariaDbToolsCreateIndexChange extends CreateIndexChange implements
         this.mariaDbToolsOptions = mariaDbToolsOptions;
     }
 
+    @Override
+    @DatabaseChangeProperty(requiredForDatabase = {})
+    public String getMariaDbToolsEngine() {
+        return mariaDbToolsEngine;
+    }
+
+    @Override
+    public void setMariaDbToolsEngine(String mariaDbToolsEngine) {
+        this.mariaDbToolsEngine = mariaDbToolsEngine;
+    }
+
     @Override
     public Set<String> getSerializableFields() {
         Set<String> fields = new HashSet<>(super.getSerializableFields());
         fields.remove("useMariaDbTools");
         fields.remove("mariaDbToolsOptions");
+        fields.remove("mariaDbToolsEngine");
         return Collections.unmodifiableSet(fields);
     }
     //CPD-ON
@@ -0,0 +1,416 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.Scope;
+import liquibase.ScopeManager;
+import liquibase.SingletonScopeManager;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.logging.Logger;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import liquibase.resource.CompositeResourceAccessor;
+import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * Applies one changelog to many databases concurrently, e.g. to one schema per tenant spread over several servers.
+ *
+ * <p>At most {@link Configuration#FAN_OUT_THREADS} databases are updated at once, and at most
+ * {@link Configuration#FAN_OUT_PER_HOST} of them on the same server, so that a server doesn't run too many table
+ * copies at once. All updates run in the same JVM, so that the detection of the toolkit and the resolved
+ * credentials are shared. A failed update doesn't stop the others, the failures are reported at the end.
+ *
+ * <p>Usage: {@code java -cp <classpath> liquibase.ext.mariadbtools.MariaDbToolsFanOutRunner <changelog> <targets>
+ * [<username>]}. The file {@code <targets>} contains one target per line, either a JDBC URL or a schema name,
+ * which is appended to {@link Configuration#FAN_OUT_URL}. The password is taken from
+ * {@link Configuration#LIQUIBASE_PASSWORD}.
+ */
+public class MariaDbToolsFanOutRunner {
+    private static final Pattern SERVER = Pattern.compile("^(jdbc:[^:]+:(?:\\w+:)?//)([^/?]*)([^?]*)(.*)$");
+
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsFanOutRunner.class);
+
+    private final String changeLogFile;
+    private final String username;
+    private final String password;
+    private final ResourceAccessor resourceAccessor;
+    private String contexts;
+    private String labels;
+
+    public MariaDbToolsFanOutRunner(String changeLogFile, String username, String password) {
+        this(changeLogFile, username, password, new CompositeResourceAccessor(
+                new FileSystemResourceAccessor(new File(".")), new ClassLoaderResourceAccessor()));
+    }
+
+    public MariaDbToolsFanOutRunner(String changeLogFile, String username, String password,
+                                    ResourceAccessor resourceAccessor) {
+        this.changeLogFile = changeLogFile;
+        this.username = username;
+        this.password = password;
+        this.resourceAccessor = resourceAccessor;
+    }
+
+    public void setContexts(String contexts) {
+        this.contexts = contexts;
+    }
+
+    public void setLabels(String labels) {
+        this.labels = labels;
+    }
+
+    /**
+     * One database, that is updated.
+     */
+    public static class Target {
+        private final String url;
+        private final String server;
+
+        public Target(String url) {
+            Matcher matcher = SERVER.matcher(url);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Not a JDBC URL: " + url);
+            }
+            this.url = url;
+            String server = matcher.group(2);
+            server = server.substring(server.indexOf('@') + 1);
+            this.server = server.contains(":") ? server : server + ":3306";
+        }
+
+        /**
+         * Creates the target for a schema on the server of the given URL.
+         * @param serverUrl the JDBC URL of the server, its database is replaced
+         * @param schema the schema
+         * @return the target
+         */
+        public static Target forSchema(String serverUrl, String schema) {
+            Matcher matcher = SERVER.matcher(serverUrl);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Not a JDBC URL: " + serverUrl);
+            }
+            return new Target(matcher.group(1) + matcher.group(2) + "/" + schema + matcher.group(4));
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return host and port of the server
+         */
+        public String getServer() {
+            return server;
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+
+    /**
+     * The outcome of the update of one target.
+     */
+    public static class Result {
+        private final Target target;
+        private final Throwable error;
+        private final long durationMillis;
+
+        Result(Target target, Throwable error, long durationMillis) {
+            this.target = target;
+            this.error = error;
+            this.durationMillis = durationMillis;
+        }
+
+        public Target getTarget() {
+            return target;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return the error or <code>null</code>, if the update succeeded
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return target + (error == null ? " succeeded" : " failed: " + error.getMessage())
+                    + " after " + durationMillis / 1000 + " s";
+        }
+    }
+
+    /**
+     * Updates all targets and waits for the completion. Meanwhile liquibase's scopes are kept per thread, the
+     * previous scope manager is restored afterwards.
+     * @param targets the targets
+     * @return the results in the order of the targets
+     * @throws InterruptedException if interrupted while waiting, the running updates are interrupted as well
+     */
+    public List<Result> run(List<Target> targets) throws InterruptedException {
+        ThreadScopeManager.install();
+        try {
+            return updateAll(targets);
+        } finally {
+            ThreadScopeManager.uninstall();
+        }
+    }
+
+    private List<Result> updateAll(List<Target> targets) throws InterruptedException {
+        Map<String, Queue<Target>> queues = new LinkedHashMap<>();
+        for (Target target : targets) {
+            queues.computeIfAbsent(target.getServer(), s -> new ArrayDeque<>()).add(target);
+        }
+        Map<Target, Result> results = Collections.synchronizedMap(new LinkedHashMap<>());
+        AtomicInteger running = new AtomicInteger();
+        int perHost = Configuration.getFanOutPerHost();
+        ExecutorService pool = Executors.newFixedThreadPool(Configuration.getFanOutThreads(), r -> {
+            Thread thread = new Thread(r, "mariadbtools-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Updating " + targets.size() + " databases on " + queues.size() + " servers");
+        try {
+            // each lane updates the targets of one server one after another, so that at most perHost
+            // updates run on a server
+            for (Queue<Target> queue : queues.values()) {
+                for (int i = 0; i < Math.min(perHost, queue.size()); i++) {
+                    pool.execute(() -> {
+                        Target target;
+                        while ((target = poll(queue)) != null) {
+                            running.incrementAndGet();
+                            Result result = execute(target);
+                            running.decrementAndGet();
+                            results.put(target, result);
+                            report(result, results, targets.size(), running.get());
+                        }
+                    });
+                }
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("Waiting for the updates of " + running.get() + " databases");
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<Result> ordered = new ArrayList<>();
+        int failed = 0;
+        for (Target target : targets) {
+            Result result = results.get(target);
+            ordered.add(result);
+            if (result != null && !result.isSuccess()) {
+                failed++;
+            }
+        }
+        log.info("Updated " + (targets.size() - failed) + " of " + targets.size() + " databases, " + failed + " failed");
+        return ordered;
+    }
+
+    private static Target poll(Queue<Target> queue) {
+        if (Thread.currentThread().isInterrupted()) {
+            return null;
+        }
+        synchronized (queue) {
+            return queue.poll();
+        }
+    }
+
+    private static void report(Result result, Map<Target, Result> results, int total, int running) {
+        int done;
+        int failed = 0;
+        synchronized (results) {
+            done = results.size();
+            for (Result r : results.values()) {
+                if (!r.isSuccess()) {
+                    failed++;
+                }
+            }
+        }
+        if (result.isSuccess()) {
+            log.info(result + " (" + done + "/" + total + " done, " + failed + " failed, " + running + " running)");
+        } else {
+            log.warning(result + " (" + done + "/" + total + " done, " + failed + " failed, " + running + " running)",
+                    result.getError());
+        }
+    }
+
+    private Result execute(Target target) {
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            update(target);
+        } catch (Exception e) {
+            error = e;
+        }
+        return new Result(target, error, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Updates one target in its own liquibase scope.
+     * @param target the target
+     * @throws Exception if the update failed
+     */
+    void update(Target target) throws Exception {
+        Scope.child(Collections.emptyMap(), () -> {
+            Database database = DatabaseFactory.getInstance().openDatabase(target.getUrl(), username, password,
+                    null, resourceAccessor);
+            try (Liquibase liquibase = new Liquibase(changeLogFile, resourceAccessor, database)) {
+                liquibase.update(new Contexts(contexts), new LabelExpression(labels));
+            }
+        });
+    }
+
+    /**
+     * Reads the targets: one JDBC URL or schema name per line. Empty lines and lines starting with {@code #}
+     * are ignored.
+     * @param file the file
+     * @param serverUrl the JDBC URL of the server for schema names, might be empty if only URLs are used
+     * @return the targets
+     * @throws IOException if the file can't be read
+     */
+    public static List<Target> readTargets(File file, String serverUrl) throws IOException {
+        List<Target> targets = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.startsWith("jdbc:")) {
+                targets.add(new Target(line));
+            } else if (serverUrl.isEmpty()) {
+                throw new IllegalArgumentException("Schema " + line + " needs the server URL " + Configuration.FAN_OUT_URL);
+            } else {
+                targets.add(Target.forSchema(serverUrl, line));
+            }
+        }
+        return targets;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: " + MariaDbToolsFanOutRunner.class.getName() + " <changelog> <targets> [<username>]");
+            System.exit(2);
+        }
+        List<Target> targets = readTargets(new File(args[1]), Configuration.getFanOutUrl());
+        MariaDbToolsFanOutRunner runner = new MariaDbToolsFanOutRunner(args[0], args.length > 2 ? args[2] : null,
+                Configuration.getLiquibasePassword());
+        List<Result> results = runner.run(targets);
+        boolean failed = false;
+        for (Result result : results) {
+            if (!result.isSuccess()) {
+                System.err.println(result);
+                failed = true;
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Keeps the current liquibase scope per thread, so that the concurrent updates don't see each other's
+     * scopes. Liquibase 4.6 only provides a scope manager, that is shared by all threads.
+     */
+    static class ThreadScopeManager extends ScopeManager {
+        /** the number of running fan-outs */
+        private static int users;
+        private static ScopeManager previous;
+
+        private final ThreadLocal<Scope> current = new ThreadLocal<>();
+        private Scope root;
+
+        /**
+         * Installs this scope manager, unless a running fan-out already installed it.
+         * Every call needs to be followed by {@link #uninstall()}.
+         */
+        static synchronized void install() {
+            if (users++ == 0) {
+                previous = getScopeManager();
+                Scope.setScopeManager(new ThreadScopeManager());
+            }
+        }
+
+        /**
+         * Restores the previous scope manager, once no fan-out is running anymore.
+         */
+        static synchronized void uninstall() {
+            if (users > 0 && --users == 0) {
+                Scope.setScopeManager(previous != null ? previous : new SingletonScopeManager());
+                previous = null;
+            }
+        }
+
+        /**
+         * Liquibase 4.6 doesn't expose the installed scope manager.
+         * @return the installed scope manager or <code>null</code>, if it can't be determined
+         */
+        private static ScopeManager getScopeManager() {
+            // the default scope manager is created lazily
+            Scope.getCurrentScope();
+            try {
+                return ReflectionUtils.readField(Scope.class, null, "scopeManager");
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.fine("Couldn't determine the current scope manager", e);
+                return null;
+            }
+        }
+
+        @Override
+        public Scope getCurrentScope() {
+            Scope scope = current.get();
+            return scope != null ? scope : root;
+        }
+
+        @Override
+        protected void setCurrentScope(Scope scope) {
+            current.set(scope);
+        }
+
+        @Override
+        protected Scope init(Scope scope) {
+            root = scope;
+            return scope;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.DatabaseException;
+import liquibase.ext.mariadbtools.MariaDbToolsProgressEvent.Phase;
+import liquibase.logging.Logger;
+
+/**
+ * Keeps a record of every executed schema change: the table, its size, the duration of each phase,
+ * the copy throughput, the engine and tool version and the options used.
+ *
+ * <p>The records are appended to {@link Configuration#HISTORY_FILE} and/or stored in the table
+ * {@code mariadbtools_history} of the target schema, if {@link Configuration#HISTORY_TABLE} is enabled.
+ * The file contains one tab separated record per line:
+ * <pre>
+ * timestamp database table engine toolVersion exitCode rows bytes durationMillis rowsPerSecond phases options
+ * </pre>
+ *
+ * <p>The throughput of the previous runs is used to estimate the duration of schema changes
+ * ({@link MariaDbToolsCostEstimator}) and as initial chunk size of the in-JVM engine.
+ */
+public class MariaDbToolsHistory {
+    static final String HISTORY_TABLE = "mariadbtools_history";
+    /** number of recent runs, whose throughput is averaged */
+    static final int AVERAGE_RUNS = 5;
+    /** a run, that is slower than this fraction of the previous runs, is logged */
+    private static final double SLOWDOWN = 0.8;
+
+    private static MariaDbToolsHistory instance = new MariaDbToolsHistory();
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsHistory.class);
+
+    public static MariaDbToolsHistory getInstance() {
+        return instance;
+    }
+
+    /**
+     * One executed schema change.
+     */
+    public static class Record {
+        private final long timestamp;
+        private final String databaseName;
+        private final String tableName;
+        private final String engine;
+        private final String toolVersion;
+        private final int exitCode;
+        private final long rows;
+        private final long bytes;
+        private final long durationMillis;
+        private final double rowsPerSecond;
+        private final Map<String, Long> phaseMillis;
+        private final String options;
+
+        public Record(long timestamp, String databaseName, String tableName, String engine, String toolVersion,
+                      int exitCode, long rows, long bytes, long durationMillis, double rowsPerSecond,
+                      Map<String, Long> phaseMillis, String options) {
+            this.timestamp = timestamp;
+            this.databaseName = databaseName;
+            this.tableName = tableName;
+            this.engine = engine;
+            this.toolVersion = toolVersion != null ? toolVersion : "";
+            this.exitCode = exitCode;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.durationMillis = durationMillis;
+            this.rowsPerSecond = rowsPerSecond;
+            this.phaseMillis = Collections.unmodifiableMap(new LinkedHashMap<>(phaseMillis));
+            this.options = options != null ? options : "";
+        }
+
+        /**
+         * @return the end of the run in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getDatabaseName() {
+            return databaseName;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        /**
+         * @return {@link MariaDbToolsSchemaChangeStatement#COMMAND} or {@link MariaDbToolsJvmEngine#ENGINE_JVM}
+         */
+        public String getEngine() {
+            return engine;
+        }
+
+        public String getToolVersion() {
+            return toolVersion;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * @return the copied rows, <code>-1</code> if unknown
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return the size of the table after the run, <code>-1</code> if unknown
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * @return the throughput of the copy phase, <code>-1</code> if unknown
+         */
+        public double getRowsPerSecond() {
+            return rowsPerSecond;
+        }
+
+        /**
+         * @return the duration of each phase, see {@link Phase}
+         */
+        public Map<String, Long> getPhaseMillis() {
+            return phaseMillis;
+        }
+
+        public String getOptions() {
+            return options;
+        }
+
+        String toLine() {
+            return String.join("\t", Instant.ofEpochMilli(timestamp).toString(), escape(databaseName), escape(tableName),
+                    escape(engine), escape(toolVersion), String.valueOf(exitCode), String.valueOf(rows), String.valueOf(bytes),
+                    String.valueOf(durationMillis), String.valueOf(rowsPerSecond), formatPhases(phaseMillis), escape(options));
+        }
+
+        static Record parse(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 12) {
+                throw new IllegalArgumentException("Invalid history record: " + line);
+            }
+            return new Record(Instant.parse(fields[0]).toEpochMilli(), unescape(fields[1]), unescape(fields[2]),
+                    unescape(fields[3]), unescape(fields[4]), Integer.parseInt(fields[5]), Long.parseLong(fields[6]),
+                    Long.parseLong(fields[7]), Long.parseLong(fields[8]), Double.parseDouble(fields[9]),
+                    parsePhases(fields[10]), unescape(fields[11]));
+        }
+
+        @Override
+        public String toString() {
+            return toLine();
+        }
+    }
+
+    /**
+     * Records a finished schema change. Failures to store the record are logged and otherwise ignored.
+     * @param database the database
+     * @param schema the schema of the table
+     * @param table the table
+     * @param run the metrics of the run, might be <code>null</code>
+     * @param engine the engine, see {@link Record#getEngine()}
+     * @param toolVersion the version of mariadb-schema-change, might be <code>null</code>
+     * @param options the options used
+     */
+    public void record(Database database, String schema, String table, MariaDbToolsRunMetrics run, String engine,
+                       String toolVersion, String options) {
+        if (run == null || Configuration.getHistoryFile().isEmpty() && !Configuration.isHistoryTable()) {
+            return;
+        }
+        try {
+            Map<String, Long> phases = new LinkedHashMap<>();
+            long durationMillis = 0;
+            for (Map.Entry<Phase, Long> phase : run.getPhaseMillis().entrySet()) {
+                phases.put(phase.getKey().name(), phase.getValue());
+                durationMillis += phase.getValue();
+            }
+            long rows = run.getRowsCopied();
+            Long copyMillis = phases.get(Phase.COPYING.name());
+            double rowsPerSecond = rows > 0 && copyMillis != null && copyMillis > 0 ? rows * 1000.0 / copyMillis
+                    : run.getRowsPerSecond();
+            MariaDbToolsTableSizeService.TableSize size = MariaDbToolsTableSizeService.getInstance()
+                    .getTableSize(database, schema, table);
+            Record record = new Record(System.currentTimeMillis(), schema, table, engine, toolVersion, run.getExitCode(),
+                    rows, size != null ? size.getBytes() : -1, durationMillis, rowsPerSecond, phases, options);
+
+            double previous = getRowsPerSecond(database, schema, table);
+            if (record.getExitCode() == 0 && rowsPerSecond > 0 && previous > 0 && rowsPerSecond < previous * SLOWDOWN) {
+                log.info(String.format(Locale.ROOT, "Schema change of table %s.%s copied %.0f rows/s, "
+                        + "the previous runs %.0f rows/s", schema, table, rowsPerSecond, previous));
+            }
+            if (!Configuration.getHistoryFile().isEmpty()) {
+                appendToFile(record);
+            }
+            if (Configuration.isHistoryTable()) {
+                insert(database, record);
+            }
+        } catch (IOException | SQLException | DatabaseException | RuntimeException e) {
+            log.warning("Couldn't record the history of table " + table, e);
+        }
+    }
+
+    /**
+     * Reads the records of the given table, from the history table if enabled, otherwise from the file.
+     * @param database the database
+     * @param schema the schema of the table
+     * @param table the table
+     * @return the records, oldest first
+     */
+    public List<Record> getRecords(Database database, String schema, String table) {
+        try {
+            if (Configuration.isHistoryTable()) {
+                return select(database, schema, table);
+            }
+            if (!Configuration.getHistoryFile().isEmpty()) {
+                return readFile(schema, table);
+            }
+        } catch (IOException | SQLException | DatabaseException | RuntimeException e) {
+            log.fine("Couldn't read the history of table " + table, e);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Determines the throughput of the recent successful runs of the given table.
+     * @param database the database
+     * @param schema the schema of the table
+     * @param table the table
+     * @return the average rows per second of the last {@value #AVERAGE_RUNS} successful runs, <code>-1</code> if unknown
+     */
+    public double getRowsPerSecond(Database database, String schema, String table) {
+        List<Record> records = getRecords(database, schema, table);
+        double sum = 0;
+        int count = 0;
+        for (int i = records.size() - 1; i >= 0 && count < AVERAGE_RUNS; i--) {
+            Record record = records.get(i);
+            if (record.getExitCode() == 0 && record.getRowsPerSecond() > 0) {
+                sum += record.getRowsPerSecond();
+                count++;
+            }
+        }
+        return count > 0 ? sum / count : -1;
+    }
+
+    private synchronized void appendToFile(Record record) throws IOException {
+        Path file = Paths.get(Configuration.getHistoryFile());
+        // a single append of a short line isn't interleaved with the records of other processes
+        Files.write(file, (record.toLine() + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private synchronized List<Record> readFile(String schema, String table) throws IOException {
+        Path file = Paths.get(Configuration.getHistoryFile());
+        List<Record> records = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return records;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                Record record = Record.parse(line);
+                if (record.getTableName().equals(table) && record.getDatabaseName().equals(schema)) {
+                    records.add(record);
+                }
+            } catch (IllegalArgumentException | DateTimeException e) {
+                log.fine("Ignoring invalid history record: " + line, e);
+            }
+        }
+        return records;
+    }
+
+    private void insert(Database database, Record record) throws SQLException, DatabaseException {
+        if (!(database.getConnection() instanceof JdbcConnection)) {
+            return;
+        }
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        String historyTable = createTable(database, record.getDatabaseName());
+        try (PreparedStatement stmt = connection.prepareStatement("INSERT INTO " + historyTable + " (table_name, engine, "
+                + "tool_version, exit_code, rows_copied, table_bytes, duration_ms, rows_per_second, phase_ms, options) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            stmt.setString(1, record.getTableName());
+            stmt.setString(2, record.getEngine());
+            stmt.setString(3, record.getToolVersion());
+            stmt.setInt(4, record.getExitCode());
+            stmt.setLong(5, record.getRows());
+            stmt.setLong(6, record.getBytes());
+            stmt.setLong(7, record.getDurationMillis());
+            stmt.setDouble(8, record.getRowsPerSecond());
+            stmt.setString(9, formatPhases(record.getPhaseMillis()));
+            stmt.setString(10, record.getOptions());
+            stmt.executeUpdate();
+        }
+    }
+
+    private List<Record> select(Database database, String schema, String table) throws SQLException, DatabaseException {
+        List<Record> records = new ArrayList<>();
+        if (!(database.getConnection() instanceof JdbcConnection)) {
+            return records;
+        }
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        // the table doesn't exist before the first record, this is logged by the caller
+        String historyTable = database.escapeTableName(schema, null, HISTORY_TABLE);
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT UNIX_TIMESTAMP(recorded_at), engine, "
+                + "tool_version, exit_code, rows_copied, table_bytes, duration_ms, rows_per_second, phase_ms, options "
+                + "FROM " + historyTable + " WHERE table_name = ? ORDER BY id")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    records.add(new Record(rs.getLong(1) * 1000, schema, table, rs.getString(2), rs.getString(3),
+                            rs.getInt(4), rs.getLong(5), rs.getLong(6), rs.getLong(7), rs.getDouble(8),
+                            parsePhases(rs.getString(9)), rs.getString(10)));
+                }
+            }
+        }
+        return records;
+    }
+
+    private String createTable(Database database, String schema) throws SQLException, DatabaseException {
+        String historyTable = database.escapeTableName(schema, null, HISTORY_TABLE);
+        try (Statement stmt = ((JdbcConnection) database.getConnection()).createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + historyTable + " (id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+                    + "table_name VARCHAR(64) NOT NULL, engine VARCHAR(32) NOT NULL, tool_version VARCHAR(32) NOT NULL, "
+                    + "exit_code INT NOT NULL, rows_copied BIGINT NOT NULL, table_bytes BIGINT NOT NULL, "
+                    + "duration_ms BIGINT NOT NULL, rows_per_second DOUBLE NOT NULL, phase_ms TEXT NOT NULL, "
+                    + "options TEXT NOT NULL, recorded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "KEY (table_name, id))");
+        }
+        return historyTable;
+    }
+
+    static String formatPhases(Map<String, Long> phases) {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            result.append(result.length() > 0 ? "," : "").append(phase.getKey()).append('=').append(phase.getValue());
+        }
+        return result.toString();
+    }
+
+    static Map<String, Long> parsePhases(String phases) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        if (phases == null || phases.isEmpty()) {
+            return result;
+        }
+        for (String phase : phases.split(",")) {
+            int separator = phase.indexOf('=');
+            if (separator > 0) {
+                result.put(phase.substring(0, separator), Long.parseLong(phase.substring(separator + 1)));
+            }
+        }
+        return result;
+    }
+
+    static String escape(String value) {
+        return String.valueOf(value).replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    static String unescape(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
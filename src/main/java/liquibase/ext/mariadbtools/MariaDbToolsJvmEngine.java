@@ -0,0 +1,631 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.ext.mariadbtools.MariaDbToolsProgressEvent.Phase;
+import liquibase.logging.Logger;
+import liquibase.structure.core.Catalog;
+import liquibase.structure.core.Column;
+import liquibase.structure.core.Table;
+
+/**
+ * Online schema change, that runs inside the JVM without the external mariadb-schema-change process.
+ *
+ * <p>It follows the same approach as pt-online-schema-change:
+ * <ol>
+ * <li>A shadow table {@code _<table>_new} is created as a copy of the table's structure and altered.</li>
+ * <li>Triggers keep the shadow table in sync with any changes to the original table.</li>
+ * <li>The rows are copied in chunks of the primary key range. Multiple workers copy the chunks in parallel,
+ * each with its own connection. The chunk size is adjusted per worker, so that each chunk takes about
+ * {@link Configuration#ENGINE_CHUNK_TIME} seconds. The first chunk size is derived from earlier runs, if recorded
+ * in the {@link MariaDbToolsHistory}.</li>
+ * <li>The tables are swapped with an atomic {@code RENAME TABLE} and the old table and triggers are dropped.</li>
+ * </ol>
+ * The triggers are created and the tables are swapped with a short {@code lock_wait_timeout} and retried, if
+ * they can't get the metadata lock, see {@link MariaDbToolsLockGuard}.
+ *
+ * <p>With {@link Configuration#RESUME}, the copy progress is recorded in a {@link MariaDbToolsCheckpoint}, so that
+ * a failed copy continues where it stopped, when the change is executed again.
+ *
+ * <p>Only tables with a single integer primary key, without triggers, that are not referenced by foreign keys,
+ * are supported. For any other table, mariadb-schema-change needs to be used.
+ */
+public class MariaDbToolsJvmEngine {
+    public static final String ENGINE_TOOL = "tool";
+    public static final String ENGINE_JVM = "jvm";
+
+    private static final List<String> INTEGER_TYPES = Arrays.asList("tinyint", "smallint", "mediumint", "int", "bigint");
+    private static final Pattern CONSTRAINT_NAME = Pattern.compile("CONSTRAINT `([^`]+)`");
+    private static final long MIN_CHUNK_SIZE = 10;
+    private static final long MAX_CHUNK_SIZE = 1000000;
+    private static final long INITIAL_CHUNK_SIZE = 1000;
+    /** The maximum length of identifiers like trigger names */
+    static final int MAX_NAME_LENGTH = 64;
+
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsJvmEngine.class);
+
+    /**
+     * Opens the connections for the copy workers.
+     */
+    interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    private final Database database;
+    private final String schema;
+    private final String table;
+    private final String alter;
+    private final ConnectionFactory connectionFactory;
+    private final int threads;
+    private final long chunkTimeMillis;
+
+    private String primaryKey;
+    private List<String> columns;
+
+    public MariaDbToolsJvmEngine(Database database, String schema, String table, String alter) {
+        this(database, schema, table, alter,
+                () -> DatabaseConnectionUtil.openConnection(database.getConnection()),
+                Configuration.getEngineThreads(),
+                (long) (Configuration.getEngineChunkTime() * 1000));
+    }
+
+    MariaDbToolsJvmEngine(Database database, String schema, String table, String alter,
+                          ConnectionFactory connectionFactory, int threads, long chunkTimeMillis) {
+        this.database = database;
+        this.schema = schema != null ? schema : database.getLiquibaseCatalogName() != null
+                ? database.getLiquibaseCatalogName() : database.getDefaultCatalogName();
+        this.table = table;
+        this.alter = alter;
+        this.connectionFactory = connectionFactory;
+        this.threads = threads;
+        this.chunkTimeMillis = Math.max(1, chunkTimeMillis);
+    }
+
+    /**
+     * Determines whether the given change should be executed with the in-JVM engine.
+     * @param change the change
+     * @return <code>true</code> if the in-JVM engine is selected for the change or globally
+     */
+    public static boolean isSelected(MariaDbToolsChange change) {
+        String engine = change.getMariaDbToolsEngine();
+        if (engine == null || engine.trim().isEmpty()) {
+            engine = Configuration.getEngine();
+        }
+        return ENGINE_JVM.equalsIgnoreCase(engine.trim());
+    }
+
+    static String getShadowTableName(String table) {
+        return "_" + table + "_new";
+    }
+
+    static String getOldTableName(String table) {
+        return "_" + table + "_old";
+    }
+
+    /**
+     * Determines the name of a trigger like mariadb-schema-change: {@code pt_osc_<db>_<table>_<suffix>}. Names, that
+     * exceed the maximum length of identifiers, are shortened and kept unique with a hash of the full name.
+     */
+    static String getTriggerName(String schema, String table, String suffix) {
+        String prefix = "pt_osc_" + schema + "_" + table;
+        if (prefix.length() + 1 + suffix.length() > MAX_NAME_LENGTH) {
+            CRC32 crc = new CRC32();
+            crc.update(prefix.getBytes(StandardCharsets.UTF_8));
+            String hash = String.format("%08x", crc.getValue());
+            prefix = prefix.substring(0, MAX_NAME_LENGTH - suffix.length() - hash.length() - 2) + "_" + hash;
+        }
+        return prefix + "_" + suffix;
+    }
+
+    /**
+     * Performs the online schema change.
+     * @return <code>true</code> if the table has been altered, <code>false</code> if the table is not supported
+     *     by this engine and nothing has been changed.
+     */
+    public boolean execute() {
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+        try {
+            if (!isSupported(connection)) {
+                return false;
+            }
+
+            fire(Phase.STARTED);
+            MariaDbToolsCheckpoint checkpoint = Configuration.isResume()
+                    ? new MariaDbToolsCheckpoint(database, schema, table, getShadowTableName(table), alter) : null;
+            Long resumeAfter = null;
+            if (checkpoint != null) {
+                resumeAfter = checkpoint.load(connection, shadowTableExists(connection), triggersExist(connection));
+                if (resumeAfter == null && checkpoint.isStale()) {
+                    // leftovers of an earlier run, that can't be resumed
+                    cleanup(connection, false);
+                }
+            }
+            if (resumeAfter == null) {
+                fire(Phase.CREATING_TABLE);
+                createShadowTable(connection);
+            }
+            boolean swapped = false;
+            boolean keep = false;
+            try {
+                columns = determineColumns(connection);
+                if (!columns.contains(primaryKey)) {
+                    log.info("The primary key " + primaryKey + " of table " + table + " is not retained, "
+                            + "the in-JVM engine can't be used");
+                    MariaDbToolsMetrics.getInstance().cancel(schema, table);
+                    return false;
+                }
+                if (resumeAfter == null) {
+                    fire(Phase.CREATING_TRIGGERS);
+                    createTriggers(connection);
+                    if (checkpoint != null) {
+                        checkpoint.start(connection);
+                    }
+                }
+                keep = checkpoint != null;
+                copyRows(connection, checkpoint, resumeAfter);
+                fire(Phase.SWAPPING);
+                swapTables(connection);
+                swapped = true;
+                if (checkpoint != null) {
+                    checkpoint.finish(connection);
+                }
+            } finally {
+                if (swapped || !keep) {
+                    cleanup(connection, swapped);
+                } else {
+                    log.warning("Keeping the triggers and the table " + getShadowTableName(table)
+                            + ", so that the schema change can be resumed");
+                }
+            }
+            fire(Phase.DONE);
+            finish(0);
+            MariaDbToolsMetadataCache.getInstance().invalidate(database, schema, table);
+            return true;
+        } catch (SQLException e) {
+            fail();
+            throw new UnexpectedLiquibaseException("Online schema change of table " + table + " failed", e);
+        } catch (RuntimeException e) {
+            fail();
+            throw e;
+        }
+    }
+
+    private boolean isSupported(Connection connection) throws SQLException {
+        List<String[]> keys = query(connection, "SELECT COLUMN_NAME, DATA_TYPE FROM information_schema.COLUMNS "
+                + "WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? AND COLUMN_KEY = 'PRI'", 2, schema, table);
+        if (keys.size() != 1 || !INTEGER_TYPES.contains(keys.get(0)[1].toLowerCase(Locale.ROOT))) {
+            log.info("Table " + table + " doesn't have a single integer primary key, the in-JVM engine can't be used");
+            return false;
+        }
+        primaryKey = keys.get(0)[0];
+
+        if (count(connection, "SELECT COUNT(*) FROM information_schema.KEY_COLUMN_USAGE "
+                + "WHERE REFERENCED_TABLE_SCHEMA = ? AND REFERENCED_TABLE_NAME = ?") > 0) {
+            log.info("Table " + table + " is referenced by foreign keys, the in-JVM engine can't be used");
+            return false;
+        }
+        List<String[]> triggers = query(connection, "SELECT TRIGGER_NAME FROM information_schema.TRIGGERS "
+                + "WHERE EVENT_OBJECT_SCHEMA = ? AND EVENT_OBJECT_TABLE = ?", 1, schema, table);
+        // the own triggers of an earlier run are resumed
+        triggers.removeIf(row -> getTriggerNames().contains(row[0]));
+        if (!triggers.isEmpty()) {
+            log.info("Table " + table + " has triggers, the in-JVM engine can't be used");
+            return false;
+        }
+        return true;
+    }
+
+    private void createShadowTable(Connection connection) throws SQLException {
+        String createTable = null;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SHOW CREATE TABLE " + escapeTable(table))) {
+            if (rs.next()) {
+                createTable = rs.getString(2);
+            }
+        }
+        if (createTable == null) {
+            throw new SQLException("Couldn't determine the structure of table " + table);
+        }
+
+        createTable = createTable.replaceFirst("CREATE TABLE `[^`]+`",
+                Matcher.quoteReplacement("CREATE TABLE " + escapeTable(getShadowTableName(table))));
+        // rename the constraints the same way as pt-osc does, see MariaDbToolsConstraintsService
+        Matcher matcher = CONSTRAINT_NAME.matcher(createTable);
+        StringBuffer renamed = new StringBuffer();
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            name = name.startsWith("__") ? name.substring(2) : "_" + name;
+            matcher.appendReplacement(renamed, Matcher.quoteReplacement("CONSTRAINT `" + name + "`"));
+        }
+        matcher.appendTail(renamed);
+
+        execute(connection, renamed.toString());
+        execute(connection, "ALTER TABLE " + escapeTable(getShadowTableName(table)) + " " + alter);
+    }
+
+    private List<String> determineColumns(Connection connection) throws SQLException {
+        String sql = "SELECT COLUMN_NAME FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? "
+                + "AND EXTRA NOT LIKE '%GENERATED%' ORDER BY ORDINAL_POSITION";
+        List<String> newColumns = new ArrayList<>();
+        for (String[] row : query(connection, sql, 1, schema, getShadowTableName(table))) {
+            newColumns.add(row[0]);
+        }
+        List<String> result = new ArrayList<>();
+        for (String[] row : query(connection, sql, 1, schema, table)) {
+            if (newColumns.contains(row[0])) {
+                result.add(row[0]);
+            }
+        }
+        return result;
+    }
+
+    private void createTriggers(Connection connection) throws SQLException {
+        String shadow = escapeTable(getShadowTableName(table));
+        String pk = escapeColumn(primaryKey);
+        StringBuilder columnList = new StringBuilder();
+        StringBuilder newValues = new StringBuilder();
+        for (String column : columns) {
+            if (columnList.length() > 0) {
+                columnList.append(", ");
+                newValues.append(", ");
+            }
+            columnList.append(escapeColumn(column));
+            newValues.append("NEW.").append(escapeColumn(column));
+        }
+        String replace = "REPLACE INTO " + shadow + " (" + columnList + ") VALUES (" + newValues + ")";
+
+        executeLocking(connection, "creating the triggers of table " + table, "CREATE TRIGGER " + escapeTrigger("del")
+                + " AFTER DELETE ON " + escapeTable(table)
+                + " FOR EACH ROW DELETE IGNORE FROM " + shadow + " WHERE " + shadow + "." + pk + " <=> OLD." + pk);
+        executeLocking(connection, "creating the triggers of table " + table, "CREATE TRIGGER " + escapeTrigger("upd")
+                + " AFTER UPDATE ON " + escapeTable(table)
+                + " FOR EACH ROW BEGIN DELETE IGNORE FROM " + shadow + " WHERE !(OLD." + pk + " <=> NEW." + pk + ") AND "
+                + shadow + "." + pk + " <=> OLD." + pk + "; " + replace + "; END");
+        executeLocking(connection, "creating the triggers of table " + table, "CREATE TRIGGER " + escapeTrigger("ins")
+                + " AFTER INSERT ON " + escapeTable(table) + " FOR EACH ROW " + replace);
+    }
+
+    private void copyRows(Connection connection, MariaDbToolsCheckpoint checkpoint, Long resumeAfter)
+            throws SQLException {
+        long min;
+        long max;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MIN(" + escapeColumn(primaryKey) + "), MAX("
+                     + escapeColumn(primaryKey) + ") FROM " + escapeTable(table))) {
+            if (!rs.next() || rs.getObject(1) == null) {
+                log.info("Table " + table + " is empty, nothing to copy");
+                return;
+            }
+            min = rs.getLong(1);
+            max = rs.getLong(2);
+        }
+        if (resumeAfter != null) {
+            min = Math.max(min, resumeAfter + 1);
+            if (min > max) {
+                log.info("All rows of table " + table + " have been copied already");
+                return;
+            }
+        }
+        if (checkpoint != null) {
+            checkpoint.begin(min - 1);
+        }
+
+        String columnList = String.join(", ", columns.stream().map(this::escapeColumn).toArray(String[]::new));
+        String sql = "INSERT LOW_PRIORITY IGNORE INTO " + escapeTable(getShadowTableName(table)) + " (" + columnList + ") "
+                + "SELECT " + columnList + " FROM " + escapeTable(table) + " WHERE " + escapeColumn(primaryKey)
+                + " >= ? AND " + escapeColumn(primaryKey) + " <= ? LOCK IN SHARE MODE";
+
+        log.info("Copying rows of table " + table + " (" + primaryKey + " " + min + ".." + max + ") with "
+                + threads + " workers");
+        MariaDbToolsReplicaLagMonitor lagMonitor = MariaDbToolsReplicaLagMonitor.create(database, schema);
+        MariaDbToolsThrottleController throttle = MariaDbToolsThrottleController.create(database);
+        ChunkCopier copier = new ChunkCopier(sql, min, max, lagMonitor, throttle, checkpoint, getInitialChunkSize());
+        copier.fireProgress(min - 1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "mariadbtools-copy-" + table);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(pool.submit(copier));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            copier.failure.compareAndSet(null, e);
+        } catch (ExecutionException e) {
+            copier.failure.compareAndSet(null, e.getCause());
+        } finally {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (lagMonitor != null) {
+                lagMonitor.close();
+            }
+            if (throttle != null) {
+                throttle.close();
+            }
+        }
+
+        Throwable failure = copier.failure.get();
+        if (failure instanceof SQLException) {
+            throw (SQLException) failure;
+        } else if (failure != null) {
+            throw new UnexpectedLiquibaseException("Copying rows of table " + table + " failed", failure);
+        }
+        log.info("Copied " + copier.copiedRows.get() + " rows of table " + table);
+    }
+
+    /**
+     * Determines the initial chunk size from the throughput of earlier runs of this table, so that the
+     * first chunks already take about the configured chunk time.
+     * @return the chunk size
+     */
+    long getInitialChunkSize() {
+        double rowsPerSecond = MariaDbToolsHistory.getInstance().getRowsPerSecond(database, schema, table);
+        if (rowsPerSecond <= 0) {
+            return INITIAL_CHUNK_SIZE;
+        }
+        long chunkSize = (long) (rowsPerSecond / threads * chunkTimeMillis / 1000);
+        return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+    }
+
+    /**
+     * Copies chunks of the primary key range, until the whole range is copied. Every worker
+     * claims the next chunk with its own chunk size, which is adjusted after each chunk.
+     */
+    private class ChunkCopier implements Runnable {
+        private final String sql;
+        private final long max;
+        private final AtomicLong next;
+        private final AtomicLong copiedRows = new AtomicLong();
+        private final AtomicLong lastLoggedPercent = new AtomicLong();
+        private final AtomicLong lastFiredPercent = new AtomicLong(-1);
+        private final long startNanos = System.nanoTime();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final long min;
+        private final MariaDbToolsReplicaLagMonitor lagMonitor;
+        private final MariaDbToolsThrottleController throttle;
+        private final MariaDbToolsCheckpoint checkpoint;
+        private final long initialChunkSize;
+
+        ChunkCopier(String sql, long min, long max, MariaDbToolsReplicaLagMonitor lagMonitor,
+                    MariaDbToolsThrottleController throttle, MariaDbToolsCheckpoint checkpoint, long initialChunkSize) {
+            this.sql = sql;
+            this.min = min;
+            this.max = max;
+            this.lagMonitor = lagMonitor;
+            this.throttle = throttle;
+            this.checkpoint = checkpoint;
+            this.initialChunkSize = initialChunkSize;
+            this.next = new AtomicLong(min);
+        }
+
+        @Override
+        public void run() {
+            long chunkSize = initialChunkSize;
+            try (Connection workerConnection = connectionFactory.open();
+                 PreparedStatement stmt = workerConnection.prepareStatement(sql)) {
+                while (failure.get() == null && !Thread.currentThread().isInterrupted()) {
+                    if (lagMonitor != null) {
+                        lagMonitor.throttle();
+                    }
+                    if (throttle != null) {
+                        throttle.throttle();
+                    }
+                    long start = next.getAndAdd(chunkSize);
+                    if (start > max || start < min) {
+                        // done (start < min on overflow)
+                        break;
+                    }
+                    long end = Math.min(max, start + chunkSize - 1);
+                    if (end < start) {
+                        end = max;
+                    }
+
+                    long begin = System.nanoTime();
+                    stmt.setLong(1, start);
+                    stmt.setLong(2, end);
+                    copiedRows.addAndGet(stmt.executeUpdate());
+                    if (checkpoint != null) {
+                        checkpoint.chunkCopied(workerConnection, start, end);
+                    }
+                    long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+
+                    MariaDbToolsMetrics.getInstance().recordChunk(schema, table, elapsedMillis);
+                    chunkSize = adjustChunkSize(chunkSize, elapsedMillis);
+                    logProgress(end);
+                    fireProgress(end);
+                }
+            } catch (SQLException | RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        private long adjustChunkSize(long chunkSize, long elapsedMillis) {
+            double target = (double) chunkSize * chunkTimeMillis / elapsedMillis;
+            // smooth the adjustment to avoid oscillation
+            long adjusted = (long) ((chunkSize + target) / 2);
+            return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, adjusted));
+        }
+
+        private void logProgress(long end) {
+            long percent = (long) (100.0 * (end - min + 1) / ((double) max - min + 1));
+            long last = lastLoggedPercent.get();
+            if (percent >= last + 10 && lastLoggedPercent.compareAndSet(last, percent)) {
+                log.info("Copying " + table + ": " + percent + "% (" + copiedRows.get() + " rows)");
+            }
+        }
+
+        private void fireProgress(long end) {
+            double done = ((double) end - min + 1) / ((double) max - min + 1);
+            long percent = (long) (100 * done);
+            long last = lastFiredPercent.get();
+            if (percent > last && lastFiredPercent.compareAndSet(last, percent)) {
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                long rows = copiedRows.get();
+                double rowsPerSecond = elapsedMillis > 0 ? rows * 1000.0 / elapsedMillis : 0;
+                long remaining = done > 0 ? (long) (elapsedMillis * (1 - done) / done / 1000) : -1;
+                MariaDbToolsProgressNotifier.getInstance().fire(new MariaDbToolsProgressEvent(schema, table,
+                        Phase.COPYING, percent, rows, -1, rowsPerSecond, remaining));
+            }
+        }
+    }
+
+    private void swapTables(Connection connection) throws SQLException {
+        executeLocking(connection, "swapping table " + table, "RENAME TABLE " + escapeTable(table) + " TO "
+                + escapeTable(getOldTableName(table)) + ", " + escapeTable(getShadowTableName(table)) + " TO " + escapeTable(table));
+        log.info("Swapped tables " + table + " and " + getShadowTableName(table));
+    }
+
+    private List<String> getTriggerNames() {
+        return Arrays.asList(getTriggerName(schema, table, "del"), getTriggerName(schema, table, "upd"),
+                getTriggerName(schema, table, "ins"));
+    }
+
+    private boolean shadowTableExists(Connection connection) throws SQLException {
+        return !query(connection, "SELECT TABLE_NAME FROM information_schema.TABLES WHERE TABLE_SCHEMA = ? "
+                + "AND TABLE_NAME = ?", 1, schema, getShadowTableName(table)).isEmpty();
+    }
+
+    private boolean triggersExist(Connection connection) throws SQLException {
+        List<String> names = getTriggerNames();
+        return query(connection, "SELECT TRIGGER_NAME FROM information_schema.TRIGGERS WHERE TRIGGER_SCHEMA = ? "
+                + "AND TRIGGER_NAME IN (?, ?, ?)", 1, schema, names.get(0), names.get(1), names.get(2)).size() == names.size();
+    }
+
+    private void fire(Phase phase) {
+        MariaDbToolsProgressNotifier.getInstance().fire(new MariaDbToolsProgressEvent(schema, table, phase));
+    }
+
+    private void finish(int exitCode) {
+        MariaDbToolsRunMetrics run = MariaDbToolsMetrics.getInstance().finish(schema, table, exitCode);
+        MariaDbToolsHistory.getInstance().record(database, schema, table, run, ENGINE_JVM, null,
+                "threads=" + threads + " chunkTimeMillis=" + chunkTimeMillis);
+    }
+
+    private void fail() {
+        fire(Phase.FAILED);
+        finish(1);
+        MariaDbToolsMetadataCache.getInstance().invalidate(database, schema, table);
+    }
+
+    private void cleanup(Connection connection, boolean swapped) {
+        for (String suffix : Arrays.asList("del", "upd", "ins")) {
+            executeQuietly(connection, "DROP TRIGGER IF EXISTS " + escapeTrigger(suffix));
+        }
+        if (swapped) {
+            executeQuietly(connection, "DROP TABLE IF EXISTS " + escapeTable(getOldTableName(table)));
+        } else {
+            executeQuietly(connection, "DROP TABLE IF EXISTS " + escapeTable(getShadowTableName(table)));
+        }
+    }
+
+    private String escapeTable(String name) {
+        return database.escapeTableName(schema, null, name);
+    }
+
+    private String escapeColumn(String name) {
+        return database.escapeObjectName(name, Column.class);
+    }
+
+    private String escapeTrigger(String suffix) {
+        return database.escapeObjectName(schema, Catalog.class) + "."
+                + database.escapeObjectName(getTriggerName(schema, table, suffix), Table.class);
+    }
+
+    /**
+     * Executes a statement, that needs the metadata lock of the table, with a short {@code lock_wait_timeout},
+     * see {@link MariaDbToolsLockGuard#executeWithLockWaitTimeout(Connection, String, MariaDbToolsLockGuard.LockingOperation)}.
+     */
+    private void executeLocking(Connection connection, String description, String sql) throws SQLException {
+        MariaDbToolsLockGuard.getInstance().executeWithLockWaitTimeout(connection, description, () -> execute(connection, sql));
+    }
+
+    private void execute(Connection connection, String sql) throws SQLException {
+        log.fine("Executing: " + sql);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private void executeQuietly(Connection connection, String sql) {
+        try {
+            execute(connection, sql);
+        } catch (SQLException e) {
+            log.warning("Cleanup failed: " + sql, e);
+        }
+    }
+
+    private long count(Connection connection, String sql) throws SQLException {
+        List<String[]> rows = query(connection, sql, 1, schema, table);
+        return rows.isEmpty() || rows.get(0)[0] == null ? 0 : Long.parseLong(rows.get(0)[0]);
+    }
+
+    private static List<String[]> query(Connection connection, String sql, int columnCount, String... parameters)
+            throws SQLException {
+        List<String[]> result = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                stmt.setString(i + 1, parameters[i]);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String[] row = new String[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        row[i] = rs.getString(i + 1);
+                    }
+                    result.add(row);
+                }
+            }
+        }
+        return result;
+    }
+}
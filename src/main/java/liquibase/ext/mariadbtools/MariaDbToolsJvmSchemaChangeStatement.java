@@ -0,0 +1,71 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Optional;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.logging.Logger;
+import liquibase.sql.Sql;
+
+/**
+ * Statement to alter a database table with the in-JVM engine {@link MariaDbToolsJvmEngine}.
+ * If the table is not supported by the engine, mariadb-schema-change is used instead.
+ */
+public class MariaDbToolsJvmSchemaChangeStatement extends MariaDbToolsSchemaChangeStatement {
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsJvmSchemaChangeStatement.class);
+
+    public MariaDbToolsJvmSchemaChangeStatement(String databaseName, String tableName, String alterStatement,
+                                                Optional<String> mariaDbToolsOptions) {
+        super(databaseName, tableName, alterStatement, mariaDbToolsOptions);
+    }
+
+    MariaDbToolsJvmEngine createEngine(Database database) {
+        return new MariaDbToolsJvmEngine(database, getDatabaseName(), getTableName(), getAlterStatement());
+    }
+
+    @Override
+    public String printCommand(Database database) {
+        String databaseName = getDatabaseName() != null ? getDatabaseName() : database.getLiquibaseCatalogName();
+        return "In-JVM online schema change (" + Configuration.getEngineThreads() + " workers): "
+                + "ALTER TABLE " + database.escapeTableName(databaseName, null, getTableName()) + " " + getAlterStatement();
+    }
+
+    /**
+     * Executes the online schema change with the in-JVM engine.
+     * @return always <code>null</code>
+     */
+    @Override
+    Sql[] execute(Database database) {
+        String databaseName = getDatabaseName() != null ? getDatabaseName() : database.getLiquibaseCatalogName();
+        MariaDbToolsLockGuard.getInstance().await(database, databaseName, getTableName());
+        boolean executed;
+        try (MariaDbToolsBlockerMonitor blockerMonitor = MariaDbToolsBlockerMonitor.start(database,
+                databaseName, getTableName())) {
+            executed = createEngine(database).execute();
+        }
+        if (executed) {
+            MariaDbToolsChangeSetPlanner.markCovered(database, getMergedChangeSets());
+            return null;
+        }
+        if (!isAvailable()) {
+            throw new RuntimeException("Table " + getTableName() + " is not supported by the in-JVM engine "
+                    + "and no mariadb tools found!");
+        }
+        log.info("Falling back to " + COMMAND + " for table " + getTableName());
+        return super.execute(database);
+    }
+}
@@ -0,0 +1,223 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.logging.Logger;
+
+/**
+ * Keeps liquibase's connections alive, while a schema change is running and the connection is idle.
+ * Otherwise the server would close the connection after "wait_timeout" seconds.
+ *
+ * <p>All connections are served by one shared scheduler thread. Each connection is pinged with
+ * {@link Connection#isValid(int)} every half "wait_timeout", which is determined once per connection.
+ * Registrations of the same connection are counted, so that the connection is pinged as long as
+ * one of them is open. The latency of the pings is published via {@link MariaDbToolsMetrics}.
+ */
+public class MariaDbToolsKeepAlive {
+    static final long DEFAULT_WAIT_TIMEOUT = 28800L;
+    /** don't ping more often than every 500 ms */
+    static final long MIN_INTERVAL_MILLIS = 500;
+    /** timeout of a single ping */
+    static final int PING_TIMEOUT_SECONDS = 10;
+
+    private static MariaDbToolsKeepAlive instance = new MariaDbToolsKeepAlive();
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsKeepAlive.class);
+
+    private final Map<Connection, Long> waitTimeouts = new WeakHashMap<>();
+    private final Map<Connection, Pinger> pingers = new HashMap<>();
+    private final AtomicLong pings = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastLatencyMicros = -1;
+    private ScheduledExecutorService scheduler;
+
+    public static MariaDbToolsKeepAlive getInstance() {
+        return instance;
+    }
+
+    /**
+     * An open registration, that keeps the connection alive until it is closed.
+     */
+    public final class Registration implements AutoCloseable {
+        private final Pinger pinger;
+        private boolean closed;
+
+        Registration(Pinger pinger) {
+            this.pinger = pinger;
+        }
+
+        @Override
+        public void close() {
+            synchronized (MariaDbToolsKeepAlive.this) {
+                if (closed || pinger == null) {
+                    return;
+                }
+                closed = true;
+                if (--pinger.registrations == 0) {
+                    pingers.remove(pinger.connection, pinger);
+                    pinger.cancel();
+                }
+            }
+        }
+    }
+
+    private final class Pinger implements Runnable {
+        private final Connection connection;
+        private int registrations = 1;
+        private ScheduledFuture<?> future;
+
+        Pinger(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            boolean valid;
+            try {
+                log.fine("Pinging database...");
+                valid = connection.isValid(PING_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                log.severe("Couldn't ping database", e);
+                valid = false;
+            }
+            lastLatencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            pings.incrementAndGet();
+            if (!valid) {
+                log.severe("The database connection is not valid anymore, stopping keepAlive");
+                synchronized (MariaDbToolsKeepAlive.this) {
+                    pingers.remove(connection, this);
+                    cancel();
+                }
+                failures.incrementAndGet();
+            }
+        }
+
+        void cancel() {
+            // the ping is bounded by its timeout, so there's no need to interrupt it
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Starts pinging the connection of the given database, unless it is already pinged.
+     * @param database the database
+     * @return the registration, that needs to be closed, once the connection is used again
+     */
+    public Registration register(Database database) {
+        if (!(database.getConnection() instanceof JdbcConnection)) {
+            return new Registration(null);
+        }
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+        long interval = getIntervalMillis(connection);
+        Pinger pinger;
+        synchronized (this) {
+            pinger = pingers.get(connection);
+            if (pinger != null) {
+                pinger.registrations++;
+            } else {
+                pinger = new Pinger(connection);
+                pingers.put(connection, pinger);
+                pinger.future = getScheduler().scheduleWithFixedDelay(pinger, interval, interval, TimeUnit.MILLISECONDS);
+                log.info("KeepAlive every " + interval + " millis");
+            }
+        }
+        return new Registration(pinger);
+    }
+
+    /**
+     * Determines the ping interval from the "wait_timeout" of the connection. The timeout is only
+     * queried once per connection.
+     * @param connection the connection
+     * @return the interval in milliseconds
+     */
+    long getIntervalMillis(Connection connection) {
+        Long waitTimeout;
+        synchronized (waitTimeouts) {
+            waitTimeout = waitTimeouts.get(connection);
+        }
+        if (waitTimeout == null) {
+            waitTimeout = queryWaitTimeout(connection);
+            synchronized (waitTimeouts) {
+                waitTimeouts.put(connection, waitTimeout);
+            }
+        }
+        return Math.max(MIN_INTERVAL_MILLIS, TimeUnit.SECONDS.toMillis(waitTimeout) / 2);
+    }
+
+    private static long queryWaitTimeout(Connection connection) {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("show variables where variable_name = 'wait_timeout'")) {
+            if (rs.next()) {
+                return rs.getLong(2);
+            }
+            log.warning("Couldn't determine wait_timeout for keepAlive, using default");
+        } catch (SQLException e) {
+            log.warning("Couldn't determine wait_timeout for keepAlive, using default", e);
+        }
+        return DEFAULT_WAIT_TIMEOUT;
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "mariadbtools-keepalive");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * @return the number of connections, that are currently kept alive
+     */
+    public synchronized int getConnections() {
+        return pingers.size();
+    }
+
+    public long getPings() {
+        return pings.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return the duration of the last ping in milliseconds, <code>-1</code> if no ping has been done yet
+     */
+    public double getLastLatencyMillis() {
+        long micros = lastLatencyMicros;
+        return micros < 0 ? -1 : micros / 1000.0;
+    }
+}
@@ -0,0 +1,278 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.DatabaseException;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.logging.Logger;
+
+/**
+ * Delays an online schema change, while long-running transactions use the table.
+ *
+ * <p>Creating the triggers and swapping the tables need a metadata lock on the table. If a long-running transaction
+ * holds a metadata lock on the table, the schema change waits for it, and all other queries of the table queue
+ * behind the schema change. Therefore the schema change is only started, once no transaction or statement older
+ * than {@link Configuration#LOCK_GUARD_TRANSACTION_AGE} uses the table. These are taken from
+ * {@code information_schema.INNODB_TRX} and the processlist. Whether they use the table, is determined from
+ * {@code performance_schema.metadata_locks}, if available, and from their current statement.
+ *
+ * <p>Additionally mariadb-schema-change gets a low {@code lock_wait_timeout}, so that it gives up quickly and
+ * retries, instead of blocking the table. Statements executed over JDBC, that need a metadata lock, do the same
+ * with {@link #executeWithLockWaitTimeout(Connection, String, LockingOperation)}.
+ */
+public class MariaDbToolsLockGuard {
+    static final long MIN_BACKOFF_MILLIS = 1000;
+    static final long MAX_BACKOFF_MILLIS = 30000;
+    private static final String SET_VARS = "--set-vars";
+    private static final String LOCK_WAIT_TIMEOUT = "lock_wait_timeout";
+    /** ER_LOCK_WAIT_TIMEOUT */
+    static final int LOCK_WAIT_TIMEOUT_ERROR = 1205;
+
+    private static MariaDbToolsLockGuard instance = new MariaDbToolsLockGuard();
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsLockGuard.class);
+
+    public static MariaDbToolsLockGuard getInstance() {
+        return instance;
+    }
+
+    /**
+     * A statement, that needs a metadata lock.
+     */
+    public interface LockingOperation {
+        void execute() throws SQLException;
+    }
+
+    /**
+     * Waits with increasing pauses, until no long-running transaction uses the table.
+     * @param database the database
+     * @param schema the schema of the table
+     * @param table the table
+     * @throws RuntimeException if the table is still used after {@link Configuration#LOCK_GUARD_TIMEOUT}
+     */
+    public void await(Database database, String schema, String table) {
+        int timeout = Configuration.getLockGuardTimeout();
+        if (timeout <= 0 || !(database.getConnection() instanceof JdbcConnection) || !MariaDbChangeUtil.isConnected(database)) {
+            return;
+        }
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        long deadline = nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        long backoff = MIN_BACKOFF_MILLIS;
+        try {
+            List<String> blockers = findBlockers(connection, schema, table);
+            while (!blockers.isEmpty()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - nanoTime());
+                if (remaining <= 0) {
+                    throw new RuntimeException("Not starting the schema change of table " + schema + "." + table
+                            + ", it is still used by long-running transactions after " + timeout + " seconds: " + blockers);
+                }
+                log.warning("Waiting for long-running transactions on table " + schema + "." + table + ": " + blockers);
+                sleep(Math.min(backoff, remaining));
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                blockers = findBlockers(connection, schema, table);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnexpectedLiquibaseException(e);
+        }
+    }
+
+    /**
+     * Executes the operation with the session {@code lock_wait_timeout} lowered to {@link Configuration#LOCK_WAIT_TIMEOUT},
+     * so that it doesn't block all queries of the table, while it waits for a long-running transaction. If the
+     * metadata lock can't be acquired in time, the operation is retried up to {@link Configuration#LOCK_WAIT_RETRIES}
+     * times with increasing pauses. The previous {@code lock_wait_timeout} is restored afterwards.
+     * @param connection the connection, the operation uses
+     * @param description what the operation does, for logging
+     * @param operation the operation
+     * @throws SQLException the error of the last try, {@link #LOCK_WAIT_TIMEOUT_ERROR} if the lock couldn't be acquired
+     */
+    public void executeWithLockWaitTimeout(Connection connection, String description, LockingOperation operation)
+            throws SQLException {
+        int lockWaitTimeout = Configuration.getLockWaitTimeout();
+        if (lockWaitTimeout <= 0) {
+            operation.execute();
+            return;
+        }
+        String previous = null;
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT @@SESSION." + LOCK_WAIT_TIMEOUT)) {
+                if (rs.next()) {
+                    previous = rs.getString(1);
+                }
+            }
+            stmt.execute("SET SESSION " + LOCK_WAIT_TIMEOUT + " = " + lockWaitTimeout);
+        }
+        try {
+            int retries = Configuration.getLockWaitRetries();
+            long backoff = MIN_BACKOFF_MILLIS;
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    operation.execute();
+                    return;
+                } catch (SQLException e) {
+                    if (e.getErrorCode() != LOCK_WAIT_TIMEOUT_ERROR || attempt >= retries) {
+                        throw e;
+                    }
+                    log.warning("Timed out waiting for the metadata lock while " + description + ", retrying in "
+                            + backoff + " ms");
+                    sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnexpectedLiquibaseException(e);
+        } finally {
+            if (previous != null) {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("SET SESSION " + LOCK_WAIT_TIMEOUT + " = " + previous);
+                } catch (SQLException e) {
+                    log.warning("Couldn't restore the " + LOCK_WAIT_TIMEOUT + " of the session", e);
+                }
+            }
+        }
+    }
+
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    /**
+     * Finds the transactions and statements, that are older than {@link Configuration#LOCK_GUARD_TRANSACTION_AGE}
+     * and use the table.
+     * @return descriptions of the blocking threads, empty if the table is clear or this can't be determined
+     */
+    List<String> findBlockers(JdbcConnection connection, String schema, String table) {
+        int age = Configuration.getLockGuardTransactionAge();
+        Set<Long> lockHolders = getMetadataLockHolders(connection, schema, table);
+        Pattern usesTable = Pattern.compile("(?<![\\w$])" + Pattern.quote(table) + "(?![\\w$])", Pattern.CASE_INSENSITIVE);
+        Map<Long, String> blockers = new TreeMap<>();
+        try {
+            try (PreparedStatement stmt = connection.prepareStatement("SELECT trx_mysql_thread_id, "
+                    + "TIMESTAMPDIFF(SECOND, trx_started, NOW()), trx_query FROM information_schema.INNODB_TRX "
+                    + "WHERE trx_started <= NOW() - INTERVAL ? SECOND AND trx_mysql_thread_id <> CONNECTION_ID()")) {
+                stmt.setInt(1, age);
+                addBlockers(stmt, lockHolders, usesTable, "transaction", blockers);
+            }
+            try (PreparedStatement stmt = connection.prepareStatement("SELECT ID, TIME, INFO "
+                    + "FROM information_schema.PROCESSLIST WHERE ID <> CONNECTION_ID() "
+                    + "AND COMMAND NOT IN ('Sleep', 'Daemon', 'Binlog Dump') AND TIME >= ? AND INFO IS NOT NULL")) {
+                stmt.setInt(1, age);
+                addBlockers(stmt, lockHolders, usesTable, "statement", blockers);
+            }
+        } catch (SQLException | DatabaseException e) {
+            log.warning("Couldn't check for long-running transactions on table " + schema + "." + table, e);
+        }
+        return new ArrayList<>(blockers.values());
+    }
+
+    private static void addBlockers(PreparedStatement stmt, Set<Long> lockHolders, Pattern usesTable, String kind,
+                                    Map<Long, String> blockers) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                long id = rs.getLong(1);
+                String query = rs.getString(3);
+                if (lockHolders.contains(id) || query != null && usesTable.matcher(query).find()) {
+                    blockers.putIfAbsent(id, kind + " of thread " + id + " running for " + rs.getLong(2) + " s"
+                            + (query != null ? ": " + query : ""));
+                }
+            }
+        }
+    }
+
+    /**
+     * Determines the threads holding a metadata lock on the table. Requires the performance schema with
+     * the instrument {@code wait/lock/metadata/sql/mdl}.
+     * @return the thread ids, empty if unknown
+     */
+    private static Set<Long> getMetadataLockHolders(JdbcConnection connection, String schema, String table) {
+        Set<Long> result = new HashSet<>();
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT t.PROCESSLIST_ID "
+                + "FROM performance_schema.metadata_locks m "
+                + "JOIN performance_schema.threads t ON t.THREAD_ID = m.OWNER_THREAD_ID "
+                + "WHERE m.OBJECT_TYPE = 'TABLE' AND m.OBJECT_SCHEMA = ? AND m.OBJECT_NAME = ?")) {
+            stmt.setString(1, schema);
+            stmt.setString(2, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.add(rs.getLong(1));
+                }
+            }
+        } catch (SQLException | DatabaseException e) {
+            log.fine("Couldn't read the metadata locks of table " + schema + "." + table, e);
+        }
+        return result;
+    }
+
+    /**
+     * Adds {@link Configuration#LOCK_WAIT_TIMEOUT} to the {@code --set-vars} of the command line, unless
+     * the options already set {@code lock_wait_timeout}.
+     * @param commands the command line of mariadb-schema-change
+     */
+    public void addToolOptions(List<String> commands) {
+        int lockWaitTimeout = Configuration.getLockWaitTimeout();
+        if (lockWaitTimeout <= 0) {
+            return;
+        }
+        String variable = LOCK_WAIT_TIMEOUT + "=" + lockWaitTimeout;
+        // the last --set-vars wins
+        for (int i = commands.size() - 1; i >= 0; i--) {
+            String arg = commands.get(i);
+            if (arg.startsWith(SET_VARS + "=")) {
+                if (!setsLockWaitTimeout(arg.substring(SET_VARS.length() + 1))) {
+                    commands.set(i, arg + "," + variable);
+                }
+                return;
+            }
+            if (arg.equals(SET_VARS) && i + 1 < commands.size()) {
+                if (!setsLockWaitTimeout(commands.get(i + 1))) {
+                    commands.set(i + 1, commands.get(i + 1) + "," + variable);
+                }
+                return;
+            }
+        }
+        commands.add(SET_VARS + "=" + variable);
+    }
+
+    private static boolean setsLockWaitTimeout(String variables) {
+        for (String variable : variables.split(",")) {
+            if (variable.trim().startsWith(LOCK_WAIT_TIMEOUT + "=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
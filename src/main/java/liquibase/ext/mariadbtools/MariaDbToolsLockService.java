@@ -0,0 +1,59 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.exception.LockException;
+import liquibase.lockservice.StandardLockService;
+
+/**
+ * Liquibase's standard lock service, that additionally marks the start and the end of each
+ * liquibase command on MySQL and MariaDB. See {@link MariaDbToolsUpdateRun}.
+ *
+ * <p>Liquibase instantiates the lock services, before it acquires the lock and parses the changelog. The probe of
+ * mariadb-schema-change is started then, so that it runs meanwhile, see {@link MariaDbToolsToolkitProbe}.
+ */
+public class MariaDbToolsLockService extends StandardLockService {
+
+    public MariaDbToolsLockService() {
+        MariaDbToolsToolkitProbe.start();
+    }
+
+    @Override
+    public int getPriority() {
+        return super.getPriority() + 1;
+    }
+
+    @Override
+    public boolean supports(Database database) {
+        return database instanceof MySQLDatabase;
+    }
+
+    @Override
+    public void waitForLock() throws LockException {
+        super.waitForLock();
+        MariaDbToolsUpdateRun.start(database);
+    }
+
+    @Override
+    public void releaseLock() throws LockException {
+        try {
+            MariaDbToolsUpdateRun.finish(database);
+        } finally {
+            super.releaseLock();
+        }
+    }
+}
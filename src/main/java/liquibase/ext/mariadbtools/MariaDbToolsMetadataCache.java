@@ -0,0 +1,252 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.BooleanSupplier;
+
+import liquibase.Scope;
+import liquibase.change.Change;
+import liquibase.changelog.ChangeSet;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.DatabaseException;
+import liquibase.logging.Logger;
+
+/**
+ * Caches the foreign keys and indexes of tables while liquibase validates the changelog.
+ *
+ * <p>On the first lookup, the metadata of all tables, that are altered by changes of this extension in the
+ * changelog, is loaded with a few batched queries on {@code information_schema}. Tables, that don't exist yet,
+ * are loaded on demand. The entry of a table is invalidated, when a schema change of this table completes, see
+ * {@link #invalidate(Database, String, String)}.
+ *
+ * <p>Once liquibase executes changesets, any change might alter a table, e.g. plain sql or the core changes used
+ * for small tables. Therefore the cached metadata is only used during validation, lookups during the execution
+ * always query the current metadata of the table. The cache is discarded at the end of each liquibase command,
+ * see {@link MariaDbToolsUpdateRun}.
+ */
+public class MariaDbToolsMetadataCache {
+    static final int BATCH_SIZE = 500;
+
+    private static MariaDbToolsMetadataCache instance = new MariaDbToolsMetadataCache();
+    private Logger log = Scope.getCurrentScope().getLog(MariaDbToolsMetadataCache.class);
+
+    private final Map<Database, Map<String, TableMetadata>> tables = new WeakHashMap<>();
+    BooleanSupplier validating = MariaDbToolsUpdateRun::isValidating;
+
+    public static MariaDbToolsMetadataCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * The foreign keys and indexes of one table.
+     */
+    public static class TableMetadata {
+        private final List<String> foreignKeys = new ArrayList<>();
+        private final Set<String> indexes = new LinkedHashSet<>();
+
+        /**
+         * @return the names of the foreign keys, as they are currently named in the database (including
+         *     the underscore prefixes of pt-osc)
+         */
+        public List<String> getForeignKeys() {
+            return Collections.unmodifiableList(foreignKeys);
+        }
+
+        /**
+         * @return the names of the indexes including {@code PRIMARY}
+         */
+        public Set<String> getIndexes() {
+            return Collections.unmodifiableSet(indexes);
+        }
+
+        public boolean hasPrimaryKey() {
+            return indexes.contains("PRIMARY");
+        }
+
+        @Override
+        public String toString() {
+            return "foreign keys " + foreignKeys + ", indexes " + indexes;
+        }
+    }
+
+    /**
+     * Determines the metadata of the table altered by the given change.
+     *
+     * <p>Note: This needs database access. The queries are executed directly and not logged, even in dry-run mode.
+     * The result is only cached during the validation of the changelog.
+     *
+     * @param database the database
+     * @param change the change
+     * @return the metadata or <code>null</code>, if the table doesn't exist (yet) or there is no JDBC connection
+     * @throws DatabaseException if the metadata couldn't be queried
+     */
+    public TableMetadata getTable(Database database, MariaDbToolsChange change) throws DatabaseException {
+        if (!(database.getConnection() instanceof JdbcConnection)) {
+            return null;
+        }
+        String schema = getSchema(database, change.getTargetDatabaseName());
+        String table = change.getTargetTableName();
+        if (!validating.getAsBoolean()) {
+            return load(database, schema, Collections.singletonList(table)).get(key(schema, table));
+        }
+        synchronized (this) {
+            Map<String, TableMetadata> cached = tables.get(database);
+            if (cached == null) {
+                cached = new HashMap<>();
+                tables.put(database, cached);
+                preload(database, change, cached);
+            }
+            String key = key(schema, table);
+            TableMetadata metadata = cached.get(key);
+            if (metadata == null) {
+                metadata = load(database, schema, Collections.singletonList(table)).get(key);
+                if (metadata != null) {
+                    cached.put(key, metadata);
+                }
+            }
+            return metadata;
+        }
+    }
+
+    /**
+     * Removes the cached metadata of the table, e.g. after it has been altered.
+     * @param database the database
+     * @param databaseName the database (schema) name, might be <code>null</code> to use the default
+     * @param tableName the table
+     */
+    public synchronized void invalidate(Database database, String databaseName, String tableName) {
+        Map<String, TableMetadata> cached = tables.get(database);
+        if (cached != null) {
+            cached.remove(key(getSchema(database, databaseName), tableName));
+        }
+    }
+
+    /**
+     * Discards the cached metadata at the end of a liquibase command.
+     * @param database the database
+     */
+    public synchronized void reset(Database database) {
+        tables.remove(database);
+    }
+
+    private void preload(Database database, MariaDbToolsChange change, Map<String, TableMetadata> cached)
+            throws DatabaseException {
+        Map<String, Set<String>> tablesBySchema = new LinkedHashMap<>();
+        tablesBySchema.computeIfAbsent(getSchema(database, change.getTargetDatabaseName()), s -> new LinkedHashSet<>())
+                .add(change.getTargetTableName());
+        ChangeSet changeSet = change.getChangeSet();
+        if (changeSet != null && changeSet.getChangeLog() != null) {
+            for (ChangeSet candidate : changeSet.getChangeLog().getRootChangeLog().getChangeSets()) {
+                for (Change c : candidate.getChanges()) {
+                    if (c instanceof MariaDbToolsChange && ((MariaDbToolsChange) c).getTargetTableName() != null) {
+                        MariaDbToolsChange other = (MariaDbToolsChange) c;
+                        tablesBySchema.computeIfAbsent(getSchema(database, other.getTargetDatabaseName()),
+                                s -> new LinkedHashSet<>()).add(other.getTargetTableName());
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : tablesBySchema.entrySet()) {
+            List<String> names = new ArrayList<>(entry.getValue());
+            for (int i = 0; i < names.size(); i += BATCH_SIZE) {
+                cached.putAll(load(database, entry.getKey(), names.subList(i, Math.min(names.size(), i + BATCH_SIZE))));
+            }
+        }
+        log.fine("Loaded metadata of " + cached.size() + " tables");
+    }
+
+    private Map<String, TableMetadata> load(Database database, String schema, Collection<String> names)
+            throws DatabaseException {
+        Map<String, TableMetadata> result = new HashMap<>();
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        String in = "(" + String.join(", ", Collections.nCopies(names.size(), "?")) + ")";
+        try {
+            for (String[] row : query(connection, "SELECT TABLE_NAME FROM information_schema.TABLES "
+                    + "WHERE TABLE_SCHEMA = ? AND TABLE_NAME IN " + in, 1, schema, names)) {
+                result.put(key(schema, row[0]), new TableMetadata());
+            }
+            for (String[] row : query(connection, "SELECT TABLE_NAME, CONSTRAINT_NAME FROM information_schema.TABLE_CONSTRAINTS "
+                    + "WHERE TABLE_SCHEMA = ? AND CONSTRAINT_TYPE = 'FOREIGN KEY' AND TABLE_NAME IN " + in
+                    + " ORDER BY TABLE_NAME, CONSTRAINT_NAME", 2, schema, names)) {
+                TableMetadata metadata = result.get(key(schema, row[0]));
+                if (metadata != null) {
+                    metadata.foreignKeys.add(row[1]);
+                }
+            }
+            for (String[] row : query(connection, "SELECT DISTINCT TABLE_NAME, INDEX_NAME FROM information_schema.STATISTICS "
+                    + "WHERE TABLE_SCHEMA = ? AND TABLE_NAME IN " + in, 2, schema, names)) {
+                TableMetadata metadata = result.get(key(schema, row[0]));
+                if (metadata != null) {
+                    metadata.indexes.add(row[1]);
+                }
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Couldn't load metadata of tables " + names + " in " + schema, e);
+        }
+        return result;
+    }
+
+    private static List<String[]> query(JdbcConnection connection, String sql, int columns, String schema,
+                                        Collection<String> names) throws SQLException, DatabaseException {
+        List<String[]> rows = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int index = 1;
+            stmt.setString(index++, schema);
+            for (String name : names) {
+                stmt.setString(index++, name);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String[] row = new String[columns];
+                    for (int i = 0; i < columns; i++) {
+                        row[i] = rs.getString(i + 1);
+                    }
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static String getSchema(Database database, String databaseName) {
+        String schema = databaseName;
+        if (schema == null) {
+            schema = database.getLiquibaseCatalogName();
+        }
+        if (schema == null) {
+            schema = database.getDefaultCatalogName();
+        }
+        return schema;
+    }
+
+    private static String key(String schema, String table) {
+        return (schema + "." + table).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,390 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import liquibase.Scope;
+import liquibase.ext.mariadbtools.MariaDbToolsProgressEvent.Phase;
+import liquibase.logging.Logger;
+
+/**
+ * Collects the metrics of the schema change runs.
+ *
+ * <p>Every active run is published as MBean {@code liquibase.mariadbtools:type=SchemaChange,table=<db.table>}
+ * and the aggregated counters as {@code liquibase.mariadbtools:type=Metrics}, unless disabled via
+ * {@link Configuration#JMX}. If {@link Configuration#PROMETHEUS_FILE} is set, the metrics are
+ * written periodically to this file in the format of the Prometheus textfile collector. The health of the
+ * connections, see {@link MariaDbToolsKeepAlive}, is included as well.
+ */
+public class MariaDbToolsMetrics implements MariaDbToolsProgressListener, MariaDbToolsMetricsMXBean {
+    static final String DOMAIN = "liquibase.mariadbtools";
+
+    private static MariaDbToolsMetrics instance = new MariaDbToolsMetrics();
+    private Logger log = Scope.getCurrentScope().getLog(MariaDbToolsMetrics.class);
+
+    private final Map<String, MariaDbToolsRunMetrics> activeRuns = new ConcurrentHashMap<>();
+    private final Map<String, MariaDbToolsRunMetrics> lastRuns = new ConcurrentHashMap<>();
+    private final AtomicLong runsStarted = new AtomicLong();
+    private final AtomicLong runsSucceeded = new AtomicLong();
+    private final AtomicLong runsFailed = new AtomicLong();
+    private final AtomicLong rowsCopied = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    private boolean registered;
+    private ScheduledExecutorService prometheusWriter;
+
+    public static MariaDbToolsMetrics getInstance() {
+        return instance;
+    }
+
+    private static String key(String databaseName, String tableName) {
+        return databaseName + "." + tableName;
+    }
+
+    @Override
+    public void onProgress(MariaDbToolsProgressEvent event) {
+        String key = key(event.getDatabaseName(), event.getTableName());
+        MariaDbToolsRunMetrics run = activeRuns.get(key);
+        if (event.getPhase() == Phase.STARTED || run == null && event.getPhase() != Phase.DONE
+                && event.getPhase() != Phase.FAILED) {
+            run = start(event.getDatabaseName(), event.getTableName());
+        }
+        if (run != null) {
+            run.update(event);
+        }
+    }
+
+    private MariaDbToolsRunMetrics start(String databaseName, String tableName) {
+        MariaDbToolsRunMetrics run = new MariaDbToolsRunMetrics(databaseName, tableName, System::nanoTime);
+        MariaDbToolsRunMetrics previous = activeRuns.put(key(databaseName, tableName), run);
+        if (previous != null) {
+            unregister(previous);
+        }
+        runsStarted.incrementAndGet();
+        register(run);
+        startPrometheusWriter();
+        return run;
+    }
+
+    public void recordRetry(String databaseName, String tableName) {
+        MariaDbToolsRunMetrics run = activeRuns.get(key(databaseName, tableName));
+        if (run != null) {
+            run.recordRetry();
+            retries.incrementAndGet();
+        }
+    }
+
+    public void recordChunk(String databaseName, String tableName, long millis) {
+        MariaDbToolsRunMetrics run = activeRuns.get(key(databaseName, tableName));
+        if (run != null) {
+            run.recordChunk(millis);
+        }
+    }
+
+    /**
+     * Marks the run of the given table as finished.
+     * @param databaseName the database
+     * @param tableName the table
+     * @param exitCode the exit code, <code>0</code> means success
+     * @return the finished run or <code>null</code>, if the table has no active run
+     */
+    public MariaDbToolsRunMetrics finish(String databaseName, String tableName, int exitCode) {
+        MariaDbToolsRunMetrics run = activeRuns.remove(key(databaseName, tableName));
+        if (run == null) {
+            return null;
+        }
+        run.finish(exitCode);
+        if (exitCode == 0) {
+            runsSucceeded.incrementAndGet();
+        } else {
+            runsFailed.incrementAndGet();
+        }
+        if (run.getRowsCopied() > 0) {
+            rowsCopied.addAndGet(run.getRowsCopied());
+        }
+        lastRuns.put(key(databaseName, tableName), run);
+        unregister(run);
+        writePrometheusFile();
+        return run;
+    }
+
+    /**
+     * Discards the run of the given table, e.g. if the in-JVM engine doesn't support the table
+     * and nothing has been changed.
+     * @param databaseName the database
+     * @param tableName the table
+     */
+    public void cancel(String databaseName, String tableName) {
+        MariaDbToolsRunMetrics run = activeRuns.remove(key(databaseName, tableName));
+        if (run != null) {
+            runsStarted.decrementAndGet();
+            unregister(run);
+        }
+    }
+
+    public List<MariaDbToolsRunMetrics> getActive() {
+        return new ArrayList<>(activeRuns.values());
+    }
+
+    public List<MariaDbToolsRunMetrics> getLastRuns() {
+        return new ArrayList<>(lastRuns.values());
+    }
+
+    @Override
+    public long getRunsStarted() {
+        return runsStarted.get();
+    }
+
+    @Override
+    public long getRunsSucceeded() {
+        return runsSucceeded.get();
+    }
+
+    @Override
+    public long getRunsFailed() {
+        return runsFailed.get();
+    }
+
+    @Override
+    public int getActiveRuns() {
+        return activeRuns.size();
+    }
+
+    @Override
+    public long getRowsCopied() {
+        return rowsCopied.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public int getKeepAliveConnections() {
+        return MariaDbToolsKeepAlive.getInstance().getConnections();
+    }
+
+    @Override
+    public long getKeepAlivePings() {
+        return MariaDbToolsKeepAlive.getInstance().getPings();
+    }
+
+    @Override
+    public long getKeepAliveFailures() {
+        return MariaDbToolsKeepAlive.getInstance().getFailures();
+    }
+
+    @Override
+    public double getKeepAliveLatencyMillis() {
+        return MariaDbToolsKeepAlive.getInstance().getLastLatencyMillis();
+    }
+
+    static ObjectName getObjectName(MariaDbToolsRunMetrics run) throws JMException {
+        return new ObjectName(DOMAIN + ":type=SchemaChange,table="
+                + ObjectName.quote(key(run.getDatabaseName(), run.getTableName())));
+    }
+
+    private synchronized void register(MariaDbToolsRunMetrics run) {
+        if (!Configuration.isJmx()) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (!registered) {
+                ObjectName name = new ObjectName(DOMAIN + ":type=Metrics");
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(this, name);
+                }
+                registered = true;
+            }
+            ObjectName name = getObjectName(run);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(run, name);
+        } catch (JMException | RuntimeException e) {
+            log.fine("Couldn't register MBean for table " + run.getTableName(), e);
+        }
+    }
+
+    private synchronized void unregister(MariaDbToolsRunMetrics run) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = getObjectName(run);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException | RuntimeException e) {
+            log.fine("Couldn't unregister MBean for table " + run.getTableName(), e);
+        }
+    }
+
+    private synchronized void startPrometheusWriter() {
+        if (prometheusWriter != null || Configuration.getPrometheusFile().isEmpty()) {
+            return;
+        }
+        prometheusWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mariadbtools-prometheus");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int interval = Configuration.getPrometheusInterval();
+        prometheusWriter.scheduleWithFixedDelay(this::writePrometheusFile, 0, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes the metrics to {@link Configuration#PROMETHEUS_FILE}, if configured. The file is written to a
+     * temporary file first and then moved, so that the collector never reads a partially written file.
+     */
+    void writePrometheusFile() {
+        String file = Configuration.getPrometheusFile();
+        if (file.isEmpty()) {
+            return;
+        }
+        Path target = Paths.get(file).toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writePrometheus(writer);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            log.warning("Couldn't write metrics to " + target, e);
+        }
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format.
+     * @param writer the target
+     * @throws IOException if writing fails
+     */
+    public void writePrometheus(Writer writer) throws IOException {
+        counter(writer, "mariadbtools_runs_started_total", "Number of started schema changes", getRunsStarted());
+        counter(writer, "mariadbtools_runs_succeeded_total", "Number of successful schema changes", getRunsSucceeded());
+        counter(writer, "mariadbtools_runs_failed_total", "Number of failed schema changes", getRunsFailed());
+        counter(writer, "mariadbtools_rows_copied_total", "Number of rows copied by finished schema changes", getRowsCopied());
+        counter(writer, "mariadbtools_retries_total", "Number of retries reported by schema changes", getRetries());
+        header(writer, "mariadbtools_active_runs", "gauge", "Number of running schema changes");
+        writer.write("mariadbtools_active_runs " + getActiveRuns() + "\n");
+        counter(writer, "mariadbtools_keepalive_pings_total", "Number of keepalive pings", getKeepAlivePings());
+        counter(writer, "mariadbtools_keepalive_failures_total", "Number of failed keepalive pings", getKeepAliveFailures());
+        header(writer, "mariadbtools_keepalive_connections", "gauge", "Number of connections kept alive");
+        writer.write("mariadbtools_keepalive_connections " + getKeepAliveConnections() + "\n");
+        if (getKeepAliveLatencyMillis() >= 0) {
+            header(writer, "mariadbtools_keepalive_latency_seconds", "gauge", "Duration of the last keepalive ping");
+            writer.write("mariadbtools_keepalive_latency_seconds " + format(getKeepAliveLatencyMillis() / 1000) + "\n");
+        }
+
+        List<MariaDbToolsRunMetrics> active = getActive();
+        header(writer, "mariadbtools_run_info", "gauge", "Phase of the running schema change");
+        for (MariaDbToolsRunMetrics run : active) {
+            sample(writer, "mariadbtools_run_info", run, ",phase=\"" + run.getPhase().toLowerCase(Locale.ROOT) + "\"", 1);
+        }
+        gauges(writer, active, "mariadbtools_run_percent", "Percentage of copied rows", Field.PERCENT);
+        gauges(writer, active, "mariadbtools_run_rows_copied", "Copied rows", Field.ROWS_COPIED);
+        gauges(writer, active, "mariadbtools_run_rows_per_second", "Copy throughput", Field.ROWS_PER_SECOND);
+        gauges(writer, active, "mariadbtools_run_elapsed_seconds", "Elapsed time", Field.ELAPSED);
+        gauges(writer, active, "mariadbtools_run_remaining_seconds", "Estimated remaining time of the copy", Field.REMAINING);
+        gauges(writer, active, "mariadbtools_run_retries", "Retries", Field.RETRIES);
+        gauges(writer, active, "mariadbtools_run_chunk_seconds", "Duration of the last chunk", Field.LAST_CHUNK);
+
+        List<MariaDbToolsRunMetrics> last = getLastRuns();
+        gauges(writer, last, "mariadbtools_last_run_exit_code", "Exit code of the last schema change", Field.EXIT_CODE);
+        gauges(writer, last, "mariadbtools_last_run_duration_seconds", "Duration of the last schema change", Field.ELAPSED);
+        gauges(writer, last, "mariadbtools_last_run_swap_seconds", "Duration of the swap phase of the last schema change",
+                Field.SWAP);
+        writer.flush();
+    }
+
+    private enum Field {
+        PERCENT, ROWS_COPIED, ROWS_PER_SECOND, ELAPSED, REMAINING, RETRIES, LAST_CHUNK, EXIT_CODE, SWAP;
+
+        double get(MariaDbToolsRunMetrics run) {
+            switch (this) {
+            case PERCENT: return run.getPercent();
+            case ROWS_COPIED: return run.getRowsCopied();
+            case ROWS_PER_SECOND: return run.getRowsPerSecond();
+            case ELAPSED: return run.getElapsedSeconds();
+            case REMAINING: return run.getRemainingSeconds();
+            case RETRIES: return run.getRetries();
+            case LAST_CHUNK: return run.getLastChunkMillis() < 0 ? -1 : run.getLastChunkMillis() / 1000.0;
+            case EXIT_CODE: return run.getExitCode();
+            case SWAP: return run.getSwapMillis() < 0 ? -1 : run.getSwapMillis() / 1000.0;
+            default: throw new IllegalStateException("Unknown field " + this);
+            }
+        }
+    }
+
+    private static void counter(Writer writer, String name, String help, long value) throws IOException {
+        header(writer, name, "counter", help);
+        writer.write(name + " " + value + "\n");
+    }
+
+    private static void header(Writer writer, String name, String type, String help) throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    private static void gauges(Writer writer, List<MariaDbToolsRunMetrics> runs, String name, String help, Field field)
+            throws IOException {
+        header(writer, name, "gauge", help);
+        for (MariaDbToolsRunMetrics run : runs) {
+            double value = field.get(run);
+            // unknown values are omitted
+            if (value >= 0 || field == Field.EXIT_CODE) {
+                sample(writer, name, run, "", value);
+            }
+        }
+    }
+
+    private static void sample(Writer writer, String name, MariaDbToolsRunMetrics run, String extraLabels, double value)
+            throws IOException {
+        writer.write(name + "{database=\"" + escape(run.getDatabaseName()) + "\",table=\"" + escape(run.getTableName())
+                + "\"" + extraLabels + "} " + format(value) + "\n");
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return String.valueOf((long) value);
+        }
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String escape(String value) {
+        return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,42 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Management interface of the aggregated metrics across all schema change runs.
+ *
+ * @see MariaDbToolsMetrics
+ */
+public interface MariaDbToolsMetricsMXBean {
+    long getRunsStarted();
+
+    long getRunsSucceeded();
+
+    long getRunsFailed();
+
+    int getActiveRuns();
+
+    long getRowsCopied();
+
+    long getRetries();
+
+    int getKeepAliveConnections();
+
+    long getKeepAlivePings();
+
+    long getKeepAliveFailures();
+
+    double getKeepAliveLatencyMillis();
+}
@@ -0,0 +1,123 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.logging.Logger;
+import liquibase.sql.Sql;
+import liquibase.statement.core.RuntimeStatement;
+
+/**
+ * Statement to execute an alter natively over JDBC with {@code ALGORITHM=INSTANT}
+ * or {@code ALGORITHM=INPLACE, LOCK=NONE}. If the server rejects the algorithm, the
+ * alter is executed with mariadb-schema-change instead.
+ *
+ * <p>Like mariadb-schema-change, the alter waits for long-running transactions on the table first and runs with
+ * a short {@code lock_wait_timeout}, see {@link MariaDbToolsLockGuard}. If it still can't get the metadata lock,
+ * it falls back to mariadb-schema-change as well.
+ *
+ * @see MariaDbToolsAlterClassifier
+ */
+public class MariaDbToolsNativeAlterStatement extends RuntimeStatement {
+    /** ER_ALTER_OPERATION_NOT_SUPPORTED, ER_ALTER_OPERATION_NOT_SUPPORTED_REASON, ER_INNODB_MAX_ROW_VERSION */
+    private static final List<Integer> ALGORITHM_NOT_SUPPORTED_ERRORS = Arrays.asList(1845, 1846, 4092);
+
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsNativeAlterStatement.class);
+
+    private final MariaDbToolsSchemaChangeStatement fallback;
+    private final MariaDbToolsAlterClassifier.Algorithm algorithm;
+
+    public MariaDbToolsNativeAlterStatement(MariaDbToolsSchemaChangeStatement fallback,
+                                            MariaDbToolsAlterClassifier.Algorithm algorithm) {
+        this.fallback = fallback;
+        this.algorithm = algorithm;
+    }
+
+    public MariaDbToolsSchemaChangeStatement getFallback() {
+        return fallback;
+    }
+
+    public MariaDbToolsAlterClassifier.Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Generates the native alter table statement including the algorithm clause.
+     * @param database the database
+     * @return the sql
+     */
+    public String getSql(Database database) {
+        String databaseName = fallback.getDatabaseName();
+        if (databaseName == null) {
+            databaseName = database.getLiquibaseCatalogName();
+        }
+        return "ALTER TABLE " + database.escapeTableName(databaseName, null, fallback.getTableName())
+                + " " + fallback.getAlterStatement() + algorithm.getClause();
+    }
+
+    /**
+     * Executes the alter natively. Falls back to mariadb-schema-change, if the algorithm
+     * is not supported. Does not generate any Sql.
+     * @return always <code>null</code>
+     */
+    @Override
+    public Sql[] generate(Database database) {
+        MariaDbToolsSweeper.getInstance().sweepOnce(database);
+        String sql = getSql(database);
+        MariaDbToolsLockGuard.getInstance().await(database,
+                fallback.getDatabaseName() != null ? fallback.getDatabaseName() : database.getLiquibaseCatalogName(),
+                fallback.getTableName());
+        log.info("Executing natively: " + sql);
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+        try {
+            MariaDbToolsLockGuard.getInstance().executeWithLockWaitTimeout(connection, "altering table "
+                    + fallback.getTableName(), () -> {
+                        try (Statement stmt = connection.createStatement()) {
+                            stmt.execute(sql);
+                        }
+                    });
+        } catch (SQLException e) {
+            if (e.getErrorCode() == MariaDbToolsLockGuard.LOCK_WAIT_TIMEOUT_ERROR) {
+                log.info("Couldn't acquire the metadata lock of table " + fallback.getTableName() + " ("
+                        + e.getMessage() + "), falling back to mariadb-schema-change");
+                return fallback.generate(database);
+            }
+            if (!ALGORITHM_NOT_SUPPORTED_ERRORS.contains(e.getErrorCode())) {
+                throw new UnexpectedLiquibaseException(e);
+            }
+            log.info("Algorithm " + algorithm + " has been rejected (" + e.getMessage()
+                    + "), falling back to mariadb-schema-change");
+            return fallback.generate(database);
+        }
+        MariaDbToolsMetadataCache.getInstance().invalidate(database, fallback.getDatabaseName(), fallback.getTableName());
+        MariaDbToolsChangeSetPlanner.markCovered(database, fallback.getMergedChangeSets());
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return MariaDbToolsNativeAlterStatement.class.getSimpleName()
+                + "[algorithm: " + algorithm + ", fallback: " + fallback + "]";
+    }
+}
@@ -0,0 +1,162 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import liquibase.Scope;
+import liquibase.logging.Logger;
+
+/**
+ * Reads the output of mariadb-schema-change line by line on a single thread.
+ *
+ * <p>Lines are limited to {@link #MAX_LINE_BYTES}, longer lines are truncated. Each line is passed to the
+ * line listener and logged, but at most {@link Configuration#OUTPUT_LOG_RATE} lines per second, so that
+ * e.g. the debug output doesn't flood the log. As the output is read by only one thread, a slow consumer
+ * slows down the process instead of buffering its output. The last {@link Configuration#OUTPUT_TAIL_LINES}
+ * lines are kept, so that they can be reported if the process fails.
+ */
+public class MariaDbToolsOutputPump extends Thread {
+    static final int MAX_LINE_BYTES = 8192;
+    static final String TRUNCATED = " [truncated]";
+
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsOutputPump.class);
+
+    private final InputStream in;
+    private final Consumer<String> lineListener;
+    private final Consumer<String> logSink;
+    private final int tailLines;
+    private final int linesPerSecond;
+    private final LongSupplier nanoClock;
+
+    private final Deque<String> tail = new ArrayDeque<>();
+    private long windowStartNanos;
+    private int linesInWindow;
+    private long suppressed;
+
+    /**
+     * @param in the output of the process, with stderr redirected to stdout
+     * @param lineListener receives every line
+     */
+    public MariaDbToolsOutputPump(InputStream in, Consumer<String> lineListener) {
+        this(in, lineListener, log::info, Configuration.getOutputTailLines(), Configuration.getOutputLogRate(),
+                System::nanoTime);
+    }
+
+    MariaDbToolsOutputPump(InputStream in, Consumer<String> lineListener, Consumer<String> logSink, int tailLines,
+                           int linesPerSecond, LongSupplier nanoClock) {
+        super("mariadbtools-output");
+        setDaemon(true);
+        this.in = in;
+        this.lineListener = lineListener;
+        this.logSink = logSink;
+        this.tailLines = tailLines;
+        this.linesPerSecond = linesPerSecond;
+        this.nanoClock = nanoClock;
+        this.windowStartNanos = nanoClock.getAsLong();
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[4096];
+        byte[] line = new byte[MAX_LINE_BYTES];
+        int length = 0;
+        boolean truncated = false;
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        emit(line, length, truncated);
+                        length = 0;
+                        truncated = false;
+                    } else if (length < line.length) {
+                        line[length++] = b;
+                    } else {
+                        truncated = true;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.fine("While reading the output", e);
+        }
+        if (length > 0 || truncated) {
+            emit(line, length, truncated);
+        }
+        flushSuppressed();
+    }
+
+    private void emit(byte[] bytes, int length, boolean truncated) {
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        String line = new String(bytes, 0, length, Charset.defaultCharset()) + (truncated ? TRUNCATED : "");
+        synchronized (tail) {
+            if (tail.size() >= tailLines && !tail.isEmpty()) {
+                tail.removeFirst();
+            }
+            if (tailLines > 0) {
+                tail.addLast(line);
+            }
+        }
+        try {
+            lineListener.accept(line);
+        } catch (RuntimeException e) {
+            log.warning("Couldn't process the output line " + line, e);
+        }
+        logRateLimited(line);
+    }
+
+    private void logRateLimited(String line) {
+        long now = nanoClock.getAsLong();
+        if (now - windowStartNanos >= TimeUnit.SECONDS.toNanos(1)) {
+            flushSuppressed();
+            windowStartNanos = now;
+            linesInWindow = 0;
+        }
+        if (linesInWindow < linesPerSecond) {
+            linesInWindow++;
+            logSink.accept(line);
+        } else {
+            suppressed++;
+        }
+    }
+
+    private void flushSuppressed() {
+        if (suppressed > 0) {
+            logSink.accept("... " + suppressed + " lines of output not logged");
+            suppressed = 0;
+        }
+    }
+
+    /**
+     * @return the last lines of the output
+     */
+    public List<String> getTail() {
+        synchronized (tail) {
+            return new ArrayList<>(tail);
+        }
+    }
+}
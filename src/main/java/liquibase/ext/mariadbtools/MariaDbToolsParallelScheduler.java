@@ -0,0 +1,494 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import liquibase.Scope;
+import liquibase.change.AddColumnConfig;
+import liquibase.change.Change;
+import liquibase.change.ConstraintsConfig;
+import liquibase.changelog.ChangeLogHistoryService;
+import liquibase.changelog.ChangeLogHistoryServiceFactory;
+import liquibase.changelog.ChangeSet;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.DatabaseException;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.logging.Logger;
+import liquibase.sql.Sql;
+import liquibase.statement.SqlStatement;
+
+/**
+ * Executes the schema changes of independent tables concurrently.
+ *
+ * <p>When a mariadb-schema-change run is started, the following pending changesets are examined.
+ * Changesets, that only consist of changes of one table and don't share any table with the preceding
+ * changesets (including the tables referenced by foreign keys), are started in the background. When liquibase
+ * reaches such a changeset, it waits for the background run to finish. That way, DATABASECHANGELOG is still
+ * updated in changelog order.
+ *
+ * <p>Changesets are only started in the background during an update, that reaches all pending changesets,
+ * see {@link MariaDbToolsUpdateRun}. When the update is finished without reaching a started changeset, e.g.
+ * because any change failed, background runs, that haven't started yet, are cancelled and the others are awaited.
+ * The successfully executed changesets are then marked as ran, so that they are not executed again
+ * with the next update.
+ *
+ * <p>This is disabled by default and can be enabled via {@link Configuration#PARALLEL_TABLES}.
+ */
+public class MariaDbToolsParallelScheduler {
+    private static final Logger log = Scope.getCurrentScope().getLog(MariaDbToolsParallelScheduler.class);
+
+    private static final Map<Database, Map<String, Scheduled>> scheduled = new WeakHashMap<>();
+    private static final Map<String, Semaphore> serverPermits = new HashMap<>();
+    private static ExecutorService pool;
+
+    private static class Scheduled {
+        private final ChangeSet changeSet;
+        // set by whoever comes first: the background run, when it starts, or the end of the update
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile Future<?> future;
+        private boolean awaited;
+
+        Scheduled(ChangeSet changeSet) {
+            this.changeSet = changeSet;
+        }
+    }
+
+    private MariaDbToolsParallelScheduler() { }
+
+    /**
+     * Executes the given statement and starts the following independent changesets in the background.
+     * @param database the database
+     * @param head the statement, that is executed by liquibase now
+     * @return always <code>null</code>
+     */
+    static Sql[] executeHead(Database database, MariaDbToolsSchemaChangeStatement head) {
+        scheduleFollowing(database, head);
+
+        Semaphore permits = getServerPermits(database);
+        permits.acquireUninterruptibly();
+        try {
+            return head.execute(database);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Checks whether the given changeset has been started in the background.
+     * @param database the database
+     * @param changeSet the changeset, might be <code>null</code>
+     * @return <code>true</code> if liquibase only needs to wait for the changeset
+     */
+    public static boolean isScheduled(Database database, ChangeSet changeSet) {
+        if (changeSet == null) {
+            return false;
+        }
+        synchronized (scheduled) {
+            Map<String, Scheduled> entries = scheduled.get(database);
+            return entries != null && entries.containsKey(key(changeSet));
+        }
+    }
+
+    /**
+     * Waits until the background run of the given changeset is finished.
+     * @param database the database
+     * @param changeSet the changeset
+     */
+    static void await(Database database, ChangeSet changeSet) {
+        Scheduled entry;
+        synchronized (scheduled) {
+            Map<String, Scheduled> entries = scheduled.get(database);
+            entry = entries != null ? entries.get(key(changeSet)) : null;
+        }
+        if (entry == null || entry.awaited) {
+            return;
+        }
+
+        log.info("Waiting for changeset " + key(changeSet) + ", that has been started in the background");
+        MariaDbToolsKeepAlive.Registration keepAlive = Configuration.isKeepAlive() && !entry.future.isDone()
+                ? MariaDbToolsKeepAlive.getInstance().register(database) : null;
+        try {
+            entry.future.get();
+            entry.awaited = true;
+        } catch (ExecutionException e) {
+            entry.awaited = true;
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new UnexpectedLiquibaseException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnexpectedLiquibaseException(e);
+        } finally {
+            if (keepAlive != null) {
+                keepAlive.close();
+            }
+        }
+    }
+
+    private static void scheduleFollowing(Database database, MariaDbToolsSchemaChangeStatement head) {
+        ChangeSet headChangeSet = head.getChangeSet();
+        if (MariaDbChangeUtil.isDryRun(database) || !MariaDbToolsUpdateRun.isLookAheadAllowed(database)
+                || headChangeSet.getChangeLog() == null) {
+            return;
+        }
+        List<ChangeSet> changeSets = headChangeSet.getChangeLog().getChangeSets();
+        int index = changeSets.indexOf(headChangeSet);
+        if (index < 0) {
+            return;
+        }
+
+        Set<String> busy = relatedTables(database, headChangeSet);
+        for (ChangeSet merged : head.getMergedChangeSets()) {
+            busy.addAll(relatedTables(database, merged));
+        }
+        int slots = Configuration.getParallelTables() - 1 - countRunning(database);
+
+        for (ChangeSet candidate : changeSets.subList(index + 1, changeSets.size())) {
+            if (slots <= 0) {
+                break;
+            }
+            if (head.getMergedChangeSets().contains(candidate) || MariaDbToolsChangeSetPlanner.isCovered(database, candidate)) {
+                continue;
+            }
+            if (isScheduled(database, candidate)) {
+                busy.addAll(relatedTables(database, candidate));
+                continue;
+            }
+            if (!isMariaDbToolsOnly(database, candidate)) {
+                // we don't know, what other changesets do, so stop here
+                break;
+            }
+
+            Set<String> tables = relatedTables(database, candidate);
+            boolean independent = Collections.disjoint(tables, busy);
+            busy.addAll(tables);
+            MariaDbToolsSchemaChangeStatement statement = independent ? createStatement(database, candidate) : null;
+            if (statement == null) {
+                continue;
+            }
+            for (ChangeSet merged : statement.getMergedChangeSets()) {
+                busy.addAll(relatedTables(database, merged));
+            }
+            if (submit(database, candidate, statement)) {
+                slots--;
+            }
+        }
+    }
+
+    private static boolean isMariaDbToolsOnly(Database database, ChangeSet candidate) {
+        if (candidate.getChanges().isEmpty() || !MariaDbToolsChangeSetPlanner.isPending(candidate, database)) {
+            return false;
+        }
+        for (Change change : candidate.getChanges()) {
+            if (!(change instanceof MariaDbToolsChange) || !MariaDbChangeUtil.isMariaDbToolsEnabled((MariaDbToolsChange) change)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates the statement for the candidate. Only changesets, that are executed with one single
+     * mariadb-schema-change run, are supported. The in-JVM engine and native alters use liquibase's
+     * connection and therefore can't run in the background.
+     */
+    private static MariaDbToolsSchemaChangeStatement createStatement(Database database, ChangeSet candidate) {
+        MariaDbToolsChange first = (MariaDbToolsChange) candidate.getChanges().get(0);
+        if (MariaDbToolsChangeCoalescer.findGroup(first).size() != candidate.getChanges().size()) {
+            return null;
+        }
+        SqlStatement[] statements = first.generateStatements(database);
+        if (statements.length == 1 && statements[0].getClass() == MariaDbToolsSchemaChangeStatement.class) {
+            return (MariaDbToolsSchemaChangeStatement) statements[0];
+        }
+        return null;
+    }
+
+    /**
+     * Starts the statement in the background. The background run waits for long-running transactions on the table
+     * like any other schema change and uses its own connection, as liquibase's connection must not be used
+     * concurrently. If that connection can't be opened, the changeset is left to liquibase.
+     * @return <code>true</code> if the statement has been started
+     */
+    private static boolean submit(Database database, ChangeSet changeSet, MariaDbToolsSchemaChangeStatement statement) {
+        final Database jobDatabase = openJobDatabase(database);
+        if (jobDatabase == null) {
+            return false;
+        }
+        statement.prepareExecution(database);
+        final List<String> command = statement.buildCommand(database);
+        final Semaphore permits = getServerPermits(database);
+        final String schema = statement.getDatabaseName() != null ? statement.getDatabaseName() : database.getLiquibaseCatalogName();
+        final Scheduled entry = new Scheduled(changeSet);
+        entry.future = getPool().submit(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                if (!entry.claimed.compareAndSet(false, true)) {
+                    // the update is already finished
+                    return;
+                }
+                MariaDbToolsLockGuard.getInstance().await(jobDatabase, schema, statement.getTableName());
+                statement.runCommand(command, jobDatabase, false);
+                // liquibase's database keeps the state of the update
+                MariaDbToolsChangeSetPlanner.markCovered(database, statement.getMergedChangeSets());
+            } finally {
+                MariaDbToolsMetadataCache.getInstance().invalidate(database, schema, statement.getTableName());
+                permits.release();
+                closeJobDatabase(database, jobDatabase);
+            }
+        });
+        synchronized (scheduled) {
+            scheduled.computeIfAbsent(database, d -> new LinkedHashMap<>()).put(key(changeSet), entry);
+        }
+        log.info("Started changeset " + key(changeSet) + " for table " + statement.getTableName() + " in the background");
+        return true;
+    }
+
+    /**
+     * Creates a database with its own connection for a background run.
+     * @return the database, liquibase's database if it has no jdbc connection, or <code>null</code>, if the
+     *      connection couldn't be opened
+     */
+    private static Database openJobDatabase(Database database) {
+        if (!(database.getConnection() instanceof JdbcConnection)) {
+            return database;
+        }
+        Connection connection = null;
+        try {
+            connection = DatabaseConnectionUtil.openConnection(database.getConnection());
+            connection.setAutoCommit(true);
+            Database jobDatabase = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+            jobDatabase.setDefaultCatalogName(database.getDefaultCatalogName());
+            jobDatabase.setLiquibaseCatalogName(database.getLiquibaseCatalogName());
+            return jobDatabase;
+        } catch (SQLException | DatabaseException | RuntimeException e) {
+            log.warning("Couldn't open a connection for a background run, the changeset is executed by liquibase", e);
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException ignored) {
+                    // already failed
+                }
+            }
+            return null;
+        }
+    }
+
+    private static void closeJobDatabase(Database database, Database jobDatabase) {
+        if (jobDatabase == database) {
+            return;
+        }
+        try {
+            ((JdbcConnection) jobDatabase.getConnection()).getUnderlyingConnection().close();
+        } catch (SQLException e) {
+            log.fine("Couldn't close the connection of a background run", e);
+        }
+    }
+
+    private static int countRunning(Database database) {
+        int count = 0;
+        synchronized (scheduled) {
+            Map<String, Scheduled> entries = scheduled.get(database);
+            if (entries != null) {
+                for (Scheduled entry : entries.values()) {
+                    if (!entry.future.isDone()) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finishes the background runs of the update: runs, that haven't started yet, are cancelled, and the
+     * running ones are awaited. Successfully executed changesets, that liquibase didn't reach, are marked as ran.
+     * Called at the end of each update, see {@link MariaDbToolsUpdateRun}.
+     * @param database the database
+     */
+    static void finish(Database database) {
+        Map<String, Scheduled> entries;
+        synchronized (scheduled) {
+            entries = scheduled.remove(database);
+        }
+        if (entries == null) {
+            return;
+        }
+
+        List<ChangeSet> completed = new ArrayList<>();
+        for (Scheduled entry : entries.values()) {
+            if (entry.awaited) {
+                continue;
+            }
+            if (entry.claimed.compareAndSet(false, true)) {
+                log.info("Changeset " + key(entry.changeSet) + " has been cancelled, as the update is finished");
+                continue;
+            }
+            try {
+                entry.future.get();
+                completed.add(entry.changeSet);
+            } catch (ExecutionException e) {
+                log.warning("Changeset " + key(entry.changeSet) + " failed in the background", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.severe("Interrupted while waiting for the changesets, that run in the background. "
+                        + "They might still be running and need to be marked as ran manually.");
+                break;
+            }
+        }
+        if (!completed.isEmpty()) {
+            markRan(database, completed);
+        }
+    }
+
+    private static void markRan(Database database, List<ChangeSet> changeSets) {
+        changeSets.sort(Comparator.comparingInt(c -> c.getChangeLog().getChangeSets().indexOf(c)));
+        List<String> keys = new ArrayList<>();
+        for (ChangeSet changeSet : changeSets) {
+            keys.add(key(changeSet));
+        }
+        log.warning("The changesets " + keys + " have already been executed in the background. Marking them as ran.");
+
+        try {
+            ChangeLogHistoryService history = ChangeLogHistoryServiceFactory.getInstance().getChangeLogService(database);
+            for (ChangeSet changeSet : changeSets) {
+                history.setExecType(changeSet, ChangeSet.ExecType.EXECUTED);
+            }
+        } catch (DatabaseException | RuntimeException e) {
+            log.severe("Couldn't mark the changesets " + keys + " as ran. They need to be marked manually, "
+                    + "e.g. with changelogSync", e);
+        }
+    }
+
+    /**
+     * Determines the tables, that are altered by the changeset, including the tables, that are
+     * referenced by foreign keys or that reference the altered tables.
+     */
+    static Set<String> relatedTables(Database database, ChangeSet changeSet) {
+        Set<String> result = new HashSet<>();
+        for (Change c : changeSet.getChanges()) {
+            if (!(c instanceof MariaDbToolsChange)) {
+                continue;
+            }
+            MariaDbToolsChange change = (MariaDbToolsChange) c;
+            addTable(result, change.getTargetTableName());
+            if (c instanceof MariaDbToolsAddForeignKeyConstraintChange) {
+                addTable(result, ((MariaDbToolsAddForeignKeyConstraintChange) c).getReferencedTableName());
+            } else if (c instanceof MariaDbToolsAddColumnChange) {
+                for (AddColumnConfig column : ((MariaDbToolsAddColumnChange) c).getColumns()) {
+                    ConstraintsConfig constraints = column.getConstraints();
+                    if (constraints != null) {
+                        addTable(result, constraints.getReferencedTableName());
+                        String references = constraints.getReferences();
+                        if (references != null && references.contains("(")) {
+                            addTable(result, references.substring(0, references.indexOf('(')));
+                        }
+                    }
+                }
+            }
+            addForeignKeyNeighbours(result, database, change);
+        }
+        return result;
+    }
+
+    private static void addForeignKeyNeighbours(Set<String> result, Database database, MariaDbToolsChange change) {
+        if (!(database.getConnection() instanceof JdbcConnection) || !MariaDbChangeUtil.isConnected(database)) {
+            return;
+        }
+        String schema = change.getTargetDatabaseName();
+        if (schema == null) {
+            schema = database.getLiquibaseCatalogName() != null ? database.getLiquibaseCatalogName() : database.getDefaultCatalogName();
+        }
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT TABLE_NAME, REFERENCED_TABLE_NAME "
+                + "FROM information_schema.KEY_COLUMN_USAGE WHERE TABLE_SCHEMA = ? AND REFERENCED_TABLE_NAME IS NOT NULL "
+                + "AND (TABLE_NAME = ? OR REFERENCED_TABLE_NAME = ?)")) {
+            stmt.setString(1, schema);
+            stmt.setString(2, change.getTargetTableName());
+            stmt.setString(3, change.getTargetTableName());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    addTable(result, rs.getString(1));
+                    addTable(result, rs.getString(2));
+                }
+            }
+        } catch (SQLException e) {
+            log.fine("Couldn't determine the foreign keys of table " + change.getTargetTableName(), e);
+            // unknown relations: make the table conflict with everything
+            result.add("*");
+        }
+    }
+
+    private static void addTable(Set<String> tables, String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return;
+        }
+        String normalized = name.trim().replace("`", "");
+        if (normalized.contains(".")) {
+            normalized = normalized.substring(normalized.lastIndexOf('.') + 1);
+        }
+        tables.add(normalized.toLowerCase(Locale.ROOT));
+    }
+
+    private static Semaphore getServerPermits(Database database) {
+        String server = "";
+        if (database.getConnection() != null) {
+            DatabaseConnectionUtil connection = DatabaseConnectionUtil.forConnection(database.getConnection());
+            server = connection.getHost() + ":" + connection.getPort();
+        }
+        synchronized (serverPermits) {
+            return serverPermits.computeIfAbsent(server, s -> new Semaphore(Configuration.getParallelTablesPerServer()));
+        }
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(Math.max(1, Configuration.getParallelTables() - 1), r -> {
+                Thread thread = new Thread(r, "mariadbtools-parallel");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return pool;
+    }
+
+    private static String key(ChangeSet changeSet) {
+        return changeSet.getFilePath() + "::" + changeSet.getId() + "::" + changeSet.getAuthor();
+    }
+}
@@ -0,0 +1,129 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Progress of an online schema change of one table.
+ * Values, that are not known (yet), are <code>-1</code>.
+ *
+ * @see MariaDbToolsProgressListener
+ */
+public class MariaDbToolsProgressEvent {
+    /**
+     * The phases of an online schema change in the order they occur.
+     */
+    public enum Phase {
+        STARTED,
+        CREATING_TABLE,
+        ALTERING_TABLE,
+        CREATING_TRIGGERS,
+        COPYING,
+        SWAPPING,
+        DROPPING_OLD_TABLE,
+        DROPPING_TRIGGERS,
+        DONE,
+        FAILED
+    }
+
+    private final String databaseName;
+    private final String tableName;
+    private final Phase phase;
+    private final double percent;
+    private final long rowsCopied;
+    private final long totalRows;
+    private final double rowsPerSecond;
+    private final long remainingSeconds;
+
+    public MariaDbToolsProgressEvent(String databaseName, String tableName, Phase phase) {
+        this(databaseName, tableName, phase, -1, -1, -1, -1, -1);
+    }
+
+    public MariaDbToolsProgressEvent(String databaseName, String tableName, Phase phase, double percent,
+                                     long rowsCopied, long totalRows, double rowsPerSecond, long remainingSeconds) {
+        this.databaseName = databaseName;
+        this.tableName = tableName;
+        this.phase = phase;
+        this.percent = percent;
+        this.rowsCopied = rowsCopied;
+        this.totalRows = totalRows;
+        this.rowsPerSecond = rowsPerSecond;
+        this.remainingSeconds = remainingSeconds;
+    }
+
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return the percentage of copied rows (0-100) or <code>-1</code>
+     */
+    public double getPercent() {
+        return percent;
+    }
+
+    public long getRowsCopied() {
+        return rowsCopied;
+    }
+
+    /**
+     * @return the (approximate) number of rows to copy or <code>-1</code>
+     */
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    public double getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    /**
+     * @return the estimated remaining time of the copy phase in seconds or <code>-1</code>
+     */
+    public long getRemainingSeconds() {
+        return remainingSeconds;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(MariaDbToolsProgressEvent.class.getSimpleName()).append("[")
+            .append("table: ").append(databaseName).append('.').append(tableName)
+            .append(", phase: ").append(phase);
+        if (percent >= 0) {
+            sb.append(", percent: ").append(percent);
+        }
+        if (rowsCopied >= 0) {
+            sb.append(", rowsCopied: ").append(rowsCopied);
+        }
+        if (totalRows >= 0) {
+            sb.append(", totalRows: ").append(totalRows);
+        }
+        if (rowsPerSecond >= 0) {
+            sb.append(", rowsPerSecond: ").append(Math.round(rowsPerSecond));
+        }
+        if (remainingSeconds >= 0) {
+            sb.append(", remainingSeconds: ").append(remainingSeconds);
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,35 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Receives the progress of online schema changes.
+ *
+ * <p>Listeners are discovered in three ways:
+ * <ul>
+ * <li>via {@link java.util.ServiceLoader}, by listing the implementation in
+ * {@code META-INF/services/liquibase.ext.mariadbtools.MariaDbToolsProgressListener}</li>
+ * <li>as value of the key {@link #SCOPE_KEY} in the current liquibase {@link liquibase.Scope}</li>
+ * <li>by registering it with {@link MariaDbToolsProgressNotifier#addListener(MariaDbToolsProgressListener)}</li>
+ * </ul>
+ *
+ * <p>Schema changes of different tables might run concurrently, so implementations need to be thread-safe.
+ * Listeners should return quickly, as they are called from the thread that reads the output of the schema change.
+ */
+public interface MariaDbToolsProgressListener {
+    String SCOPE_KEY = "liquibase.mariadbtools.progressListener";
+
+    void onProgress(MariaDbToolsProgressEvent event);
+}
@@ -0,0 +1,94 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import liquibase.Scope;
+import liquibase.logging.Logger;
+
+/**
+ * Dispatches {@link MariaDbToolsProgressEvent}s to all {@link MariaDbToolsProgressListener}s.
+ */
+public class MariaDbToolsProgressNotifier {
+    private static MariaDbToolsProgressNotifier instance = new MariaDbToolsProgressNotifier();
+    private Logger log = Scope.getCurrentScope().getLog(MariaDbToolsProgressNotifier.class);
+
+    private final List<MariaDbToolsProgressListener> listeners = new CopyOnWriteArrayList<>();
+    private List<MariaDbToolsProgressListener> serviceListeners;
+
+    public static MariaDbToolsProgressNotifier getInstance() {
+        return instance;
+    }
+
+    public void addListener(MariaDbToolsProgressListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MariaDbToolsProgressListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Determines all listeners: the built-in {@link MariaDbToolsMetrics}, the registered ones,
+     * the ones from the current scope and the ones found via {@link ServiceLoader}.
+     * @return the listeners
+     */
+    public List<MariaDbToolsProgressListener> getListeners() {
+        List<MariaDbToolsProgressListener> result = new ArrayList<>();
+        result.add(MariaDbToolsMetrics.getInstance());
+        result.addAll(listeners);
+        Object scoped = Scope.getCurrentScope().get(MariaDbToolsProgressListener.SCOPE_KEY, Object.class);
+        if (scoped instanceof MariaDbToolsProgressListener) {
+            result.add((MariaDbToolsProgressListener) scoped);
+        }
+        result.addAll(getServiceListeners());
+        return result;
+    }
+
+    private synchronized List<MariaDbToolsProgressListener> getServiceListeners() {
+        if (serviceListeners == null) {
+            serviceListeners = new ArrayList<>();
+            try {
+                for (MariaDbToolsProgressListener listener : ServiceLoader.load(MariaDbToolsProgressListener.class,
+                        MariaDbToolsProgressNotifier.class.getClassLoader())) {
+                    serviceListeners.add(listener);
+                }
+            } catch (ServiceConfigurationError e) {
+                log.warning("Couldn't load progress listeners", e);
+            }
+        }
+        return serviceListeners;
+    }
+
+    /**
+     * Notifies all listeners. Exceptions of listeners are logged and otherwise ignored, so
+     * that they don't interrupt the schema change.
+     * @param event the event
+     */
+    public void fire(MariaDbToolsProgressEvent event) {
+        for (MariaDbToolsProgressListener listener : getListeners()) {
+            try {
+                listener.onProgress(event);
+            } catch (RuntimeException e) {
+                log.warning("Progress listener " + listener.getClass().getName() + " failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import liquibase.ext.mariadbtools.MariaDbToolsProgressEvent.Phase;
+
+/**
+ * Parses the output of one mariadb-schema-change run into {@link MariaDbToolsProgressEvent}s.
+ *
+ * <p>The relevant output lines look like this:
+ * <pre>
+ * Creating new table...
+ * Altering new table...
+ * 2021-11-09T10:00:00 Creating triggers...
+ * 2021-11-09T10:00:00 Copying approximately 1000000 rows...
+ * Copying `testdb`.`person`:  42% 01:23 remain
+ * 2021-11-09T10:05:00 Copied rows OK.
+ * 2021-11-09T10:05:00 Swapping tables...
+ * 2021-11-09T10:05:00 Dropping old table...
+ * 2021-11-09T10:05:00 Dropping triggers...
+ * Successfully altered `testdb`.`person`.
+ * </pre>
+ */
+public class MariaDbToolsProgressParser {
+    private static final Pattern COPY_PROGRESS = Pattern.compile(
+            "Copying `[^`]*`\\.`[^`]*`:\\s*(\\d+(?:\\.\\d+)?)%\\s+(?:(\\d+)\\+)?(\\d+(?::\\d+)*) remain");
+    private static final Pattern COPY_START = Pattern.compile("Copying approximately (\\d+) rows");
+    private static final Pattern RETRY = Pattern.compile("(?<![\\w-])retrying\\b", Pattern.CASE_INSENSITIVE);
+
+    private final String databaseName;
+    private final String tableName;
+    private final LongSupplier nanoClock;
+
+    private long totalRows = -1;
+    private long copyStartNanos = -1;
+
+    public MariaDbToolsProgressParser(String databaseName, String tableName) {
+        this(databaseName, tableName, System::nanoTime);
+    }
+
+    MariaDbToolsProgressParser(String databaseName, String tableName, LongSupplier nanoClock) {
+        this.databaseName = databaseName;
+        this.tableName = tableName;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Parses one line of output.
+     * @param line the line without line terminator
+     * @return the event or <code>null</code>, if the line doesn't contain any progress information
+     */
+    public synchronized MariaDbToolsProgressEvent parse(String line) {
+        if (line == null) {
+            return null;
+        }
+
+        Matcher progress = COPY_PROGRESS.matcher(line);
+        if (progress.find()) {
+            double percent = Double.parseDouble(progress.group(1));
+            long remaining = parseDuration(progress.group(2), progress.group(3));
+            long rowsCopied = totalRows >= 0 ? Math.round(totalRows * percent / 100) : -1;
+            return copying(percent, rowsCopied, remaining);
+        }
+        Matcher start = COPY_START.matcher(line);
+        if (start.find()) {
+            totalRows = Long.parseLong(start.group(1));
+            copyStartNanos = nanoClock.getAsLong();
+            return copying(0, 0, -1);
+        }
+        if (line.contains("Copied rows OK")) {
+            return copying(100, totalRows, 0);
+        }
+
+        Phase phase = null;
+        if (line.contains("Creating new table")) {
+            phase = Phase.CREATING_TABLE;
+        } else if (line.contains("Altering new table")) {
+            phase = Phase.ALTERING_TABLE;
+        } else if (line.contains("Creating triggers")) {
+            phase = Phase.CREATING_TRIGGERS;
+        } else if (line.contains("Swapping tables")) {
+            phase = Phase.SWAPPING;
+        } else if (line.contains("Dropping old table")) {
+            phase = Phase.DROPPING_OLD_TABLE;
+        } else if (line.contains("Dropping triggers")) {
+            phase = Phase.DROPPING_TRIGGERS;
+        } else if (line.startsWith("Successfully altered")) {
+            phase = Phase.DONE;
+        }
+        return phase != null ? new MariaDbToolsProgressEvent(databaseName, tableName, phase) : null;
+    }
+
+    /**
+     * Checks whether the line reports a retry, e.g. after a lock wait timeout. The tool reports these
+     * as "Retrying ..." or "... retrying", echoed options like {@code --retries} or names like
+     * {@code retry_queue} don't count.
+     * @param line the line
+     * @return <code>true</code> if the tool retries an operation
+     */
+    public static boolean isRetry(String line) {
+        return line != null && RETRY.matcher(line).find();
+    }
+
+    private MariaDbToolsProgressEvent copying(double percent, long rowsCopied, long remainingSeconds) {
+        double rowsPerSecond = -1;
+        if (copyStartNanos >= 0 && rowsCopied >= 0) {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - copyStartNanos);
+            rowsPerSecond = elapsedMillis > 0 ? rowsCopied * 1000.0 / elapsedMillis : 0;
+        }
+        return new MariaDbToolsProgressEvent(databaseName, tableName, Phase.COPYING, percent, rowsCopied, totalRows,
+                rowsPerSecond, remainingSeconds);
+    }
+
+    /**
+     * Parses the remaining time as printed by the percona toolkit: {@code MM:SS}, {@code HH:MM:SS}
+     * or {@code D+HH:MM:SS}.
+     */
+    static long parseDuration(String days, String time) {
+        long seconds = 0;
+        for (String part : time.split(":")) {
+            seconds = seconds * 60 + Long.parseLong(part);
+        }
+        if (days != null) {
+            seconds += TimeUnit.DAYS.toSeconds(Long.parseLong(days));
+        }
+        return seconds;
+    }
+}
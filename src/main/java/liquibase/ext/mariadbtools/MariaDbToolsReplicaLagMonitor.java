@@ -0,0 +1,255 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.ext.mariadbtools.MariaDbToolsReplicaService.Replica;
+import liquibase.logging.Logger;
+
+/**
+ * Pauses the in-JVM engine while any replica lags behind more than {@link Configuration#MAX_REPLICA_LAG}.
+ *
+ * <p>The lag is determined with {@code SHOW SLAVE STATUS} on each replica or, if {@link Configuration#HEARTBEAT}
+ * is enabled, with the heartbeat table {@code mariadbtools_heartbeat}, which is updated every second on the
+ * primary while the copy is running. The heartbeat requires synchronized clocks, but also works for
+ * multi-level replication, where {@code Seconds_Behind_Master} is not reliable.
+ *
+ * <p>A replica, whose lag can't be determined, e.g. as it is unreachable or its replication is stopped, pauses the
+ * copy as well. If the lag stays unknown for {@link Configuration#UNKNOWN_REPLICA_LAG_TIMEOUT}, the copy fails
+ * instead of waiting forever.
+ */
+public class MariaDbToolsReplicaLagMonitor implements AutoCloseable {
+    static final String HEARTBEAT_TABLE = "mariadbtools_heartbeat";
+    private static final long UNKNOWN_LAG = Long.MAX_VALUE;
+
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsReplicaLagMonitor.class);
+
+    /**
+     * Opens the connections to the replicas.
+     */
+    interface ReplicaConnector {
+        Connection open(Replica replica) throws SQLException;
+    }
+
+    private final String heartbeatTable;
+    private final List<Replica> replicas;
+    private final long maxLag;
+    private final ReplicaConnector connector;
+    private final long checkIntervalMillis;
+    private final long unknownLagTimeoutMillis;
+    private final Map<Replica, Connection> connections = new LinkedHashMap<>();
+    private final List<Replica> unknownLagReplicas = new ArrayList<>();
+
+    private ScheduledExecutorService heartbeatWriter;
+    private Connection heartbeatConnection;
+    private long lastCheck;
+    private long lastLag;
+
+    MariaDbToolsReplicaLagMonitor(String heartbeatTable, List<Replica> replicas, long maxLag, ReplicaConnector connector,
+                                  long checkIntervalMillis) {
+        this(heartbeatTable, replicas, maxLag, connector, checkIntervalMillis,
+                TimeUnit.SECONDS.toMillis(Configuration.getUnknownReplicaLagTimeout()));
+    }
+
+    MariaDbToolsReplicaLagMonitor(String heartbeatTable, List<Replica> replicas, long maxLag, ReplicaConnector connector,
+                                  long checkIntervalMillis, long unknownLagTimeoutMillis) {
+        this.heartbeatTable = heartbeatTable;
+        this.replicas = new ArrayList<>(replicas);
+        this.maxLag = maxLag;
+        this.connector = connector;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.unknownLagTimeoutMillis = unknownLagTimeoutMillis;
+    }
+
+    /**
+     * Creates a monitor for the replicas of the given database.
+     * @param database the database
+     * @param schema the schema, in which the heartbeat table is created
+     * @return the monitor or <code>null</code>, if the replica lag check is disabled or no replicas are found
+     */
+    public static MariaDbToolsReplicaLagMonitor create(Database database, String schema) {
+        int maxLag = Configuration.getMaxReplicaLag();
+        if (maxLag <= 0) {
+            return null;
+        }
+        try {
+            List<Replica> replicas = MariaDbToolsReplicaService.getInstance().discover(database);
+            if (replicas.isEmpty()) {
+                log.info("No replicas found, the replica lag is not checked");
+                return null;
+            }
+            String heartbeatTable = Configuration.isHeartbeat()
+                    ? database.escapeTableName(schema, null, HEARTBEAT_TABLE) : null;
+            MariaDbToolsReplicaLagMonitor monitor = new MariaDbToolsReplicaLagMonitor(heartbeatTable, replicas, maxLag,
+                    replica -> DatabaseConnectionUtil.openConnection(database.getConnection(), replica.getHost(),
+                            replica.getPort()),
+                    1000);
+            if (heartbeatTable != null) {
+                monitor.startHeartbeat(DatabaseConnectionUtil.openConnection(database.getConnection()));
+            }
+            return monitor;
+        } catch (SQLException e) {
+            throw new UnexpectedLiquibaseException("Couldn't determine the replicas", e);
+        }
+    }
+
+    /**
+     * Creates the heartbeat table and updates it every second with the given connection to the primary.
+     * @param connection the connection, that is closed with this monitor
+     * @throws SQLException if the heartbeat table can't be created
+     */
+    synchronized void startHeartbeat(Connection connection) throws SQLException {
+        heartbeatConnection = connection;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + heartbeatTable
+                    + " (id INT NOT NULL, ts TIMESTAMP(6) NOT NULL, PRIMARY KEY (id))");
+        }
+        writeHeartbeat();
+        heartbeatWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mariadbtools-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatWriter.scheduleWithFixedDelay(this::writeHeartbeat, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private void writeHeartbeat() {
+        try (Statement stmt = heartbeatConnection.createStatement()) {
+            stmt.executeUpdate("REPLACE INTO " + heartbeatTable + " (id, ts) VALUES (1, UTC_TIMESTAMP(6))");
+        } catch (SQLException e) {
+            log.warning("Couldn't update the heartbeat table " + heartbeatTable, e);
+        }
+    }
+
+    /**
+     * Blocks, while any replica lags behind more than the maximum lag.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws UnexpectedLiquibaseException if the lag of a replica stays unknown longer than the timeout
+     */
+    public void throttle() throws InterruptedException {
+        long unknownSince = 0;
+        long lag;
+        while ((lag = getLag()) > maxLag) {
+            if (lag != UNKNOWN_LAG || unknownLagTimeoutMillis <= 0) {
+                unknownSince = 0;
+            } else if (unknownSince == 0) {
+                unknownSince = System.nanoTime();
+            } else if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - unknownSince) >= unknownLagTimeoutMillis) {
+                throw new UnexpectedLiquibaseException("Couldn't determine the lag of replica " + getUnknownLagReplicas()
+                        + " for " + TimeUnit.MILLISECONDS.toSeconds(unknownLagTimeoutMillis) + "s, see "
+                        + Configuration.UNKNOWN_REPLICA_LAG_TIMEOUT);
+            }
+            Thread.sleep(checkIntervalMillis);
+        }
+    }
+
+    private synchronized List<Replica> getUnknownLagReplicas() {
+        return new ArrayList<>(unknownLagReplicas);
+    }
+
+    /**
+     * Determines the maximum lag of all replicas. The value is cached for the check interval.
+     * @return the lag in seconds, {@link Long#MAX_VALUE} if the lag of a replica is unknown
+     */
+    synchronized long getLag() {
+        long now = System.nanoTime();
+        if (lastCheck != 0 && TimeUnit.NANOSECONDS.toMillis(now - lastCheck) < checkIntervalMillis) {
+            return lastLag;
+        }
+        long max = 0;
+        unknownLagReplicas.clear();
+        for (Replica replica : replicas) {
+            long lag = measureLag(replica);
+            if (lag == UNKNOWN_LAG) {
+                unknownLagReplicas.add(replica);
+            }
+            if (lag > maxLag) {
+                log.info("Replica " + replica + " lags behind " + (lag == UNKNOWN_LAG ? "(unknown)" : lag + "s")
+                        + ", waiting until the lag is less than " + maxLag + "s");
+            }
+            max = Math.max(max, lag);
+        }
+        lastCheck = now;
+        lastLag = max;
+        return max;
+    }
+
+    private long measureLag(Replica replica) {
+        try {
+            Connection connection = connections.get(replica);
+            if (connection == null) {
+                connection = connector.open(replica);
+                connections.put(replica, connection);
+            }
+            try (Statement stmt = connection.createStatement()) {
+                if (heartbeatTable != null) {
+                    try (ResultSet rs = stmt.executeQuery("SELECT TIMESTAMPDIFF(MICROSECOND, ts, UTC_TIMESTAMP(6)) FROM "
+                            + heartbeatTable + " WHERE id = 1")) {
+                        return rs.next() ? (long) Math.ceil(Math.max(0, rs.getLong(1)) / 1000000.0) : UNKNOWN_LAG;
+                    }
+                }
+                try (ResultSet rs = stmt.executeQuery("SHOW SLAVE STATUS")) {
+                    if (!rs.next()) {
+                        return UNKNOWN_LAG;
+                    }
+                    String lag = rs.getString("Seconds_Behind_Master");
+                    // NULL means, that replication is not running
+                    return lag != null ? Long.parseLong(lag) : UNKNOWN_LAG;
+                }
+            }
+        } catch (SQLException | NumberFormatException e) {
+            log.warning("Couldn't determine the lag of replica " + replica, e);
+            closeQuietly(connections.remove(replica));
+            return UNKNOWN_LAG;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (heartbeatWriter != null) {
+            heartbeatWriter.shutdownNow();
+        }
+        closeQuietly(heartbeatConnection);
+        for (Connection connection : connections.values()) {
+            closeQuietly(connection);
+        }
+        connections.clear();
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.fine("Couldn't close connection", e);
+        }
+    }
+}
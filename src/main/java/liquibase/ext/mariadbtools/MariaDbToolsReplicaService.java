@@ -0,0 +1,223 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.logging.Logger;
+
+/**
+ * Determines the replicas of the database and the options, that let mariadb-schema-change
+ * pause the copy while the replicas lag behind.
+ *
+ * @see Configuration#MAX_REPLICA_LAG
+ * @see MariaDbToolsReplicaLagMonitor
+ */
+public class MariaDbToolsReplicaService {
+    /** The DSN table, that is used with {@code --recursion-method=dsn}, if multiple replicas are configured. */
+    static final String DSN_TABLE = "mariadbtools_dsns";
+
+    private static MariaDbToolsReplicaService instance = new MariaDbToolsReplicaService();
+    private Logger log = Scope.getCurrentScope().getLog(MariaDbToolsReplicaService.class);
+
+    /**
+     * Host and port of a replica.
+     */
+    public static class Replica {
+        private final String host;
+        private final String port;
+
+        public Replica(String host, String port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getPort() {
+            return port;
+        }
+
+        /**
+         * @return the replica as DSN for the percona toolkit
+         */
+        public String toDsn() {
+            return "h=" + host + ",P=" + port;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Replica)) {
+                return false;
+            }
+            Replica other = (Replica) obj;
+            return host.equals(other.host) && port.equals(other.port);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port);
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    public static MariaDbToolsReplicaService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Parses the replicas configured with {@link Configuration#REPLICAS}.
+     * @param defaultPort the port, if a replica doesn't specify one
+     * @return the replicas, might be empty
+     */
+    public List<Replica> getConfiguredReplicas(String defaultPort) {
+        List<Replica> replicas = new ArrayList<>();
+        for (String entry : Configuration.getReplicas().split(",")) {
+            String replica = entry.trim();
+            if (replica.isEmpty()) {
+                continue;
+            }
+            int colon = replica.lastIndexOf(':');
+            if (colon > 0) {
+                replicas.add(new Replica(replica.substring(0, colon), replica.substring(colon + 1)));
+            } else {
+                replicas.add(new Replica(replica, defaultPort));
+            }
+        }
+        return replicas;
+    }
+
+    private static String getPort(Database database) {
+        return database.getConnection() != null ? DatabaseConnectionUtil.forConnection(database.getConnection()).getPort() : "3306";
+    }
+
+    private static String getSchema(Database database) {
+        return database.getLiquibaseCatalogName() != null ? database.getLiquibaseCatalogName() : database.getDefaultCatalogName();
+    }
+
+    /**
+     * Determines the command line options for the replica lag check of mariadb-schema-change.
+     * @param database the database
+     * @return the options
+     */
+    public List<String> getToolOptions(Database database) {
+        int maxLag = Configuration.getMaxReplicaLag();
+        if (maxLag <= 0) {
+            return Collections.singletonList("--recursion-method=none");
+        }
+
+        List<Replica> replicas = getConfiguredReplicas(getPort(database));
+        String maxLagOption = "--max-lag=" + maxLag;
+        if (replicas.isEmpty()) {
+            return Arrays.asList("--recursion-method=processlist,hosts", maxLagOption);
+        }
+        if (replicas.size() == 1) {
+            return Arrays.asList("--recursion-method=none", maxLagOption, "--check-slave-lag=" + replicas.get(0).toDsn());
+        }
+        return Arrays.asList("--recursion-method=dsn=D=" + getSchema(database) + ",t=" + DSN_TABLE, maxLagOption);
+    }
+
+    /**
+     * Fills the DSN table with the configured replicas, if multiple replicas are configured. This is
+     * needed before mariadb-schema-change is executed. Does nothing in dry-run mode.
+     * @param database the database
+     */
+    public void prepare(Database database) {
+        List<Replica> replicas = getConfiguredReplicas(getPort(database));
+        if (Configuration.getMaxReplicaLag() <= 0 || replicas.size() < 2 || MariaDbChangeUtil.isDryRun(database)
+                || !(database.getConnection() instanceof JdbcConnection)) {
+            return;
+        }
+
+        String table = database.escapeTableName(getSchema(database), null, DSN_TABLE);
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + table + " (id INT NOT NULL AUTO_INCREMENT, "
+                    + "parent_id INT DEFAULT NULL, dsn VARCHAR(255) NOT NULL, PRIMARY KEY (id))");
+            stmt.execute("DELETE FROM " + table);
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + table + " (dsn) VALUES (?)")) {
+                for (Replica replica : replicas) {
+                    insert.setString(1, replica.toDsn());
+                    insert.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            log.warning("Couldn't prepare the DSN table " + table + " with the replicas " + replicas, e);
+        }
+    }
+
+    /**
+     * Discovers the replicas of the database: the configured replicas, or the replicas reported by
+     * {@code SHOW SLAVE HOSTS}, or the hosts of the binlog dump threads in the processlist.
+     * @param database the database
+     * @return the replicas, might be empty
+     * @throws SQLException if the replicas can't be determined
+     */
+    public List<Replica> discover(Database database) throws SQLException {
+        String port = getPort(database);
+        List<Replica> replicas = getConfiguredReplicas(port);
+        if (!replicas.isEmpty() || !(database.getConnection() instanceof JdbcConnection)) {
+            return replicas;
+        }
+
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SHOW SLAVE HOSTS")) {
+                while (rs.next()) {
+                    String host = rs.getString("Host");
+                    // the host is only reported, if report_host is configured on the replica
+                    if (host != null && !host.trim().isEmpty()) {
+                        replicas.add(new Replica(host.trim(), String.valueOf(rs.getInt("Port"))));
+                    }
+                }
+            }
+            if (replicas.isEmpty()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT HOST FROM information_schema.PROCESSLIST "
+                        + "WHERE COMMAND LIKE 'Binlog Dump%'")) {
+                    while (rs.next()) {
+                        String host = rs.getString(1);
+                        if (host != null && host.contains(":")) {
+                            host = host.substring(0, host.lastIndexOf(':'));
+                        }
+                        Replica replica = new Replica(host, port);
+                        if (host != null && !host.isEmpty() && !replicas.contains(replica)) {
+                            replicas.add(replica);
+                        }
+                    }
+                }
+            }
+        }
+        log.info("Found replicas: " + replicas);
+        return replicas;
+    }
+}
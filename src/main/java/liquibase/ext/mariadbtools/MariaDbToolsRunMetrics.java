@@ -0,0 +1,179 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import liquibase.ext.mariadbtools.MariaDbToolsProgressEvent.Phase;
+
+/**
+ * Metrics of one schema change run of a table. Updated from the {@link MariaDbToolsProgressEvent}s.
+ */
+public class MariaDbToolsRunMetrics implements MariaDbToolsRunMetricsMXBean {
+    private final String databaseName;
+    private final String tableName;
+    private final LongSupplier nanoClock;
+    private final long startNanos;
+
+    private Phase phase = Phase.STARTED;
+    private double percent = -1;
+    private long rowsCopied = -1;
+    private double rowsPerSecond = -1;
+    private long remainingSeconds = -1;
+    private long retries;
+    private long chunks;
+    private long lastChunkMillis = -1;
+    private long totalChunkMillis;
+    private long swapStartNanos = -1;
+    private long swapMillis = -1;
+    private int exitCode = -1;
+    private long endNanos = -1;
+    private final Map<Phase, Long> phaseMillis = new EnumMap<>(Phase.class);
+    private long phaseStartNanos;
+
+    MariaDbToolsRunMetrics(String databaseName, String tableName, LongSupplier nanoClock) {
+        this.databaseName = databaseName;
+        this.tableName = tableName;
+        this.nanoClock = nanoClock;
+        this.startNanos = nanoClock.getAsLong();
+        this.phaseStartNanos = startNanos;
+    }
+
+    synchronized void update(MariaDbToolsProgressEvent event) {
+        Phase previous = phase;
+        phase = event.getPhase();
+        if (phase != previous) {
+            endPhase(previous);
+        }
+        if (phase == Phase.COPYING) {
+            percent = event.getPercent();
+            if (event.getRowsCopied() >= 0) {
+                rowsCopied = event.getRowsCopied();
+            }
+            rowsPerSecond = event.getRowsPerSecond();
+            remainingSeconds = event.getRemainingSeconds();
+        } else if (phase == Phase.SWAPPING) {
+            swapStartNanos = nanoClock.getAsLong();
+        } else if (previous == Phase.SWAPPING) {
+            swapMillis = TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - swapStartNanos);
+        }
+    }
+
+    synchronized void recordRetry() {
+        retries++;
+    }
+
+    synchronized void recordChunk(long millis) {
+        chunks++;
+        lastChunkMillis = millis;
+        totalChunkMillis += millis;
+    }
+
+    synchronized void finish(int exitCode) {
+        this.exitCode = exitCode;
+        this.endNanos = nanoClock.getAsLong();
+        endPhase(phase);
+        if (swapStartNanos >= 0 && swapMillis < 0) {
+            swapMillis = TimeUnit.NANOSECONDS.toMillis(endNanos - swapStartNanos);
+        }
+    }
+
+    private void endPhase(Phase ended) {
+        long now = nanoClock.getAsLong();
+        phaseMillis.merge(ended, TimeUnit.NANOSECONDS.toMillis(now - phaseStartNanos), Long::sum);
+        phaseStartNanos = now;
+    }
+
+    /**
+     * @return the time spent in each phase so far, the current phase is only included once the run finished
+     */
+    public synchronized Map<Phase, Long> getPhaseMillis() {
+        return new EnumMap<>(phaseMillis);
+    }
+
+    @Override
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    @Override
+    public String getTableName() {
+        return tableName;
+    }
+
+    @Override
+    public synchronized String getPhase() {
+        return phase.name();
+    }
+
+    @Override
+    public synchronized double getPercent() {
+        return percent;
+    }
+
+    @Override
+    public synchronized long getRowsCopied() {
+        return rowsCopied;
+    }
+
+    @Override
+    public synchronized double getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    @Override
+    public synchronized long getElapsedSeconds() {
+        long end = endNanos >= 0 ? endNanos : nanoClock.getAsLong();
+        return TimeUnit.NANOSECONDS.toSeconds(end - startNanos);
+    }
+
+    @Override
+    public synchronized long getRemainingSeconds() {
+        return remainingSeconds;
+    }
+
+    @Override
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    @Override
+    public synchronized long getChunks() {
+        return chunks;
+    }
+
+    @Override
+    public synchronized long getLastChunkMillis() {
+        return lastChunkMillis;
+    }
+
+    @Override
+    public synchronized double getAverageChunkMillis() {
+        return chunks > 0 ? (double) totalChunkMillis / chunks : -1;
+    }
+
+    @Override
+    public synchronized long getSwapMillis() {
+        return swapMillis;
+    }
+
+    @Override
+    public synchronized int getExitCode() {
+        return exitCode;
+    }
+}
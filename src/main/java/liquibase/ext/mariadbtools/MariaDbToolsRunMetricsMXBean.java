@@ -0,0 +1,53 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Management interface of one running schema change.
+ *
+ * @see MariaDbToolsRunMetrics
+ */
+public interface MariaDbToolsRunMetricsMXBean {
+    String getDatabaseName();
+
+    String getTableName();
+
+    String getPhase();
+
+    double getPercent();
+
+    long getRowsCopied();
+
+    double getRowsPerSecond();
+
+    long getElapsedSeconds();
+
+    long getRemainingSeconds();
+
+    long getRetries();
+
+    long getChunks();
+
+    long getLastChunkMillis();
+
+    double getAverageChunkMillis();
+
+    long getSwapMillis();
+
+    /**
+     * @return the exit code or <code>-1</code> while the schema change is still running
+     */
+    int getExitCode();
+}
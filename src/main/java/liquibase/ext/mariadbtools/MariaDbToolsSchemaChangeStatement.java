@@ -14,34 +14,24 @@ package liquibase.ext.mariadbtools;
  * limitations under the License.
  */
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.Charset;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
 import java.util.StringTokenizer;
-import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import liquibase.Scope;
+import liquibase.changelog.ChangeSet;
 import liquibase.database.Database;
-import liquibase.database.jvm.JdbcConnection;
-import liquibase.exception.DatabaseException;
 import liquibase.exception.UnexpectedLiquibaseException;
 import liquibase.logging.Logger;
 import liquibase.sql.Sql;
 import liquibase.statement.core.RuntimeStatement;
-import liquibase.util.StreamUtil;
 
 /**
  * Statement to run {@code mariadb-schema-change} in order
@@ -58,6 +48,10 @@ public class MariaDbToolsSchemaChangeStatement extends RuntimeStatement {
     private String tableName;
     private String alterStatement;
     private Optional<String> mariaDbToolsOptions;
+    private List<ChangeSet> mergedChangeSets = Collections.emptyList();
+    private ChangeSet changeSet;
+    private MariaDbToolsThrottleController throttleController;
+    private List<String> resumeOptions = Collections.emptyList();
 
     public MariaDbToolsSchemaChangeStatement(String databaseName, String tableName, String alterStatement,
                                              Optional<String> mariaDbToolsOptions) {
@@ -67,6 +61,45 @@ public class MariaDbToolsSchemaChangeStatement extends RuntimeStatement {
         this.mariaDbToolsOptions = mariaDbToolsOptions;
     }
 
+    /**
+     * Sets the changesets, which are executed as part of this statement in addition to the
+     * changeset of the change, that created this statement.
+     * @param mergedChangeSets the merged changesets
+     * @see MariaDbToolsChangeSetPlanner
+     */
+    public void setMergedChangeSets(List<ChangeSet> mergedChangeSets) {
+        this.mergedChangeSets = mergedChangeSets;
+    }
+
+    /**
+     * Sets the changeset of the change, that created this statement.
+     * @param changeSet the changeset, might be <code>null</code>
+     * @see MariaDbToolsParallelScheduler
+     */
+    public void setChangeSet(ChangeSet changeSet) {
+        this.changeSet = changeSet;
+    }
+
+    public ChangeSet getChangeSet() {
+        return changeSet;
+    }
+
+    public List<ChangeSet> getMergedChangeSets() {
+        return mergedChangeSets;
+    }
+
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getAlterStatement() {
+        return alterStatement;
+    }
+
     /**
      * Tokenizes the given options into separate arguments, so that it can be
      * fed into the {@link ProcessBuilder}'s commands.
@@ -136,17 +169,19 @@ public class MariaDbToolsSchemaChangeStatement extends RuntimeStatement {
             commands.addAll(tokenize(Configuration.getAdditionalOptions()));
         }
 
-        commands.add("--recursion-method=none");
+        commands.addAll(MariaDbToolsReplicaService.getInstance().getToolOptions(database));
+        MariaDbToolsLockGuard.getInstance().addToolOptions(commands);
+        if (throttleController != null) {
+            throttleController.addToolOptions(commands);
+        }
+        commands.addAll(resumeOptions);
         commands.add("--alter=" + alterStatement);
 
         StringBuilder dsn = new StringBuilder(200);
 
         if (database.getConnection() != null) {
-            DatabaseConnectionUtil connection = new DatabaseConnectionUtil(database.getConnection());
-            dsn.append("h=").append(connection.getHost());
-            dsn.append(",P=").append(connection.getPort());
-            dsn.append(",u=").append(connection.getUser());
-            dsn.append(',');
+            DatabaseConnectionUtil connection = DatabaseConnectionUtil.forConnection(database.getConnection());
+            dsn.append(connection.getDsn()).append(',');
 
             String pw = connection.getPassword();
             if (pw != null) {
@@ -199,16 +234,63 @@ public class MariaDbToolsSchemaChangeStatement extends RuntimeStatement {
 
     /**
      * Actually executes mariadb-schema-change change. Does not generate any Sql.
+     * If parallel execution is enabled, the following independent changesets are started as well.
      * @return always <code>null</code>
+     * @see MariaDbToolsParallelScheduler
      */
     @Override
     public Sql[] generate(Database database) {
-        List<String> cmndline = buildCommand(database);
-        log.info("Executing: " + filterCommands(cmndline));
+        MariaDbToolsSweeper.getInstance().sweepOnce(database);
+        MariaDbToolsReplicaService.getInstance().prepare(database);
+        if (changeSet != null && Configuration.getParallelTables() > 1) {
+            return MariaDbToolsParallelScheduler.executeHead(database, this);
+        }
+        return execute(database);
+    }
+
+    /**
+     * Executes the schema change.
+     * @param database the database
+     * @return always <code>null</code>
+     */
+    Sql[] execute(Database database) {
+        MariaDbToolsLockGuard.getInstance().await(database,
+                databaseName != null ? databaseName : database.getLiquibaseCatalogName(), tableName);
+        prepareExecution(database);
+        return runCommand(buildCommand(database), database, Configuration.isKeepAlive());
+    }
 
-        KeepAliveThread keepAlive = new KeepAliveThread(database);
-        if (Configuration.isKeepAlive()) {
-            keepAlive.start();
+    /**
+     * Creates the throttle controller, if throttling is enabled, and looks up an unfinished run to resume.
+     * Must be called before {@link #buildCommand(Database)}, so that these options are included.
+     * @param database the database
+     */
+    void prepareExecution(Database database) {
+        if (throttleController == null) {
+            throttleController = MariaDbToolsThrottleController.create(database);
+        }
+        resumeOptions = MariaDbToolsCheckpoint.getToolOptions(database,
+                databaseName != null ? databaseName : database.getLiquibaseCatalogName(), tableName, alterStatement);
+    }
+
+    /**
+     * Runs the given mariadb-schema-change command line.
+     * @param cmndline the command line as created by {@link #buildCommand(Database)}
+     * @param database the database
+     * @param keepAliveEnabled whether liquibase's connection should be kept alive meanwhile
+     * @return always <code>null</code>
+     */
+    Sql[] runCommand(List<String> cmndline, Database database, boolean keepAliveEnabled) {
+        log.info("Executing: " + filterCommands(cmndline));
+        final MariaDbToolsProgressNotifier notifier = MariaDbToolsProgressNotifier.getInstance();
+        final String progressDatabaseName = databaseName != null ? databaseName : database.getLiquibaseCatalogName();
+        final MariaDbToolsProgressParser progress = new MariaDbToolsProgressParser(progressDatabaseName, tableName);
+        notifier.fire(new MariaDbToolsProgressEvent(progressDatabaseName, tableName, MariaDbToolsProgressEvent.Phase.STARTED));
+
+        MariaDbToolsKeepAlive.Registration keepAlive = keepAliveEnabled
+                ? MariaDbToolsKeepAlive.getInstance().register(database) : null;
+        if (throttleController != null) {
+            throttleController.startPauseFileMonitor();
         }
 
         ProcessBuilder pb = new ProcessBuilder(cmndline);
@@ -217,43 +299,63 @@ public class MariaDbToolsSchemaChangeStatement extends RuntimeStatement {
         }
         pb.redirectErrorStream(true);
         Process p = null;
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            final OutputStream tee = new FilterOutputStream(outputStream) {
-                @Override
-                public void write(int b) throws IOException {
-                    if (b == '\n') {
-                        log.info(outputStream.toString(Charset.defaultCharset().toString()));
-                        outputStream.reset();
-                    } else {
-                        super.write(b);
-                    }
-                }
-            };
+        int exitCode = -1;
+        try {
             p = pb.start();
-            try (InputStream in = p.getInputStream();
-                 InputStream err = p.getErrorStream();
+            try (MariaDbToolsAbortHandler abortHandler = MariaDbToolsAbortHandler.register(p, database,
+                        progressDatabaseName, tableName, cmndline.contains("--nodrop-new-table"));
+                 MariaDbToolsBlockerMonitor blockerMonitor = MariaDbToolsBlockerMonitor.start(database,
+                        progressDatabaseName, tableName);
+                 InputStream in = p.getInputStream();
                  OutputStream out = p.getOutputStream()) {
-                IOThread reader = new IOThread(in, tee);
-                IOThread reader2 = new IOThread(err, tee);
-                reader.start();
-                reader2.start();
-
-                int exitCode = p.waitFor();
-                reader.join(5000);
-                reader2.join(5000);
-                keepAlive.interrupt();
-                // log the remaining output
-                log.info(outputStream.toString(Charset.defaultCharset().toString()));
+                MariaDbToolsOutputPump pump = new MariaDbToolsOutputPump(in, line -> {
+                    abortHandler.onOutput(line);
+                    MariaDbToolsProgressEvent event = progress.parse(line);
+                    if (event != null) {
+                        notifier.fire(event);
+                    }
+                    if (MariaDbToolsProgressParser.isRetry(line)) {
+                        MariaDbToolsMetrics.getInstance().recordRetry(progressDatabaseName, tableName);
+                    }
+                });
+                pump.start();
+
+                try {
+                    exitCode = p.waitFor();
+                    pump.join(5000);
+                } catch (InterruptedException e) {
+                    // stop the tool gracefully, so that it doesn't leave its triggers behind
+                    abortHandler.abort();
+                    Thread.currentThread().interrupt();
+                    notifier.fire(new MariaDbToolsProgressEvent(progressDatabaseName, tableName,
+                            MariaDbToolsProgressEvent.Phase.FAILED));
+                    throw new UnexpectedLiquibaseException(e);
+                }
 
                 if (exitCode != 0) {
-                    throw new RuntimeException("MariaDB Tools exited with " + exitCode);
+                    notifier.fire(new MariaDbToolsProgressEvent(progressDatabaseName, tableName,
+                            MariaDbToolsProgressEvent.Phase.FAILED));
+                    throw new RuntimeException("MariaDB Tools exited with " + exitCode + formatTail(pump.getTail()));
                 }
+                if (resumeOptions.contains("--nodrop-triggers")) {
+                    MariaDbToolsCheckpoint.dropOldTable(database, progressDatabaseName, tableName);
+                }
+                MariaDbToolsChangeSetPlanner.markCovered(database, mergedChangeSets);
             }
         } catch (IOException e) {
             throw new UnexpectedLiquibaseException(e);
-        } catch (InterruptedException e) {
-            throw new UnexpectedLiquibaseException(e);
         } finally {
+            if (keepAlive != null) {
+                keepAlive.close();
+            }
+            MariaDbToolsRunMetrics run = MariaDbToolsMetrics.getInstance().finish(progressDatabaseName, tableName, exitCode);
+            MariaDbToolsHistory.getInstance().record(database, progressDatabaseName, tableName, run, COMMAND,
+                    getVersion().toString(), getToolOptions(cmndline));
+            MariaDbToolsMetadataCache.getInstance().invalidate(database, progressDatabaseName, tableName);
+            if (throttleController != null) {
+                throttleController.close();
+                throttleController = null;
+            }
             if (p != null) {
                 p.destroy();
             }
@@ -261,81 +363,33 @@ public class MariaDbToolsSchemaChangeStatement extends RuntimeStatement {
         return null;
     }
 
-    @Override
-    public String toString() {
-        return MariaDbToolsSchemaChangeStatement.class.getSimpleName()
-                + "[database: " + databaseName + ", table: " + tableName + ", alterStatement: " + alterStatement + "]";
-    }
-
-    private static class KeepAliveThread extends Thread {
-        private final Database database;
-
-        public KeepAliveThread(Database database) {
-            this.database = database;
+    private static String formatTail(List<String> tail) {
+        if (tail.isEmpty()) {
+            return "";
         }
+        return "\nLast " + tail.size() + " lines of output:\n" + String.join("\n", tail);
+    }
 
-        @Override
-        public void run() {
-            boolean running = true;
-            JdbcConnection connection = (JdbcConnection) database.getConnection();
-            long keepAlive = 28800L;
-
-            try (Statement stmt = connection.createStatement()) {
-                stmt.execute("show variables where variable_name = 'wait_timeout'");
-                try (ResultSet rs = stmt.getResultSet()) {
-                    if (rs.next()) {
-                        keepAlive = rs.getLong(2);
-                    } else {
-                        log.warning("Couldn't determine wait_timeout for keepAlive, using default");
-                    }
-                }
-            } catch (SQLException | DatabaseException e) {
-                log.warning("Couldn't determine wait_timeout for keepAlive, using default", e);
-            }
-
-            long sleepTimeInMillis = TimeUnit.SECONDS.toMillis(keepAlive) / 2;
-            // make sure, we don't ping more often than every 500 ms.
-            sleepTimeInMillis = Math.max(500, sleepTimeInMillis);
-            log.info("KeepAlive every " + sleepTimeInMillis + " millis");
-
-            while (running) {
-                try (Statement stmt = connection.createStatement()) {
-                    log.fine("Pinging database...");
-                    stmt.execute("SELECT 1");
-                    Thread.sleep(sleepTimeInMillis);
-                } catch (SQLException | DatabaseException e) {
-                    log.severe("Couldn't ping database", e);
-                    running = false;
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    running = false;
-                }
+    /**
+     * Extracts the options of the given command line, without the alter statement, the connection and the password.
+     * @param cmndline the command line as created by {@link #buildCommand(Database)}
+     * @return the options as a single string
+     */
+    private String getToolOptions(List<String> cmndline) {
+        List<String> options = new ArrayList<>();
+        for (String arg : cmndline.subList(1, cmndline.size())) {
+            if (arg.startsWith("--alter=")) {
+                break;
             }
-
-            log.info("KeepAlive thread finished");
+            options.add(arg);
         }
+        return options.isEmpty() ? "" : filterCommands(options);
     }
 
-    private static class IOThread extends Thread {
-        private Logger log = Scope.getCurrentScope().getLog(IOThread.class);
-        private InputStream from;
-        private OutputStream to;
-
-        public IOThread(InputStream from, OutputStream to) {
-            super();
-            setDaemon(true);
-            this.from = from;
-            this.to = to;
-        }
-
-        @Override
-        public void run() {
-            try {
-                StreamUtil.copy(from, to);
-            } catch (IOException e) {
-                log.fine("While copying streams", e);
-            }
-        }
+    @Override
+    public String toString() {
+        return MariaDbToolsSchemaChangeStatement.class.getSimpleName()
+                + "[database: " + databaseName + ", table: " + tableName + ", alterStatement: " + alterStatement + "]";
     }
 
     public static synchronized MariaDbToolsToolkitVersion getVersion() {
@@ -349,7 +403,7 @@ public class MariaDbToolsSchemaChangeStatement extends RuntimeStatement {
      * Checks whether the command is available and can be started.
      * <p>
      * <em>Implementation detail:</em>
-     * This is lazily detected once and then cached.
+     * This is detected once in the background and then cached, see {@link MariaDbToolsToolkitProbe}.
      * </p>
      * @return <code>true</code> if it is available and executable, <code>false</code> otherwise
      * @see #COMMAND
@@ -362,7 +416,7 @@ public class MariaDbToolsSchemaChangeStatement extends RuntimeStatement {
         return available.booleanValue();
     }
 
-    private static String getFullToolkitPath() {
+    static String getFullToolkitPath() {
         String toolkitPath = Configuration.getMariadbToolsPath();
         if (toolkitPath.isEmpty()) {
             return COMMAND;
@@ -375,33 +429,10 @@ public class MariaDbToolsSchemaChangeStatement extends RuntimeStatement {
     }
 
     private static void checkIsAvailableAndGetVersion() {
-        ProcessBuilder pb = new ProcessBuilder(getFullToolkitPath(), "--version");
-        pb.redirectErrorStream(true);
-        Process p = null;
-        try {
-            p = pb.start();
-            try (InputStream err = p.getErrorStream();
-                 InputStream in = p.getInputStream();
-                 OutputStream out = p.getOutputStream()) {
-                p.waitFor();
-                String output = StreamUtil.readStreamAsString(in);
-                if (output != null) {
-                    Matcher matcher = Pattern.compile("(\\d+\\.\\d+\\.\\d+)").matcher(output);
-                    if (matcher.find()) {
-                        mariaDBToolsToolkitVersion = new MariaDbToolsToolkitVersion(matcher.group(1));
-                    }
-                }
-                available = true;
-                log.info("Using mariadb tools: " + mariaDBToolsToolkitVersion);
-            }
-        } catch (IOException e) {
-            available = false;
-        } catch (InterruptedException e) {
-            available = false;
-        } finally {
-            if (p != null) {
-                p.destroy();
-            }
+        MariaDbToolsToolkitProbe.Result result = MariaDbToolsToolkitProbe.getInstance().getResult(getFullToolkitPath());
+        available = result.isAvailable();
+        if (result.getVersion() != null) {
+            mariaDBToolsToolkitVersion = new MariaDbToolsToolkitVersion(result.getVersion());
         }
     }
 }
@@ -0,0 +1,75 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import liquibase.change.AbstractChange;
+import liquibase.change.ChangeMetaData;
+import liquibase.change.DatabaseChange;
+import liquibase.change.DatabaseChangeProperty;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.statement.SqlStatement;
+
+/**
+ * Drops the triggers and tables, that aborted online schema changes left behind, see {@link MariaDbToolsSweeper}.
+ */
+@DatabaseChange(name = MariaDbToolsSweepChange.NAME,
+    description = "Drops the triggers and tables left behind by aborted online schema changes",
+    priority = ChangeMetaData.PRIORITY_DEFAULT)
+public class MariaDbToolsSweepChange extends AbstractChange {
+    public static final String NAME = "sweepMariaDbToolsLeftovers";
+
+    private String catalogName;
+    private String tableName;
+
+    @DatabaseChangeProperty(description = "Schema to sweep, defaults to the liquibase schema")
+    public String getCatalogName() {
+        return catalogName;
+    }
+
+    public void setCatalogName(String catalogName) {
+        this.catalogName = catalogName;
+    }
+
+    @DatabaseChangeProperty(description = "Sweep only the leftovers of this table")
+    public String getTableName() {
+        return tableName;
+    }
+
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    @Override
+    public boolean supports(Database database) {
+        return database instanceof MySQLDatabase;
+    }
+
+    @Override
+    public boolean generateStatementsVolatile(Database database) {
+        // the leftovers are only known at execution time
+        return true;
+    }
+
+    @Override
+    public SqlStatement[] generateStatements(Database database) {
+        return new SqlStatement[] {new MariaDbToolsSweepStatement(catalogName, tableName)};
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "Leftovers of aborted online schema changes dropped";
+    }
+}
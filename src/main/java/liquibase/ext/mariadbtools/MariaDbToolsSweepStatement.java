@@ -0,0 +1,64 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.SQLException;
+import java.util.List;
+
+import liquibase.database.Database;
+import liquibase.exception.DatabaseException;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.sql.Sql;
+import liquibase.sql.UnparsedSql;
+import liquibase.statement.core.RuntimeStatement;
+
+/**
+ * Statement, that drops the leftovers of aborted online schema changes with {@link MariaDbToolsSweeper}.
+ * In dry-run mode, the drop statements are generated instead.
+ */
+public class MariaDbToolsSweepStatement extends RuntimeStatement {
+    private final String catalogName;
+    private final String tableName;
+
+    public MariaDbToolsSweepStatement(String catalogName, String tableName) {
+        this.catalogName = catalogName;
+        this.tableName = tableName;
+    }
+
+    @Override
+    public Sql[] generate(Database database) {
+        String schema = catalogName != null ? catalogName : database.getLiquibaseCatalogName();
+        if (MariaDbChangeUtil.isDryRun(database)) {
+            try {
+                List<String> drops = MariaDbToolsSweeper.getInstance().findLeftovers(database, schema, tableName);
+                Sql[] result = new Sql[drops.size()];
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = new UnparsedSql(drops.get(i));
+                }
+                return result;
+            } catch (SQLException | DatabaseException e) {
+                throw new UnexpectedLiquibaseException(e);
+            }
+        }
+        MariaDbToolsSweeper.getInstance().sweep(database, schema, tableName);
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return MariaDbToolsSweepStatement.class.getSimpleName() + "[catalogName: " + catalogName
+                + ", tableName: " + tableName + "]";
+    }
+}
@@ -0,0 +1,351 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.DatabaseException;
+import liquibase.logging.Logger;
+import liquibase.structure.core.Catalog;
+import liquibase.structure.core.Table;
+
+/**
+ * Drops the triggers and tables, that aborted online schema changes left behind.
+ *
+ * <p>These are the triggers {@code pt_osc_<db>_<table>_ins/upd/del} and the tables {@code _<table>_new} of both
+ * engines. Forgotten triggers double the write cost of the table, and if the new table is gone, they even break any
+ * write. A new table is only considered left behind, if the triggers of its table exist or if it is recorded in
+ * a checkpoint or the history of mariadb-schema-change, as a table with such a name may as well be created on
+ * purpose. The old tables {@code _<table>_old} are often kept deliberately and are only dropped, if enabled via
+ * {@link Configuration#SWEEP_OLD_TABLES}. The leftovers of a table are kept, if
+ * <ul>
+ * <li>a schema change of the table is running in this JVM,</li>
+ * <li>any of them has been modified within {@link Configuration#SWEEP_MIN_AGE},</li>
+ * <li>a statement of another session uses them, or</li>
+ * <li>a checkpoint or an unfinished run in the history of mariadb-schema-change is recorded for the table, as the
+ * schema change may be paused in another process or can be resumed, see {@link MariaDbToolsCheckpoint}.</li>
+ * </ul>
+ * The leftovers are dropped in batches, throttled by {@link MariaDbToolsThrottleController}.
+ *
+ * @see Configuration#SWEEP
+ * @see MariaDbToolsSweepChange
+ */
+public class MariaDbToolsSweeper {
+    static final int BATCH_SIZE = 10;
+    static final long BATCH_PAUSE_MILLIS = 1000;
+    private static final Pattern LEFTOVER_TABLE = Pattern.compile("_+(.+)_(?:new|old)");
+    private static final Pattern OLD_TABLE = Pattern.compile("_+.+_old");
+
+    private static MariaDbToolsSweeper instance = new MariaDbToolsSweeper();
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsSweeper.class);
+
+    /** the databases, that have already been swept */
+    private final Map<Database, Boolean> swept = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public static MariaDbToolsSweeper getInstance() {
+        return instance;
+    }
+
+    /**
+     * Sweeps the schema of the database, if enabled via {@link Configuration#SWEEP} and not done yet.
+     * Does nothing in dry-run mode. This is called, when the first schema change is executed, and not while
+     * the statements are generated, as they are generated by validate and status as well.
+     * @param database the database
+     */
+    public void sweepOnce(Database database) {
+        if (!Configuration.isSweep() || MariaDbChangeUtil.isDryRun(database) || !MariaDbChangeUtil.isConnected(database)
+                || !(database.getConnection() instanceof JdbcConnection) || swept.put(database, Boolean.TRUE) != null) {
+            return;
+        }
+        sweep(database, database.getLiquibaseCatalogName(), null);
+    }
+
+    /**
+     * Drops the leftovers in the given schema.
+     * @param database the database
+     * @param schema the schema
+     * @param table only the leftovers of this table, or <code>null</code> for all tables
+     * @return the executed drop statements
+     */
+    public List<String> sweep(Database database, String schema, String table) {
+        List<String> executed = new ArrayList<>();
+        if (!(database.getConnection() instanceof JdbcConnection)) {
+            return executed;
+        }
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        MariaDbToolsThrottleController throttleController = null;
+        try {
+            List<String> drops = findLeftovers(database, schema, table);
+            if (drops.isEmpty()) {
+                return executed;
+            }
+            throttleController = MariaDbToolsThrottleController.create(database);
+            try (Statement stmt = connection.createStatement()) {
+                for (String drop : drops) {
+                    if (!executed.isEmpty() && executed.size() % BATCH_SIZE == 0) {
+                        Thread.sleep(BATCH_PAUSE_MILLIS);
+                    }
+                    if (throttleController != null && executed.size() % BATCH_SIZE == 0) {
+                        throttleController.throttle();
+                    }
+                    log.info("Dropping leftover of an aborted schema change: " + drop);
+                    stmt.execute(drop);
+                    executed.add(drop);
+                }
+            }
+        } catch (SQLException | DatabaseException e) {
+            log.warning("Couldn't drop the leftovers of aborted schema changes in " + schema, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warning("Interrupted while dropping the leftovers of aborted schema changes in " + schema);
+        } finally {
+            if (throttleController != null) {
+                throttleController.close();
+            }
+        }
+        return executed;
+    }
+
+    /**
+     * Finds the leftovers, that can be dropped.
+     * @param database the database
+     * @param schema the schema
+     * @param table only the leftovers of this table, or <code>null</code> for all tables
+     * @return the drop statements, the triggers of a table before its tables
+     * @throws SQLException if the leftovers can't be determined
+     * @throws DatabaseException if the leftovers can't be determined
+     */
+    public List<String> findLeftovers(Database database, String schema, String table) throws SQLException, DatabaseException {
+        List<String> drops = new ArrayList<>();
+        if (!(database.getConnection() instanceof JdbcConnection)) {
+            return drops;
+        }
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        int minAge = Configuration.getSweepMinAge();
+
+        Map<String, Boolean> tables = new TreeMap<>();
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT TABLE_NAME, "
+                + "COALESCE(UPDATE_TIME, CREATE_TIME) > NOW() - INTERVAL ? SECOND FROM information_schema.TABLES "
+                + "WHERE TABLE_SCHEMA = ? AND TABLE_TYPE = 'BASE TABLE'")) {
+            stmt.setInt(1, minAge);
+            stmt.setString(2, schema);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    tables.put(rs.getString(1), rs.getInt(2) != 0);
+                }
+            }
+        }
+        Map<String, Leftovers> leftovers = new TreeMap<>();
+        for (Map.Entry<String, Boolean> entry : tables.entrySet()) {
+            String base = getBaseTable(entry.getKey(), tables.keySet());
+            if (!base.equals(entry.getKey())) {
+                Leftovers l = leftovers.computeIfAbsent(base, Leftovers::new);
+                l.tables.add(entry.getKey());
+                l.recent |= entry.getValue();
+            }
+        }
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT TRIGGER_NAME, EVENT_OBJECT_TABLE, "
+                + "CREATED > NOW() - INTERVAL ? SECOND FROM information_schema.TRIGGERS "
+                + "WHERE TRIGGER_SCHEMA = ? AND TRIGGER_NAME LIKE ?")) {
+            stmt.setInt(1, minAge);
+            stmt.setString(2, schema);
+            stmt.setString(3, MariaDbToolsAbortHandler.TRIGGER_PREFIX.replace("_", "\\_") + "%");
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Leftovers l = leftovers.computeIfAbsent(getBaseTable(rs.getString(2), tables.keySet()), Leftovers::new);
+                    l.triggers.add(rs.getString(1));
+                    l.recent |= rs.getInt(3) != 0;
+                }
+            }
+        }
+        if (table != null) {
+            leftovers.keySet().retainAll(Collections.singleton(table));
+        }
+        if (leftovers.isEmpty()) {
+            return drops;
+        }
+
+        Set<String> recorded = new HashSet<>();
+        Set<String> unfinished = new HashSet<>();
+        Set<String> resumable = getResumableTables(database, connection, schema, recorded, unfinished);
+        List<String> runningStatements = getRunningStatements(connection);
+        boolean sweepOldTables = Configuration.isSweepOldTables();
+        for (Leftovers l : leftovers.values()) {
+            for (Iterator<String> it = l.tables.iterator(); it.hasNext(); ) {
+                String leftover = it.next();
+                boolean old = OLD_TABLE.matcher(leftover).matches();
+                if (old ? !sweepOldTables : l.triggers.isEmpty() && !recorded.contains(leftover)) {
+                    log.fine("Keeping table " + leftover + ", as it is not known to be left behind by a schema change");
+                    it.remove();
+                }
+            }
+            if (l.triggers.isEmpty() && l.tables.isEmpty()) {
+                continue;
+            }
+            String reason = null;
+            if (isRunning(schema, l.table)) {
+                reason = "a schema change of the table is running";
+            } else if (l.recent) {
+                reason = "they have been modified within the last " + minAge + " seconds";
+            } else if (l.isUsedBy(runningStatements)) {
+                reason = "they are used by another session";
+            } else if (unfinished.contains(l.table) || !Collections.disjoint(resumable, l.tables)) {
+                reason = "an unfinished schema change of the table is recorded, it may be paused or can be resumed";
+            }
+            if (reason != null) {
+                log.info("Keeping " + l + ", as " + reason);
+                continue;
+            }
+            // the triggers first, they would fail any write once the new table is gone
+            for (String trigger : l.triggers) {
+                drops.add("DROP TRIGGER IF EXISTS " + database.escapeObjectName(schema, Catalog.class) + "."
+                        + database.escapeObjectName(trigger, Table.class));
+            }
+            for (String leftover : l.tables) {
+                drops.add("DROP TABLE IF EXISTS " + database.escapeTableName(schema, null, leftover));
+            }
+        }
+        return drops;
+    }
+
+    /**
+     * Determines the table, a leftover table belongs to: {@code person} for {@code _person_new} or
+     * {@code __person_old}, if that table exists.
+     */
+    static String getBaseTable(String name, Set<String> tables) {
+        Matcher m = LEFTOVER_TABLE.matcher(name);
+        if (m.matches() && tables.contains(m.group(1))) {
+            return m.group(1);
+        }
+        return name;
+    }
+
+    private static boolean isRunning(String schema, String table) {
+        for (MariaDbToolsRunMetrics run : MariaDbToolsMetrics.getInstance().getActive()) {
+            if (table.equals(run.getTableName()) && (schema == null || schema.equals(run.getDatabaseName()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The new tables, that are kept to resume the schema change: by the in-JVM engine in its checkpoint
+     * table and by mariadb-schema-change in its history.
+     * @param recorded receives all new tables, that are recorded in the checkpoints or the history, finished or not
+     * @param unfinished receives the tables, whose schema change is recorded in a checkpoint or unfinished in the history
+     */
+    private static Set<String> getResumableTables(Database database, JdbcConnection connection, String schema,
+                                                  Set<String> recorded, Set<String> unfinished) {
+        Set<String> result = new HashSet<>();
+        String checkpointTable = database.escapeTableName(schema, null, MariaDbToolsCheckpoint.CHECKPOINT_TABLE);
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT shadow_table, table_name FROM " + checkpointTable);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                result.add(rs.getString(1));
+                unfinished.add(rs.getString(2));
+            }
+        } catch (SQLException | DatabaseException e) {
+            log.fine("Couldn't read the checkpoints of " + schema, e);
+        }
+        recorded.addAll(result);
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT new_table_name, done, tbl FROM "
+                + MariaDbToolsCheckpoint.TOOL_HISTORY_TABLE + " WHERE db = ?")) {
+            stmt.setString(1, schema);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    recorded.add(rs.getString(1));
+                    if ("no".equals(rs.getString(2))) {
+                        result.add(rs.getString(1));
+                        unfinished.add(rs.getString(3));
+                    }
+                }
+            }
+        } catch (SQLException | DatabaseException e) {
+            log.fine("Couldn't read the history of mariadb-schema-change", e);
+        }
+        return result;
+    }
+
+    private static List<String> getRunningStatements(JdbcConnection connection) throws SQLException, DatabaseException {
+        List<String> result = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT INFO FROM information_schema.PROCESSLIST "
+                + "WHERE ID <> CONNECTION_ID() AND INFO IS NOT NULL")) {
+            addAll(stmt, result);
+        }
+        return result;
+    }
+
+    private static void addAll(PreparedStatement stmt, Collection<String> result) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                result.add(rs.getString(1));
+            }
+        }
+    }
+
+    /**
+     * The triggers and tables, that a schema change of one table left behind.
+     */
+    private static final class Leftovers {
+        private final String table;
+        private final List<String> triggers = new ArrayList<>();
+        private final List<String> tables = new ArrayList<>();
+        private boolean recent;
+
+        private Leftovers(String table) {
+            this.table = table;
+        }
+
+        private boolean isUsedBy(List<String> statements) {
+            for (String statement : statements) {
+                for (String name : triggers) {
+                    if (statement.contains(name)) {
+                        return true;
+                    }
+                }
+                for (String name : tables) {
+                    if (statement.contains(name)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "the leftovers " + triggers + " " + tables + " of table " + table;
+        }
+    }
+}
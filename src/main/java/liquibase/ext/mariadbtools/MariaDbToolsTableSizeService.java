@@ -0,0 +1,180 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import liquibase.Scope;
+import liquibase.changelog.ChangeSet;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.DatabaseException;
+import liquibase.logging.Logger;
+
+/**
+ * Determines the size of tables via {@code information_schema.TABLES}.
+ * The size is used to decide, whether a table is small enough to be altered directly.
+ */
+public class MariaDbToolsTableSizeService {
+    private static MariaDbToolsTableSizeService instance = new MariaDbToolsTableSizeService();
+    private Logger log = Scope.getCurrentScope().getLog(MariaDbToolsTableSizeService.class);
+
+    /** The decisions per changeset and table, keyed by the identity of the changeset or of the change without one. */
+    private final Map<Database, Map<Object, Map<String, Boolean>>> decisions = new WeakHashMap<>();
+
+    /**
+     * The size of a table as estimated by the server.
+     */
+    public static class TableSize {
+        private final long bytes;
+        private final long rows;
+
+        public TableSize(long bytes, long rows) {
+            this.bytes = bytes;
+            this.rows = rows;
+        }
+
+        /**
+         * @return data_length + index_length
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the estimated number of rows
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        @Override
+        public String toString() {
+            return bytes + " bytes, ~" + rows + " rows";
+        }
+    }
+
+    public static MariaDbToolsTableSizeService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Determines the size of the given table.
+     *
+     * <p>Note: This needs database access. The query is executed directly and not logged, even in dry-run mode.
+     *
+     * @param database the database
+     * @param databaseName the database (schema) name of the table, might be <code>null</code> to use the default
+     * @param tableName the table name
+     * @return the size, a size of 0 if the table doesn't exist (yet) or <code>null</code>, if the size can't be determined.
+     */
+    public TableSize getTableSize(Database database, String databaseName, String tableName) {
+        if (!(database.getConnection() instanceof JdbcConnection) || !MariaDbChangeUtil.isConnected(database)) {
+            return null;
+        }
+        String schema = databaseName;
+        if (schema == null) {
+            schema = database.getLiquibaseCatalogName();
+        }
+        if (schema == null) {
+            schema = database.getDefaultCatalogName();
+        }
+
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT data_length + index_length, table_rows "
+                + "FROM information_schema.TABLES WHERE table_schema = ? AND table_name = ?")) {
+            stmt.setString(1, schema);
+            stmt.setString(2, tableName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    TableSize size = new TableSize(rs.getLong(1), rs.getLong(2));
+                    log.fine("Size of table " + schema + "." + tableName + ": " + size);
+                    return size;
+                }
+            }
+            log.fine("Table " + schema + "." + tableName + " doesn't exist");
+            return new TableSize(0, 0);
+        } catch (SQLException | DatabaseException e) {
+            log.warning("Couldn't determine the size of table " + schema + "." + tableName, e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether the table is smaller than {@link Configuration#MIN_TABLE_SIZE} and can
+     * therefore be altered directly without mariadb tools.
+     *
+     * @param database the database
+     * @param change the change
+     * @return <code>true</code> if the table is known to be small
+     */
+    public boolean isSmallTable(Database database, MariaDbToolsChange change) {
+        long minTableSize = Configuration.getMinTableSize();
+        if (minTableSize <= 0) {
+            return false;
+        }
+        TableSize size = getTableSize(database, change.getTargetDatabaseName(), change.getTargetTableName());
+        return size != null && size.getBytes() < minTableSize;
+    }
+
+    /**
+     * Checks whether the table of the group of changes is small, see {@link #isSmallTable(Database, MariaDbToolsChange)}.
+     *
+     * <p>The decision is made once per changeset and table, and all other changes of the changeset on the same table
+     * follow it, even if the size of the table changes meanwhile. Otherwise a change could be executed directly
+     * although it has already been executed together with the first change, or not at all. Decisions made while
+     * liquibase validates the changelog aren't kept, as the preceding changesets haven't been executed yet. The
+     * decisions are discarded, when the liquibase command is finished, see {@link MariaDbToolsUpdateRun}.
+     *
+     * @param database the database
+     * @param changeSet the changeset of the changes, might be <code>null</code>
+     * @param group the group of changes, that is executed together, see {@link MariaDbToolsChangeCoalescer#findGroup(MariaDbToolsChange)}
+     * @return <code>true</code> if the changes are executed directly without mariadb tools
+     */
+    public boolean isSmallTable(Database database, ChangeSet changeSet, List<MariaDbToolsChange> group) {
+        MariaDbToolsChange head = group.get(0);
+        Object key = changeSet != null ? changeSet : head;
+        String table = head.getTargetDatabaseName() + "." + head.getTargetTableName();
+        synchronized (decisions) {
+            Map<String, Boolean> tables = decisions.computeIfAbsent(database, d -> new IdentityHashMap<>())
+                    .computeIfAbsent(key, k -> new HashMap<>());
+            Boolean small = tables.get(table);
+            if (small == null) {
+                small = isSmallTable(database, head);
+                if (!MariaDbToolsUpdateRun.isValidating()) {
+                    tables.put(table, small);
+                }
+            }
+            return small;
+        }
+    }
+
+    /**
+     * Discards the decisions made for the database.
+     * @param database the database
+     */
+    public void reset(Database database) {
+        synchronized (decisions) {
+            decisions.remove(database);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.logging.Logger;
+
+/**
+ * Pauses the online schema change, while any {@link MariaDbToolsThrottleSignal} is above its threshold.
+ *
+ * <p>The in-JVM engine calls {@link #throttle()} before each chunk. For mariadb-schema-change, the signals, that
+ * are global status variables, are passed as {@code --max-load}. All signals are checked every second while
+ * the tool is running and the {@code --pause-file} is created while the database is under load.
+ *
+ * @see Configuration#THROTTLE
+ */
+public class MariaDbToolsThrottleController implements AutoCloseable {
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsThrottleController.class);
+    private static final String MAX_LOAD = "--max-load";
+
+    private final Connection connection;
+    private final List<MariaDbToolsThrottleSignal> signals;
+    private final long checkIntervalMillis;
+
+    private long lastCheck;
+    private MariaDbToolsThrottleSignal lastExceeded;
+    private ScheduledExecutorService pauseFileMonitor;
+    private Path pauseFile;
+
+    MariaDbToolsThrottleController(Connection connection, List<MariaDbToolsThrottleSignal> signals, long checkIntervalMillis) {
+        this.connection = connection;
+        this.signals = new ArrayList<>();
+        this.checkIntervalMillis = checkIntervalMillis;
+        for (MariaDbToolsThrottleSignal signal : signals) {
+            try {
+                signal.init(connection);
+                this.signals.add(signal);
+                log.info("Throttling on " + signal.getName() + " > " + signal.getThreshold());
+            } catch (SQLException | RuntimeException e) {
+                log.warning("Throttle signal " + signal.getName() + " is not available: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates the controller with the built-in signals and the signals found via {@link ServiceLoader}.
+     * @param database the database
+     * @return the controller or <code>null</code>, if throttling is disabled or not possible in dry-run mode
+     */
+    public static MariaDbToolsThrottleController create(Database database) {
+        if (!Configuration.isThrottle() || MariaDbChangeUtil.isDryRun(database) || !MariaDbChangeUtil.isConnected(database)) {
+            return null;
+        }
+        List<MariaDbToolsThrottleSignal> signals = MariaDbToolsThrottleSignals.getBuiltIns();
+        try {
+            Iterator<MariaDbToolsThrottleSignal> it = ServiceLoader.load(MariaDbToolsThrottleSignal.class,
+                    MariaDbToolsThrottleController.class.getClassLoader()).iterator();
+            while (it.hasNext()) {
+                signals.add(it.next());
+            }
+        } catch (ServiceConfigurationError e) {
+            log.warning("Couldn't load throttle signals", e);
+        }
+        try {
+            return new MariaDbToolsThrottleController(DatabaseConnectionUtil.openConnection(database.getConnection()),
+                    signals, 1000);
+        } catch (SQLException e) {
+            log.warning("Couldn't open connection for throttling, the schema change is not throttled", e);
+            return null;
+        }
+    }
+
+    List<MariaDbToolsThrottleSignal> getSignals() {
+        return signals;
+    }
+
+    /**
+     * Checks the signals. The result is cached for the check interval.
+     * @return the first signal above its threshold or <code>null</code>
+     */
+    public synchronized MariaDbToolsThrottleSignal check() {
+        long now = System.nanoTime();
+        if (lastCheck != 0 && TimeUnit.NANOSECONDS.toMillis(now - lastCheck) < checkIntervalMillis) {
+            return lastExceeded;
+        }
+        MariaDbToolsThrottleSignal exceeded = null;
+        for (MariaDbToolsThrottleSignal signal : signals) {
+            try {
+                double value = signal.measure(connection);
+                if (value > signal.getThreshold()) {
+                    if (lastExceeded != signal) {
+                        log.info("Pausing schema change: " + signal.getName() + " is " + value
+                                + " (threshold " + signal.getThreshold() + ")");
+                    }
+                    exceeded = signal;
+                    break;
+                }
+            } catch (SQLException | RuntimeException e) {
+                log.fine("Couldn't measure " + signal.getName(), e);
+            }
+        }
+        if (exceeded == null && lastExceeded != null) {
+            log.info("Resuming schema change");
+        }
+        lastCheck = now;
+        lastExceeded = exceeded;
+        return exceeded;
+    }
+
+    /**
+     * Blocks, while any signal is above its threshold.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void throttle() throws InterruptedException {
+        while (check() != null) {
+            Thread.sleep(checkIntervalMillis);
+        }
+    }
+
+    /**
+     * Creates the command line options for mariadb-schema-change. A new pause file is reserved, that
+     * is managed by {@link #startPauseFileMonitor()}.
+     * @return the options
+     */
+    public synchronized List<String> getToolOptions() {
+        List<String> options = new ArrayList<>();
+        List<String> maxLoad = new ArrayList<>();
+        for (MariaDbToolsThrottleSignal signal : signals) {
+            if (signal.getMaxLoad() != null) {
+                maxLoad.add(signal.getMaxLoad());
+            }
+        }
+        if (!maxLoad.isEmpty()) {
+            options.add(MAX_LOAD + "=" + String.join(",", maxLoad));
+        }
+        try {
+            if (pauseFile == null) {
+                pauseFile = Files.createTempFile("mariadbtools-", ".pause");
+                Files.delete(pauseFile);
+            }
+            options.add("--pause-file=" + pauseFile);
+        } catch (IOException e) {
+            log.warning("Couldn't create pause file, only --max-load is used for throttling", e);
+        }
+        return options;
+    }
+
+    /**
+     * Adds the options of {@link #getToolOptions()} to the command line. The conditions of the signals are merged
+     * into a {@code --max-load}, that is already on the command line, as the tool only uses the last one. The
+     * thresholds of the user take precedence over the signals for the same status variable.
+     * @param commands the command line of mariadb-schema-change
+     */
+    public synchronized void addToolOptions(List<String> commands) {
+        for (String option : getToolOptions()) {
+            if (!option.startsWith(MAX_LOAD + "=") || !mergeMaxLoad(commands, option.substring(MAX_LOAD.length() + 1))) {
+                commands.add(option);
+            }
+        }
+    }
+
+    private static boolean mergeMaxLoad(List<String> commands, String conditions) {
+        // the last --max-load wins
+        for (int i = commands.size() - 1; i >= 0; i--) {
+            String arg = commands.get(i);
+            if (arg.startsWith(MAX_LOAD + "=")) {
+                commands.set(i, MAX_LOAD + "=" + merge(arg.substring(MAX_LOAD.length() + 1), conditions));
+                return true;
+            }
+            if (arg.equals(MAX_LOAD) && i + 1 < commands.size()) {
+                commands.set(i + 1, merge(commands.get(i + 1), conditions));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String merge(String userConditions, String conditions) {
+        StringBuilder merged = new StringBuilder(userConditions);
+        for (String condition : conditions.split(",")) {
+            if (!containsVariable(userConditions, getVariable(condition))) {
+                merged.append(',').append(condition);
+            }
+        }
+        return merged.toString();
+    }
+
+    private static boolean containsVariable(String conditions, String variable) {
+        for (String condition : conditions.split(",")) {
+            if (getVariable(condition).equalsIgnoreCase(variable)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getVariable(String condition) {
+        // the tool accepts Threads_running=25 and Threads_running:25
+        return condition.trim().split("[=:]", 2)[0];
+    }
+
+    Path getPauseFile() {
+        return pauseFile;
+    }
+
+    /**
+     * Checks the signals every check interval and creates the pause file while any signal is above
+     * its threshold.
+     */
+    public synchronized void startPauseFileMonitor() {
+        if (pauseFile == null || pauseFileMonitor != null) {
+            return;
+        }
+        pauseFileMonitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mariadbtools-throttle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pauseFileMonitor.scheduleWithFixedDelay(this::updatePauseFile, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void updatePauseFile() {
+        try {
+            if (check() != null) {
+                if (!Files.exists(pauseFile)) {
+                    Files.createFile(pauseFile);
+                }
+            } else {
+                Files.deleteIfExists(pauseFile);
+            }
+        } catch (IOException e) {
+            log.warning("Couldn't update pause file " + pauseFile, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (pauseFileMonitor != null) {
+            pauseFileMonitor.shutdownNow();
+            pauseFileMonitor = null;
+        }
+        if (pauseFile != null) {
+            try {
+                Files.deleteIfExists(pauseFile);
+            } catch (IOException e) {
+                log.fine("Couldn't delete pause file " + pauseFile, e);
+            }
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.fine("Couldn't close throttle connection", e);
+        }
+    }
+}
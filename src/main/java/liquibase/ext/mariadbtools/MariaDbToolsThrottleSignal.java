@@ -0,0 +1,63 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A load signal, that lets the online schema change pause while the database is under load.
+ *
+ * <p>Besides the built-in signals ({@link MariaDbToolsThrottleSignals}), additional signals can be provided via
+ * {@link java.util.ServiceLoader} by listing the implementation in
+ * {@code META-INF/services/liquibase.ext.mariadbtools.MariaDbToolsThrottleSignal}. A new instance is
+ * created for every schema change. The methods are called with a separate connection to the primary.
+ *
+ * @see MariaDbToolsThrottleController
+ */
+public interface MariaDbToolsThrottleSignal {
+    String getName();
+
+    /**
+     * Called once before the schema change starts, e.g. to sample a baseline.
+     * If this fails, the signal is not used.
+     * @param connection the connection
+     * @throws SQLException if the signal can't be used
+     */
+    default void init(Connection connection) throws SQLException {
+    }
+
+    /**
+     * Measures the current value of the signal.
+     * @param connection the connection
+     * @return the current value
+     * @throws SQLException if the value can't be determined
+     */
+    double measure(Connection connection) throws SQLException;
+
+    /**
+     * @return the value, above which the schema change is paused
+     */
+    double getThreshold();
+
+    /**
+     * Optionally, the signal can be checked directly by mariadb-schema-change with {@code --max-load}.
+     * This is only possible for global status variables.
+     * @return the condition, e.g. {@code Threads_running=25}, or <code>null</code>
+     */
+    default String getMaxLoad() {
+        return null;
+    }
+}
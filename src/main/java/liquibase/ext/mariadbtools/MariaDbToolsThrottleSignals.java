@@ -0,0 +1,203 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The built-in {@link MariaDbToolsThrottleSignal}s.
+ */
+public final class MariaDbToolsThrottleSignals {
+    private MariaDbToolsThrottleSignals() { }
+
+    /**
+     * Creates the built-in signals, that are enabled by the configuration.
+     * @return the signals
+     */
+    public static List<MariaDbToolsThrottleSignal> getBuiltIns() {
+        List<MariaDbToolsThrottleSignal> signals = new ArrayList<>();
+        if (Configuration.getThrottleThreadsRunning() > 0) {
+            signals.add(new ThreadsRunning(Configuration.getThrottleThreadsRunning()));
+        }
+        if (Configuration.getThrottleHistoryLength() > 0) {
+            signals.add(new HistoryListLength(Configuration.getThrottleHistoryLength()));
+        }
+        if (Configuration.getThrottleBinlogRate() > 0) {
+            signals.add(new BinlogRate(Configuration.getThrottleBinlogRate()));
+        }
+        return signals;
+    }
+
+    static Long queryLong(Connection connection, String sql, int column) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? Long.valueOf(rs.getString(column).trim()) : null;
+        }
+    }
+
+    /**
+     * {@code Threads_running} compared to a baseline, that is sampled before the schema change starts.
+     */
+    public static class ThreadsRunning implements MariaDbToolsThrottleSignal {
+        static final long MIN_THRESHOLD = 10;
+        private final double factor;
+        private long threshold;
+
+        public ThreadsRunning(double factor) {
+            this.factor = factor;
+        }
+
+        @Override
+        public String getName() {
+            return "Threads_running";
+        }
+
+        @Override
+        public void init(Connection connection) throws SQLException {
+            long baseline = (long) measure(connection);
+            threshold = Math.max(MIN_THRESHOLD, (long) Math.ceil(baseline * factor));
+        }
+
+        @Override
+        public double measure(Connection connection) throws SQLException {
+            Long value = queryLong(connection, "SHOW GLOBAL STATUS LIKE 'Threads_running'", 2);
+            if (value == null) {
+                throw new SQLException("Status variable Threads_running not available");
+            }
+            return value;
+        }
+
+        @Override
+        public double getThreshold() {
+            return threshold;
+        }
+
+        @Override
+        public String getMaxLoad() {
+            return "Threads_running=" + threshold;
+        }
+    }
+
+    /**
+     * The InnoDB history list length. It grows while purge can't keep up, e.g. because of the
+     * additional writes of the triggers.
+     */
+    public static class HistoryListLength implements MariaDbToolsThrottleSignal {
+        private static final Pattern HISTORY_LIST_LENGTH = Pattern.compile("History list length (\\d+)");
+        private final long threshold;
+
+        public HistoryListLength(long threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public String getName() {
+            return "InnoDB history list length";
+        }
+
+        @Override
+        public void init(Connection connection) throws SQLException {
+            measure(connection);
+        }
+
+        @Override
+        public double measure(Connection connection) throws SQLException {
+            Long value = queryLong(connection, "SELECT COUNT FROM information_schema.INNODB_METRICS "
+                    + "WHERE NAME = 'trx_rseg_history_len'", 1);
+            if (value != null) {
+                return value;
+            }
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SHOW ENGINE INNODB STATUS")) {
+                if (rs.next()) {
+                    Matcher matcher = HISTORY_LIST_LENGTH.matcher(String.valueOf(rs.getString(3)));
+                    if (matcher.find()) {
+                        return Long.parseLong(matcher.group(1));
+                    }
+                }
+            }
+            throw new SQLException("History list length not available");
+        }
+
+        @Override
+        public double getThreshold() {
+            return threshold;
+        }
+    }
+
+    /**
+     * The number of bytes per second written to the binary log. Uses the status variable
+     * {@code Binlog_bytes_written} (MariaDB) or the sizes of the binary logs (MySQL).
+     */
+    public static class BinlogRate implements MariaDbToolsThrottleSignal {
+        private final long threshold;
+        private long lastBytes = -1;
+        private long lastNanos;
+
+        public BinlogRate(long threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public String getName() {
+            return "binlog bytes/sec";
+        }
+
+        @Override
+        public void init(Connection connection) throws SQLException {
+            measure(connection);
+        }
+
+        @Override
+        public synchronized double measure(Connection connection) throws SQLException {
+            long bytes = readBinlogBytes(connection);
+            long now = System.nanoTime();
+            double rate = 0;
+            if (lastBytes >= 0 && now > lastNanos && bytes >= lastBytes) {
+                rate = (bytes - lastBytes) * 1000000000.0 / (now - lastNanos);
+            }
+            lastBytes = bytes;
+            lastNanos = now;
+            return rate;
+        }
+
+        private static long readBinlogBytes(Connection connection) throws SQLException {
+            Long written = queryLong(connection, "SHOW GLOBAL STATUS LIKE 'Binlog_bytes_written'", 2);
+            if (written != null) {
+                return written;
+            }
+            long sum = 0;
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SHOW BINARY LOGS")) {
+                while (rs.next()) {
+                    sum += rs.getLong(2);
+                }
+            }
+            return sum;
+        }
+
+        @Override
+        public double getThreshold() {
+            return threshold;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import liquibase.Scope;
+import liquibase.logging.Logger;
+import liquibase.util.StreamUtil;
+
+/**
+ * Determines whether mariadb-schema-change is available and its version by running
+ * <code>mariadb-schema-change --version</code>.
+ *
+ * <p>The probe is started in the background, when liquibase registers the extension, i.e. when it instantiates
+ * {@link MariaDbToolsLockService} at the start of a command, so that the perl start-up runs while the changelog is
+ * locked and parsed and doesn't delay the first schema change. The result is cached in the file
+ * {@link Configuration#PROBE_CACHE}, keyed by the resolved tool path, its size and modification time, so that
+ * later JVMs don't start the tool at all.
+ */
+public class MariaDbToolsToolkitProbe {
+    private static MariaDbToolsToolkitProbe instance = new MariaDbToolsToolkitProbe(Configuration::getProbeCache);
+    private static Logger log = Scope.getCurrentScope().getLog(MariaDbToolsToolkitProbe.class);
+    private static final Pattern VERSION = Pattern.compile("(\\d+\\.\\d+\\.\\d+)");
+
+    private final Supplier<String> cacheFile;
+    private final Map<String, Future<Result>> probes = new HashMap<>();
+
+    MariaDbToolsToolkitProbe(Supplier<String> cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    public static MariaDbToolsToolkitProbe getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts probing the configured tool in the background, unless it is already probed.
+     */
+    public static void start() {
+        getInstance().probe(MariaDbToolsSchemaChangeStatement.getFullToolkitPath());
+    }
+
+    /**
+     * The result of the probe.
+     */
+    public static final class Result {
+        private final boolean available;
+        private final String version;
+
+        Result(boolean available, String version) {
+            this.available = available;
+            this.version = version;
+        }
+
+        public boolean isAvailable() {
+            return available;
+        }
+
+        /**
+         * @return the version, or <code>null</code> if it couldn't be determined
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        @Override
+        public String toString() {
+            return available ? "available, version " + version : "not available";
+        }
+    }
+
+    /**
+     * Probes the given tool in the background. The probe runs only once per tool path.
+     * @param toolPath the tool as configured, either a path or a command name, that is looked up in the <code>PATH</code>
+     * @return the future result
+     */
+    public synchronized Future<Result> probe(String toolPath) {
+        Future<Result> future = probes.get(toolPath);
+        if (future == null) {
+            FutureTask<Result> task = new FutureTask<>(() -> run(toolPath));
+            Thread thread = new Thread(task, "mariadbtools-probe");
+            thread.setDaemon(true);
+            thread.start();
+            probes.put(toolPath, task);
+            future = task;
+        }
+        return future;
+    }
+
+    /**
+     * Waits for the result of the probe of the given tool, starting it if necessary.
+     * @param toolPath the tool as configured
+     * @return the result
+     */
+    public Result getResult(String toolPath) {
+        try {
+            return probe(toolPath).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(false, null);
+        } catch (ExecutionException e) {
+            log.warning("Couldn't determine whether " + toolPath + " is available", e.getCause());
+            return new Result(false, null);
+        }
+    }
+
+    private Result run(String toolPath) {
+        File tool = resolve(toolPath);
+        String cacheKey = tool != null ? tool.getAbsolutePath() : null;
+        String fingerprint = tool != null ? tool.length() + ":" + tool.lastModified() : null;
+        Path cache = getCachePath();
+
+        if (cacheKey != null && cache != null) {
+            Result cached = readCache(cache, cacheKey, fingerprint);
+            if (cached != null) {
+                log.fine("Using cached probe result for " + cacheKey + ": " + cached);
+                return cached;
+            }
+        }
+
+        Result result = execute(toolPath);
+        if (result.isAvailable() && cacheKey != null && cache != null) {
+            writeCache(cache, cacheKey, fingerprint, result);
+        }
+        return result;
+    }
+
+    private Path getCachePath() {
+        String file = cacheFile.get();
+        return file == null || file.isEmpty() ? null : Paths.get(file);
+    }
+
+    /**
+     * Resolves the tool to a file. Command names without a path are searched in the <code>PATH</code>.
+     * @param toolPath the tool as configured
+     * @return the file or <code>null</code>, if it doesn't exist
+     */
+    static File resolve(String toolPath) {
+        File tool = new File(toolPath);
+        if (toolPath.contains(File.separator)) {
+            return tool.isFile() ? tool : null;
+        }
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        for (String dir : path.split(Pattern.quote(File.pathSeparator))) {
+            File candidate = new File(dir.isEmpty() ? "." : dir, toolPath);
+            if (candidate.isFile() && candidate.canExecute()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private Result readCache(Path cache, String cacheKey, String fingerprint) {
+        if (!Files.isRegularFile(cache)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(cache, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException | IllegalArgumentException e) {
+            log.fine("Couldn't read probe cache " + cache, e);
+            return null;
+        }
+        String entry = properties.getProperty(cacheKey);
+        if (entry == null || !entry.startsWith(fingerprint + ":")) {
+            return null;
+        }
+        String version = entry.substring(fingerprint.length() + 1);
+        return new Result(true, version.isEmpty() ? null : version);
+    }
+
+    private synchronized void writeCache(Path cache, String cacheKey, String fingerprint, Result result) {
+        Properties properties = new Properties();
+        try {
+            if (Files.isRegularFile(cache)) {
+                try (Reader reader = Files.newBufferedReader(cache, StandardCharsets.UTF_8)) {
+                    properties.load(reader);
+                }
+            }
+            properties.setProperty(cacheKey, fingerprint + ":" + (result.getVersion() != null ? result.getVersion() : ""));
+            Path dir = cache.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, cache.getFileName().toString(), ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                properties.store(writer, "mariadb-schema-change probe results");
+            }
+            Files.move(tmp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | IllegalArgumentException e) {
+            log.fine("Couldn't write probe cache " + cache, e);
+        }
+    }
+
+    private static Result execute(String toolPath) {
+        ProcessBuilder pb = new ProcessBuilder(toolPath, "--version");
+        pb.redirectErrorStream(true);
+        Process p = null;
+        try {
+            p = pb.start();
+            try (InputStream err = p.getErrorStream();
+                 InputStream in = p.getInputStream();
+                 OutputStream out = p.getOutputStream()) {
+                p.waitFor();
+                Result result = new Result(true, parseVersion(StreamUtil.readStreamAsString(in)));
+                log.info("Using mariadb tools: " + result.getVersion());
+                return result;
+            }
+        } catch (IOException e) {
+            return new Result(false, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(false, null);
+        } finally {
+            if (p != null) {
+                p.destroy();
+            }
+        }
+    }
+
+    static String parseVersion(String output) {
+        if (output != null) {
+            Matcher matcher = VERSION.matcher(output);
+            if (matcher.find()) {
+                return matcher.group(1);
+            }
+        }
+        return null;
+    }
+}
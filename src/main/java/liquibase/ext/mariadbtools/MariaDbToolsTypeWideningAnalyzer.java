@@ -0,0 +1,315 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.DatabaseException;
+import liquibase.ext.mariadbtools.MariaDbToolsAlterClassifier.Algorithm;
+import liquibase.ext.mariadbtools.MariaDbToolsAlterClassifier.ServerInfo;
+import liquibase.logging.Logger;
+
+/**
+ * Determines, whether a {@code MODIFY} of a column only changes the metadata of the table, by comparing it
+ * with the current column definition from {@code information_schema.COLUMNS}.
+ *
+ * <p>InnoDB changes only the metadata, if
+ * <ul>
+ * <li>a {@code VARCHAR} or {@code VARBINARY} column is extended, as long as the number of length bytes stays the
+ * same: up to 255 bytes one byte, above two bytes</li>
+ * <li>values are appended at the end of an {@code ENUM} or {@code SET} column, as long as its storage size stays
+ * the same</li>
+ * </ul>
+ * In both cases the character set, collation and nullability must stay the same. Any other modification needs
+ * a table copy, the reason is logged.
+ */
+public class MariaDbToolsTypeWideningAnalyzer {
+    private static final Logger log = Scope.getCurrentScope().getLog(MariaDbToolsTypeWideningAnalyzer.class);
+
+    private static final Pattern MODIFY = Pattern.compile(
+            "MODIFY\\s+(?:COLUMN\\s+)?(`(?:[^`]|``)+`|\\S+)\\s+(.+)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern VARIABLE_LENGTH = Pattern.compile(
+            "(VARCHAR|VARBINARY)\\s*\\(\\s*(\\d+)\\s*\\)(.*)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern ENUMERATION = Pattern.compile(
+            "(ENUM|SET)\\s*\\((.*)\\)(.*)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern VALUE = Pattern.compile("'((?:[^'\\\\]|\\\\.|'')*)'");
+    private static final Pattern CHARSET = Pattern.compile("(?:CHARACTER\\s+SET|CHARSET)\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COLLATE = Pattern.compile("COLLATE\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern NOT_NULL = Pattern.compile("NOT\\s+NULL", Pattern.CASE_INSENSITIVE);
+    private static final Pattern NULL = Pattern.compile("NULL", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The current definition of one column.
+     */
+    static class Column {
+        private final String type;
+        private final String collation;
+        private final long maxLength;
+        private final long octetLength;
+        private final boolean nullable;
+
+        Column(String type, String collation, long maxLength, long octetLength, boolean nullable) {
+            this.type = type;
+            this.collation = collation;
+            this.maxLength = maxLength;
+            this.octetLength = octetLength;
+            this.nullable = nullable;
+        }
+    }
+
+    /**
+     * The result of the analysis of one {@code MODIFY}.
+     */
+    public static class Analysis {
+        private final Algorithm algorithm;
+        private final String reason;
+
+        Analysis(Algorithm algorithm, String reason) {
+            this.algorithm = algorithm;
+            this.reason = reason;
+        }
+
+        public Algorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        /**
+         * @return why the modification only changes the metadata or needs a table copy
+         */
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    private final String table;
+    private final String engine;
+    private final String tableCollation;
+    private final Map<String, Column> columns;
+
+    MariaDbToolsTypeWideningAnalyzer(String table, String engine, String tableCollation, Map<String, Column> columns) {
+        this.table = table;
+        this.engine = engine;
+        this.tableCollation = tableCollation;
+        this.columns = columns;
+    }
+
+    /**
+     * Loads the current column definitions of the table, if the alter statement modifies a column.
+     *
+     * <p>Note: This needs database access. The query is executed directly and not logged, even in dry-run mode.
+     *
+     * @param database the database
+     * @param schema the schema, might be <code>null</code> to use the default
+     * @param table the table
+     * @param alter the alter statement
+     * @return the analyzer or <code>null</code>, if no column is modified, the table doesn't exist (yet) or
+     *     there is no JDBC connection
+     */
+    public static MariaDbToolsTypeWideningAnalyzer forAlter(Database database, String schema, String table, String alter) {
+        if (!(database.getConnection() instanceof JdbcConnection) || alter == null
+                || !alter.toUpperCase(Locale.ROOT).contains("MODIFY ")) {
+            return null;
+        }
+        if (schema == null) {
+            schema = database.getLiquibaseCatalogName() != null
+                    ? database.getLiquibaseCatalogName() : database.getDefaultCatalogName();
+        }
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT c.COLUMN_NAME, c.COLUMN_TYPE, "
+                + "c.COLLATION_NAME, c.CHARACTER_MAXIMUM_LENGTH, c.CHARACTER_OCTET_LENGTH, c.IS_NULLABLE, "
+                + "t.ENGINE, t.TABLE_COLLATION FROM information_schema.COLUMNS c "
+                + "JOIN information_schema.TABLES t ON t.TABLE_SCHEMA = c.TABLE_SCHEMA AND t.TABLE_NAME = c.TABLE_NAME "
+                + "WHERE c.TABLE_SCHEMA = ? AND c.TABLE_NAME = ?")) {
+            stmt.setString(1, schema);
+            stmt.setString(2, table);
+            Map<String, Column> columns = new HashMap<>();
+            String engine = null;
+            String tableCollation = null;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    columns.put(rs.getString(1).toLowerCase(Locale.ROOT), new Column(rs.getString(2), rs.getString(3),
+                            rs.getLong(4), rs.getLong(5), "YES".equalsIgnoreCase(rs.getString(6))));
+                    engine = rs.getString(7);
+                    tableCollation = rs.getString(8);
+                }
+            }
+            return columns.isEmpty() ? null : new MariaDbToolsTypeWideningAnalyzer(table, engine, tableCollation, columns);
+        } catch (SQLException | DatabaseException e) {
+            log.fine("Couldn't load the columns of table " + schema + "." + table, e);
+            return null;
+        }
+    }
+
+    /**
+     * Classifies the given {@code MODIFY} operation and logs, why it needs a table copy.
+     * @param operation the operation
+     * @param server the server flavour and version
+     * @return the cheapest algorithm
+     */
+    public Algorithm classify(String operation, ServerInfo server) {
+        Analysis analysis = analyze(operation, server);
+        if (analysis.getAlgorithm() == Algorithm.COPY) {
+            log.info("Table " + table + " needs a copy for \"" + operation + "\": " + analysis.getReason());
+        } else {
+            log.fine("Table " + table + " supports ALGORITHM=" + analysis.getAlgorithm() + " for \"" + operation
+                    + "\": " + analysis.getReason());
+        }
+        return analysis.getAlgorithm();
+    }
+
+    Analysis analyze(String operation, ServerInfo server) {
+        Matcher modify = MODIFY.matcher(operation.trim());
+        if (!modify.matches()) {
+            return copy("it isn't a MODIFY of a single column");
+        }
+        String name = modify.group(1);
+        if (name.startsWith("`")) {
+            name = name.substring(1, name.length() - 1).replace("``", "`");
+        }
+        Column column = columns.get(name.toLowerCase(Locale.ROOT));
+        if (column == null) {
+            return copy("column " + name + " doesn't exist yet");
+        }
+        if (engine == null || !"InnoDB".equalsIgnoreCase(engine)) {
+            return copy("the table uses the engine " + engine);
+        }
+        String newType = modify.group(2).trim();
+
+        Matcher oldLength = VARIABLE_LENGTH.matcher(column.type);
+        Matcher newLength = VARIABLE_LENGTH.matcher(newType);
+        if (oldLength.matches() && newLength.matches() && oldLength.group(1).equalsIgnoreCase(newLength.group(1))) {
+            String reason = checkAttributes(column, newLength.group(3));
+            if (reason != null) {
+                return copy(reason);
+            }
+            long oldChars = Long.parseLong(oldLength.group(2));
+            long newChars = Long.parseLong(newLength.group(2));
+            if (newChars < oldChars) {
+                return copy("the column is shortened from " + oldChars + " to " + newChars);
+            }
+            long bytesPerChar = column.maxLength > 0 ? Math.max(1, column.octetLength / column.maxLength) : 1;
+            int oldPrefix = lengthBytes(oldChars * bytesPerChar);
+            int newPrefix = lengthBytes(newChars * bytesPerChar);
+            if (oldPrefix != newPrefix) {
+                return copy("the length prefix grows from " + oldPrefix + " to " + newPrefix + " bytes ("
+                        + newChars * bytesPerChar + " bytes with " + bytesPerChar + " bytes per character)");
+            }
+            if (server.isMariaDb() && server.isAtLeast("10.4.3")) {
+                return new Analysis(Algorithm.INSTANT, "extends the column within the same length prefix");
+            }
+            if (server.isMariaDb() ? server.isAtLeast("10.2.2") : server.isAtLeast("5.7.0")) {
+                return new Analysis(Algorithm.INPLACE, "extends the column within the same length prefix");
+            }
+            return copy("the server " + server + " doesn't extend " + oldLength.group(1) + " columns in place");
+        }
+
+        Matcher oldValues = ENUMERATION.matcher(column.type);
+        Matcher newValues = ENUMERATION.matcher(newType);
+        if (oldValues.matches() && newValues.matches() && oldValues.group(1).equalsIgnoreCase(newValues.group(1))) {
+            String reason = checkAttributes(column, newValues.group(3));
+            if (reason != null) {
+                return copy(reason);
+            }
+            String kind = oldValues.group(1).toUpperCase(Locale.ROOT);
+            List<String> before = parseValues(oldValues.group(2));
+            List<String> after = parseValues(newValues.group(2));
+            if (after.size() < before.size() || !after.subList(0, before.size()).equals(before)) {
+                return copy("the " + kind + " values are changed, not only appended at the end");
+            }
+            boolean set = "SET".equals(kind);
+            if (storageBytes(set, before.size()) != storageBytes(set, after.size())) {
+                return copy("the storage size of the " + kind + " grows to " + storageBytes(set, after.size()) + " bytes");
+            }
+            if (server.isMariaDb() ? server.isAtLeast("10.3.7") : server.isAtLeast("8.0.0")) {
+                return new Analysis(Algorithm.INSTANT, "appends " + kind + " values at the end");
+            }
+            if (server.isMariaDb() || server.isAtLeast("5.6.0")) {
+                return new Analysis(Algorithm.INPLACE, "appends " + kind + " values at the end");
+            }
+            return copy("the server " + server + " doesn't append " + kind + " values in place");
+        }
+
+        return copy("the type changes from " + column.type + " to " + newType);
+    }
+
+    /**
+     * Checks the character set, collation and nullability after the type.
+     * @return the reason for a table copy or <code>null</code>, if these stay the same
+     */
+    private String checkAttributes(Column column, String attributes) {
+        Matcher charset = CHARSET.matcher(attributes);
+        Matcher collate = COLLATE.matcher(attributes);
+        String remaining = COLLATE.matcher(CHARSET.matcher(attributes).replaceAll("")).replaceAll("");
+        boolean notNull = NOT_NULL.matcher(remaining).find();
+        remaining = NULL.matcher(NOT_NULL.matcher(remaining).replaceAll("")).replaceAll("").trim();
+        if (!remaining.isEmpty()) {
+            return "the new definition contains further attributes: " + remaining;
+        }
+        if (column.collation != null) {
+            String collation;
+            if (collate.find()) {
+                collation = collate.group(1);
+            } else if (charset.find()) {
+                return "the character set " + charset.group(1) + " is specified without collation";
+            } else {
+                collation = tableCollation;
+            }
+            if (!column.collation.equalsIgnoreCase(collation)) {
+                return "the collation changes from " + column.collation + " to " + collation;
+            }
+        }
+        if (column.nullable == notNull) {
+            return column.nullable ? "the column becomes NOT NULL" : "the column becomes nullable";
+        }
+        return null;
+    }
+
+    private static int lengthBytes(long bytes) {
+        return bytes > 255 ? 2 : 1;
+    }
+
+    private static int storageBytes(boolean set, int values) {
+        if (!set) {
+            return values > 255 ? 2 : 1;
+        }
+        int bytes = (values + 7) / 8;
+        return bytes > 4 ? 8 : Math.max(1, bytes);
+    }
+
+    private static List<String> parseValues(String values) {
+        List<String> result = new ArrayList<>();
+        Matcher matcher = VALUE.matcher(values);
+        while (matcher.find()) {
+            result.add(matcher.group(1));
+        }
+        return result;
+    }
+
+    private static Analysis copy(String reason) {
+        return new Analysis(Algorithm.COPY, reason);
+    }
+}
@@ -0,0 +1,140 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import liquibase.Liquibase;
+import liquibase.Scope;
+import liquibase.changelog.visitor.ValidatingVisitor;
+import liquibase.database.Database;
+import liquibase.logging.Logger;
+
+/**
+ * Keeps track of the liquibase command, that is currently executed on a database, e.g. one update.
+ *
+ * <p>The look-ahead of {@link MariaDbToolsChangeSetPlanner} and {@link MariaDbToolsParallelScheduler} executes
+ * changesets before liquibase reaches them. This is only correct during an update, that reaches all pending
+ * changesets. Liquibase doesn't expose the filters of the running command, so the command is determined
+ * from the calling {@link Liquibase} method: updates limited by a count or a tag, rollbacks and all other
+ * commands don't look ahead.
+ *
+ * <p>The state, that these classes keep for one command, is discarded, when the command is finished.
+ * Runs are started and finished by {@link MariaDbToolsLockService}, as liquibase holds the changelog lock
+ * for the whole command and releases it on every exit path.
+ */
+public class MariaDbToolsUpdateRun {
+    private static final Logger log = Scope.getCurrentScope().getLog(MariaDbToolsUpdateRun.class);
+
+    private static final Map<Database, Boolean> runs = new WeakHashMap<>();
+
+    private MariaDbToolsUpdateRun() { }
+
+    /**
+     * Starts a new run for the liquibase command, that is currently executed.
+     * @param database the database
+     */
+    public static void start(Database database) {
+        start(database, isUnlimitedUpdate(new Throwable().getStackTrace()));
+    }
+
+    static void start(Database database, boolean lookAhead) {
+        finish(database);
+        synchronized (runs) {
+            runs.put(database, lookAhead);
+        }
+        log.fine("Started liquibase command on " + database + (lookAhead ? " with" : " without") + " look-ahead");
+    }
+
+    /**
+     * Finishes the run: waits for schema changes, that are still running in the background, and
+     * discards the state of the run.
+     * @param database the database
+     */
+    public static void finish(Database database) {
+        synchronized (runs) {
+            runs.remove(database);
+        }
+        MariaDbToolsParallelScheduler.finish(database);
+        MariaDbToolsChangeSetPlanner.reset(database);
+        MariaDbToolsMetadataCache.getInstance().reset(database);
+        MariaDbToolsTableSizeService.getInstance().reset(database);
+        MariaDbToolsCostEstimator.getInstance().reset(database);
+    }
+
+    /**
+     * Checks whether changesets may be executed before liquibase reaches them.
+     * @param database the database
+     * @return <code>true</code> if an update is running, that will reach all pending changesets
+     */
+    public static boolean isLookAheadAllowed(Database database) {
+        synchronized (runs) {
+            return Boolean.TRUE.equals(runs.get(database));
+        }
+    }
+
+    /**
+     * Checks whether liquibase currently validates the changelog. No changeset is executed during validation.
+     * @return <code>true</code> if called by liquibase's {@link ValidatingVisitor}
+     */
+    static boolean isValidating() {
+        String visitor = ValidatingVisitor.class.getName();
+        for (StackTraceElement frame : new Throwable().getStackTrace()) {
+            if (frame.getClassName().equals(visitor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines the liquibase command from the innermost frame of {@link Liquibase}. Unlimited updates
+     * run in lambdas of {@code update}, updates with a count or a tag in anonymous classes
+     * declared in {@code update(int, ...)} and {@code update(String tag, ...)}.
+     */
+    static boolean isUnlimitedUpdate(StackTraceElement[] stack) {
+        String liquibaseClass = Liquibase.class.getName();
+        for (StackTraceElement frame : stack) {
+            String className = frame.getClassName();
+            if (className.equals(liquibaseClass)) {
+                String method = frame.getMethodName();
+                if (method.startsWith("lambda$")) {
+                    method = method.substring("lambda$".length(), method.lastIndexOf('$'));
+                }
+                return "update".equals(method);
+            }
+            if (className.startsWith(liquibaseClass + "$")) {
+                Method method = getEnclosingMethod(className);
+                if (method == null) {
+                    continue;
+                }
+                Class<?>[] parameters = method.getParameterTypes();
+                return "update".equals(method.getName()) && parameters.length > 0
+                        && parameters[0] != int.class && parameters[0] != String.class;
+            }
+        }
+        return false;
+    }
+
+    private static Method getEnclosingMethod(String className) {
+        try {
+            return Class.forName(className, false, Liquibase.class.getClassLoader()).getEnclosingMethod();
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+}
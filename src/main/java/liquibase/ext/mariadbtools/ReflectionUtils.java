@@ -14,10 +14,20 @@ package liquibase.ext.mariadbtools;
  * limitations under the License.
  */
 
+import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class ReflectionUtils {
+    /** Methods and fields per class and name, looked up and made accessible only once. */
+    private static final ClassValue<Map<String, AccessibleObject>> MEMBERS = new ClassValue<Map<String, AccessibleObject>>() {
+        @Override
+        protected Map<String, AccessibleObject> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
 
     static Class<?> findClass(ClassLoader loader, String ... names) {
         for (String clazzName : names) {
@@ -37,16 +47,10 @@ class ReflectionUtils {
         }
     }
 
-    static <T> T invokeMethod(String className, Object instance, String methodName) {
-        Class<?> clazz = loadClass(className, instance.getClass().getClassLoader());
-        return invokeMethod(clazz, instance, methodName);
-    }
-
     static <T> T invokeMethod(Class<?> clazz, Object instance, String methodName) {
         try {
             if (clazz != null && clazz.isInstance(instance)) {
                 Method method = findMethod(clazz, methodName);
-                method.setAccessible(true);
 
                 @SuppressWarnings("unchecked")
                 T result = (T) method.invoke(instance);
@@ -59,16 +63,28 @@ class ReflectionUtils {
     }
 
     static Method findMethod(Class<?> clazz, String name) throws NoSuchMethodException, SecurityException {
-        try {
-            return clazz.getMethod(name);
-        } catch (NoSuchMethodException e) {
-            return clazz.getDeclaredMethod(name);
+        Map<String, AccessibleObject> members = MEMBERS.get(clazz);
+        Method method = (Method) members.get("method:" + name);
+        if (method == null) {
+            try {
+                method = clazz.getMethod(name);
+            } catch (NoSuchMethodException e) {
+                method = clazz.getDeclaredMethod(name);
+            }
+            method.setAccessible(true);
+            members.put("method:" + name, method);
         }
+        return method;
     }
 
     static <T> T readField(Class<?> clazz, Object instance, String name) throws NoSuchFieldException, SecurityException, IllegalArgumentException, IllegalAccessException {
-        Field field = clazz.getDeclaredField(name);
-        field.setAccessible(true);
+        Map<String, AccessibleObject> members = MEMBERS.get(clazz);
+        Field field = (Field) members.get("field:" + name);
+        if (field == null) {
+            field = clazz.getDeclaredField(name);
+            field.setAccessible(true);
+            members.put("field:" + name, field);
+        }
 
         @SuppressWarnings("unchecked")
         T result = (T) field.get(instance);
@@ -109,7 +109,7 @@ public abstract class AbstractMariaDbToolsChangeTest<T extends MariaDbToolsChang
                 + (change.getMariaDbToolsOptions() == null
                         ? "--alter-foreign-keys-method=auto --nocheck-unique-key-change"
                         : change.getMariaDbToolsOptions())
-                + " --recursion-method=none "
+                + " --recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alter + "\" "
                 + "--password=*** --execute "
                 + "h=localhost,P=3306,u=user,D=" + targetDatabaseName + ",t=" + targetTableName,
@@ -48,6 +48,8 @@ public class ChangeLogParserTest {
 
         data.put("test-changelog.xml",
                 FileUtil.getContents(new File("src/test/resources/liquibase/ext/mariadbtools/changelog/test-changelog.xml")));
+        data.put("sweep-changelog.xml",
+                FileUtil.getContents(new File("src/test/resources/liquibase/ext/mariadbtools/changelog/sweep-changelog.xml")));
         data.put("test-changelog.yaml",
                 FileUtil.getContents(new File("src/test/resources/liquibase/ext/mariadbtools/changelog/test-changelog.yaml")));
         data.put("raw.githubusercontent.com/liquibase/liquibase-mariadbtools/liquibase-mariadbtools-2.0.0/src/main/resources/dbchangelog-ext-liquibase-mariadbtools.xsd",
@@ -110,4 +112,13 @@ public class ChangeLogParserTest {
         DatabaseChangeLog changelog = loadChangeLog("test-changelog.xml");
         assertChangeLog(changelog);
     }
+
+    @Test
+    public void testReadSweepChangeXML() throws Exception {
+        DatabaseChangeLog changelog = loadChangeLog("sweep-changelog.xml");
+        Change change = changelog.getChangeSets().get(0).getChanges().get(0);
+        Assertions.assertEquals(MariaDbToolsSweepChange.class, change.getClass());
+        Assertions.assertEquals("testdb", ((MariaDbToolsSweepChange) change).getCatalogName());
+        Assertions.assertEquals("person", ((MariaDbToolsSweepChange) change).getTableName());
+    }
 }
@@ -66,6 +66,14 @@ public class DatabaseConnectionUtilTest {
         Assertions.assertEquals("3307", util.getPort());
 }
 
+    @Test
+    public void testReplaceHost() {
+        Assertions.assertEquals("jdbc:mysql://user@replica1:3307/testdb?useSSL=false",
+                DatabaseConnectionUtil.replaceHost("jdbc:mysql://user@localhost:3306/testdb?useSSL=false", "replica1", "3307"));
+        Assertions.assertEquals("jdbc:mariadb://replica1:3306/testdb",
+                DatabaseConnectionUtil.replaceHost("jdbc:mariadb:replication://primary,replica/testdb", "replica1", "3306"));
+    }
+
     @Test
     public void testGetUser() {
         DatabaseConnectionUtil util;
@@ -146,6 +154,40 @@ public class DatabaseConnectionUtilTest {
         Assertions.assertEquals("xyz2", util.getPassword());
     }
 
+    @Test
+    public void testDriverPropertiesMySQL() throws Exception {
+        Properties info = new Properties();
+        info.setProperty("user", "user");
+        info.setProperty("password", "xyz");
+        info.setProperty("sslMode", "VERIFY_CA");
+        info.setProperty("trustCertificateKeyStoreUrl", "file:/etc/truststore.jks");
+        DatabaseConnectionUtil util = new DatabaseConnectionUtil(
+                new JdbcConnection(new NoOpMySqlConnection("host", 3306, info, "database", "jdbc:mysql://")));
+
+        Properties properties = util.getDriverProperties();
+        Assertions.assertEquals("VERIFY_CA", properties.getProperty("sslMode"));
+        Assertions.assertEquals("file:/etc/truststore.jks", properties.getProperty("trustCertificateKeyStoreUrl"));
+        Assertions.assertNull(properties.getProperty("password"));
+        Assertions.assertNull(properties.getProperty("host"));
+    }
+
+    @Test
+    public void testDriverPropertiesMariaDb() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("password", "xyz");
+        props.setProperty("trustStore", "/etc/truststore.jks");
+        UrlParser urlParser = UrlParser.parse("jdbc:mariadb://127.0.0.1/db?user=user&useSsl=true", props);
+        Protocol protocol = new MasterProtocol(urlParser, null, new ReentrantLock(), null);
+        DatabaseConnectionUtil util = new DatabaseConnectionUtil(
+                new JdbcConnection(new MariaDbConnection(protocol)));
+
+        Properties properties = util.getDriverProperties();
+        Assertions.assertEquals("true", properties.getProperty("useSsl"));
+        Assertions.assertEquals("/etc/truststore.jks", properties.getProperty("trustStore"));
+        Assertions.assertNull(properties.getProperty("user"));
+        Assertions.assertNull(properties.getProperty("password"));
+    }
+
     @Test
     public void testApacheCommonsDbcpPoolingConnection() throws Exception {
         DatabaseConnectionUtil util = new DatabaseConnectionUtil(
@@ -172,4 +214,38 @@ public class DatabaseConnectionUtilTest {
         DatabaseConnectionUtil util = new DatabaseConnectionUtil(MockDatabaseConnection.fromUrl("jdbc:mysql://user@localhost:3306/testdb"));
         Assertions.assertEquals("password-via-system-property", util.getPassword());
     }
+
+    @Test
+    public void testGetDsn() {
+        DatabaseConnectionUtil util = new DatabaseConnectionUtil(MockDatabaseConnection.fromUrl("jdbc:mysql://user@localhost:3307/testdb"));
+        Assertions.assertEquals("h=localhost,P=3307,u=user", util.getDsn());
+    }
+
+    @Test
+    public void testForConnection() {
+        String[] url = { "jdbc:mysql://user@localhost:3306/testdb" };
+        MockDatabaseConnection connection = new MockDatabaseConnection(null, "user") {
+            @Override
+            public String getURL() {
+                return url[0];
+            }
+        };
+
+        DatabaseConnectionUtil util = DatabaseConnectionUtil.forConnection(connection);
+        Assertions.assertSame(util, DatabaseConnectionUtil.forConnection(connection));
+        Assertions.assertNotSame(util, DatabaseConnectionUtil.forConnection(MockDatabaseConnection.fromUrl(url[0])));
+        Assertions.assertEquals("password-for-unit-testing", util.getPassword());
+
+        // the system property still takes precedence
+        System.setProperty(Configuration.LIQUIBASE_PASSWORD, "password-via-system-property");
+        Assertions.assertEquals("password-via-system-property", DatabaseConnectionUtil.forConnection(connection).getPassword());
+        System.clearProperty(Configuration.LIQUIBASE_PASSWORD);
+        Assertions.assertEquals("password-for-unit-testing", DatabaseConnectionUtil.forConnection(connection).getPassword());
+
+        url[0] = "jdbc:mysql://user@otherhost:3307/testdb";
+        DatabaseConnectionUtil changed = DatabaseConnectionUtil.forConnection(connection);
+        Assertions.assertNotSame(util, changed);
+        Assertions.assertEquals("otherhost", changed.getHost());
+        Assertions.assertEquals("3307", changed.getPort());
+    }
 }
@@ -0,0 +1,179 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.jvm.JdbcExecutor;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsAbortHandlerTest {
+    private Database database;
+    private MockJdbcConnection connection;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    public void setup() {
+        connection = new MockJdbcConnection().addResult("information_schema.TRIGGERS",
+                new Object[] {"pt_osc_testdb_person_ins"}, new Object[] {"pt_osc_testdb_person_upd"});
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(connection.toJdbcConnection());
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+    }
+
+    private Path script(String content) throws Exception {
+        Assumptions.assumeFalse(File.separatorChar == '\\', "the fake mariadb-schema-change is a shell script");
+        Path script = tempDir.resolve(MariaDbToolsSchemaChangeStatement.COMMAND);
+        Files.write(script, ("#!/bin/sh\n" + content).getBytes(StandardCharsets.UTF_8));
+        Assumptions.assumeTrue(script.toFile().setExecutable(true));
+        return script;
+    }
+
+    private boolean dropped(String sql) {
+        return connection.getExecuted().stream().anyMatch(s -> s.equals(sql));
+    }
+
+    @Test
+    public void testOnOutput() {
+        MariaDbToolsAbortHandler handler = new MariaDbToolsAbortHandler(null, database, "testdb", "person", false);
+        handler.onOutput("Creating new table...");
+        Assertions.assertNull(handler.getNewTable());
+        handler.onOutput("Created new table `testdb`.`_person_new` OK.");
+        Assertions.assertEquals("_person_new", handler.getNewTable());
+
+        handler = new MariaDbToolsAbortHandler(null, database, "testdb", "person", false);
+        handler.onOutput("Created new table testdb.__person_new OK.");
+        Assertions.assertEquals("__person_new", handler.getNewTable());
+    }
+
+    @Test
+    public void testCleanup() {
+        MariaDbToolsAbortHandler handler = new MariaDbToolsAbortHandler(null, database, "testdb", "person", false);
+        handler.onOutput("Created new table `testdb`.`_person_new` OK.");
+        handler.cleanup();
+
+        Assertions.assertTrue(connection.getExecuted().get(0).endsWith("[testdb, person, pt\\_osc\\_%]"));
+        Assertions.assertTrue(dropped("DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_person_ins"));
+        Assertions.assertTrue(dropped("DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_person_upd"));
+        Assertions.assertTrue(dropped("DROP TABLE IF EXISTS testdb._person_new"));
+    }
+
+    @Test
+    public void testCleanupKeepsNewTableForResume() {
+        MariaDbToolsAbortHandler handler = new MariaDbToolsAbortHandler(null, database, "testdb", "person", true);
+        handler.onOutput("Created new table `testdb`.`_person_new` OK.");
+        handler.cleanup();
+
+        // without the triggers, the rows written meanwhile would be missing in the new table
+        Assertions.assertFalse(dropped("DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_person_ins"));
+        Assertions.assertFalse(dropped("DROP TABLE IF EXISTS testdb._person_new"));
+    }
+
+    @Test
+    public void testAbortTerminatesGracefully() throws Exception {
+        Path cleaned = tempDir.resolve("cleaned");
+        Path script = script("trap 'echo cleaned > \"" + cleaned + "\"; exit 1' TERM\n"
+                + "echo started\n"
+                + "while true; do sleep 0.1; done\n");
+        Process process = new ProcessBuilder(script.toString()).start();
+        Assertions.assertEquals('s', process.getInputStream().read());
+
+        MariaDbToolsAbortHandler handler = MariaDbToolsAbortHandler.register(process, database, "testdb", "person", false);
+        Assertions.assertTrue(MariaDbToolsAbortHandler.isRegistered(handler));
+        handler.abort();
+        handler.close();
+
+        Assertions.assertFalse(process.isAlive());
+        Assertions.assertTrue(Files.exists(cleaned));
+        Assertions.assertTrue(dropped("DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_person_ins"));
+        Assertions.assertFalse(MariaDbToolsAbortHandler.isRegistered(handler));
+    }
+
+    @Test
+    public void testAbortKillsAfterTimeout() throws Exception {
+        System.setProperty(Configuration.ABORT_TIMEOUT, "1");
+        Path script = script("trap '' TERM\n"
+                + "echo started\n"
+                + "while true; do sleep 0.1; done\n");
+        Process process = new ProcessBuilder(script.toString()).start();
+        Assertions.assertEquals('s', process.getInputStream().read());
+
+        new MariaDbToolsAbortHandler(process, database, "testdb", "person", false).abort();
+        Assertions.assertFalse(process.isAlive());
+        Assertions.assertTrue(dropped("DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_person_upd"));
+    }
+
+    @Test
+    public void testInterruptAbortsTheTool() throws Exception {
+        Path cleaned = tempDir.resolve("cleaned");
+        Path started = tempDir.resolve("started");
+        script("trap 'echo cleaned > \"" + cleaned + "\"; exit 1' TERM\n"
+                + "echo 'Created new table `testdb`.`_person_new` OK.'\n"
+                + "touch \"" + started + "\"\n"
+                + "while true; do sleep 0.1; done\n");
+        System.setProperty(Configuration.MARIADB_TOOLS_PATH, tempDir.toString());
+        MariaDbToolsSchemaChangeStatement statement = new MariaDbToolsSchemaChangeStatement("testdb", "person",
+                "ADD COLUMN age INT NULL", Optional.empty());
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                statement.runCommand(Arrays.asList(MariaDbToolsSchemaChangeStatement.getFullToolkitPath(),
+                        "--alter=ADD COLUMN age INT NULL"), database, false);
+            } catch (RuntimeException e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+        for (int i = 0; i < 100 && !Files.exists(started); i++) {
+            Thread.sleep(50);
+        }
+        Assertions.assertTrue(Files.exists(started));
+        // the output is read by another thread, give it a moment to see the new table
+        Thread.sleep(200);
+        thread.interrupt();
+        thread.join(10000);
+
+        Assertions.assertTrue(failure.get() instanceof UnexpectedLiquibaseException);
+        Assertions.assertTrue(Files.exists(cleaned));
+        List<String> executed = connection.getExecuted();
+        Assertions.assertTrue(executed.contains("DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_person_ins"), executed.toString());
+        Assertions.assertTrue(executed.contains("DROP TABLE IF EXISTS testdb._person_new"), executed.toString());
+    }
+}
@@ -107,7 +107,7 @@ public class MariaDbToolsAddColumnChangeTest extends AbstractMariaDbToolsChangeT
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"ADD COLUMN new_column INT NULL\" "
                 + "--password=*** --execute "
                 + "h=localhost,P=3306,u=user,D=testdb,t=person",
@@ -126,7 +126,7 @@ public class MariaDbToolsAddColumnChangeTest extends AbstractMariaDbToolsChangeT
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"DROP COLUMN new_column\" "
                 + "--password=*** --execute "
                 + "h=localhost,P=3306,u=user,D=testdb,t=person",
@@ -146,7 +146,7 @@ public class MariaDbToolsAddColumnChangeTest extends AbstractMariaDbToolsChangeT
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"ADD COLUMN new_column INT NULL\" "
                 + "--password=*** --execute "
                 + "h=localhost,P=3306,u=user,D=testdb,t=person",
@@ -164,7 +164,7 @@ public class MariaDbToolsAddColumnChangeTest extends AbstractMariaDbToolsChangeT
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"DROP COLUMN new_column\" "
                 + "--password=*** --execute "
                 + "h=localhost,P=3306,u=user,D=testdb,t=person",
@@ -112,7 +112,7 @@ public class MariaDbToolsAddForeignKeyConstraintChangeTest extends AbstractMaria
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alterText + "\" "
                 + "--password=*** --execute h=localhost,P=3306,u=user,D=testdb,t=address",
                 ((CommentStatement)statements[0]).getText());
@@ -130,7 +130,7 @@ public class MariaDbToolsAddForeignKeyConstraintChangeTest extends AbstractMaria
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alterRollbackText + "\" "
                 + "--password=*** --execute h=localhost,P=3306,u=user,D=testdb,t=address",
                 ((CommentStatement)statements[0]).getText());
@@ -149,7 +149,7 @@ public class MariaDbToolsAddForeignKeyConstraintChangeTest extends AbstractMaria
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alterText + "\" "
                 + "--password=*** --execute h=localhost,P=3306,u=user,D=testdb,t=address",
                 ((CommentStatement)statements[0]).getText());
@@ -166,7 +166,7 @@ public class MariaDbToolsAddForeignKeyConstraintChangeTest extends AbstractMaria
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alterRollbackText + "\" "
                 + "--password=*** --execute h=localhost,P=3306,u=user,D=testdb,t=address",
                 ((CommentStatement)statements[0]).getText());
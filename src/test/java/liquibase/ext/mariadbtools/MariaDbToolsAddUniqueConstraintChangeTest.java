@@ -106,7 +106,7 @@ public class MariaDbToolsAddUniqueConstraintChangeTest extends AbstractMariaDbTo
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alterText + "\" "
                 + "--password=*** --execute h=localhost,P=3306,u=user,D=testdb,t=person",
                 ((CommentStatement)statements[0]).getText());
@@ -124,7 +124,7 @@ public class MariaDbToolsAddUniqueConstraintChangeTest extends AbstractMariaDbTo
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alterRollbackText + "\" "
                 + "--password=*** --execute h=localhost,P=3306,u=user,D=testdb,t=person",
                 ((CommentStatement)statements[0]).getText());
@@ -143,7 +143,7 @@ public class MariaDbToolsAddUniqueConstraintChangeTest extends AbstractMariaDbTo
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alterText + "\" "
                 + "--password=*** --execute h=localhost,P=3306,u=user,D=testdb,t=person",
                 ((CommentStatement)statements[0]).getText());
@@ -160,7 +160,7 @@ public class MariaDbToolsAddUniqueConstraintChangeTest extends AbstractMariaDbTo
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alterRollbackText + "\" "
                 + "--password=*** --execute h=localhost,P=3306,u=user,D=testdb,t=person",
                 ((CommentStatement)statements[0]).getText());
@@ -0,0 +1,209 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.Scope;
+import liquibase.change.AddColumnConfig;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.exception.DatabaseException;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.LoggingExecutor;
+import liquibase.executor.jvm.JdbcExecutor;
+import liquibase.sql.Sql;
+import liquibase.statement.SqlStatement;
+import liquibase.statement.core.CommentStatement;
+import liquibase.statement.core.RawSqlStatement;
+
+import liquibase.ext.mariadbtools.MariaDbToolsAlterClassifier.Algorithm;
+import liquibase.ext.mariadbtools.MariaDbToolsAlterClassifier.ServerInfo;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsAlterClassifierTest {
+    private static final ServerInfo MARIADB_10_2 = new ServerInfo(true, "10.2.40");
+    private static final ServerInfo MARIADB_10_3 = new ServerInfo(true, "10.3.31");
+    private static final ServerInfo MARIADB_10_5 = new ServerInfo(true, "10.5.12");
+    private static final ServerInfo MYSQL_5_7 = new ServerInfo(false, "5.7.35");
+    private static final ServerInfo MYSQL_8_0_20 = new ServerInfo(false, "8.0.20");
+    private static final ServerInfo MYSQL_8_0_30 = new ServerInfo(false, "8.0.30");
+
+    private Database database;
+
+    @BeforeEach
+    public void setup() {
+        System.setProperty(Configuration.LIQUIBASE_PASSWORD, "root");
+        System.setProperty(Configuration.ADDITIONAL_OPTIONS, "");
+
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(new MockDatabaseConnection("jdbc:mysql://user@localhost:3306/testdb", "user@localhost") {
+            @Override
+            public String getDatabaseProductVersion() throws DatabaseException {
+                return "5.5.5-10.5.12-MariaDB-1:10.5.12+maria~focal";
+            }
+        });
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+
+        MariaDbToolsSchemaChangeStatement.available = true;
+        MariaDbToolsSchemaChangeStatement.mariaDBToolsToolkitVersion = null;
+        MariaDbToolsConstraintsService.getInstance().disable();
+    }
+
+    private static MariaDbToolsAddColumnChange addColumn() {
+        MariaDbToolsAddColumnChange change = new MariaDbToolsAddColumnChange();
+        change.setTableName("person");
+        AddColumnConfig config = new AddColumnConfig();
+        config.setName("age");
+        config.setType("INT");
+        change.addColumn(config);
+        return change;
+    }
+
+    @Test
+    public void testServerInfo() {
+        ServerInfo server = MariaDbToolsAlterClassifier.getServerInfo(database);
+        Assertions.assertNotNull(server);
+        Assertions.assertTrue(server.isMariaDb());
+        Assertions.assertTrue(server.isAtLeast("10.5.12"));
+        Assertions.assertFalse(server.isAtLeast("10.6.0"));
+
+        database.setConnection(new MockDatabaseConnection("jdbc:mysql://user@localhost:3306/testdb", "user@localhost"));
+        Assertions.assertNull(MariaDbToolsAlterClassifier.getServerInfo(database));
+    }
+
+    @Test
+    public void testAddColumn() {
+        Assertions.assertEquals(Algorithm.INSTANT, MariaDbToolsAlterClassifier.classify("ADD COLUMN age INT NULL", MARIADB_10_3));
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify("ADD COLUMN age INT NULL AFTER name", MARIADB_10_3));
+        Assertions.assertEquals(Algorithm.INSTANT, MariaDbToolsAlterClassifier.classify("ADD COLUMN age INT NULL AFTER name", MARIADB_10_5));
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify("ADD COLUMN age INT NULL", MARIADB_10_2));
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify("ADD COLUMN age INT NULL", MYSQL_5_7));
+        Assertions.assertEquals(Algorithm.INSTANT, MariaDbToolsAlterClassifier.classify("ADD COLUMN age INT NULL", MYSQL_8_0_20));
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify("ADD COLUMN age INT NULL FIRST", MYSQL_8_0_20));
+        Assertions.assertEquals(Algorithm.INSTANT, MariaDbToolsAlterClassifier.classify("ADD COLUMN age INT NULL FIRST", MYSQL_8_0_30));
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify("ADD COLUMN id INT AUTO_INCREMENT", MARIADB_10_5));
+        // keywords within comments are ignored
+        Assertions.assertEquals(Algorithm.INSTANT, MariaDbToolsAlterClassifier.classify(
+                "ADD COLUMN age INT NULL COMMENT 'age, AFTER birth'", MARIADB_10_3));
+    }
+
+    @Test
+    public void testIndexes() {
+        Assertions.assertEquals(Algorithm.INPLACE, MariaDbToolsAlterClassifier.classify("ADD INDEX idx_age (age)", MARIADB_10_2));
+        Assertions.assertEquals(Algorithm.INPLACE, MariaDbToolsAlterClassifier.classify("ADD UNIQUE INDEX idx_age (age, name)", MYSQL_5_7));
+        Assertions.assertEquals(Algorithm.INPLACE, MariaDbToolsAlterClassifier.classify("ADD CONSTRAINT uq_age UNIQUE (age)", MYSQL_5_7));
+        Assertions.assertEquals(Algorithm.INPLACE, MariaDbToolsAlterClassifier.classify("DROP INDEX idx_age, DROP KEY idx_name", MARIADB_10_5));
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify("ADD FULLTEXT INDEX idx_name (name)", MARIADB_10_5));
+    }
+
+    @Test
+    public void testCopy() {
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify("MODIFY age BIGINT", MARIADB_10_5));
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify("ADD PRIMARY KEY (id)", MARIADB_10_5));
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify(
+                "ADD CONSTRAINT fk_person FOREIGN KEY (address_id) REFERENCES address (id)", MARIADB_10_5));
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify("DROP FOREIGN KEY _fk_person", MARIADB_10_5));
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify("ADD COLUMN age INT NULL", null));
+    }
+
+    @Test
+    public void testMixedOperations() {
+        Assertions.assertEquals(Algorithm.INSTANT, MariaDbToolsAlterClassifier.classify(
+                "ADD COLUMN age INT NULL, DROP COLUMN birth", MARIADB_10_5));
+        // the most expensive operation determines the algorithm
+        Assertions.assertEquals(Algorithm.INPLACE, MariaDbToolsAlterClassifier.classify(
+                "ADD COLUMN age INT NULL, ADD INDEX idx_age (age)", MARIADB_10_5));
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify(
+                "ADD COLUMN age INT NULL, ADD INDEX idx_age (age), ADD PRIMARY KEY (id)", MARIADB_10_5));
+    }
+
+    @Test
+    public void testSplitOperations() {
+        Assertions.assertEquals(Arrays.asList("ADD COLUMN a DECIMAL(10, 2) NULL", "ADD COLUMN b VARCHAR(10) DEFAULT 'x, y'",
+                "ADD INDEX idx (a, b)"),
+                MariaDbToolsAlterClassifier.splitOperations(
+                        "ADD COLUMN a DECIMAL(10, 2) NULL, ADD COLUMN b VARCHAR(10) DEFAULT 'x, y', ADD INDEX idx (a, b)"));
+    }
+
+    @Test
+    public void testNativeAlterDisabledByDefault() {
+        SqlStatement[] statements = addColumn().generateStatements(database);
+        Assertions.assertEquals(1, statements.length);
+        Assertions.assertTrue(statements[0] instanceof MariaDbToolsSchemaChangeStatement);
+    }
+
+    @Test
+    public void testNativeAlter() {
+        System.setProperty(Configuration.NATIVE_ALTER, "instant");
+        SqlStatement[] statements = addColumn().generateStatements(database);
+        Assertions.assertEquals(1, statements.length);
+        Assertions.assertTrue(statements[0] instanceof MariaDbToolsNativeAlterStatement);
+        MariaDbToolsNativeAlterStatement statement = (MariaDbToolsNativeAlterStatement) statements[0];
+        Assertions.assertEquals(Algorithm.INSTANT, statement.getAlgorithm());
+        Assertions.assertEquals("ALTER TABLE testdb.person ADD COLUMN age INT NULL, ALGORITHM=INSTANT", statement.getSql(database));
+    }
+
+    @Test
+    public void testNativeAlterDryRun() {
+        System.setProperty(Configuration.NATIVE_ALTER, "inplace");
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc",
+                database, new LoggingExecutor(null, new StringWriter(), database));
+
+        SqlStatement[] statements = addColumn().generateStatements(database);
+        Assertions.assertEquals(2, statements.length);
+        Assertions.assertTrue(statements[0] instanceof CommentStatement);
+        Assertions.assertEquals("ALTER TABLE testdb.person ADD COLUMN age INT NULL, ALGORITHM=INSTANT",
+                ((RawSqlStatement) statements[1]).getSql());
+    }
+
+    @Test
+    public void testNativeAlterFallsBackOnLockWaitTimeout() {
+        System.setProperty(Configuration.LOCK_WAIT_RETRIES, "0");
+        MockJdbcConnection connection = new MockJdbcConnection()
+                .addResult("@@SESSION.lock_wait_timeout", new Object[] {"50"})
+                .addError("ALGORITHM=INSTANT",
+                        new SQLException("Lock wait timeout exceeded; try restarting transaction", "HY000", 1205));
+        database.setConnection(connection.toJdbcConnection());
+        List<Database> fallbacks = new ArrayList<>();
+        MariaDbToolsSchemaChangeStatement fallback = new MariaDbToolsSchemaChangeStatement("testdb", "person",
+                "ADD COLUMN age INT NULL", Optional.empty()) {
+            @Override
+            public Sql[] generate(Database database) {
+                fallbacks.add(database);
+                return null;
+            }
+        };
+
+        Assertions.assertNull(new MariaDbToolsNativeAlterStatement(fallback, Algorithm.INSTANT).generate(database));
+        Assertions.assertEquals(1, fallbacks.size());
+        List<String> executed = connection.getExecuted();
+        Assertions.assertTrue(executed.contains("SET SESSION lock_wait_timeout = 2"));
+        Assertions.assertEquals("SET SESSION lock_wait_timeout = 50", executed.get(executed.size() - 1));
+    }
+}
@@ -0,0 +1,120 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.ext.mariadbtools.MariaDbToolsProgressEvent.Phase;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsBlockerMonitorTest {
+    private MockJdbcConnection connection;
+
+    @BeforeEach
+    public void setup() {
+        connection = new MockJdbcConnection()
+                .addResult("information_schema.PROCESSLIST",
+                        new Object[] {12L, "app", "10.0.0.5:4711", "Sleep", 300L, "", null},
+                        new Object[] {13L, "app", "10.0.0.6:4711", "Query", 4L, "Waiting for table metadata lock",
+                            "SELECT * FROM person WHERE id = 1"},
+                        new Object[] {14L, "liquibase", "localhost", "Query", 5L, "Waiting for table metadata lock",
+                            "CREATE TRIGGER `pt_osc_testdb_person_del` AFTER DELETE ON `testdb`.`person` FOR EACH ROW"},
+                        new Object[] {15L, "app", "10.0.0.7:4711", "Sleep", 2L, "", null})
+                .addResult("information_schema.INNODB_TRX", new Object[] {12L, 320L});
+    }
+
+    private MariaDbToolsBlockerMonitor monitor(long ownConnectionId, int killIdleSeconds) {
+        return new MariaDbToolsBlockerMonitor("testdb", "person", connection::createConnection,
+                ownConnectionId, killIdleSeconds);
+    }
+
+    private long count(String sqlFragment) {
+        return connection.getExecuted().stream().filter(sql -> sql.contains(sqlFragment)).count();
+    }
+
+    @Test
+    public void testNotWaiting() throws Exception {
+        connection.addResult("information_schema.PROCESSLIST",
+                new Object[] {12L, "app", "10.0.0.5:4711", "Sleep", 300L, "", null});
+        Assertions.assertTrue(monitor(-1, 60).check(connection.createConnection()).isEmpty());
+        Assertions.assertEquals(0, count("metadata_locks"));
+    }
+
+    @Test
+    public void testReportOnly() throws Exception {
+        connection.addResult("performance_schema.metadata_locks", new Object[] {12L}, new Object[] {14L});
+        Assertions.assertTrue(monitor(-1, 0).check(connection.createConnection()).isEmpty());
+        Assertions.assertEquals(0, count("KILL"));
+    }
+
+    @Test
+    public void testKillIdle() throws Exception {
+        connection.addResult("performance_schema.metadata_locks", new Object[] {12L}, new Object[] {15L}, new Object[] {14L});
+        Connection c = connection.createConnection();
+        Assertions.assertEquals(Arrays.asList(12L), monitor(-1, 60).check(c));
+        Assertions.assertEquals(1, count("KILL 12"));
+        Assertions.assertEquals(0, count("KILL 15"));
+    }
+
+    @Test
+    public void testKillNeverOwnConnection() throws Exception {
+        connection.addResult("performance_schema.metadata_locks", new Object[] {12L});
+        Assertions.assertEquals(Collections.emptyList(), monitor(12L, 60).check(connection.createConnection()));
+    }
+
+    @Test
+    public void testMetadataLockInfo() throws Exception {
+        connection.addResult("information_schema.METADATA_LOCK_INFO", new Object[] {12L});
+        Assertions.assertEquals(Arrays.asList(12L), monitor(-1, 60).check(connection.createConnection()));
+        Assertions.assertEquals(1, count("performance_schema.metadata_locks"));
+    }
+
+    @Test
+    public void testLockingPhases() {
+        MariaDbToolsBlockerMonitor monitor = monitor(-1, 0);
+        monitor.onProgress(new MariaDbToolsProgressEvent("testdb", "person", Phase.CREATING_TRIGGERS));
+        Assertions.assertTrue(monitor.isActive());
+        monitor.onProgress(new MariaDbToolsProgressEvent("testdb", "address", Phase.COPYING));
+        Assertions.assertTrue(monitor.isActive());
+        monitor.onProgress(new MariaDbToolsProgressEvent("testdb", "person", Phase.COPYING));
+        Assertions.assertFalse(monitor.isActive());
+        monitor.onProgress(new MariaDbToolsProgressEvent("testdb", "person", Phase.SWAPPING));
+        Assertions.assertTrue(monitor.isActive());
+        monitor.close();
+        Assertions.assertFalse(monitor.isActive());
+    }
+
+    @Test
+    public void testStart() {
+        Database database = new MySQLDatabase();
+        database.setConnection(connection.toJdbcConnection());
+        try (MariaDbToolsBlockerMonitor monitor = MariaDbToolsBlockerMonitor.start(database, "testdb", "person")) {
+            Assertions.assertNotNull(monitor);
+            Assertions.assertTrue(MariaDbToolsProgressNotifier.getInstance().getListeners().contains(monitor));
+        }
+
+        System.setProperty(Configuration.BLOCKER_MONITOR, "false");
+        Assertions.assertNull(MariaDbToolsBlockerMonitor.start(database, "testdb", "person"));
+    }
+}
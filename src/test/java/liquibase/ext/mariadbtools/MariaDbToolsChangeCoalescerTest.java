@@ -0,0 +1,153 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.Scope;
+import liquibase.change.AddColumnConfig;
+import liquibase.change.core.CreateTableChange;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.jvm.JdbcExecutor;
+import liquibase.statement.SqlStatement;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsChangeCoalescerTest {
+    private Database database;
+    private ChangeSet changeSet;
+
+    @BeforeEach
+    public void setup() {
+        System.setProperty(Configuration.LIQUIBASE_PASSWORD, "root");
+        System.setProperty(Configuration.ADDITIONAL_OPTIONS, "");
+
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(new MockDatabaseConnection("jdbc:mysql://user@localhost:3306/testdb", "user@localhost"));
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+
+        MariaDbToolsSchemaChangeStatement.available = true;
+        MariaDbToolsSchemaChangeStatement.mariaDBToolsToolkitVersion = null;
+        MariaDbToolsConstraintsService.getInstance().disable();
+
+        changeSet = new ChangeSet("1", "Alice", false, false, "changelog.xml", null, null, new DatabaseChangeLog());
+    }
+
+    private MariaDbToolsAddColumnChange addColumn(String table, String column) {
+        MariaDbToolsAddColumnChange change = new MariaDbToolsAddColumnChange();
+        change.setTableName(table);
+        AddColumnConfig config = new AddColumnConfig();
+        config.setName(column);
+        config.setType("INT");
+        change.addColumn(config);
+        changeSet.addChange(change);
+        return change;
+    }
+
+    private MariaDbToolsCreateIndexChange createIndex(String table, String index, String column) {
+        MariaDbToolsCreateIndexChange change = new MariaDbToolsCreateIndexChange();
+        change.setTableName(table);
+        change.setIndexName(index);
+        AddColumnConfig config = new AddColumnConfig();
+        config.setName(column);
+        change.addColumn(config);
+        changeSet.addChange(change);
+        return change;
+    }
+
+    private MariaDbToolsDropIndexChange dropIndex(String table, String index) {
+        MariaDbToolsDropIndexChange change = new MariaDbToolsDropIndexChange();
+        change.setTableName(table);
+        change.setIndexName(index);
+        changeSet.addChange(change);
+        return change;
+    }
+
+    private static String printCommand(SqlStatement[] statements, Database database) {
+        Assertions.assertEquals(1, statements.length);
+        return ((MariaDbToolsSchemaChangeStatement) statements[0]).printCommand(database);
+    }
+
+    @Test
+    public void testCoalesceSameTable() {
+        MariaDbToolsAddColumnChange first = addColumn("person", "age");
+        MariaDbToolsCreateIndexChange second = createIndex("person", "idx_age", "age");
+
+        Assertions.assertEquals("mariadb-schema-change --recursion-method=none --set-vars=lock_wait_timeout=2 "
+                + "--alter=\"ADD COLUMN age INT NULL, ADD INDEX idx_age (age)\" "
+                + "--password=*** --execute h=localhost,P=3306,u=user,D=testdb,t=person",
+                printCommand(first.generateStatements(database), database));
+        Assertions.assertEquals(0, second.generateStatements(database).length);
+    }
+
+    @Test
+    public void testDifferentTables() {
+        MariaDbToolsAddColumnChange first = addColumn("person", "age");
+        MariaDbToolsAddColumnChange second = addColumn("address", "zip");
+
+        Assertions.assertTrue(printCommand(first.generateStatements(database), database).contains("t=person"));
+        Assertions.assertTrue(printCommand(second.generateStatements(database), database).contains("t=address"));
+    }
+
+    @Test
+    public void testNotConsecutive() {
+        MariaDbToolsAddColumnChange first = addColumn("person", "age");
+        changeSet.addChange(new CreateTableChange());
+        MariaDbToolsAddColumnChange second = addColumn("person", "email");
+
+        Assertions.assertEquals(1, MariaDbToolsChangeCoalescer.findGroup(first).size());
+        Assertions.assertEquals(1, MariaDbToolsChangeCoalescer.findGroup(second).size());
+    }
+
+    @Test
+    public void testConflictingChanges() {
+        MariaDbToolsDropIndexChange first = dropIndex("person", "idx_name");
+        MariaDbToolsCreateIndexChange second = createIndex("person", "idx_name", "name");
+        MariaDbToolsAddColumnChange third = addColumn("person", "age");
+
+        Assertions.assertEquals(1, MariaDbToolsChangeCoalescer.findGroup(first).size());
+        Assertions.assertEquals(2, MariaDbToolsChangeCoalescer.findGroup(second).size());
+        Assertions.assertSame(second, MariaDbToolsChangeCoalescer.findGroup(third).get(0));
+    }
+
+    @Test
+    public void testDifferentOptions() {
+        MariaDbToolsAddColumnChange first = addColumn("person", "age");
+        MariaDbToolsAddColumnChange second = addColumn("person", "email");
+        second.setMariaDbToolsOptions("--foo");
+
+        Assertions.assertEquals(1, MariaDbToolsChangeCoalescer.findGroup(first).size());
+        Assertions.assertEquals(1, MariaDbToolsChangeCoalescer.findGroup(second).size());
+    }
+
+    @Test
+    public void testDisabled() {
+        System.setProperty(Configuration.COALESCE_CHANGES, "false");
+        MariaDbToolsAddColumnChange first = addColumn("person", "age");
+        MariaDbToolsAddColumnChange second = addColumn("person", "email");
+
+        Assertions.assertEquals(1, first.generateStatements(database).length);
+        Assertions.assertEquals(1, second.generateStatements(database).length);
+    }
+}
@@ -0,0 +1,227 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.Scope;
+import liquibase.change.AddColumnConfig;
+import liquibase.change.CheckSum;
+import liquibase.change.core.CreateTableChange;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.changelog.RanChangeSet;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.LoggingExecutor;
+import liquibase.executor.jvm.JdbcExecutor;
+import liquibase.statement.SqlStatement;
+import liquibase.statement.core.CommentStatement;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsChangeSetPlannerTest {
+    private TestDatabase database;
+    private DatabaseChangeLog changeLog;
+
+    private static class TestDatabase extends MySQLDatabase {
+        private final List<RanChangeSet> ranChangeSets = new ArrayList<>();
+
+        @Override
+        public List<RanChangeSet> getRanChangeSetList() {
+            return ranChangeSets;
+        }
+    }
+
+    @BeforeEach
+    public void setup() {
+        System.setProperty(Configuration.LIQUIBASE_PASSWORD, "root");
+        System.setProperty(Configuration.ADDITIONAL_OPTIONS, "");
+        System.setProperty(Configuration.MERGE_CHANGESETS, "true");
+
+        database = new TestDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(new MockDatabaseConnection("jdbc:mysql://user@localhost:3306/testdb", "user@localhost"));
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+
+        MariaDbToolsSchemaChangeStatement.available = true;
+        MariaDbToolsSchemaChangeStatement.mariaDBToolsToolkitVersion = null;
+        MariaDbToolsConstraintsService.getInstance().disable();
+        MariaDbToolsUpdateRun.start(database, true);
+
+        changeLog = new DatabaseChangeLog("changelog.xml");
+    }
+
+    @AfterEach
+    public void finishRun() {
+        MariaDbToolsUpdateRun.finish(database);
+    }
+
+    private ChangeSet addColumnChangeSet(String id, String table, String column) {
+        return addColumnChangeSet(id, table, column, null);
+    }
+
+    private ChangeSet addColumnChangeSet(String id, String table, String column, String contexts) {
+        ChangeSet changeSet = new ChangeSet(id, "Alice", false, false, "changelog.xml", contexts, null, changeLog);
+        MariaDbToolsAddColumnChange change = new MariaDbToolsAddColumnChange();
+        change.setTableName(table);
+        AddColumnConfig config = new AddColumnConfig();
+        config.setName(column);
+        config.setType("INT");
+        change.addColumn(config);
+        changeSet.addChange(change);
+        changeLog.addChangeSet(changeSet);
+        return changeSet;
+    }
+
+    private static MariaDbToolsChange firstChange(ChangeSet changeSet) {
+        return (MariaDbToolsChange) changeSet.getChanges().get(0);
+    }
+
+    private List<ChangeSet> findMergeable(ChangeSet changeSet) {
+        return MariaDbToolsChangeSetPlanner.findMergeableChangeSets(
+                Collections.singletonList(firstChange(changeSet)), database);
+    }
+
+    @Test
+    public void testMergeConsecutiveChangeSets() {
+        ChangeSet first = addColumnChangeSet("1", "person", "age");
+        ChangeSet second = addColumnChangeSet("2", "person", "email");
+        ChangeSet third = addColumnChangeSet("3", "person", "phone");
+        addColumnChangeSet("4", "address", "zip");
+
+        List<ChangeSet> mergeable = findMergeable(first);
+        Assertions.assertEquals(2, mergeable.size());
+        Assertions.assertSame(second, mergeable.get(0));
+        Assertions.assertSame(third, mergeable.get(1));
+
+        SqlStatement[] statements = firstChange(first).generateStatements(database);
+        Assertions.assertEquals(1, statements.length);
+        Assertions.assertEquals("mariadb-schema-change --recursion-method=none --set-vars=lock_wait_timeout=2 "
+                + "--alter=\"ADD COLUMN age INT NULL, ADD COLUMN email INT NULL, ADD COLUMN phone INT NULL\" "
+                + "--password=*** --execute h=localhost,P=3306,u=user,D=testdb,t=person",
+                ((MariaDbToolsSchemaChangeStatement) statements[0]).printCommand(database));
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        System.clearProperty(Configuration.MERGE_CHANGESETS);
+        ChangeSet first = addColumnChangeSet("1", "person", "age");
+        addColumnChangeSet("2", "person", "email");
+
+        Assertions.assertTrue(findMergeable(first).isEmpty());
+    }
+
+    @Test
+    public void testStopAtOtherChange() {
+        ChangeSet first = addColumnChangeSet("1", "person", "age");
+        ChangeSet second = addColumnChangeSet("2", "person", "email");
+        second.addChange(new CreateTableChange());
+        addColumnChangeSet("3", "person", "phone");
+
+        Assertions.assertTrue(findMergeable(first).isEmpty());
+    }
+
+    @Test
+    public void testStopAtConflict() {
+        ChangeSet first = addColumnChangeSet("1", "person", "age");
+        addColumnChangeSet("2", "person", "age");
+
+        Assertions.assertTrue(findMergeable(first).isEmpty());
+    }
+
+    @Test
+    public void testSkipAlreadyRanChangeSets() {
+        ChangeSet first = addColumnChangeSet("1", "person", "age");
+        ChangeSet second = addColumnChangeSet("2", "person", "email");
+        database.ranChangeSets.add(new RanChangeSet(second));
+
+        Assertions.assertTrue(findMergeable(first).isEmpty());
+    }
+
+    @Test
+    public void testNoMergeOutsideOfUpdate() {
+        MariaDbToolsUpdateRun.start(database, false);
+        ChangeSet first = addColumnChangeSet("1", "person", "age");
+        addColumnChangeSet("2", "person", "email");
+
+        Assertions.assertTrue(findMergeable(first).isEmpty());
+    }
+
+    @Test
+    public void testChangeSetsWithContextsAreNotMerged() {
+        ChangeSet first = addColumnChangeSet("1", "person", "age");
+        addColumnChangeSet("2", "person", "email", "test");
+
+        Assertions.assertTrue(findMergeable(first).isEmpty());
+    }
+
+    @Test
+    public void testCoveredChangeSets() {
+        addColumnChangeSet("1", "person", "age");
+        ChangeSet second = addColumnChangeSet("2", "person", "email");
+
+        Assertions.assertEquals(1, firstChange(second).generateStatements(database).length);
+        MariaDbToolsChangeSetPlanner.markCovered(database, Collections.singletonList(second));
+        Assertions.assertTrue(MariaDbToolsChangeSetPlanner.isCovered(database, second));
+        Assertions.assertEquals(0, firstChange(second).generateStatements(database).length);
+    }
+
+    @Test
+    public void testDryRunDoesNotCover() {
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc",
+                database, new LoggingExecutor(null, new StringWriter(), database));
+        ChangeSet first = addColumnChangeSet("1", "person", "age");
+        ChangeSet second = addColumnChangeSet("2", "person", "email");
+
+        firstChange(first).generateStatements(database);
+        Assertions.assertTrue(MariaDbToolsChangeSetPlanner.isPrinted(database, second));
+        Assertions.assertFalse(MariaDbToolsChangeSetPlanner.isCovered(database, second));
+        SqlStatement[] statements = firstChange(second).generateStatements(database);
+        Assertions.assertEquals("Changeset 2:Alice is included in a preceding mariadb-schema-change run",
+                ((CommentStatement) statements[0]).getText());
+    }
+
+    @Test
+    public void testCoveredChangeSetsAreResetAfterUpdate() {
+        addColumnChangeSet("1", "person", "age");
+        ChangeSet second = addColumnChangeSet("2", "person", "email");
+        MariaDbToolsChangeSetPlanner.markCovered(database, Collections.singletonList(second));
+
+        MariaDbToolsUpdateRun.finish(database);
+        MariaDbToolsUpdateRun.start(database, true);
+        Assertions.assertFalse(MariaDbToolsChangeSetPlanner.isCovered(database, second));
+        Assertions.assertEquals(1, firstChange(second).generateStatements(database).length);
+    }
+
+    @Test
+    public void testChecksumUnchanged() {
+        ChangeSet first = addColumnChangeSet("1", "person", "age");
+        CheckSum checksum = first.generateCheckSum();
+        addColumnChangeSet("2", "person", "email");
+        firstChange(first).generateStatements(database);
+        Assertions.assertEquals(checksum, first.generateCheckSum());
+    }
+}
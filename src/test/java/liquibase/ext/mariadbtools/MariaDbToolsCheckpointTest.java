@@ -0,0 +1,168 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.jvm.JdbcExecutor;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsCheckpointTest {
+    private Database database;
+    private MockJdbcConnection connection;
+
+    @BeforeEach
+    public void setup() {
+        connection = new MockJdbcConnection();
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(connection.toJdbcConnection());
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+
+        MariaDbToolsSchemaChangeStatement.available = true;
+        MariaDbToolsSchemaChangeStatement.mariaDBToolsToolkitVersion = new MariaDbToolsToolkitVersion("3.6.0");
+    }
+
+    private MariaDbToolsCheckpoint createCheckpoint() {
+        return new MariaDbToolsCheckpoint(database, "testdb", "person", "_person_new", "ADD COLUMN age INT NULL");
+    }
+
+    private List<String> getUpdates() {
+        List<String> updates = new ArrayList<>();
+        for (String sql : connection.getExecuted()) {
+            if (sql.startsWith("UPDATE")) {
+                updates.add(sql.substring(sql.lastIndexOf('[')));
+            }
+        }
+        return updates;
+    }
+
+    @Test
+    public void testBoundaryAdvancesOverContiguousChunks() throws Exception {
+        MariaDbToolsCheckpoint checkpoint = createCheckpoint();
+        Connection jdbc = connection.createConnection();
+        checkpoint.begin(0);
+
+        checkpoint.chunkCopied(jdbc, 101, 200);
+        Assertions.assertEquals(0, checkpoint.getBoundary());
+        Assertions.assertTrue(getUpdates().isEmpty());
+
+        checkpoint.chunkCopied(jdbc, 1, 100);
+        Assertions.assertEquals(200, checkpoint.getBoundary());
+        checkpoint.chunkCopied(jdbc, 301, 400);
+        Assertions.assertEquals(200, checkpoint.getBoundary());
+        checkpoint.chunkCopied(jdbc, 201, 300);
+        Assertions.assertEquals(400, checkpoint.getBoundary());
+
+        Assertions.assertEquals(Arrays.asList("[200, person, 200]", "[400, person, 400]"), getUpdates());
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        Connection jdbc = connection.createConnection();
+        Assertions.assertNull(createCheckpoint().load(jdbc, true, true));
+
+        connection.addResult("chunk_boundary FROM", new Object[] {"_person_new", "ADD COLUMN age INT NULL", "1234"});
+        MariaDbToolsCheckpoint checkpoint = createCheckpoint();
+        Assertions.assertEquals(Long.valueOf(1234), checkpoint.load(jdbc, true, true));
+        Assertions.assertFalse(checkpoint.isStale());
+
+        // triggers or shadow table have been removed meanwhile
+        Assertions.assertNull(checkpoint.load(jdbc, true, false));
+        Assertions.assertTrue(checkpoint.isStale());
+        Assertions.assertNull(checkpoint.load(jdbc, false, true));
+
+        connection.addResult("chunk_boundary FROM", new Object[] {"_person_new", "ADD COLUMN age INT NULL", null});
+        Assertions.assertEquals(Long.valueOf(Long.MIN_VALUE), checkpoint.load(jdbc, true, true));
+
+        connection.addResult("chunk_boundary FROM", new Object[] {"_person_new", "DROP COLUMN age", "1234"});
+        Assertions.assertNull(checkpoint.load(jdbc, true, true));
+        Assertions.assertTrue(checkpoint.isStale());
+    }
+
+    @Test
+    public void testToolOptionsDisabled() {
+        Assertions.assertEquals(Collections.emptyList(),
+                MariaDbToolsCheckpoint.getToolOptions(database, "testdb", "person", "ADD COLUMN age INT NULL"));
+    }
+
+    @Test
+    public void testToolOptionsRequireVersion() {
+        System.setProperty(Configuration.RESUME, "true");
+        MariaDbToolsSchemaChangeStatement.mariaDBToolsToolkitVersion = new MariaDbToolsToolkitVersion("3.5.7");
+        Assertions.assertEquals(Collections.emptyList(),
+                MariaDbToolsCheckpoint.getToolOptions(database, "testdb", "person", "ADD COLUMN age INT NULL"));
+    }
+
+    @Test
+    public void testToolOptions() {
+        System.setProperty(Configuration.RESUME, "true");
+        Assertions.assertEquals(Arrays.asList("--history", "--nodrop-new-table", "--nodrop-triggers"),
+                MariaDbToolsCheckpoint.getToolOptions(database, "testdb", "person", "ADD COLUMN age INT NULL"));
+
+        connection.addResult("pt_osc_history", new Object[] {42L, "_person_new"});
+        connection.addResult("information_schema.TRIGGERS", new Object[] {"pt_osc_testdb_person_del"},
+                new Object[] {"pt_osc_testdb_person_upd"}, new Object[] {"pt_osc_testdb_person_ins"});
+        Assertions.assertEquals(Arrays.asList("--history", "--nodrop-new-table", "--nodrop-triggers", "--resume=42"),
+                MariaDbToolsCheckpoint.getToolOptions(database, "testdb", "person", "ADD COLUMN age INT NULL"));
+        Assertions.assertTrue(connection.getExecuted().get(1).endsWith("[testdb, person, ADD COLUMN age INT NULL]"));
+    }
+
+    @Test
+    public void testToolOptionsWithoutTriggers() {
+        System.setProperty(Configuration.RESUME, "true");
+        // the abort dropped two of the triggers, the rows written since then are missing in the new table
+        connection.addResult("pt_osc_history", new Object[] {42L, "_person_new"});
+        connection.addResult("information_schema.TRIGGERS", new Object[] {"pt_osc_testdb_person_ins"});
+        Assertions.assertEquals(Arrays.asList("--history", "--nodrop-new-table", "--nodrop-triggers"),
+                MariaDbToolsCheckpoint.getToolOptions(database, "testdb", "person", "ADD COLUMN age INT NULL"));
+
+        List<String> executed = connection.getExecuted();
+        Assertions.assertEquals("DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_person_ins", executed.get(executed.size() - 2));
+        Assertions.assertEquals("DROP TABLE IF EXISTS testdb._person_new", executed.get(executed.size() - 1));
+    }
+
+    @Test
+    public void testDropOldTable() {
+        // the old table of another table and a trigger of the user must not be dropped
+        connection.addResult("information_schema.TRIGGERS", new Object[] {"pt_osc_testdb_person_del", "_person_old"},
+                new Object[] {"pt_osc_testdb_person_upd", "_person_old"},
+                new Object[] {"pt_osc_testdb_person_ins", "_person_old"},
+                new Object[] {"pt_osc_testdb_vip_person_ins", "_vip_person_old"});
+        MariaDbToolsCheckpoint.dropOldTable(database, "testdb", "person");
+
+        List<String> executed = connection.getExecuted();
+        Assertions.assertTrue(executed.get(0).endsWith("[testdb, pt\\_osc\\_%, \\_%\\_old]"));
+        Assertions.assertEquals(Arrays.asList("DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_person_del",
+                "DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_person_ins",
+                "DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_person_upd",
+                "DROP TABLE IF EXISTS testdb._person_old"), executed.subList(1, executed.size()));
+    }
+}
@@ -0,0 +1,162 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.Scope;
+import liquibase.change.AddColumnConfig;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.LoggingExecutor;
+import liquibase.statement.SqlStatement;
+import liquibase.statement.core.CommentStatement;
+
+import liquibase.ext.mariadbtools.MariaDbToolsAlterClassifier.Algorithm;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsCostEstimatorTest {
+    private Database database;
+    private MockJdbcConnection connection;
+
+    @BeforeEach
+    public void setup() {
+        System.setProperty(Configuration.LIQUIBASE_PASSWORD, "root");
+        System.setProperty(Configuration.ADDITIONAL_OPTIONS, "");
+        System.setProperty(Configuration.ESTIMATE_ROWS_PER_SECOND, "1000");
+
+        connection = new MockJdbcConnection()
+                .addResult("information_schema.TABLES", new Object[] {600L * 1024 * 1024 * 1024, 7200000L});
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(connection.toJdbcConnection());
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc",
+                database, new LoggingExecutor(null, new StringWriter(), database));
+
+        MariaDbToolsSchemaChangeStatement.available = true;
+        MariaDbToolsSchemaChangeStatement.mariaDBToolsToolkitVersion = null;
+        MariaDbToolsConstraintsService.getInstance().disable();
+    }
+
+    private static MariaDbToolsAddColumnChange addColumn(String table) {
+        MariaDbToolsAddColumnChange change = new MariaDbToolsAddColumnChange();
+        change.setTableName(table);
+        AddColumnConfig config = new AddColumnConfig();
+        config.setName("age");
+        config.setType("INT");
+        change.addColumn(config);
+        return change;
+    }
+
+    private static String comment(SqlStatement statement) {
+        return ((CommentStatement) statement).getText();
+    }
+
+    @Test
+    public void testDryRunIsAnnotated() {
+        SqlStatement[] statements = addColumn("person").generateStatements(database);
+        Assertions.assertEquals(5, statements.length);
+        Assertions.assertTrue(comment(statements[0]).startsWith("mariadb-schema-change"));
+        // the duration depends on the throughput measured by other tests
+        Assertions.assertTrue(comment(statements[1]).startsWith("Estimate for testdb.person: copy with mariadb-schema-change, "
+                + "~7200000 rows, 600.0 GB, extra disk 600.0 GB, duration ~"), comment(statements[1]));
+        Assertions.assertTrue(comment(statements[2]).startsWith("Estimated total: 1 schema changes (1 with table copy), "
+                + "600.0 GB of tables, peak extra disk 600.0 GB"), comment(statements[2]));
+        Assertions.assertEquals("Instead of the following statements, pt-online-schema-change will be used", comment(statements[3]));
+
+        connection.addResult("information_schema.TABLES", new Object[] {1024L * 1024, 3600L});
+        statements = addColumn("address").generateStatements(database);
+        Assertions.assertTrue(comment(statements[2]).startsWith("Estimated total: 2 schema changes (2 with table copy), "
+                + "600.0 GB of tables, peak extra disk 600.0 GB"), comment(statements[2]));
+    }
+
+    @Test
+    public void testChangeIsCountedOnce() {
+        // liquibase generates the statements again, e.g. to check whether they are volatile
+        MariaDbToolsAddColumnChange change = addColumn("person");
+        change.generateStatements(database);
+        SqlStatement[] statements = change.generateStatements(database);
+        Assertions.assertTrue(comment(statements[1]).startsWith("Estimate for testdb.person"), comment(statements[1]));
+        Assertions.assertTrue(comment(statements[2]).startsWith("Estimated total: 1 schema changes"), comment(statements[2]));
+
+        // the next liquibase command starts with an empty total
+        MariaDbToolsUpdateRun.finish(database);
+        statements = addColumn("person").generateStatements(database);
+        Assertions.assertTrue(comment(statements[2]).startsWith("Estimated total: 1 schema changes"), comment(statements[2]));
+    }
+
+    @Test
+    public void testDisabled() {
+        System.setProperty(Configuration.ESTIMATE, "false");
+        SqlStatement[] statements = addColumn("person").generateStatements(database);
+        Assertions.assertEquals(3, statements.length);
+    }
+
+    @Test
+    public void testEstimate() {
+        MariaDbToolsSchemaChangeStatement statement = new MariaDbToolsSchemaChangeStatement("testdb", "person",
+                "ADD COLUMN age INT NULL", Optional.empty());
+        MariaDbToolsCostEstimator estimator = new MariaDbToolsCostEstimator() {
+            @Override
+            double getRowsPerSecond() {
+                return 1000;
+            }
+        };
+
+        MariaDbToolsCostEstimator.Estimate instant = estimator.estimate(database, statement, Algorithm.INSTANT);
+        Assertions.assertEquals("instant", instant.getPath());
+        Assertions.assertEquals(0, instant.getExtraBytes());
+        Assertions.assertEquals(0, instant.getSeconds());
+
+        MariaDbToolsCostEstimator.Estimate inplace = estimator.estimate(database, statement, Algorithm.INPLACE);
+        Assertions.assertEquals("inplace", inplace.getPath());
+        Assertions.assertEquals(7200, inplace.getSeconds());
+
+        MariaDbToolsCostEstimator.Estimate copy = estimator.estimate(database, statement, null);
+        Assertions.assertEquals("copy with mariadb-schema-change", copy.getPath());
+        Assertions.assertEquals(600L * 1024 * 1024 * 1024, copy.getExtraBytes());
+
+        MariaDbToolsCostEstimator.Summary summary = estimator.getSummary(database);
+        Assertions.assertEquals(3, summary.getChanges());
+        Assertions.assertEquals(1, summary.getCopies());
+        Assertions.assertEquals(14400, summary.getSeconds());
+        Assertions.assertEquals("Estimated total: 3 schema changes (1 with table copy), 1.8 TB of tables, "
+                + "peak extra disk 600.0 GB, duration ~4:00:00", summary.toString());
+    }
+
+    @Test
+    public void testUnknownSize() {
+        connection.addError("information_schema.TABLES", new SQLException("denied"));
+        MariaDbToolsSchemaChangeStatement statement = new MariaDbToolsSchemaChangeStatement("testdb", "person",
+                "ADD COLUMN age INT NULL", Optional.empty());
+        Assertions.assertNull(new MariaDbToolsCostEstimator().estimate(database, statement, null));
+    }
+
+    @Test
+    public void testFormat() {
+        Assertions.assertEquals("512 B", MariaDbToolsCostEstimator.formatBytes(512));
+        Assertions.assertEquals("1.5 KB", MariaDbToolsCostEstimator.formatBytes(1536));
+        Assertions.assertEquals("0:00:59", MariaDbToolsCostEstimator.formatDuration(59));
+        Assertions.assertEquals("27:46:40", MariaDbToolsCostEstimator.formatDuration(100000));
+    }
+}
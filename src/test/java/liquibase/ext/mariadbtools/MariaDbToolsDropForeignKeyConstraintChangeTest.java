@@ -73,7 +73,7 @@ public class MariaDbToolsDropForeignKeyConstraintChangeTest extends AbstractMari
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alterText + "\" "
                 + "--password=*** --execute "
                 + "h=localhost,P=3306,u=user,D=testdb,t=address",
@@ -93,7 +93,7 @@ public class MariaDbToolsDropForeignKeyConstraintChangeTest extends AbstractMari
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alterText + "\" "
                 + "--password=*** --execute "
                 + "h=localhost,P=3306,u=user,D=testdb,t=address",
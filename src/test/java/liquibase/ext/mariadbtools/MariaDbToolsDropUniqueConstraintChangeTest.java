@@ -72,7 +72,7 @@ public class MariaDbToolsDropUniqueConstraintChangeTest extends AbstractMariaDbT
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alterText + "\" "
                 + "--password=*** --execute h=localhost,P=3306,u=user,D=testdb,t=person",
                 ((CommentStatement)statements[0]).getText());
@@ -91,7 +91,7 @@ public class MariaDbToolsDropUniqueConstraintChangeTest extends AbstractMariaDbT
         Assertions.assertEquals("mariadb-schema-change "
                 + "--alter-foreign-keys-method=auto "
                 + "--nocheck-unique-key-change "
-                + "--recursion-method=none "
+                + "--recursion-method=none --set-vars=lock_wait_timeout=2 "
                 + "--alter=\"" + alterText + "\" "
                 + "--password=*** --execute h=localhost,P=3306,u=user,D=testdb,t=person",
                 ((CommentStatement)statements[0]).getText());
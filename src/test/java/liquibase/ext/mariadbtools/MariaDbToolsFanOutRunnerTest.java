@@ -0,0 +1,166 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import liquibase.Scope;
+import liquibase.ScopeManager;
+import liquibase.ext.mariadbtools.MariaDbToolsFanOutRunner.Result;
+import liquibase.ext.mariadbtools.MariaDbToolsFanOutRunner.Target;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsFanOutRunnerTest {
+
+    /**
+     * Records the concurrent updates per server instead of updating.
+     */
+    private static class RecordingRunner extends MariaDbToolsFanOutRunner {
+        private final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        private final Map<String, Integer> maxRunning = new ConcurrentHashMap<>();
+        private final AtomicInteger totalRunning = new AtomicInteger();
+        private final AtomicInteger maxTotalRunning = new AtomicInteger();
+
+        RecordingRunner() {
+            super("changelog.xml", "user", "secret");
+        }
+
+        @Override
+        void update(Target target) throws Exception {
+            int count = running.computeIfAbsent(target.getServer(), s -> new AtomicInteger()).incrementAndGet();
+            maxRunning.merge(target.getServer(), count, Math::max);
+            maxTotalRunning.accumulateAndGet(totalRunning.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                if (target.getUrl().endsWith("broken")) {
+                    throw new IllegalStateException("Table person doesn't exist");
+                }
+            } finally {
+                totalRunning.decrementAndGet();
+                running.get(target.getServer()).decrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void testTarget() {
+        Target target = new Target("jdbc:mariadb://db1:3307/tenant1?useSSL=false");
+        Assertions.assertEquals("db1:3307", target.getServer());
+        Assertions.assertEquals("db1:3306", new Target("jdbc:mysql://user@db1/tenant1").getServer());
+        Assertions.assertEquals("jdbc:mariadb://db2:3306/tenant2?useSSL=false",
+                Target.forSchema("jdbc:mariadb://db2:3306/?useSSL=false", "tenant2").getUrl());
+        Assertions.assertEquals("jdbc:mariadb://db2/tenant3", Target.forSchema("jdbc:mariadb://db2/tenant1", "tenant3").getUrl());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Target("tenant1"));
+    }
+
+    @Test
+    public void testReadTargets(@TempDir File dir) throws Exception {
+        File file = new File(dir, "targets.txt");
+        Files.write(file.toPath(), Arrays.asList("# tenants", "jdbc:mariadb://db1:3306/tenant1", "", "tenant2"),
+                StandardCharsets.UTF_8);
+        List<Target> targets = MariaDbToolsFanOutRunner.readTargets(file, "jdbc:mariadb://db2:3306/");
+        Assertions.assertEquals(2, targets.size());
+        Assertions.assertEquals("jdbc:mariadb://db2:3306/tenant2", targets.get(1).getUrl());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> MariaDbToolsFanOutRunner.readTargets(file, ""));
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        System.setProperty(Configuration.FAN_OUT_THREADS, "5");
+        System.setProperty(Configuration.FAN_OUT_PER_HOST, "2");
+        List<Target> targets = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            targets.add(new Target("jdbc:mariadb://db" + i % 3 + ":3306/tenant" + i));
+        }
+        targets.add(new Target("jdbc:mariadb://db1:3306/broken"));
+
+        RecordingRunner runner = new RecordingRunner();
+        List<Result> results = runner.run(targets);
+        Assertions.assertEquals(targets.size(), results.size());
+        for (int i = 0; i < targets.size(); i++) {
+            Assertions.assertSame(targets.get(i), results.get(i).getTarget());
+            Assertions.assertEquals(i < 30, results.get(i).isSuccess());
+        }
+        Assertions.assertEquals("Table person doesn't exist", results.get(30).getError().getMessage());
+        for (Integer max : runner.maxRunning.values()) {
+            Assertions.assertTrue(max <= 2, "per host: " + max);
+        }
+        Assertions.assertTrue(runner.maxTotalRunning.get() <= 5, "total: " + runner.maxTotalRunning.get());
+    }
+
+    private static ScopeManager getScopeManager() throws Exception {
+        // the default scope manager is created lazily
+        Scope.getCurrentScope();
+        return ReflectionUtils.readField(Scope.class, null, "scopeManager");
+    }
+
+    @Test
+    public void testThreadScopes() throws Exception {
+        ScopeManager before = getScopeManager();
+        MariaDbToolsFanOutRunner.ThreadScopeManager.install();
+        try {
+            CountDownLatch entered = new CountDownLatch(2);
+            List<Object> seen = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> threads = new ArrayList<>();
+            for (String tenant : Arrays.asList("tenant1", "tenant2")) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        Scope.child("tenant", tenant, () -> {
+                            entered.countDown();
+                            entered.await(5, TimeUnit.SECONDS);
+                            seen.add(Scope.getCurrentScope().get("tenant", String.class) + "=" + tenant);
+                        });
+                    } catch (Exception e) {
+                        seen.add(e);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assertions.assertTrue(seen.containsAll(Arrays.asList("tenant1=tenant1", "tenant2=tenant2")), seen.toString());
+            Assertions.assertNull(Scope.getCurrentScope().get("tenant", String.class));
+        } finally {
+            MariaDbToolsFanOutRunner.ThreadScopeManager.uninstall();
+        }
+        Assertions.assertSame(before, getScopeManager());
+    }
+
+    @Test
+    public void testRunRestoresScopeManager() throws Exception {
+        ScopeManager before = getScopeManager();
+        List<Result> results = new RecordingRunner().run(Arrays.asList(new Target("jdbc:mariadb://db0:3306/tenant0")));
+        Assertions.assertTrue(results.get(0).isSuccess());
+        Assertions.assertSame(before, getScopeManager());
+    }
+}
@@ -0,0 +1,153 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.jvm.JdbcExecutor;
+import liquibase.ext.mariadbtools.MariaDbToolsProgressEvent.Phase;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsHistoryTest {
+    private final MariaDbToolsHistory history = MariaDbToolsHistory.getInstance();
+    private Database database;
+    private MockJdbcConnection connection;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    public void setup() {
+        connection = new MockJdbcConnection().addResult("information_schema.TABLES", new Object[] {2048L, 100L});
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(connection.toJdbcConnection());
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+    }
+
+    /**
+     * Simulates a run, that copies the given rows in the given time.
+     */
+    private static MariaDbToolsRunMetrics run(long copyMillis, long rows, int exitCode) {
+        long[] nanos = {0};
+        MariaDbToolsRunMetrics run = new MariaDbToolsRunMetrics("testdb", "person", () -> nanos[0]);
+        nanos[0] += TimeUnit.MILLISECONDS.toNanos(100);
+        run.update(new MariaDbToolsProgressEvent("testdb", "person", Phase.COPYING, 0, 0, rows, -1, -1));
+        nanos[0] += TimeUnit.MILLISECONDS.toNanos(copyMillis);
+        run.update(new MariaDbToolsProgressEvent("testdb", "person", Phase.COPYING, 100, rows, rows, 1, 0));
+        run.update(new MariaDbToolsProgressEvent("testdb", "person", Phase.SWAPPING));
+        nanos[0] += TimeUnit.MILLISECONDS.toNanos(20);
+        run.finish(exitCode);
+        return run;
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        Path file = tempDir.resolve("history.tsv");
+        System.setProperty(Configuration.HISTORY_FILE, file.toString());
+
+        history.record(database, "testdb", "person", run(2000, 1000, 0), MariaDbToolsSchemaChangeStatement.COMMAND,
+                "3.6.0", "--chunk-size=1000 --set-vars=\"a\tb\"");
+        history.record(database, "testdb", "address", run(1000, 1000, 0), MariaDbToolsJvmEngine.ENGINE_JVM, null, "");
+
+        Assertions.assertEquals(2, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+        List<MariaDbToolsHistory.Record> records = history.getRecords(database, "testdb", "person");
+        Assertions.assertEquals(1, records.size());
+        MariaDbToolsHistory.Record record = records.get(0);
+        Assertions.assertEquals("person", record.getTableName());
+        Assertions.assertEquals(MariaDbToolsSchemaChangeStatement.COMMAND, record.getEngine());
+        Assertions.assertEquals("3.6.0", record.getToolVersion());
+        Assertions.assertEquals(0, record.getExitCode());
+        Assertions.assertEquals(1000, record.getRows());
+        Assertions.assertEquals(2048, record.getBytes());
+        Assertions.assertEquals(2120, record.getDurationMillis());
+        Assertions.assertEquals(500.0, record.getRowsPerSecond());
+        Assertions.assertEquals(Long.valueOf(2000), record.getPhaseMillis().get("COPYING"));
+        Assertions.assertEquals(Long.valueOf(20), record.getPhaseMillis().get("SWAPPING"));
+        Assertions.assertEquals("--chunk-size=1000 --set-vars=\"a\tb\"", record.getOptions());
+    }
+
+    @Test
+    public void testRowsPerSecond() {
+        System.setProperty(Configuration.HISTORY_FILE, tempDir.resolve("history.tsv").toString());
+        Assertions.assertEquals(-1, history.getRowsPerSecond(database, "testdb", "person"));
+
+        for (int i = 0; i < MariaDbToolsHistory.AVERAGE_RUNS; i++) {
+            history.record(database, "testdb", "person", run(1000, 100, 0), MariaDbToolsJvmEngine.ENGINE_JVM, null, "");
+        }
+        Assertions.assertEquals(100.0, history.getRowsPerSecond(database, "testdb", "person"), 0.001);
+
+        // only the recent successful runs are taken into account
+        history.record(database, "testdb", "person", run(1000, 400, 0), MariaDbToolsJvmEngine.ENGINE_JVM, null, "");
+        history.record(database, "testdb", "person", run(1000, 10, 1), MariaDbToolsJvmEngine.ENGINE_JVM, null, "");
+        Assertions.assertEquals(160.0, history.getRowsPerSecond(database, "testdb", "person"), 0.001);
+    }
+
+    @Test
+    public void testTable() {
+        System.setProperty(Configuration.HISTORY_TABLE, "true");
+
+        history.record(database, "testdb", "person", run(2000, 1000, 0), MariaDbToolsSchemaChangeStatement.COMMAND,
+                "3.6.0", "--chunk-size=1000");
+        Assertions.assertTrue(connection.getExecuted().stream().anyMatch(sql ->
+                sql.startsWith("CREATE TABLE IF NOT EXISTS testdb.mariadbtools_history")));
+        Assertions.assertTrue(connection.getExecuted().stream().anyMatch(sql ->
+                sql.startsWith("INSERT INTO testdb.mariadbtools_history") && sql.endsWith("[person, "
+                        + "mariadb-schema-change, 3.6.0, 0, 1000, 2048, 2120, 500.0, STARTED=100,COPYING=2000,SWAPPING=20, "
+                        + "--chunk-size=1000]")));
+
+        connection.addResult("FROM testdb.mariadbtools_history", new Object[] {1636452000L, "jvm", "", 0, 1000L,
+                2048L, 1000L, 250.0, "COPYING=1000", ""});
+        List<MariaDbToolsHistory.Record> records = history.getRecords(database, "testdb", "person");
+        Assertions.assertEquals(1, records.size());
+        Assertions.assertEquals(1636452000000L, records.get(0).getTimestamp());
+        Assertions.assertEquals(250.0, history.getRowsPerSecond(database, "testdb", "person"));
+    }
+
+    @Test
+    public void testDisabled() {
+        history.record(database, "testdb", "person", run(1000, 100, 0), MariaDbToolsJvmEngine.ENGINE_JVM, null, "");
+        Assertions.assertTrue(connection.getExecuted().isEmpty());
+        Assertions.assertTrue(history.getRecords(database, "testdb", "person").isEmpty());
+    }
+
+    @Test
+    public void testInitialChunkSize() {
+        System.setProperty(Configuration.HISTORY_FILE, tempDir.resolve("history.tsv").toString());
+        MariaDbToolsJvmEngine engine = new MariaDbToolsJvmEngine(database, "testdb", "person", "ADD COLUMN age INT NULL",
+                () -> null, 4, 500);
+        Assertions.assertEquals(1000, engine.getInitialChunkSize());
+
+        history.record(database, "testdb", "person", run(1000, 80000, 0), MariaDbToolsJvmEngine.ENGINE_JVM, null, "");
+        // 80000 rows/s with 4 workers and 0.5 s per chunk
+        Assertions.assertEquals(10000, engine.getInitialChunkSize());
+    }
+}
@@ -0,0 +1,253 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.Scope;
+import liquibase.change.AddColumnConfig;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.jvm.JdbcExecutor;
+import liquibase.statement.SqlStatement;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsJvmEngineTest {
+    private Database database;
+    private MockJdbcConnection connection;
+    private MockJdbcConnection workerConnection;
+
+    @BeforeEach
+    public void setup() {
+        System.setProperty(Configuration.LIQUIBASE_PASSWORD, "root");
+        System.setProperty(Configuration.ADDITIONAL_OPTIONS, "");
+
+        connection = new MockJdbcConnection()
+                .addResult("COLUMN_KEY = 'PRI'", new Object[] {"id", "int"})
+                .addResult("SELECT COUNT(*)", new Object[] {0L})
+                .addResult("SHOW CREATE TABLE", new Object[] {"person", "CREATE TABLE `person` (\n"
+                        + "  `id` int NOT NULL,\n  `name` varchar(255) DEFAULT NULL,\n  `address_id` int DEFAULT NULL,\n"
+                        + "  PRIMARY KEY (`id`),\n"
+                        + "  CONSTRAINT `fk_address` FOREIGN KEY (`address_id`) REFERENCES `address` (`id`)\n"
+                        + ") ENGINE=InnoDB"})
+                .addResult("ORDER BY ORDINAL_POSITION", new Object[] {"id"}, new Object[] {"name"}, new Object[] {"address_id"})
+                .addResult("SELECT MIN(", new Object[] {1L, 2500L});
+        workerConnection = new MockJdbcConnection();
+
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(connection.toJdbcConnection());
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+
+        MariaDbToolsSchemaChangeStatement.available = false;
+        MariaDbToolsSchemaChangeStatement.mariaDBToolsToolkitVersion = null;
+        MariaDbToolsConstraintsService.getInstance().disable();
+    }
+
+    private MariaDbToolsJvmEngine createEngine(String alter) {
+        return new MariaDbToolsJvmEngine(database, null, "person", alter, workerConnection::createConnection, 3, 500);
+    }
+
+    private static List<String> startingWith(List<String> statements, String prefix) {
+        return statements.stream().filter(s -> s.startsWith(prefix)).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testExecute() {
+        Assertions.assertTrue(createEngine("ADD COLUMN age INT NULL").execute());
+
+        List<String> executed = connection.getExecuted();
+        Assertions.assertEquals("CREATE TABLE testdb._person_new (\n"
+                + "  `id` int NOT NULL,\n  `name` varchar(255) DEFAULT NULL,\n  `address_id` int DEFAULT NULL,\n"
+                + "  PRIMARY KEY (`id`),\n"
+                + "  CONSTRAINT `_fk_address` FOREIGN KEY (`address_id`) REFERENCES `address` (`id`)\n"
+                + ") ENGINE=InnoDB", startingWith(executed, "CREATE TABLE").get(0));
+        Assertions.assertTrue(executed.contains("ALTER TABLE testdb._person_new ADD COLUMN age INT NULL"));
+        Assertions.assertTrue(executed.contains("CREATE TRIGGER testdb.pt_osc_testdb_person_ins AFTER INSERT ON testdb.person "
+                + "FOR EACH ROW REPLACE INTO testdb._person_new (id, name, address_id) VALUES (NEW.id, NEW.name, NEW.address_id)"));
+        Assertions.assertEquals(3, startingWith(executed, "CREATE TRIGGER").size());
+        Assertions.assertTrue(executed.contains("RENAME TABLE testdb.person TO testdb._person_old, testdb._person_new TO testdb.person"));
+        Assertions.assertEquals(3, startingWith(executed, "DROP TRIGGER IF EXISTS").size());
+        Assertions.assertTrue(executed.contains("DROP TABLE IF EXISTS testdb._person_old"));
+        Assertions.assertTrue(startingWith(executed, "DROP TABLE IF EXISTS testdb._person_new").isEmpty());
+
+        // the chunks cover the whole primary key range without gaps
+        List<String> chunks = startingWith(workerConnection.getExecuted(), "INSERT LOW_PRIORITY IGNORE INTO testdb._person_new");
+        Assertions.assertFalse(chunks.isEmpty());
+        long covered = 0;
+        for (String chunk : chunks) {
+            String[] range = chunk.substring(chunk.lastIndexOf('[') + 1, chunk.length() - 1).split(", ");
+            covered += Long.parseLong(range[1]) - Long.parseLong(range[0]) + 1;
+        }
+        Assertions.assertEquals(2500, covered);
+    }
+
+    @Test
+    public void testLockWaitTimeout() {
+        connection.addResult("@@SESSION.lock_wait_timeout", new Object[] {"50"});
+        Assertions.assertTrue(createEngine("ADD COLUMN age INT NULL").execute());
+
+        List<String> executed = connection.getExecuted();
+        int rename = executed.indexOf("RENAME TABLE testdb.person TO testdb._person_old, testdb._person_new TO testdb.person");
+        Assertions.assertEquals("SET SESSION lock_wait_timeout = 2", executed.get(rename - 1));
+        Assertions.assertEquals("SET SESSION lock_wait_timeout = 50", executed.get(rename + 1));
+        Assertions.assertEquals(4, startingWith(executed, "SET SESSION lock_wait_timeout = 2").size());
+    }
+
+    @Test
+    public void testSwapLockWaitTimeout() {
+        System.setProperty(Configuration.LOCK_WAIT_RETRIES, "0");
+        connection.addError("RENAME TABLE", new SQLException("Lock wait timeout exceeded", "HY000", 1205));
+        Assertions.assertThrows(UnexpectedLiquibaseException.class, () -> createEngine("ADD COLUMN age INT NULL").execute());
+
+        List<String> executed = connection.getExecuted();
+        Assertions.assertEquals(1, startingWith(executed, "RENAME TABLE").size());
+        Assertions.assertEquals(3, startingWith(executed, "DROP TRIGGER IF EXISTS").size());
+        Assertions.assertTrue(executed.contains("DROP TABLE IF EXISTS testdb._person_new"));
+    }
+
+    @Test
+    public void testTriggerName() {
+        Assertions.assertEquals("pt_osc_testdb_person_ins", MariaDbToolsJvmEngine.getTriggerName("testdb", "person", "ins"));
+
+        String table = "customer_subscription_invoice_line_item_adjustment_history";
+        List<String> names = Arrays.asList(MariaDbToolsJvmEngine.getTriggerName("testdb", table, "del"),
+                MariaDbToolsJvmEngine.getTriggerName("testdb", table, "upd"),
+                MariaDbToolsJvmEngine.getTriggerName("testdb", table, "ins"));
+        for (String name : names) {
+            Assertions.assertEquals(MariaDbToolsJvmEngine.MAX_NAME_LENGTH, name.length(), name);
+            Assertions.assertTrue(name.startsWith("pt_osc_testdb_customer_subscription_"), name);
+        }
+        Assertions.assertEquals(3, new HashSet<>(names).size());
+        Assertions.assertNotEquals(names.get(2),
+                MariaDbToolsJvmEngine.getTriggerName("testdb", table.replace("history", "archive"), "ins"));
+    }
+
+    @Test
+    public void testUnsupportedPrimaryKey() {
+        connection.addResult("COLUMN_KEY = 'PRI'", new Object[] {"id", "int"}, new Object[] {"name", "varchar"});
+        Assertions.assertFalse(createEngine("ADD COLUMN age INT NULL").execute());
+        Assertions.assertTrue(startingWith(connection.getExecuted(), "CREATE").isEmpty());
+
+        connection.addResult("COLUMN_KEY = 'PRI'", new Object[] {"uuid", "varchar"});
+        Assertions.assertFalse(createEngine("ADD COLUMN age INT NULL").execute());
+    }
+
+    @Test
+    public void testReferencedTable() {
+        connection.addResult("information_schema.KEY_COLUMN_USAGE", new Object[] {2L});
+        Assertions.assertFalse(createEngine("ADD COLUMN age INT NULL").execute());
+        Assertions.assertTrue(startingWith(connection.getExecuted(), "CREATE").isEmpty());
+    }
+
+    @Test
+    public void testCopyFailure() {
+        workerConnection.addError("INSERT LOW_PRIORITY", new SQLException("Lock wait timeout exceeded", "HY000", 1205));
+        Assertions.assertThrows(UnexpectedLiquibaseException.class, () -> createEngine("ADD COLUMN age INT NULL").execute());
+
+        List<String> executed = connection.getExecuted();
+        Assertions.assertTrue(startingWith(executed, "RENAME TABLE").isEmpty());
+        Assertions.assertEquals(3, startingWith(executed, "DROP TRIGGER IF EXISTS").size());
+        Assertions.assertTrue(executed.contains("DROP TABLE IF EXISTS testdb._person_new"));
+    }
+
+    @Test
+    public void testCopyFailureKeepsShadowTableForResume() {
+        System.setProperty(Configuration.RESUME, "true");
+        workerConnection.addError("INSERT LOW_PRIORITY", new SQLException("Lock wait timeout exceeded", "HY000", 1205));
+        Assertions.assertThrows(UnexpectedLiquibaseException.class, () -> createEngine("ADD COLUMN age INT NULL").execute());
+
+        List<String> executed = connection.getExecuted();
+        Assertions.assertTrue(executed.contains("REPLACE INTO testdb.mariadbtools_checkpoint (table_name, shadow_table, "
+                + "alter_statement, chunk_boundary) VALUES (?, ?, ?, NULL) [person, _person_new, ADD COLUMN age INT NULL]"));
+        Assertions.assertTrue(startingWith(executed, "DROP").isEmpty());
+    }
+
+    @Test
+    public void testResume() {
+        System.setProperty(Configuration.RESUME, "true");
+        connection.addResult("chunk_boundary FROM", new Object[] {"_person_new", "ADD COLUMN age INT NULL", "2000"})
+                .addResult("information_schema.TABLES", new Object[] {"_person_new"})
+                .addResult("information_schema.TRIGGERS", new Object[] {"pt_osc_testdb_person_del"},
+                        new Object[] {"pt_osc_testdb_person_upd"}, new Object[] {"pt_osc_testdb_person_ins"});
+        Assertions.assertTrue(createEngine("ADD COLUMN age INT NULL").execute());
+
+        List<String> executed = connection.getExecuted();
+        Assertions.assertTrue(startingWith(executed, "CREATE TABLE testdb._person_new").isEmpty());
+        Assertions.assertTrue(startingWith(executed, "CREATE TRIGGER").isEmpty());
+        Assertions.assertTrue(executed.contains("RENAME TABLE testdb.person TO testdb._person_old, testdb._person_new TO testdb.person"));
+        Assertions.assertTrue(executed.contains("DELETE FROM testdb.mariadbtools_checkpoint WHERE table_name = ? [person]"));
+
+        // only the remaining rows are copied
+        List<String> chunks = startingWith(workerConnection.getExecuted(), "INSERT LOW_PRIORITY IGNORE INTO testdb._person_new");
+        long covered = 0;
+        for (String chunk : chunks) {
+            String[] range = chunk.substring(chunk.lastIndexOf('[') + 1, chunk.length() - 1).split(", ");
+            Assertions.assertTrue(Long.parseLong(range[0]) > 2000);
+            covered += Long.parseLong(range[1]) - Long.parseLong(range[0]) + 1;
+        }
+        Assertions.assertEquals(500, covered);
+    }
+
+    @Test
+    public void testStaleCheckpoint() {
+        System.setProperty(Configuration.RESUME, "true");
+        connection.addResult("chunk_boundary FROM", new Object[] {"_person_new", "DROP COLUMN name", "2000"})
+                .addResult("information_schema.TABLES", new Object[] {"_person_new"});
+        Assertions.assertTrue(createEngine("ADD COLUMN age INT NULL").execute());
+
+        List<String> executed = connection.getExecuted();
+        // the leftovers are removed before the new run starts
+        Assertions.assertTrue(executed.indexOf("DROP TABLE IF EXISTS testdb._person_new")
+                < executed.indexOf("ALTER TABLE testdb._person_new ADD COLUMN age INT NULL"));
+        Assertions.assertEquals(1, startingWith(executed, "CREATE TABLE testdb._person_new").size());
+    }
+
+    @Test
+    public void testEngineSelection() {
+        MariaDbToolsAddColumnChange change = new MariaDbToolsAddColumnChange();
+        change.setTableName("person");
+        AddColumnConfig config = new AddColumnConfig();
+        config.setName("age");
+        config.setType("INT");
+        change.addColumn(config);
+
+        Assertions.assertFalse(MariaDbToolsJvmEngine.isSelected(change));
+        change.setMariaDbToolsEngine("jvm");
+        Assertions.assertTrue(MariaDbToolsJvmEngine.isSelected(change));
+
+        // no mariadb tools needed
+        SqlStatement[] statements = change.generateStatements(database);
+        Assertions.assertEquals(1, statements.length);
+        Assertions.assertTrue(statements[0] instanceof MariaDbToolsJvmSchemaChangeStatement);
+
+        change.setMariaDbToolsEngine(null);
+        System.setProperty(Configuration.ENGINE, "jvm");
+        Assertions.assertTrue(MariaDbToolsJvmEngine.isSelected(change));
+    }
+}
@@ -0,0 +1,103 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+
+public class MariaDbToolsKeepAliveTest {
+    private final MariaDbToolsKeepAlive keepAlive = MariaDbToolsKeepAlive.getInstance();
+
+    private static Database createDatabase(MockJdbcConnection connection) {
+        Database database = new MySQLDatabase();
+        database.setConnection(connection.toJdbcConnection());
+        return database;
+    }
+
+    private static long countWaitTimeoutQueries(MockJdbcConnection connection) {
+        return connection.getExecuted().stream().filter(sql -> sql.contains("wait_timeout")).count();
+    }
+
+    private void awaitPings(long pings) throws InterruptedException {
+        for (int i = 0; i < 100 && keepAlive.getPings() < pings; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void testWaitTimeoutIsCached() {
+        MockJdbcConnection connection = new MockJdbcConnection()
+                .addResult("wait_timeout", new Object[] {"wait_timeout", 600L});
+        Connection jdbc = connection.toJdbcConnection().getUnderlyingConnection();
+
+        Assertions.assertEquals(300000, keepAlive.getIntervalMillis(jdbc));
+        Assertions.assertEquals(300000, keepAlive.getIntervalMillis(jdbc));
+        Assertions.assertEquals(1, countWaitTimeoutQueries(connection));
+
+        // at most every 500 ms, the default if unknown
+        Assertions.assertEquals(MariaDbToolsKeepAlive.MIN_INTERVAL_MILLIS, keepAlive.getIntervalMillis(
+                new MockJdbcConnection().addResult("wait_timeout", new Object[] {"wait_timeout", 0L}).createConnection()));
+        Assertions.assertEquals(MariaDbToolsKeepAlive.DEFAULT_WAIT_TIMEOUT * 500,
+                keepAlive.getIntervalMillis(new MockJdbcConnection().createConnection()));
+    }
+
+    @Test
+    public void testSharedRegistration() throws Exception {
+        MockJdbcConnection connection = new MockJdbcConnection()
+                .addResult("wait_timeout", new Object[] {"wait_timeout", 1L});
+        Database database = createDatabase(connection);
+        int connections = keepAlive.getConnections();
+        long pings = keepAlive.getPings();
+
+        try (MariaDbToolsKeepAlive.Registration first = keepAlive.register(database);
+             MariaDbToolsKeepAlive.Registration second = keepAlive.register(database)) {
+            Assertions.assertEquals(connections + 1, keepAlive.getConnections());
+            first.close();
+            Assertions.assertEquals(connections + 1, keepAlive.getConnections());
+
+            awaitPings(pings + 1);
+            Assertions.assertTrue(keepAlive.getPings() > pings);
+            Assertions.assertTrue(keepAlive.getLastLatencyMillis() >= 0);
+        }
+        Assertions.assertEquals(connections, keepAlive.getConnections());
+        Assertions.assertEquals(1, countWaitTimeoutQueries(connection));
+        // pings don't use the connection's statements
+        Assertions.assertTrue(connection.getExecuted().stream().noneMatch(sql -> sql.contains("SELECT 1")));
+    }
+
+    @Test
+    public void testInvalidConnectionStopsPinging() throws Exception {
+        MockJdbcConnection connection = new MockJdbcConnection()
+                .addResult("wait_timeout", new Object[] {"wait_timeout", 1L});
+        Database database = createDatabase(connection);
+        int connections = keepAlive.getConnections();
+        long failures = keepAlive.getFailures();
+
+        try (MariaDbToolsKeepAlive.Registration registration = keepAlive.register(database)) {
+            database.getConnection().close();
+            for (int i = 0; i < 100 && keepAlive.getFailures() == failures; i++) {
+                Thread.sleep(50);
+            }
+            Assertions.assertEquals(failures + 1, keepAlive.getFailures());
+            Assertions.assertEquals(connections, keepAlive.getConnections());
+        }
+        Assertions.assertEquals(connections, keepAlive.getConnections());
+    }
+}
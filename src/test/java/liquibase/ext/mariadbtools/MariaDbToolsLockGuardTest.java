@@ -0,0 +1,163 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsLockGuardTest {
+    private Database database;
+    private MockJdbcConnection connection;
+    private final List<Long> sleeps = new ArrayList<>();
+    private long now;
+
+    private final MariaDbToolsLockGuard guard = new MariaDbToolsLockGuard() {
+        @Override
+        long nanoTime() {
+            return now;
+        }
+
+        @Override
+        void sleep(long millis) {
+            sleeps.add(millis);
+            now += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    };
+
+    @BeforeEach
+    public void setup() {
+        connection = new MockJdbcConnection()
+                .addResult("information_schema.INNODB_TRX",
+                        new Object[] {12L, 600L, null},
+                        new Object[] {13L, 30L, "SELECT * FROM `testdb`.`person_address` FOR UPDATE"})
+                .addResult("information_schema.PROCESSLIST",
+                        new Object[] {14L, 20L, "SELECT COUNT(*) FROM testdb.person p JOIN address a ON a.id = p.address_id"});
+        database = new MySQLDatabase();
+        database.setConnection(connection.toJdbcConnection());
+    }
+
+    @Test
+    public void testFindBlockers() {
+        List<String> blockers = guard.findBlockers(connection.toJdbcConnection(), "testdb", "person");
+        Assertions.assertEquals(Arrays.asList("statement of thread 14 running for 20 s: "
+                + "SELECT COUNT(*) FROM testdb.person p JOIN address a ON a.id = p.address_id"), blockers);
+
+        connection.addResult("performance_schema.metadata_locks", new Object[] {12L});
+        blockers = guard.findBlockers(connection.toJdbcConnection(), "testdb", "person");
+        Assertions.assertEquals(2, blockers.size());
+        Assertions.assertEquals("transaction of thread 12 running for 600 s", blockers.get(0));
+    }
+
+    @Test
+    public void testFindBlockersWithoutPrivileges() {
+        connection.addError("information_schema.INNODB_TRX", new SQLException("Access denied"));
+        Assertions.assertTrue(guard.findBlockers(connection.toJdbcConnection(), "testdb", "person").isEmpty());
+    }
+
+    @Test
+    public void testAwaitClear() {
+        guard.await(database, "testdb", "invoice");
+        Assertions.assertTrue(sleeps.isEmpty());
+    }
+
+    @Test
+    public void testAwaitTimeout() {
+        System.setProperty(Configuration.LOCK_GUARD_TIMEOUT, "60");
+        RuntimeException e = Assertions.assertThrows(RuntimeException.class,
+                () -> guard.await(database, "testdb", "person"));
+        Assertions.assertTrue(e.getMessage().contains("after 60 seconds"), e.getMessage());
+        Assertions.assertEquals(Arrays.asList(1000L, 2000L, 4000L, 8000L, 16000L, 29000L), sleeps);
+    }
+
+    @Test
+    public void testAwaitDisabled() {
+        System.setProperty(Configuration.LOCK_GUARD_TIMEOUT, "0");
+        guard.await(database, "testdb", "person");
+        Assertions.assertTrue(connection.getExecuted().isEmpty());
+    }
+
+    @Test
+    public void testAddToolOptions() {
+        List<String> commands = new ArrayList<>(Arrays.asList("mariadb-schema-change", "--alter-foreign-keys-method=auto"));
+        guard.addToolOptions(commands);
+        Assertions.assertEquals(Arrays.asList("mariadb-schema-change", "--alter-foreign-keys-method=auto",
+                "--set-vars=lock_wait_timeout=2"), commands);
+
+        commands = new ArrayList<>(Arrays.asList("--set-vars=wait_timeout=10", "--set-vars", "innodb_lock_wait_timeout=1"));
+        guard.addToolOptions(commands);
+        Assertions.assertEquals(Arrays.asList("--set-vars=wait_timeout=10", "--set-vars",
+                "innodb_lock_wait_timeout=1,lock_wait_timeout=2"), commands);
+
+        commands = new ArrayList<>(Arrays.asList("--set-vars=lock_wait_timeout=5"));
+        guard.addToolOptions(commands);
+        Assertions.assertEquals(Arrays.asList("--set-vars=lock_wait_timeout=5"), commands);
+
+        System.setProperty(Configuration.LOCK_WAIT_TIMEOUT, "0");
+        commands = new ArrayList<>();
+        guard.addToolOptions(commands);
+        Assertions.assertTrue(commands.isEmpty());
+    }
+
+    @Test
+    public void testExecuteWithLockWaitTimeout() throws Exception {
+        connection.addResult("@@SESSION.lock_wait_timeout", new Object[] {"31536000"});
+        int[] tries = {0};
+        guard.executeWithLockWaitTimeout(connection.createConnection(), "testing", () -> {
+            if (++tries[0] < 3) {
+                throw new SQLException("Lock wait timeout exceeded; try restarting transaction", "HY000", 1205);
+            }
+        });
+        Assertions.assertEquals(3, tries[0]);
+        Assertions.assertEquals(Arrays.asList(1000L, 2000L), sleeps);
+        Assertions.assertEquals(Arrays.asList("SELECT @@SESSION.lock_wait_timeout", "SET SESSION lock_wait_timeout = 2",
+                "SET SESSION lock_wait_timeout = 31536000"), connection.getExecuted());
+    }
+
+    @Test
+    public void testExecuteWithLockWaitTimeoutGivesUp() {
+        System.setProperty(Configuration.LOCK_WAIT_RETRIES, "2");
+        connection.addResult("@@SESSION.lock_wait_timeout", new Object[] {"50"});
+        int[] tries = {0};
+        SQLException e = Assertions.assertThrows(SQLException.class,
+                () -> guard.executeWithLockWaitTimeout(connection.createConnection(), "testing", () -> {
+                    tries[0]++;
+                    throw new SQLException("Lock wait timeout exceeded; try restarting transaction", "HY000", 1205);
+                }));
+        Assertions.assertEquals(1205, e.getErrorCode());
+        Assertions.assertEquals(3, tries[0]);
+        Assertions.assertEquals("SET SESSION lock_wait_timeout = 50", connection.getExecuted().get(2));
+
+        // other errors aren't retried
+        tries[0] = 0;
+        Assertions.assertThrows(SQLException.class,
+                () -> guard.executeWithLockWaitTimeout(connection.createConnection(), "testing", () -> {
+                    tries[0]++;
+                    throw new SQLException("Duplicate column name 'age'", "42S21", 1060);
+                }));
+        Assertions.assertEquals(1, tries[0]);
+    }
+}
@@ -0,0 +1,186 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import liquibase.change.Change;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.exception.DatabaseException;
+
+public class MariaDbToolsMetadataCacheTest {
+    private Database database;
+    private MockJdbcConnection connection;
+    private DatabaseChangeLog changeLog;
+
+    @BeforeEach
+    public void setup() {
+        connection = new MockJdbcConnection()
+                .addResult("information_schema.TABLES", new Object[] {"person"}, new Object[] {"address"})
+                .addResult("information_schema.TABLE_CONSTRAINTS", new Object[] {"person", "_fk_person_address"})
+                .addResult("information_schema.STATISTICS", new Object[] {"person", "PRIMARY"},
+                        new Object[] {"person", "idx_name"}, new Object[] {"address", "idx_street"});
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(connection.toJdbcConnection());
+        changeLog = new DatabaseChangeLog("changelog.xml");
+    }
+
+    private <T extends Change> T addChangeSet(String id, T change) {
+        ChangeSet changeSet = new ChangeSet(id, "Alice", false, false, "changelog.xml", null, null, changeLog);
+        changeSet.addChange(change);
+        changeLog.addChangeSet(changeSet);
+        return change;
+    }
+
+    private static MariaDbToolsDropForeignKeyConstraintChange dropForeignKey(String table, String name) {
+        MariaDbToolsDropForeignKeyConstraintChange change = new MariaDbToolsDropForeignKeyConstraintChange();
+        change.setBaseTableName(table);
+        change.setConstraintName(name);
+        return change;
+    }
+
+    private static MariaDbToolsAddPrimaryKeyChange addPrimaryKey(String table) {
+        MariaDbToolsAddPrimaryKeyChange change = new MariaDbToolsAddPrimaryKeyChange();
+        change.setTableName(table);
+        change.setColumnNames("id");
+        return change;
+    }
+
+    private static MariaDbToolsMetadataCache validatingCache() {
+        MariaDbToolsMetadataCache cache = new MariaDbToolsMetadataCache();
+        cache.validating = () -> true;
+        return cache;
+    }
+
+    private List<String> getQueries() {
+        return connection.getExecuted().stream().filter(sql -> sql.contains("information_schema"))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testPreloadsAllTablesOfTheChangeLog() throws DatabaseException {
+        MariaDbToolsDropForeignKeyConstraintChange dropForeignKey = addChangeSet("1", dropForeignKey("person", "fk_person_address"));
+        MariaDbToolsAddPrimaryKeyChange addPrimaryKey = addChangeSet("2", addPrimaryKey("address"));
+
+        MariaDbToolsMetadataCache cache = validatingCache();
+        MariaDbToolsMetadataCache.TableMetadata person = cache.getTable(database, dropForeignKey);
+        Assertions.assertEquals(Arrays.asList("_fk_person_address"), person.getForeignKeys());
+        Assertions.assertTrue(person.hasPrimaryKey());
+        Assertions.assertTrue(person.getIndexes().contains("idx_name"));
+
+        MariaDbToolsMetadataCache.TableMetadata address = cache.getTable(database, addPrimaryKey);
+        Assertions.assertTrue(address.getForeignKeys().isEmpty());
+        Assertions.assertFalse(address.hasPrimaryKey());
+
+        // one batch with both tables
+        List<String> queries = getQueries();
+        Assertions.assertEquals(3, queries.size());
+        Assertions.assertTrue(queries.get(0).endsWith("[testdb, person, address]"), queries.get(0));
+    }
+
+    @Test
+    public void testMissingTableIsLoadedOnDemand() throws DatabaseException {
+        MariaDbToolsAddPrimaryKeyChange change = addChangeSet("1", addPrimaryKey("new_table"));
+        MariaDbToolsMetadataCache cache = validatingCache();
+
+        Assertions.assertNull(cache.getTable(database, change));
+        Assertions.assertNull(cache.getTable(database, change));
+        // preload and two lookups, the missing table is not cached
+        Assertions.assertEquals(9, getQueries().size());
+    }
+
+    @Test
+    public void testInvalidate() throws DatabaseException {
+        MariaDbToolsDropForeignKeyConstraintChange dropForeignKey = addChangeSet("1", dropForeignKey("person", "fk_person_address"));
+        MariaDbToolsAddPrimaryKeyChange addPrimaryKey = addChangeSet("2", addPrimaryKey("address"));
+        MariaDbToolsMetadataCache cache = validatingCache();
+        cache.getTable(database, dropForeignKey);
+        cache.getTable(database, addPrimaryKey);
+        int before = getQueries().size();
+
+        connection.addResult("information_schema.TABLE_CONSTRAINTS", new Object[] {"person", "__fk_person_address"});
+        cache.invalidate(database, null, "PERSON");
+        Assertions.assertEquals(Arrays.asList("__fk_person_address"), cache.getTable(database, dropForeignKey).getForeignKeys());
+        List<String> queries = getQueries().subList(before, getQueries().size());
+        Assertions.assertEquals(3, queries.size());
+        Assertions.assertTrue(queries.get(0).endsWith("[testdb, person]"), queries.get(0));
+
+        // the other table is still cached
+        cache.getTable(database, addPrimaryKey);
+        Assertions.assertEquals(before + 3, getQueries().size());
+    }
+
+    @Test
+    public void testNotCachedDuringExecution() throws DatabaseException {
+        MariaDbToolsAddPrimaryKeyChange addPrimaryKey = addChangeSet("1", addPrimaryKey("person"));
+        addChangeSet("2", addPrimaryKey("address"));
+        MariaDbToolsMetadataCache cache = validatingCache();
+        Assertions.assertTrue(cache.getTable(database, addPrimaryKey).hasPrimaryKey());
+
+        // e.g. a core dropPrimaryKey change has been executed in the meantime
+        connection.addResult("information_schema.STATISTICS", new Object[] {"person", "idx_name"});
+        cache.validating = () -> false;
+        int before = getQueries().size();
+        Assertions.assertFalse(cache.getTable(database, addPrimaryKey).hasPrimaryKey());
+        List<String> queries = getQueries().subList(before, getQueries().size());
+        Assertions.assertEquals(3, queries.size());
+        Assertions.assertTrue(queries.get(0).endsWith("[testdb, person]"), queries.get(0));
+    }
+
+    @Test
+    public void testReset() throws DatabaseException {
+        MariaDbToolsAddPrimaryKeyChange addPrimaryKey = addChangeSet("1", addPrimaryKey("person"));
+        MariaDbToolsMetadataCache cache = validatingCache();
+        cache.getTable(database, addPrimaryKey);
+        cache.getTable(database, addPrimaryKey);
+        Assertions.assertEquals(3, getQueries().size());
+
+        cache.reset(database);
+        cache.getTable(database, addPrimaryKey);
+        Assertions.assertEquals(6, getQueries().size());
+    }
+
+    @Test
+    public void testBatches() throws DatabaseException {
+        MariaDbToolsAddPrimaryKeyChange first = null;
+        for (int i = 0; i < MariaDbToolsMetadataCache.BATCH_SIZE + 1; i++) {
+            MariaDbToolsAddPrimaryKeyChange change = addChangeSet(String.valueOf(i), addPrimaryKey("table" + i));
+            if (first == null) {
+                first = change;
+            }
+        }
+        Assertions.assertNull(validatingCache().getTable(database, first));
+        // two batches and the lookup of the missing table
+        Assertions.assertEquals(9, getQueries().size());
+    }
+
+    @Test
+    public void testQueryFails() {
+        connection.addError("information_schema.TABLES", new SQLException("denied"));
+        MariaDbToolsAddPrimaryKeyChange change = addPrimaryKey("person");
+        Assertions.assertThrows(DatabaseException.class, () -> validatingCache().getTable(database, change));
+    }
+}
@@ -0,0 +1,140 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import liquibase.ext.mariadbtools.MariaDbToolsProgressEvent.Phase;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsMetricsTest {
+    private final MariaDbToolsMetrics metrics = MariaDbToolsMetrics.getInstance();
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @TempDir
+    Path tempDir;
+
+    private void fire(String table, Phase phase) {
+        metrics.onProgress(new MariaDbToolsProgressEvent("metricsdb", table, phase));
+    }
+
+    @Test
+    public void testRunLifecycle() throws JMException {
+        long started = metrics.getRunsStarted();
+        long succeeded = metrics.getRunsSucceeded();
+        long rows = metrics.getRowsCopied();
+
+        fire("person", Phase.STARTED);
+        fire("person", Phase.CREATING_TRIGGERS);
+        metrics.onProgress(new MariaDbToolsProgressEvent("metricsdb", "person", Phase.COPYING, 50, 500, 1000, 250, 2));
+        metrics.recordChunk("metricsdb", "person", 400);
+        metrics.recordChunk("metricsdb", "person", 600);
+        metrics.recordRetry("metricsdb", "person");
+
+        ObjectName name = new ObjectName(MariaDbToolsMetrics.DOMAIN + ":type=SchemaChange,table=\"metricsdb.person\"");
+        Assertions.assertTrue(server.isRegistered(name));
+        Assertions.assertEquals("COPYING", server.getAttribute(name, "Phase"));
+        Assertions.assertEquals(250.0, server.getAttribute(name, "RowsPerSecond"));
+        Assertions.assertEquals(500.0, server.getAttribute(name, "AverageChunkMillis"));
+        Assertions.assertEquals(1L, server.getAttribute(name, "Retries"));
+        Assertions.assertEquals(-1, server.getAttribute(name, "ExitCode"));
+        Assertions.assertTrue(server.isRegistered(new ObjectName(MariaDbToolsMetrics.DOMAIN + ":type=Metrics")));
+
+        fire("person", Phase.SWAPPING);
+        fire("person", Phase.DROPPING_OLD_TABLE);
+        fire("person", Phase.DONE);
+        metrics.finish("metricsdb", "person", 0);
+
+        Assertions.assertFalse(server.isRegistered(name));
+        Assertions.assertEquals(started + 1, metrics.getRunsStarted());
+        Assertions.assertEquals(succeeded + 1, metrics.getRunsSucceeded());
+        Assertions.assertEquals(rows + 500, metrics.getRowsCopied());
+        MariaDbToolsRunMetrics last = metrics.getLastRuns().stream()
+                .filter(r -> "person".equals(r.getTableName())).findFirst().get();
+        Assertions.assertEquals(0, last.getExitCode());
+        Assertions.assertTrue(last.getSwapMillis() >= 0);
+    }
+
+    @Test
+    public void testFailedAndCancelledRuns() {
+        long started = metrics.getRunsStarted();
+        long failed = metrics.getRunsFailed();
+
+        fire("address", Phase.STARTED);
+        fire("address", Phase.FAILED);
+        metrics.finish("metricsdb", "address", 2);
+        Assertions.assertEquals(failed + 1, metrics.getRunsFailed());
+
+        fire("company", Phase.STARTED);
+        metrics.cancel("metricsdb", "company");
+        Assertions.assertEquals(started + 1, metrics.getRunsStarted());
+
+        // events after the run has finished don't start a new run
+        fire("address", Phase.DONE);
+        Assertions.assertTrue(metrics.getActive().stream().noneMatch(r -> "address".equals(r.getTableName())));
+    }
+
+    @Test
+    public void testJmxDisabled() throws JMException {
+        System.setProperty(Configuration.JMX, "false");
+        fire("invoice", Phase.STARTED);
+        try {
+            Assertions.assertFalse(server.isRegistered(
+                    new ObjectName(MariaDbToolsMetrics.DOMAIN + ":type=SchemaChange,table=\"metricsdb.invoice\"")));
+        } finally {
+            metrics.finish("metricsdb", "invoice", 0);
+        }
+    }
+
+    @Test
+    public void testPrometheus() throws IOException {
+        fire("orders", Phase.STARTED);
+        metrics.onProgress(new MariaDbToolsProgressEvent("metricsdb", "orders", Phase.COPYING, 12.5, 125, 1000, 62.5, 14));
+        try {
+            StringWriter writer = new StringWriter();
+            metrics.writePrometheus(writer);
+            String text = writer.toString();
+            Assertions.assertTrue(text.contains("# TYPE mariadbtools_runs_started_total counter\n"));
+            Assertions.assertTrue(text.contains("mariadbtools_run_info{database=\"metricsdb\",table=\"orders\",phase=\"copying\"} 1\n"));
+            Assertions.assertTrue(text.contains("mariadbtools_run_percent{database=\"metricsdb\",table=\"orders\"} 12.500\n"));
+            Assertions.assertTrue(text.contains("mariadbtools_run_rows_per_second{database=\"metricsdb\",table=\"orders\"} 62.500\n"));
+            Assertions.assertTrue(text.contains("mariadbtools_run_remaining_seconds{database=\"metricsdb\",table=\"orders\"} 14\n"));
+            Assertions.assertFalse(text.contains("mariadbtools_run_chunk_seconds{database=\"metricsdb\",table=\"orders\"}"));
+
+            Path file = tempDir.resolve("mariadbtools.prom");
+            System.setProperty(Configuration.PROMETHEUS_FILE, file.toString());
+            metrics.writePrometheusFile();
+            String written = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            Assertions.assertTrue(written.contains("mariadbtools_run_info{database=\"metricsdb\",table=\"orders\",phase=\"copying\"} 1\n"));
+            Assertions.assertFalse(Files.exists(tempDir.resolve("mariadbtools.prom.tmp")));
+        } finally {
+            metrics.finish("metricsdb", "orders", 0);
+        }
+    }
+}
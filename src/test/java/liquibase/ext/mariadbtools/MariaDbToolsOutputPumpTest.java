@@ -0,0 +1,95 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MariaDbToolsOutputPumpTest {
+    private final List<String> lines = new ArrayList<>();
+    private final List<String> logged = new ArrayList<>();
+    private long nanos;
+
+    private MariaDbToolsOutputPump pump(String output, int tailLines, int linesPerSecond) {
+        return new MariaDbToolsOutputPump(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)), lines::add,
+                logged::add, tailLines, linesPerSecond, () -> nanos);
+    }
+
+    @Test
+    public void testLines() {
+        MariaDbToolsOutputPump pump = pump("Creating new table...\r\nAltering new table...\n\nSuccessfully altered", 10, 100);
+        pump.run();
+        List<String> expected = Arrays.asList("Creating new table...", "Altering new table...", "", "Successfully altered");
+        Assertions.assertEquals(expected, lines);
+        Assertions.assertEquals(expected, logged);
+        Assertions.assertEquals(expected, pump.getTail());
+    }
+
+    @Test
+    public void testLongLineIsTruncated() {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < MariaDbToolsOutputPump.MAX_LINE_BYTES * 3; i++) {
+            output.append('x');
+        }
+        output.append("\nnext\n");
+        pump(output.toString(), 10, 100).run();
+
+        Assertions.assertEquals(2, lines.size());
+        Assertions.assertEquals(MariaDbToolsOutputPump.MAX_LINE_BYTES + MariaDbToolsOutputPump.TRUNCATED.length(),
+                lines.get(0).length());
+        Assertions.assertTrue(lines.get(0).endsWith(MariaDbToolsOutputPump.TRUNCATED));
+        Assertions.assertEquals("next", lines.get(1));
+    }
+
+    @Test
+    public void testTail() {
+        MariaDbToolsOutputPump pump = pump("1\n2\n3\n4\n5\n", 3, 100);
+        pump.run();
+        Assertions.assertEquals(Arrays.asList("3", "4", "5"), pump.getTail());
+        Assertions.assertEquals(5, lines.size());
+
+        Assertions.assertTrue(pump("1\n2\n", 0, 100).getTail().isEmpty());
+    }
+
+    @Test
+    public void testLogIsRateLimited() {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            output.append(i).append('\n');
+        }
+        MariaDbToolsOutputPump pump = new MariaDbToolsOutputPump(
+                new ByteArrayInputStream(output.toString().getBytes(StandardCharsets.UTF_8)), line -> {
+                    lines.add(line);
+                    if ("6".equals(line)) {
+                        // a new window starts
+                        nanos += TimeUnit.SECONDS.toNanos(1);
+                    }
+                }, logged::add, 5, 3, () -> nanos);
+        pump.run();
+
+        Assertions.assertEquals(10, lines.size());
+        Assertions.assertEquals(Arrays.asList("0", "1", "2", "... 3 lines of output not logged", "6", "7", "8",
+                "... 1 lines of output not logged"), logged);
+        // the tail isn't affected
+        Assertions.assertEquals(Arrays.asList("5", "6", "7", "8", "9"), pump.getTail());
+    }
+}
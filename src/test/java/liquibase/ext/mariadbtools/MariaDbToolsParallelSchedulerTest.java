@@ -0,0 +1,235 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import liquibase.Scope;
+import liquibase.change.AddColumnConfig;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.changelog.RanChangeSet;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.jvm.JdbcExecutor;
+import liquibase.statement.SqlStatement;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsParallelSchedulerTest {
+    private TestDatabase database;
+    private DatabaseChangeLog changeLog;
+    private Path calls;
+
+    @TempDir
+    Path toolkitPath;
+
+    private static class TestDatabase extends MySQLDatabase {
+        @Override
+        public List<RanChangeSet> getRanChangeSetList() {
+            return new ArrayList<>();
+        }
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        Assumptions.assumeFalse(File.separatorChar == '\\', "the fake mariadb-schema-change is a shell script");
+
+        calls = toolkitPath.resolve("calls.log");
+        Path script = toolkitPath.resolve(MariaDbToolsSchemaChangeStatement.COMMAND);
+        Files.write(script, ("#!/bin/sh\n"
+                + "for arg; do case \"$arg\" in *,t=*) echo \"${arg##*,t=}\" >> \"" + calls + "\";; esac; done\n"
+                + "case \"$*\" in *t=fail*) exit 1;; esac\n").getBytes(StandardCharsets.UTF_8));
+        Assumptions.assumeTrue(script.toFile().setExecutable(true));
+
+        System.setProperty(Configuration.LIQUIBASE_PASSWORD, "root");
+        System.setProperty(Configuration.ADDITIONAL_OPTIONS, "");
+        System.setProperty(Configuration.MARIADB_TOOLS_PATH, toolkitPath.toString());
+        System.setProperty(Configuration.PARALLEL_TABLES, "3");
+
+        database = new TestDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(new MockDatabaseConnection("jdbc:mysql://user@localhost:1/testdb", "user@localhost"));
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+
+        MariaDbToolsSchemaChangeStatement.available = true;
+        MariaDbToolsSchemaChangeStatement.mariaDBToolsToolkitVersion = null;
+        MariaDbToolsConstraintsService.getInstance().disable();
+        MariaDbToolsUpdateRun.start(database, true);
+
+        changeLog = new DatabaseChangeLog("changelog.xml");
+    }
+
+    @AfterEach
+    public void finishRun() {
+        MariaDbToolsUpdateRun.finish(database);
+    }
+
+    private ChangeSet addColumnChangeSet(String id, String table, String column) {
+        ChangeSet changeSet = new ChangeSet(id, "Alice", false, false, "changelog.xml", null, null, changeLog);
+        MariaDbToolsAddColumnChange change = new MariaDbToolsAddColumnChange();
+        change.setTableName(table);
+        AddColumnConfig config = new AddColumnConfig();
+        config.setName(column);
+        config.setType("INT");
+        change.addColumn(config);
+        changeSet.addChange(change);
+        changeLog.addChangeSet(changeSet);
+        return changeSet;
+    }
+
+    private SqlStatement[] generateStatements(ChangeSet changeSet) {
+        return ((MariaDbToolsChange) changeSet.getChanges().get(0)).generateStatements(database);
+    }
+
+    private List<String> readCalls() throws IOException {
+        if (!Files.exists(calls)) {
+            return Collections.emptyList();
+        }
+        List<String> tables = new ArrayList<>(Files.readAllLines(calls, StandardCharsets.UTF_8));
+        Collections.sort(tables);
+        return tables;
+    }
+
+    @Test
+    public void testIndependentTablesRunInBackground() throws IOException {
+        ChangeSet first = addColumnChangeSet("1", "person", "age");
+        ChangeSet second = addColumnChangeSet("2", "address", "zip");
+        ChangeSet third = addColumnChangeSet("3", "person", "email");
+        ChangeSet fourth = addColumnChangeSet("4", "company", "size");
+
+        SqlStatement[] statements = generateStatements(first);
+        Assertions.assertEquals(1, statements.length);
+        ((MariaDbToolsSchemaChangeStatement) statements[0]).generate(database);
+
+        Assertions.assertTrue(MariaDbToolsParallelScheduler.isScheduled(database, second));
+        Assertions.assertFalse(MariaDbToolsParallelScheduler.isScheduled(database, third));
+        Assertions.assertTrue(MariaDbToolsParallelScheduler.isScheduled(database, fourth));
+
+        for (ChangeSet changeSet : new ChangeSet[] {second, fourth}) {
+            statements = generateStatements(changeSet);
+            Assertions.assertEquals(1, statements.length);
+            Assertions.assertTrue(statements[0] instanceof MariaDbToolsAwaitStatement);
+            Assertions.assertNull(((MariaDbToolsAwaitStatement) statements[0]).generate(database));
+        }
+        Assertions.assertEquals(3, readCalls().size());
+        Assertions.assertTrue(readCalls().containsAll(Arrays.asList("address", "company", "person")));
+
+        statements = generateStatements(third);
+        Assertions.assertEquals(MariaDbToolsSchemaChangeStatement.class, statements[0].getClass());
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        System.clearProperty(Configuration.PARALLEL_TABLES);
+        ChangeSet first = addColumnChangeSet("1", "employee", "age");
+        ChangeSet second = addColumnChangeSet("2", "department", "zip");
+
+        ((MariaDbToolsSchemaChangeStatement) generateStatements(first)[0]).generate(database);
+        Assertions.assertFalse(MariaDbToolsParallelScheduler.isScheduled(database, second));
+    }
+
+    @Test
+    public void testFailureFinishesBackgroundRuns() throws Exception {
+        ChangeSet first = addColumnChangeSet("1", "fail", "age");
+        ChangeSet second = addColumnChangeSet("2", "invoice", "amount");
+
+        MariaDbToolsSchemaChangeStatement statement = (MariaDbToolsSchemaChangeStatement) generateStatements(first)[0];
+        RuntimeException e = Assertions.assertThrows(RuntimeException.class, () -> statement.generate(database));
+        Assertions.assertEquals("MariaDB Tools exited with 1", e.getMessage());
+        Assertions.assertTrue(MariaDbToolsParallelScheduler.isScheduled(database, second));
+
+        // the end of the update either cancels the background run or waits for it
+        MariaDbToolsUpdateRun.finish(database);
+        Assertions.assertFalse(MariaDbToolsParallelScheduler.isScheduled(database, second));
+        List<String> finished = readCalls();
+        Thread.sleep(200);
+        Assertions.assertEquals(finished, readCalls());
+    }
+
+    @Test
+    public void testNoLookAheadOutsideOfUpdate() throws IOException {
+        MariaDbToolsUpdateRun.start(database, false);
+        ChangeSet first = addColumnChangeSet("1", "employee", "age");
+        ChangeSet second = addColumnChangeSet("2", "department", "zip");
+
+        ((MariaDbToolsSchemaChangeStatement) generateStatements(first)[0]).generate(database);
+        Assertions.assertFalse(MariaDbToolsParallelScheduler.isScheduled(database, second));
+        Assertions.assertEquals(Arrays.asList("employee"), readCalls());
+    }
+
+    @Test
+    public void testRollbackChangeDoesNotSchedule() throws IOException {
+        ChangeSet first = addColumnChangeSet("1", "employee", "age");
+        ChangeSet second = addColumnChangeSet("2", "department", "zip");
+        MariaDbToolsDropColumnChange rollback = new MariaDbToolsDropColumnChange();
+        rollback.setTableName("employee");
+        rollback.setColumnName("age");
+        first.addRollbackChange(rollback);
+
+        SqlStatement[] statements = rollback.generateStatements(database);
+        Assertions.assertNull(((MariaDbToolsSchemaChangeStatement) statements[0]).getChangeSet());
+        ((MariaDbToolsSchemaChangeStatement) statements[0]).generate(database);
+        Assertions.assertFalse(MariaDbToolsParallelScheduler.isScheduled(database, second));
+        Assertions.assertEquals(Arrays.asList("employee"), readCalls());
+    }
+
+    @Test
+    public void testBackgroundRunNeedsOwnConnection() throws IOException {
+        // nothing listens on port 1, so no connection can be opened for the background run
+        database.setConnection(new MockJdbcConnection().setUrl("jdbc:mysql://localhost:1/testdb").toJdbcConnection());
+        ChangeSet first = addColumnChangeSet("1", "customer", "age");
+        ChangeSet second = addColumnChangeSet("2", "supplier", "zip");
+
+        ((MariaDbToolsSchemaChangeStatement) generateStatements(first)[0]).generate(database);
+        Assertions.assertFalse(MariaDbToolsParallelScheduler.isScheduled(database, second));
+        Assertions.assertEquals(Arrays.asList("customer"), readCalls());
+    }
+
+    @Test
+    public void testRelatedTables() {
+        ChangeSet changeSet = new ChangeSet("1", "Alice", false, false, "changelog.xml", null, null, changeLog);
+        MariaDbToolsAddForeignKeyConstraintChange change = new MariaDbToolsAddForeignKeyConstraintChange();
+        change.setBaseTableName("Person");
+        change.setBaseColumnNames("address_id");
+        change.setReferencedTableName("`testdb`.`Address`");
+        change.setReferencedColumnNames("id");
+        change.setConstraintName("fk_person_address");
+        changeSet.addChange(change);
+
+        Set<String> tables = MariaDbToolsParallelScheduler.relatedTables(database, changeSet);
+        Assertions.assertEquals(2, tables.size());
+        Assertions.assertTrue(tables.contains("person"));
+        Assertions.assertTrue(tables.contains("address"));
+    }
+}
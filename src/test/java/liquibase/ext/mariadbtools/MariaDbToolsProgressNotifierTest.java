@@ -0,0 +1,63 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import liquibase.Scope;
+import liquibase.ext.mariadbtools.MariaDbToolsProgressEvent.Phase;
+
+public class MariaDbToolsProgressNotifierTest {
+    private final MariaDbToolsProgressNotifier notifier = MariaDbToolsProgressNotifier.getInstance();
+
+    @Test
+    public void testRegisteredListener() {
+        List<MariaDbToolsProgressEvent> events = new ArrayList<>();
+        MariaDbToolsProgressListener failing = event -> {
+            throw new IllegalStateException("failing listener");
+        };
+        MariaDbToolsProgressListener listener = events::add;
+        notifier.addListener(failing);
+        notifier.addListener(listener);
+        try {
+            notifier.fire(new MariaDbToolsProgressEvent("testdb", "person", Phase.STARTED));
+        } finally {
+            notifier.removeListener(failing);
+            notifier.removeListener(listener);
+        }
+        notifier.fire(new MariaDbToolsProgressEvent("testdb", "person", Phase.DONE));
+
+        Assertions.assertEquals(1, events.size());
+        Assertions.assertEquals(Phase.STARTED, events.get(0).getPhase());
+    }
+
+    @Test
+    public void testScopedListener() throws Exception {
+        List<MariaDbToolsProgressEvent> events = new ArrayList<>();
+        MariaDbToolsProgressListener listener = events::add;
+        Scope.child(Collections.singletonMap(MariaDbToolsProgressListener.SCOPE_KEY, listener),
+            () -> notifier.fire(new MariaDbToolsProgressEvent("testdb", "person", Phase.COPYING, 50, 10, 20, 5, 2)));
+        notifier.fire(new MariaDbToolsProgressEvent("testdb", "person", Phase.DONE));
+
+        Assertions.assertEquals(1, events.size());
+        Assertions.assertEquals("MariaDbToolsProgressEvent[table: testdb.person, phase: COPYING, percent: 50.0, "
+                + "rowsCopied: 10, totalRows: 20, rowsPerSecond: 5, remainingSeconds: 2]", events.get(0).toString());
+    }
+}
@@ -0,0 +1,107 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import liquibase.ext.mariadbtools.MariaDbToolsProgressEvent.Phase;
+
+public class MariaDbToolsProgressParserTest {
+    private AtomicLong clock;
+    private MariaDbToolsProgressParser parser;
+
+    @BeforeEach
+    public void setup() {
+        clock = new AtomicLong();
+        parser = new MariaDbToolsProgressParser("testdb", "person", clock::get);
+    }
+
+    @Test
+    public void testPhases() {
+        Assertions.assertNull(parser.parse("Altering `testdb`.`person`..."));
+        Assertions.assertEquals(Phase.CREATING_TABLE, parser.parse("Creating new table...").getPhase());
+        Assertions.assertNull(parser.parse("Created new table testdb._person_new OK."));
+        Assertions.assertEquals(Phase.ALTERING_TABLE, parser.parse("Altering new table...").getPhase());
+        Assertions.assertEquals(Phase.CREATING_TRIGGERS, parser.parse("2021-11-09T10:00:00 Creating triggers...").getPhase());
+        Assertions.assertEquals(Phase.SWAPPING, parser.parse("2021-11-09T10:05:00 Swapping tables...").getPhase());
+        Assertions.assertEquals(Phase.DROPPING_OLD_TABLE, parser.parse("2021-11-09T10:05:00 Dropping old table...").getPhase());
+        Assertions.assertEquals(Phase.DROPPING_TRIGGERS, parser.parse("2021-11-09T10:05:00 Dropping triggers...").getPhase());
+        MariaDbToolsProgressEvent done = parser.parse("Successfully altered `testdb`.`person`.");
+        Assertions.assertEquals(Phase.DONE, done.getPhase());
+        Assertions.assertEquals("testdb", done.getDatabaseName());
+        Assertions.assertEquals("person", done.getTableName());
+        Assertions.assertEquals(-1, done.getPercent());
+        Assertions.assertNull(parser.parse(""));
+    }
+
+    @Test
+    public void testCopyProgress() {
+        MariaDbToolsProgressEvent event = parser.parse("2021-11-09T10:00:00 Copying approximately 1000000 rows...");
+        Assertions.assertEquals(Phase.COPYING, event.getPhase());
+        Assertions.assertEquals(1000000, event.getTotalRows());
+        Assertions.assertEquals(0, event.getRowsCopied());
+
+        clock.set(TimeUnit.SECONDS.toNanos(100));
+        event = parser.parse("Copying `testdb`.`person`:  42% 02:18 remain");
+        Assertions.assertEquals(Phase.COPYING, event.getPhase());
+        Assertions.assertEquals(42.0, event.getPercent());
+        Assertions.assertEquals(420000, event.getRowsCopied());
+        Assertions.assertEquals(1000000, event.getTotalRows());
+        Assertions.assertEquals(4200.0, event.getRowsPerSecond(), 0.001);
+        Assertions.assertEquals(138, event.getRemainingSeconds());
+
+        event = parser.parse("2021-11-09T10:05:00 Copied rows OK.");
+        Assertions.assertEquals(100.0, event.getPercent());
+        Assertions.assertEquals(1000000, event.getRowsCopied());
+        Assertions.assertEquals(0, event.getRemainingSeconds());
+    }
+
+    @Test
+    public void testCopyProgressWithoutTotal() {
+        MariaDbToolsProgressEvent event = parser.parse("Copying `testdb`.`person`:  99% 00:01 remain");
+        Assertions.assertEquals(99.0, event.getPercent());
+        Assertions.assertEquals(-1, event.getRowsCopied());
+        Assertions.assertEquals(-1, event.getRowsPerSecond());
+        Assertions.assertEquals(1, event.getRemainingSeconds());
+    }
+
+    @Test
+    public void testParseDuration() {
+        Assertions.assertEquals(83, MariaDbToolsProgressParser.parseDuration(null, "01:23"));
+        Assertions.assertEquals(3723, MariaDbToolsProgressParser.parseDuration(null, "01:02:03"));
+        Assertions.assertEquals(90000, MariaDbToolsProgressParser.parseDuration("1", "01:00:00"));
+        Assertions.assertEquals(90000, parser.parse("Copying `testdb`.`person`:   1% 1+01:00:00 remain").getRemainingSeconds());
+    }
+
+    @Test
+    public void testIsRetry() {
+        Assertions.assertTrue(MariaDbToolsProgressParser.isRetry("Lock wait timeout exceeded; retrying."));
+        Assertions.assertTrue(MariaDbToolsProgressParser.isRetry("2021-11-09T10:00:00 Retrying copy of chunk 42"));
+    }
+
+    @Test
+    public void testIsNoRetry() {
+        Assertions.assertFalse(MariaDbToolsProgressParser.isRetry(null));
+        Assertions.assertFalse(MariaDbToolsProgressParser.isRetry("--retries=3 --execute"));
+        Assertions.assertFalse(MariaDbToolsProgressParser.isRetry("--tries create_triggers:5:0.5,swap_tables:5:0.5"));
+        Assertions.assertFalse(MariaDbToolsProgressParser.isRetry("Altering `testdb`.`retry_queue`..."));
+        Assertions.assertFalse(MariaDbToolsProgressParser.isRetry("Copying `testdb`.`retrying_jobs`:  42% 01:23 remain"));
+    }
+}
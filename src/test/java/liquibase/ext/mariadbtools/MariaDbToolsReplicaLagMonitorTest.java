@@ -0,0 +1,109 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.ext.mariadbtools.MariaDbToolsReplicaService.Replica;
+
+public class MariaDbToolsReplicaLagMonitorTest {
+    private static final String[] SLAVE_STATUS = {"Slave_IO_State", "Seconds_Behind_Master"};
+
+    @Test
+    public void testThrottleUntilLagIsBelowMaximum() throws Exception {
+        MockJdbcConnection replica1 = new MockJdbcConnection()
+                .addLabeledResult("SHOW SLAVE STATUS", SLAVE_STATUS, new Object[] {"Waiting", "1"});
+        MockJdbcConnection replica2 = new MockJdbcConnection()
+                .addLabeledResult("SHOW SLAVE STATUS", SLAVE_STATUS, new Object[] {"Waiting", "30"});
+        List<Replica> replicas = Arrays.asList(new Replica("replica1", "3306"), new Replica("replica2", "3306"));
+        AtomicInteger opened = new AtomicInteger();
+
+        try (MariaDbToolsReplicaLagMonitor monitor = new MariaDbToolsReplicaLagMonitor(null, replicas, 10, replica -> {
+            opened.incrementAndGet();
+            return "replica1".equals(replica.getHost()) ? replica1.createConnection() : replica2.createConnection();
+        }, 10)) {
+            Assertions.assertEquals(30, monitor.getLag());
+
+            Thread worker = new Thread(() -> {
+                try {
+                    monitor.throttle();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            worker.start();
+            worker.join(100);
+            Assertions.assertTrue(worker.isAlive(), "copy should be paused");
+
+            replica2.addLabeledResult("SHOW SLAVE STATUS", SLAVE_STATUS, new Object[] {"Waiting", "2"});
+            worker.join(5000);
+            Assertions.assertFalse(worker.isAlive());
+            Assertions.assertEquals(2, monitor.getLag());
+        }
+        // connections are reused
+        Assertions.assertEquals(2, opened.get());
+    }
+
+    @Test
+    public void testUnknownLag() {
+        MockJdbcConnection replica = new MockJdbcConnection()
+                .addLabeledResult("SHOW SLAVE STATUS", SLAVE_STATUS, new Object[] {"", null});
+        try (MariaDbToolsReplicaLagMonitor monitor = new MariaDbToolsReplicaLagMonitor(null,
+                Collections.singletonList(new Replica("replica1", "3306")), 10, r -> replica.createConnection(), 10)) {
+            Assertions.assertEquals(Long.MAX_VALUE, monitor.getLag());
+        }
+    }
+
+    @Test
+    public void testUnreachableReplicaFailsAfterTimeout() {
+        try (MariaDbToolsReplicaLagMonitor monitor = new MariaDbToolsReplicaLagMonitor(null,
+                Collections.singletonList(new Replica("replica1", "3306")), 10, r -> {
+                    throw new SQLException("Communications link failure");
+                }, 10, 100)) {
+            UnexpectedLiquibaseException e = Assertions.assertThrows(UnexpectedLiquibaseException.class, monitor::throttle);
+            Assertions.assertTrue(e.getMessage().startsWith("Couldn't determine the lag of replica [replica1"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testHeartbeat() throws Exception {
+        MockJdbcConnection primary = new MockJdbcConnection();
+        MockJdbcConnection replica = new MockJdbcConnection()
+                .addResult("TIMESTAMPDIFF", new Object[] {2500000L});
+        Connection primaryConnection = primary.createConnection();
+        try (MariaDbToolsReplicaLagMonitor monitor = new MariaDbToolsReplicaLagMonitor("testdb.mariadbtools_heartbeat",
+                Collections.singletonList(new Replica("replica1", "3306")), 10, r -> replica.createConnection(), 10)) {
+            monitor.startHeartbeat(primaryConnection);
+            Assertions.assertEquals(3, monitor.getLag());
+        }
+
+        List<String> executed = primary.getExecuted();
+        Assertions.assertEquals("CREATE TABLE IF NOT EXISTS testdb.mariadbtools_heartbeat "
+                + "(id INT NOT NULL, ts TIMESTAMP(6) NOT NULL, PRIMARY KEY (id))", executed.get(0));
+        Assertions.assertEquals("REPLACE INTO testdb.mariadbtools_heartbeat (id, ts) VALUES (1, UTC_TIMESTAMP(6))",
+                executed.get(1));
+        Assertions.assertTrue(primaryConnection.isClosed());
+        Assertions.assertTrue(replica.getExecuted().get(0).contains("FROM testdb.mariadbtools_heartbeat WHERE id = 1"));
+    }
+}
@@ -0,0 +1,112 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.jvm.JdbcExecutor;
+import liquibase.ext.mariadbtools.MariaDbToolsReplicaService.Replica;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsReplicaServiceTest {
+    private final MariaDbToolsReplicaService service = MariaDbToolsReplicaService.getInstance();
+    private MockJdbcConnection connection;
+    private Database database;
+
+    @BeforeEach
+    public void setup() {
+        System.setProperty(Configuration.LIQUIBASE_PASSWORD, "root");
+        connection = new MockJdbcConnection().setUrl("jdbc:mysql://localhost:3307/testdb");
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(connection.toJdbcConnection());
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+    }
+
+    @Test
+    public void testToolOptionsDisabledByDefault() {
+        Assertions.assertEquals(Arrays.asList("--recursion-method=none"), service.getToolOptions(database));
+    }
+
+    @Test
+    public void testToolOptionsWithDiscovery() {
+        System.setProperty(Configuration.MAX_REPLICA_LAG, "5");
+        Assertions.assertEquals(Arrays.asList("--recursion-method=processlist,hosts", "--max-lag=5"),
+                service.getToolOptions(database));
+    }
+
+    @Test
+    public void testToolOptionsWithConfiguredReplicas() {
+        System.setProperty(Configuration.MAX_REPLICA_LAG, "5");
+        System.setProperty(Configuration.REPLICAS, "replica1");
+        Assertions.assertEquals(Arrays.asList("--recursion-method=none", "--max-lag=5", "--check-slave-lag=h=replica1,P=3307"),
+                service.getToolOptions(database));
+
+        System.setProperty(Configuration.REPLICAS, "replica1, replica2:3308");
+        Assertions.assertEquals(Arrays.asList("--recursion-method=dsn=D=testdb,t=mariadbtools_dsns", "--max-lag=5"),
+                service.getToolOptions(database));
+    }
+
+    @Test
+    public void testPrepareDsnTable() {
+        System.setProperty(Configuration.REPLICAS, "replica1, replica2:3308");
+        service.prepare(database);
+        Assertions.assertTrue(connection.getExecuted().isEmpty(), "lag check is disabled");
+
+        System.setProperty(Configuration.MAX_REPLICA_LAG, "5");
+        service.prepare(database);
+        List<String> executed = connection.getExecuted();
+        Assertions.assertEquals(4, executed.size());
+        Assertions.assertTrue(executed.get(0).startsWith("CREATE TABLE IF NOT EXISTS testdb.mariadbtools_dsns"));
+        Assertions.assertEquals("DELETE FROM testdb.mariadbtools_dsns", executed.get(1));
+        Assertions.assertEquals("INSERT INTO testdb.mariadbtools_dsns (dsn) VALUES (?) [h=replica1,P=3307]", executed.get(2));
+        Assertions.assertEquals("INSERT INTO testdb.mariadbtools_dsns (dsn) VALUES (?) [h=replica2,P=3308]", executed.get(3));
+    }
+
+    @Test
+    public void testDiscoverFromSlaveHosts() throws SQLException {
+        connection.addLabeledResult("SHOW SLAVE HOSTS", new String[] {"Server_id", "Host", "Port", "Master_id"},
+                new Object[] {2, "replica1", 3306, 1}, new Object[] {3, "", 3306, 1});
+        Assertions.assertEquals(Arrays.asList(new Replica("replica1", "3306")), service.discover(database));
+    }
+
+    @Test
+    public void testDiscoverFromProcesslist() throws SQLException {
+        connection.addResult("Binlog Dump", new Object[] {"10.0.0.5:51234"}, new Object[] {"10.0.0.5:51235"},
+                new Object[] {"10.0.0.6:40000"});
+        Assertions.assertEquals(Arrays.asList(new Replica("10.0.0.5", "3307"), new Replica("10.0.0.6", "3307")),
+                service.discover(database));
+    }
+
+    @Test
+    public void testConfiguredReplicasAreNotDiscovered() throws SQLException {
+        System.setProperty(Configuration.REPLICAS, "replica1:3310");
+        Assertions.assertEquals(Arrays.asList(new Replica("replica1", "3310")), service.discover(database));
+        Assertions.assertTrue(connection.getExecuted().isEmpty());
+    }
+}
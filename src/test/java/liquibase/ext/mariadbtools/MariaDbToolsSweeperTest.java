@@ -0,0 +1,206 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.Scope;
+import liquibase.change.AddColumnConfig;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.LoggingExecutor;
+import liquibase.executor.jvm.JdbcExecutor;
+import liquibase.ext.mariadbtools.MariaDbToolsProgressEvent.Phase;
+import liquibase.sql.Sql;
+import liquibase.statement.SqlStatement;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsSweeperTest {
+    private static final List<String> PERSON_DROPS = Arrays.asList(
+            "DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_invoice_del",
+            "DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_invoice_ins",
+            "DROP TABLE IF EXISTS testdb._invoice_new");
+
+    private final MariaDbToolsSweeper sweeper = MariaDbToolsSweeper.getInstance();
+    private Database database;
+    private MockJdbcConnection connection;
+
+    @BeforeEach
+    public void setup() {
+        connection = new MockJdbcConnection()
+                .addResult("information_schema.TABLES",
+                        new Object[] {"invoice", 0}, new Object[] {"_invoice_new", 0}, new Object[] {"_invoice_old", 0},
+                        new Object[] {"address", 0}, new Object[] {"__address_new", 1}, new Object[] {"_unrelated_new", 0})
+                .addResult("information_schema.TRIGGERS",
+                        new Object[] {"pt_osc_testdb_invoice_del", "invoice", 0},
+                        new Object[] {"pt_osc_testdb_invoice_ins", "invoice", 0},
+                        new Object[] {"pt_osc_testdb_address_ins", "address", 0});
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(connection.toJdbcConnection());
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+    }
+
+    private long count(String sqlFragment) {
+        return connection.getExecuted().stream().filter(sql -> sql.contains(sqlFragment)).count();
+    }
+
+    @Test
+    public void testGetBaseTable() {
+        HashSet<String> tables = new HashSet<>(Arrays.asList("invoice", "_invoice_new", "__invoice_old", "_other_new"));
+        Assertions.assertEquals("invoice", MariaDbToolsSweeper.getBaseTable("_invoice_new", tables));
+        Assertions.assertEquals("invoice", MariaDbToolsSweeper.getBaseTable("__invoice_old", tables));
+        Assertions.assertEquals("_other_new", MariaDbToolsSweeper.getBaseTable("_other_new", tables));
+        Assertions.assertEquals("invoice", MariaDbToolsSweeper.getBaseTable("invoice", tables));
+    }
+
+    @Test
+    public void testSweep() {
+        // the leftovers of address have been modified recently
+        Assertions.assertEquals(PERSON_DROPS, sweeper.sweep(database, "testdb", null));
+        Assertions.assertEquals(1, count("DROP TABLE IF EXISTS testdb._invoice_new"));
+        Assertions.assertEquals(0, count("_invoice_old"));
+        Assertions.assertEquals(0, count("address"));
+        Assertions.assertEquals(0, count("_unrelated_new"));
+    }
+
+    @Test
+    public void testSweepOldTables() throws Exception {
+        System.setProperty(Configuration.SWEEP_OLD_TABLES, "true");
+        List<String> drops = sweeper.findLeftovers(database, "testdb", null);
+        Assertions.assertEquals(PERSON_DROPS.size() + 1, drops.size());
+        Assertions.assertEquals("DROP TABLE IF EXISTS testdb._invoice_old", drops.get(drops.size() - 1));
+    }
+
+    @Test
+    public void testKeepUnknownNewTable() throws Exception {
+        // without triggers, the new table may as well have been created on purpose
+        connection.addResult("information_schema.TRIGGERS");
+        Assertions.assertTrue(sweeper.findLeftovers(database, "testdb", null).isEmpty());
+
+        // a finished run of mariadb-schema-change created it
+        connection.addResult("pt_osc_history", new Object[] {"_invoice_new", "yes", "invoice"});
+        Assertions.assertEquals(Arrays.asList("DROP TABLE IF EXISTS testdb._invoice_new"),
+                sweeper.findLeftovers(database, "testdb", null));
+    }
+
+    @Test
+    public void testSweepTable() {
+        connection.addResult("information_schema.TABLES", new Object[] {"invoice", 0}, new Object[] {"_invoice_new", 0},
+                new Object[] {"address", 0}, new Object[] {"_address_old", 0});
+        Assertions.assertEquals(Arrays.asList("DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_address_ins"),
+                sweeper.sweep(database, "testdb", "address"));
+    }
+
+    @Test
+    public void testKeepResumable() throws Exception {
+        connection.addResult("mariadbtools_checkpoint", new Object[] {"_invoice_new", "invoice"});
+        Assertions.assertTrue(sweeper.findLeftovers(database, "testdb", null).isEmpty());
+
+        connection.addResult("mariadbtools_checkpoint");
+        connection.addResult("pt_osc_history", new Object[] {"_invoice_new", "no", "invoice"});
+        Assertions.assertTrue(sweeper.findLeftovers(database, "testdb", null).isEmpty());
+    }
+
+    @Test
+    public void testKeepUnfinished() throws Exception {
+        // an unfinished run of another process protects all leftovers of its table, not only its new table
+        connection.addResult("pt_osc_history", new Object[] {"__invoice_new", "no", "invoice"});
+        Assertions.assertTrue(sweeper.findLeftovers(database, "testdb", null).isEmpty());
+
+        // the triggers of another table are still swept
+        connection.addResult("information_schema.TRIGGERS", new Object[] {"pt_osc_testdb_invoice_del", "invoice", 0},
+                new Object[] {"pt_osc_testdb_other_del", "other", 0});
+        Assertions.assertEquals(Arrays.asList("DROP TRIGGER IF EXISTS testdb.pt_osc_testdb_other_del"),
+                sweeper.findLeftovers(database, "testdb", null));
+    }
+
+    @Test
+    public void testKeepUsed() throws Exception {
+        connection.addResult("information_schema.PROCESSLIST",
+                new Object[] {"INSERT LOW_PRIORITY IGNORE INTO `testdb`.`_invoice_new` SELECT * FROM `testdb`.`invoice`"});
+        Assertions.assertTrue(sweeper.findLeftovers(database, "testdb", null).isEmpty());
+    }
+
+    @Test
+    public void testKeepRunning() throws Exception {
+        MariaDbToolsMetrics.getInstance().onProgress(new MariaDbToolsProgressEvent("testdb", "invoice", Phase.STARTED));
+        try {
+            Assertions.assertTrue(sweeper.findLeftovers(database, "testdb", null).isEmpty());
+        } finally {
+            MariaDbToolsMetrics.getInstance().cancel("testdb", "invoice");
+        }
+        Assertions.assertEquals(PERSON_DROPS, sweeper.findLeftovers(database, "testdb", null));
+    }
+
+    @Test
+    public void testSweepOnce() {
+        sweeper.sweepOnce(database);
+        Assertions.assertEquals(0, count("information_schema.TABLES"));
+
+        System.setProperty(Configuration.SWEEP, "true");
+        sweeper.sweepOnce(database);
+        sweeper.sweepOnce(database);
+        Assertions.assertEquals(1, count("information_schema.TABLES"));
+        Assertions.assertEquals(1, count("DROP TABLE IF EXISTS testdb._invoice_new"));
+    }
+
+    @Test
+    public void testNoSweepWhileGenerating() {
+        System.setProperty(Configuration.SWEEP, "true");
+        MariaDbToolsAddColumnChange change = new MariaDbToolsAddColumnChange();
+        change.setTableName("invoice");
+        AddColumnConfig column = new AddColumnConfig();
+        column.setName("total");
+        column.setType("INT");
+        change.addColumn(column);
+        change.generateStatements(database);
+        Assertions.assertEquals(0, count("TABLE_TYPE"));
+        Assertions.assertEquals(0, count("DROP "));
+    }
+
+    @Test
+    public void testChange() {
+        MariaDbToolsSweepChange change = new MariaDbToolsSweepChange();
+        change.setTableName("invoice");
+        Assertions.assertTrue(change.supports(database));
+        SqlStatement[] statements = change.generateStatements(database);
+        Assertions.assertEquals(1, statements.length);
+
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc",
+                database, new LoggingExecutor(null, new StringWriter(), database));
+        Sql[] sql = ((MariaDbToolsSweepStatement) statements[0]).generate(database);
+        Assertions.assertEquals(PERSON_DROPS.size(), sql.length);
+        Assertions.assertEquals(PERSON_DROPS.get(0), sql[0].toSql());
+        Assertions.assertEquals(0, count("DROP "));
+
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+        Assertions.assertNull(((MariaDbToolsSweepStatement) statements[0]).generate(database));
+        Assertions.assertEquals(PERSON_DROPS.size(), count("DROP "));
+    }
+}
@@ -0,0 +1,198 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.Scope;
+import liquibase.change.AddColumnConfig;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.jvm.JdbcExecutor;
+import liquibase.statement.SqlStatement;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsTableSizeServiceTest {
+    private Database database;
+    private MockJdbcConnection connection;
+
+    @BeforeEach
+    public void setup() {
+        System.setProperty(Configuration.LIQUIBASE_PASSWORD, "root");
+        System.setProperty(Configuration.ADDITIONAL_OPTIONS, "");
+
+        connection = new MockJdbcConnection()
+                .addResult("information_schema.TABLES", new Object[] {2L * 1024 * 1024, 2000L});
+        database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(connection.toJdbcConnection());
+        JdbcExecutor executor = new JdbcExecutor();
+        executor.setDatabase(database);
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc", database, executor);
+
+        MariaDbToolsSchemaChangeStatement.available = true;
+        MariaDbToolsSchemaChangeStatement.mariaDBToolsToolkitVersion = null;
+        MariaDbToolsConstraintsService.getInstance().disable();
+    }
+
+    private static MariaDbToolsAddColumnChange addColumn() {
+        return addColumn("age");
+    }
+
+    private static MariaDbToolsAddColumnChange addColumn(String column) {
+        MariaDbToolsAddColumnChange change = new MariaDbToolsAddColumnChange();
+        change.setTableName("person");
+        AddColumnConfig config = new AddColumnConfig();
+        config.setName(column);
+        config.setType("INT");
+        change.addColumn(config);
+        return change;
+    }
+
+    @Test
+    public void testGetTableSize() {
+        MariaDbToolsTableSizeService.TableSize size = MariaDbToolsTableSizeService.getInstance()
+                .getTableSize(database, null, "person");
+        Assertions.assertEquals(2L * 1024 * 1024, size.getBytes());
+        Assertions.assertEquals(2000L, size.getRows());
+    }
+
+    @Test
+    public void testMinTableSize() {
+        Assertions.assertEquals(0L, Configuration.getMinTableSize());
+        System.setProperty(Configuration.MIN_TABLE_SIZE, "1024");
+        Assertions.assertEquals(1024L, Configuration.getMinTableSize());
+        System.setProperty(Configuration.MIN_TABLE_SIZE, "10M");
+        Assertions.assertEquals(10L * 1024 * 1024, Configuration.getMinTableSize());
+        System.setProperty(Configuration.MIN_TABLE_SIZE, "1g");
+        Assertions.assertEquals(1024L * 1024 * 1024, Configuration.getMinTableSize());
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        SqlStatement[] statements = addColumn().generateStatements(database);
+        Assertions.assertEquals(1, statements.length);
+        Assertions.assertTrue(statements[0] instanceof MariaDbToolsSchemaChangeStatement);
+        Assertions.assertTrue(connection.getExecuted().isEmpty());
+    }
+
+    @Test
+    public void testSmallTable() {
+        System.setProperty(Configuration.MIN_TABLE_SIZE, "10M");
+        SqlStatement[] statements = addColumn().generateStatements(database);
+        Assertions.assertEquals(1, statements.length);
+        Assertions.assertFalse(statements[0] instanceof MariaDbToolsSchemaChangeStatement);
+    }
+
+    @Test
+    public void testLargeTable() {
+        System.setProperty(Configuration.MIN_TABLE_SIZE, "1M");
+        SqlStatement[] statements = addColumn().generateStatements(database);
+        Assertions.assertEquals(1, statements.length);
+        Assertions.assertTrue(statements[0] instanceof MariaDbToolsSchemaChangeStatement);
+    }
+
+    @Test
+    public void testUnknownSize() {
+        System.setProperty(Configuration.MIN_TABLE_SIZE, "10M");
+        database.setConnection(new MockDatabaseConnection("jdbc:mysql://user@localhost:3306/testdb", "user@localhost"));
+        SqlStatement[] statements = addColumn().generateStatements(database);
+        Assertions.assertEquals(1, statements.length);
+        Assertions.assertTrue(statements[0] instanceof MariaDbToolsSchemaChangeStatement);
+    }
+
+    private static ChangeSet changeSet(MariaDbToolsAddColumnChange... changes) {
+        ChangeSet changeSet = new ChangeSet("1", "Alice", false, false, "changelog.xml", null, null, new DatabaseChangeLog());
+        for (MariaDbToolsAddColumnChange change : changes) {
+            changeSet.addChange(change);
+        }
+        return changeSet;
+    }
+
+    @Test
+    public void testGroupFollowsFirstChangeWhenGrowing() {
+        System.setProperty(Configuration.MIN_TABLE_SIZE, "10M");
+        MariaDbToolsAddColumnChange first = addColumn("age");
+        MariaDbToolsAddColumnChange second = addColumn("email");
+        changeSet(first, second);
+
+        SqlStatement[] statements = first.generateStatements(database);
+        Assertions.assertEquals(1, statements.length);
+        Assertions.assertFalse(statements[0] instanceof MariaDbToolsSchemaChangeStatement);
+
+        // the threshold is crossed after the first change: the second change must still be executed directly
+        connection.addResult("information_schema.TABLES", new Object[] {20L * 1024 * 1024, 20000L});
+        statements = second.generateStatements(database);
+        Assertions.assertEquals(1, statements.length);
+        Assertions.assertFalse(statements[0] instanceof MariaDbToolsSchemaChangeStatement);
+    }
+
+    @Test
+    public void testGroupFollowsFirstChangeWhenShrinking() {
+        System.setProperty(Configuration.MIN_TABLE_SIZE, "1M");
+        MariaDbToolsAddColumnChange first = addColumn("age");
+        MariaDbToolsAddColumnChange second = addColumn("email");
+        changeSet(first, second);
+
+        SqlStatement[] statements = first.generateStatements(database);
+        Assertions.assertEquals(1, statements.length);
+        Assertions.assertTrue(statements[0] instanceof MariaDbToolsSchemaChangeStatement);
+        Assertions.assertTrue(((MariaDbToolsSchemaChangeStatement) statements[0]).getAlterStatement().contains("email"));
+
+        // the second change has already been executed together with the first one
+        connection.addResult("information_schema.TABLES", new Object[] {1024L, 1L});
+        Assertions.assertEquals(0, second.generateStatements(database).length);
+    }
+
+    @Test
+    public void testChangeSetFollowsFirstChange() {
+        System.setProperty(Configuration.MIN_TABLE_SIZE, "1M");
+        System.setProperty(Configuration.COALESCE_CHANGES, "false");
+        MariaDbToolsAddColumnChange first = addColumn("age");
+        MariaDbToolsAddColumnChange second = addColumn("email");
+        changeSet(first, second);
+
+        Assertions.assertTrue(first.generateStatements(database)[0] instanceof MariaDbToolsSchemaChangeStatement);
+        connection.addResult("information_schema.TABLES", new Object[] {1024L, 1L});
+        Assertions.assertTrue(second.generateStatements(database)[0] instanceof MariaDbToolsSchemaChangeStatement);
+
+        // the decisions are discarded with the liquibase command
+        MariaDbToolsUpdateRun.finish(database);
+        Assertions.assertFalse(second.generateStatements(database)[0] instanceof MariaDbToolsSchemaChangeStatement);
+    }
+
+    @Test
+    public void testCoveredChangeSetIsNotExecutedDirectly() {
+        System.setProperty(Configuration.MIN_TABLE_SIZE, "10M");
+        MariaDbToolsAddColumnChange change = addColumn();
+        ChangeSet changeSet = changeSet(change);
+        MariaDbToolsUpdateRun.start(database, true);
+        try {
+            // executed together with a preceding changeset on the large table, that became small meanwhile
+            MariaDbToolsChangeSetPlanner.markCovered(database, Collections.singletonList(changeSet));
+            Assertions.assertEquals(0, change.generateStatements(database).length);
+        } finally {
+            MariaDbToolsUpdateRun.finish(database);
+        }
+    }
+}
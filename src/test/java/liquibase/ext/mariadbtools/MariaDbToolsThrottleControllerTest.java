@@ -0,0 +1,160 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MariaDbToolsThrottleControllerTest {
+
+    private static class FakeSignal implements MariaDbToolsThrottleSignal {
+        private final String name;
+        private final AtomicLong value = new AtomicLong();
+        private final String maxLoad;
+
+        FakeSignal(String name, String maxLoad) {
+            this.name = name;
+            this.maxLoad = maxLoad;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public double measure(Connection connection) {
+            return value.get();
+        }
+
+        @Override
+        public double getThreshold() {
+            return 10;
+        }
+
+        @Override
+        public String getMaxLoad() {
+            return maxLoad;
+        }
+    }
+
+    private static class BrokenSignal extends FakeSignal {
+        BrokenSignal() {
+            super("broken", "Broken=1");
+        }
+
+        @Override
+        public void init(Connection connection) {
+            throw new IllegalStateException("not supported");
+        }
+    }
+
+    @Test
+    public void testCheckAndThrottle() throws Exception {
+        FakeSignal first = new FakeSignal("first", null);
+        FakeSignal second = new FakeSignal("second", null);
+        try (MariaDbToolsThrottleController controller = new MariaDbToolsThrottleController(
+                new MockJdbcConnection().createConnection(), Arrays.asList(first, second), 10)) {
+            Assertions.assertNull(controller.check());
+
+            second.value.set(11);
+            Thread.sleep(20);
+            Assertions.assertSame(second, controller.check());
+
+            Thread worker = new Thread(() -> {
+                try {
+                    controller.throttle();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            worker.start();
+            worker.join(100);
+            Assertions.assertTrue(worker.isAlive(), "copy should be paused");
+
+            second.value.set(5);
+            worker.join(5000);
+            Assertions.assertFalse(worker.isAlive());
+        }
+    }
+
+    @Test
+    public void testFailingSignalIsDropped() {
+        FakeSignal signal = new FakeSignal("threads", "Threads_running=20");
+        try (MariaDbToolsThrottleController controller = new MariaDbToolsThrottleController(
+                new MockJdbcConnection().createConnection(), Arrays.asList(new BrokenSignal(), signal), 10)) {
+            Assertions.assertEquals(1, controller.getSignals().size());
+            List<String> options = controller.getToolOptions();
+            Assertions.assertEquals("--max-load=Threads_running=20", options.get(0));
+            Assertions.assertEquals("--pause-file=" + controller.getPauseFile(), options.get(1));
+        }
+    }
+
+    @Test
+    public void testMaxLoadIsMergedWithTheUsersMaxLoad() {
+        List<MariaDbToolsThrottleSignal> signals = Arrays.asList(new FakeSignal("threads", "Threads_running=20"),
+                new FakeSignal("connections", "Threads_connected=500"));
+        try (MariaDbToolsThrottleController controller = new MariaDbToolsThrottleController(
+                new MockJdbcConnection().createConnection(), signals, 10)) {
+            List<String> commands = new ArrayList<>(Arrays.asList("mariadb-schema-change", "--max-load", "Threads_running:50"));
+            controller.addToolOptions(commands);
+            Assertions.assertEquals(Arrays.asList("mariadb-schema-change", "--max-load",
+                    "Threads_running:50,Threads_connected=500", "--pause-file=" + controller.getPauseFile()), commands);
+
+            commands = new ArrayList<>(Arrays.asList("mariadb-schema-change", "--max-load=Threads_connected=100"));
+            controller.addToolOptions(commands);
+            Assertions.assertEquals(Arrays.asList("mariadb-schema-change", "--max-load=Threads_connected=100,Threads_running=20",
+                    "--pause-file=" + controller.getPauseFile()), commands);
+
+            commands = new ArrayList<>(Arrays.asList("mariadb-schema-change"));
+            controller.addToolOptions(commands);
+            Assertions.assertEquals(Arrays.asList("mariadb-schema-change", "--max-load=Threads_running=20,Threads_connected=500",
+                    "--pause-file=" + controller.getPauseFile()), commands);
+        }
+    }
+
+    @Test
+    public void testPauseFile() throws Exception {
+        FakeSignal signal = new FakeSignal("history", null);
+        Path pauseFile;
+        try (MariaDbToolsThrottleController controller = new MariaDbToolsThrottleController(
+                new MockJdbcConnection().createConnection(), Arrays.asList(signal), 0)) {
+            List<String> options = controller.getToolOptions();
+            Assertions.assertEquals(1, options.size());
+            pauseFile = controller.getPauseFile();
+            Assertions.assertFalse(Files.exists(pauseFile));
+
+            signal.value.set(100);
+            controller.updatePauseFile();
+            Assertions.assertTrue(Files.exists(pauseFile));
+
+            signal.value.set(0);
+            controller.updatePauseFile();
+            Assertions.assertFalse(Files.exists(pauseFile));
+
+            signal.value.set(100);
+            controller.updatePauseFile();
+        }
+        Assertions.assertFalse(Files.exists(pauseFile));
+    }
+}
@@ -0,0 +1,114 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.ext.mariadbtools.MariaDbToolsThrottleSignals.BinlogRate;
+import liquibase.ext.mariadbtools.MariaDbToolsThrottleSignals.HistoryListLength;
+import liquibase.ext.mariadbtools.MariaDbToolsThrottleSignals.ThreadsRunning;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsThrottleSignalsTest {
+
+    @Test
+    public void testBuiltInsFromConfiguration() {
+        Assertions.assertEquals(2, MariaDbToolsThrottleSignals.getBuiltIns().size());
+
+        System.setProperty(Configuration.THROTTLE_BINLOG_RATE, "10M");
+        System.setProperty(Configuration.THROTTLE_HISTORY_LENGTH, "0");
+        Assertions.assertEquals(2, MariaDbToolsThrottleSignals.getBuiltIns().size());
+        Assertions.assertEquals(10L * 1024 * 1024, Configuration.getThrottleBinlogRate());
+    }
+
+    @Test
+    public void testThreadsRunning() throws SQLException {
+        MockJdbcConnection mock = new MockJdbcConnection()
+                .addResult("Threads_running", new Object[] {"Threads_running", "8"});
+        Connection connection = mock.createConnection();
+        ThreadsRunning signal = new ThreadsRunning(2);
+        signal.init(connection);
+        Assertions.assertEquals(16, signal.getThreshold());
+        Assertions.assertEquals("Threads_running=16", signal.getMaxLoad());
+
+        mock.addResult("Threads_running", new Object[] {"Threads_running", "20"});
+        Assertions.assertEquals(20, signal.measure(connection));
+    }
+
+    @Test
+    public void testThreadsRunningMinimumThreshold() throws SQLException {
+        MockJdbcConnection mock = new MockJdbcConnection()
+                .addResult("Threads_running", new Object[] {"Threads_running", "1"});
+        ThreadsRunning signal = new ThreadsRunning(2);
+        signal.init(mock.createConnection());
+        Assertions.assertEquals(ThreadsRunning.MIN_THRESHOLD, signal.getThreshold());
+    }
+
+    @Test
+    public void testHistoryListLength() throws SQLException {
+        MockJdbcConnection mock = new MockJdbcConnection()
+                .addResult("INNODB_METRICS", new Object[] {"1234"});
+        HistoryListLength signal = new HistoryListLength(1000);
+        Assertions.assertEquals(1234, signal.measure(mock.createConnection()));
+        Assertions.assertNull(signal.getMaxLoad());
+    }
+
+    @Test
+    public void testHistoryListLengthFromInnodbStatus() throws SQLException {
+        MockJdbcConnection mock = new MockJdbcConnection()
+                .addResult("SHOW ENGINE INNODB STATUS", new Object[] {"InnoDB", "",
+                    "------------\nTRANSACTIONS\n------------\nTrx id counter 1234\nHistory list length 567\n"});
+        HistoryListLength signal = new HistoryListLength(1000);
+        Assertions.assertEquals(567, signal.measure(mock.createConnection()));
+    }
+
+    @Test
+    public void testHistoryListLengthNotAvailable() {
+        HistoryListLength signal = new HistoryListLength(1000);
+        Assertions.assertThrows(SQLException.class, () -> signal.init(new MockJdbcConnection().createConnection()));
+    }
+
+    @Test
+    public void testBinlogRate() throws Exception {
+        MockJdbcConnection mock = new MockJdbcConnection()
+                .addResult("Binlog_bytes_written", new Object[] {"Binlog_bytes_written", "1000"});
+        Connection connection = mock.createConnection();
+        BinlogRate signal = new BinlogRate(1000);
+        Assertions.assertEquals(0, signal.measure(connection));
+
+        Thread.sleep(10);
+        mock.addResult("Binlog_bytes_written", new Object[] {"Binlog_bytes_written", "1000000"});
+        Assertions.assertTrue(signal.measure(connection) > 1000);
+    }
+
+    @Test
+    public void testBinlogRateFromBinaryLogs() throws Exception {
+        MockJdbcConnection mock = new MockJdbcConnection()
+                .addResult("SHOW BINARY LOGS", new Object[] {"binlog.000001", 500L}, new Object[] {"binlog.000002", 500L});
+        Connection connection = mock.createConnection();
+        BinlogRate signal = new BinlogRate(1000000);
+        signal.init(connection);
+
+        Thread.sleep(10);
+        mock.addResult("SHOW BINARY LOGS", new Object[] {"binlog.000001", 500L}, new Object[] {"binlog.000002", 600L});
+        double rate = signal.measure(connection);
+        Assertions.assertTrue(rate > 0 && rate < 1000000, "rate " + rate);
+    }
+}
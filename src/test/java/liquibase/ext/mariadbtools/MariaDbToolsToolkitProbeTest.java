@@ -0,0 +1,127 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsToolkitProbeTest {
+    @TempDir
+    Path tempDir;
+
+    private Path tool;
+    private Path invocations;
+    private Path cache;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tool = tempDir.resolve("mariadb-schema-change");
+        invocations = tempDir.resolve("invocations");
+        cache = tempDir.resolve("cache/probe.properties");
+        writeTool("3.3.1");
+    }
+
+    private void writeTool(String version) throws Exception {
+        Files.write(tool, ("#!/bin/sh\n"
+                + "echo probed >> " + invocations + "\n"
+                + "echo \"mariadb-schema-change " + version + "\"\n").getBytes(StandardCharsets.UTF_8));
+        Assumptions.assumeTrue(tool.toFile().setExecutable(true));
+    }
+
+    private long countInvocations() throws Exception {
+        return Files.exists(invocations) ? Files.readAllLines(invocations).size() : 0;
+    }
+
+    @Test
+    public void testProbeStartsWhenExtensionIsRegistered() throws Exception {
+        System.setProperty(Configuration.MARIADB_TOOLS_PATH, tempDir.toString());
+        System.setProperty(Configuration.PROBE_CACHE, cache.toString());
+
+        // liquibase instantiates the lock services before it locks and parses the changelog
+        new MariaDbToolsLockService();
+        for (int i = 0; i < 100 && countInvocations() == 0; i++) {
+            Thread.sleep(50);
+        }
+        Assertions.assertEquals(1, countInvocations());
+    }
+
+    @Test
+    public void testProbeIsCachedAcrossInstances() throws Exception {
+        MariaDbToolsToolkitProbe.Result result = new MariaDbToolsToolkitProbe(cache::toString).getResult(tool.toString());
+        Assertions.assertTrue(result.isAvailable());
+        Assertions.assertEquals("3.3.1", result.getVersion());
+        Assertions.assertEquals(1, countInvocations());
+        Assertions.assertTrue(Files.exists(cache));
+
+        // a new JVM reads the cache
+        result = new MariaDbToolsToolkitProbe(cache::toString).getResult(tool.toString());
+        Assertions.assertTrue(result.isAvailable());
+        Assertions.assertEquals("3.3.1", result.getVersion());
+        Assertions.assertEquals(1, countInvocations());
+    }
+
+    @Test
+    public void testChangedToolIsProbedAgain() throws Exception {
+        new MariaDbToolsToolkitProbe(cache::toString).getResult(tool.toString());
+        writeTool("3.4.0-beta");
+        Assumptions.assumeTrue(tool.toFile().setLastModified(tool.toFile().lastModified() + 2000));
+
+        MariaDbToolsToolkitProbe.Result result = new MariaDbToolsToolkitProbe(cache::toString).getResult(tool.toString());
+        Assertions.assertEquals("3.4.0", result.getVersion());
+        Assertions.assertEquals(2, countInvocations());
+    }
+
+    @Test
+    public void testProbeRunsOncePerJvm() throws Exception {
+        MariaDbToolsToolkitProbe probe = new MariaDbToolsToolkitProbe(() -> "");
+        Assertions.assertSame(probe.probe(tool.toString()), probe.probe(tool.toString()));
+        Assertions.assertTrue(probe.getResult(tool.toString()).isAvailable());
+        probe.getResult(tool.toString());
+        Assertions.assertEquals(1, countInvocations());
+        Assertions.assertFalse(Files.exists(cache));
+    }
+
+    @Test
+    public void testNotAvailable() {
+        MariaDbToolsToolkitProbe.Result result = new MariaDbToolsToolkitProbe(cache::toString)
+                .getResult(tempDir.resolve("missing").toString());
+        Assertions.assertFalse(result.isAvailable());
+        Assertions.assertNull(result.getVersion());
+        Assertions.assertFalse(Files.exists(cache));
+    }
+
+    @Test
+    public void testResolve() {
+        Assertions.assertEquals(tool.toFile(), MariaDbToolsToolkitProbe.resolve(tool.toString()));
+        Assertions.assertNull(MariaDbToolsToolkitProbe.resolve(tempDir.resolve("missing").toString()));
+        Assertions.assertNull(MariaDbToolsToolkitProbe.resolve("surely-not-on-the-path-mariadb-schema-change"));
+    }
+
+    @Test
+    public void testParseVersion() {
+        Assertions.assertEquals("3.3.1", MariaDbToolsToolkitProbe.parseVersion("mariadb-schema-change 3.3.1\n"));
+        Assertions.assertNull(MariaDbToolsToolkitProbe.parseVersion("unknown"));
+        Assertions.assertNull(MariaDbToolsToolkitProbe.parseVersion(null));
+    }
+}
@@ -0,0 +1,141 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import liquibase.Scope;
+import liquibase.database.Database;
+import liquibase.database.core.MySQLDatabase;
+import liquibase.executor.ExecutorService;
+import liquibase.executor.LoggingExecutor;
+import liquibase.ext.mariadbtools.MariaDbToolsAlterClassifier.Algorithm;
+import liquibase.ext.mariadbtools.MariaDbToolsAlterClassifier.ServerInfo;
+import liquibase.ext.mariadbtools.MariaDbToolsTypeWideningAnalyzer.Analysis;
+import liquibase.ext.mariadbtools.MariaDbToolsTypeWideningAnalyzer.Column;
+import liquibase.statement.SqlStatement;
+import liquibase.statement.core.RawSqlStatement;
+
+@ExtendWith(RestoreSystemPropertiesExtension.class)
+public class MariaDbToolsTypeWideningAnalyzerTest {
+    private static final ServerInfo MARIADB_10_3 = new ServerInfo(true, "10.3.31");
+    private static final ServerInfo MARIADB_10_5 = new ServerInfo(true, "10.5.12");
+    private static final ServerInfo MYSQL_5_7 = new ServerInfo(false, "5.7.35");
+    private static final ServerInfo MYSQL_8_0 = new ServerInfo(false, "8.0.30");
+
+    private MariaDbToolsTypeWideningAnalyzer analyzer;
+
+    @BeforeEach
+    public void setup() {
+        Map<String, Column> columns = new HashMap<>();
+        columns.put("name", new Column("varchar(50)", "utf8mb4_general_ci", 50, 200, true));
+        columns.put("code", new Column("varchar(50)", "latin1_swedish_ci", 50, 50, true));
+        columns.put("email", new Column("varchar(100)", "utf8mb4_general_ci", 100, 400, false));
+        columns.put("status", new Column("enum('new','active')", "utf8mb4_general_ci", 6, 24, true));
+        columns.put("flags", new Column("set('a','b','c','d','e','f','g','h')", "utf8mb4_general_ci", 15, 60, true));
+        columns.put("age", new Column("int(11)", null, 0, 0, true));
+        analyzer = new MariaDbToolsTypeWideningAnalyzer("person", "InnoDB", "utf8mb4_general_ci", columns);
+    }
+
+    private Analysis analyze(String operation, ServerInfo server) {
+        return analyzer.analyze(operation, server);
+    }
+
+    @Test
+    public void testVarchar() {
+        Assertions.assertEquals(Algorithm.INSTANT, analyze("MODIFY name VARCHAR(60)", MARIADB_10_5).getAlgorithm());
+        Assertions.assertEquals(Algorithm.INPLACE, analyze("MODIFY `name` VARCHAR(63)", MARIADB_10_3).getAlgorithm());
+        Assertions.assertEquals(Algorithm.INPLACE, analyze("MODIFY name VARCHAR(60)", MYSQL_8_0).getAlgorithm());
+        Assertions.assertEquals(Algorithm.INPLACE, analyze("MODIFY email VARCHAR(500) NOT NULL", MYSQL_5_7).getAlgorithm());
+        Assertions.assertEquals(Algorithm.INSTANT,
+                analyze("MODIFY name VARCHAR(60) COLLATE utf8mb4_general_ci NULL", MARIADB_10_5).getAlgorithm());
+
+        Analysis analysis = analyze("MODIFY name VARCHAR(64)", MARIADB_10_5);
+        Assertions.assertEquals(Algorithm.COPY, analysis.getAlgorithm());
+        Assertions.assertEquals("the length prefix grows from 1 to 2 bytes (256 bytes with 4 bytes per character)",
+                analysis.getReason());
+        Assertions.assertEquals(Algorithm.INSTANT, analyze("MODIFY code VARCHAR(255) COLLATE latin1_swedish_ci",
+                MARIADB_10_5).getAlgorithm());
+        Assertions.assertEquals("the collation changes from latin1_swedish_ci to utf8mb4_general_ci",
+                analyze("MODIFY code VARCHAR(100)", MARIADB_10_5).getReason());
+        Assertions.assertEquals("the column is shortened from 50 to 40", analyze("MODIFY name VARCHAR(40)", MARIADB_10_5).getReason());
+        Assertions.assertEquals("the column becomes nullable", analyze("MODIFY email VARCHAR(120)", MARIADB_10_5).getReason());
+        Assertions.assertEquals("the new definition contains further attributes: DEFAULT ''",
+                analyze("MODIFY name VARCHAR(60) DEFAULT ''", MARIADB_10_5).getReason());
+    }
+
+    @Test
+    public void testEnum() {
+        Assertions.assertEquals(Algorithm.INSTANT, analyze("MODIFY status ENUM('new', 'active', 'closed')", MARIADB_10_5).getAlgorithm());
+        Assertions.assertEquals(Algorithm.INSTANT, analyze("MODIFY status ENUM('new','active','closed')", MYSQL_8_0).getAlgorithm());
+        Assertions.assertEquals(Algorithm.INPLACE, analyze("MODIFY status ENUM('new','active','closed')", MYSQL_5_7).getAlgorithm());
+        Assertions.assertEquals("the ENUM values are changed, not only appended at the end",
+                analyze("MODIFY status ENUM('closed','new','active')", MARIADB_10_5).getReason());
+        Assertions.assertEquals("the storage size of the SET grows to 2 bytes",
+                analyze("MODIFY flags SET('a','b','c','d','e','f','g','h','i')", MARIADB_10_5).getReason());
+    }
+
+    @Test
+    public void testCopy() {
+        Assertions.assertEquals("the type changes from int(11) to BIGINT", analyze("MODIFY age BIGINT", MARIADB_10_5).getReason());
+        Assertions.assertEquals("column street doesn't exist yet", analyze("MODIFY street VARCHAR(10)", MARIADB_10_5).getReason());
+        Assertions.assertEquals(Algorithm.COPY, new MariaDbToolsTypeWideningAnalyzer("person", "MyISAM", "utf8mb4_general_ci",
+                new HashMap<>()).analyze("MODIFY name VARCHAR(60)", MARIADB_10_5).getAlgorithm());
+    }
+
+    @Test
+    public void testClassifier() {
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify("MODIFY name VARCHAR(60)", MARIADB_10_5));
+        Assertions.assertEquals(Algorithm.INSTANT, MariaDbToolsAlterClassifier.classify(
+                "MODIFY name VARCHAR(60), ADD COLUMN city VARCHAR(20) NULL", MARIADB_10_5, analyzer));
+        Assertions.assertEquals(Algorithm.COPY, MariaDbToolsAlterClassifier.classify(
+                "MODIFY name VARCHAR(60), MODIFY age BIGINT", MARIADB_10_5, analyzer));
+    }
+
+    @Test
+    public void testModifyDataTypeChange() {
+        System.setProperty(Configuration.NATIVE_ALTER, "instant");
+        MockJdbcConnection connection = new MockJdbcConnection()
+                .addResult("information_schema.COLUMNS", new Object[] {"name", "varchar(50)", "utf8mb4_general_ci",
+                    50L, 200L, "YES", "InnoDB", "utf8mb4_general_ci"});
+        Database database = new MySQLDatabase();
+        database.setLiquibaseCatalogName("testdb");
+        database.setConnection(connection.toJdbcConnection());
+        Assertions.assertNotNull(MariaDbToolsTypeWideningAnalyzer.forAlter(database, null, "person", "MODIFY name VARCHAR(60)"));
+        Assertions.assertNull(MariaDbToolsTypeWideningAnalyzer.forAlter(database, null, "person", "ADD COLUMN age INT"));
+        Assertions.assertTrue(connection.getExecuted().get(0).endsWith("[testdb, person]"));
+
+        MariaDbToolsSchemaChangeStatement.available = true;
+        MariaDbToolsConstraintsService.getInstance().disable();
+        Scope.getCurrentScope().getSingleton(ExecutorService.class).setExecutor("jdbc",
+                database, new LoggingExecutor(null, new StringWriter(), database));
+        MariaDbToolsModifyDataTypeChange change = new MariaDbToolsModifyDataTypeChange();
+        change.setTableName("person");
+        change.setColumnName("name");
+        change.setNewDataType("VARCHAR(60)");
+        SqlStatement[] statements = change.generateStatements(database);
+        SqlStatement last = statements[statements.length - 1];
+        Assertions.assertTrue(last instanceof RawSqlStatement);
+        Assertions.assertEquals("ALTER TABLE testdb.person MODIFY name VARCHAR(60), ALGORITHM=INSTANT",
+                ((RawSqlStatement) last).getSql());
+    }
+}
@@ -0,0 +1,67 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import liquibase.database.core.MySQLDatabase;
+import liquibase.lockservice.StandardLockService;
+
+public class MariaDbToolsUpdateRunTest {
+
+    private static StackTraceElement[] stack(String className, String methodName) {
+        return new StackTraceElement[] {
+            new StackTraceElement(StandardLockService.class.getName(), "waitForLock", null, -1),
+            new StackTraceElement(className, methodName, null, -1),
+            new StackTraceElement("liquibase.Liquibase", "runInScope", null, -1),
+        };
+    }
+
+    @Test
+    public void testUnlimitedUpdate() {
+        Assertions.assertTrue(MariaDbToolsUpdateRun.isUnlimitedUpdate(stack("liquibase.Liquibase", "lambda$update$1")));
+    }
+
+    @Test
+    public void testLimitedUpdate() {
+        // update(int changesToApply, ...)
+        Assertions.assertFalse(MariaDbToolsUpdateRun.isUnlimitedUpdate(stack("liquibase.Liquibase$2", "run")));
+        // update(String tag, ...)
+        Assertions.assertFalse(MariaDbToolsUpdateRun.isUnlimitedUpdate(stack("liquibase.Liquibase$3", "run")));
+    }
+
+    @Test
+    public void testOtherCommands() {
+        Assertions.assertFalse(MariaDbToolsUpdateRun.isUnlimitedUpdate(stack("liquibase.Liquibase", "lambda$rollback$5")));
+        Assertions.assertFalse(MariaDbToolsUpdateRun.isUnlimitedUpdate(stack("liquibase.Liquibase", "changeLogSync")));
+        Assertions.assertFalse(MariaDbToolsUpdateRun.isUnlimitedUpdate(new Throwable().getStackTrace()));
+    }
+
+    @Test
+    public void testNotValidating() {
+        Assertions.assertFalse(MariaDbToolsUpdateRun.isValidating());
+    }
+
+    @Test
+    public void testLookAhead() {
+        MySQLDatabase database = new MySQLDatabase();
+        Assertions.assertFalse(MariaDbToolsUpdateRun.isLookAheadAllowed(database));
+        MariaDbToolsUpdateRun.start(database, true);
+        Assertions.assertTrue(MariaDbToolsUpdateRun.isLookAheadAllowed(database));
+        MariaDbToolsUpdateRun.finish(database);
+        Assertions.assertFalse(MariaDbToolsUpdateRun.isLookAheadAllowed(database));
+    }
+}
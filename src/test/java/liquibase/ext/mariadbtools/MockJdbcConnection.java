@@ -0,0 +1,260 @@
+package liquibase.ext.mariadbtools;
+
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import liquibase.database.jvm.JdbcConnection;
+
+/**
+ * A fake JDBC connection without a real database. Queries are answered with the results
+ * registered via {@link #addResult(String, Object[]...)}, all executed statements are recorded.
+ */
+public class MockJdbcConnection {
+    private final Map<String, List<Object[]>> results = new LinkedHashMap<>();
+    private final Map<String, List<String>> labels = new LinkedHashMap<>();
+    private final Map<String, SQLException> errors = new LinkedHashMap<>();
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+    private String url = "jdbc:mysql://localhost:3306/testdb";
+    private String productVersion = "10.5.12-MariaDB";
+    private boolean closed;
+
+    /**
+     * Registers the rows, that are returned for any query containing the given sql fragment.
+     */
+    public MockJdbcConnection addResult(String sqlFragment, Object[]... rows) {
+        results.remove(sqlFragment);
+        labels.remove(sqlFragment);
+        results.put(sqlFragment, new ArrayList<>(Arrays.asList(rows)));
+        return this;
+    }
+
+    /**
+     * Registers the rows with column labels, so that the columns can be accessed by name.
+     */
+    public MockJdbcConnection addLabeledResult(String sqlFragment, String[] columnLabels, Object[]... rows) {
+        addResult(sqlFragment, rows);
+        labels.put(sqlFragment, Arrays.asList(columnLabels));
+        return this;
+    }
+
+    /**
+     * Registers an exception, that is thrown for any statement containing the given sql fragment.
+     */
+    public MockJdbcConnection addError(String sqlFragment, SQLException e) {
+        errors.put(sqlFragment, e);
+        return this;
+    }
+
+    public MockJdbcConnection setUrl(String url) {
+        this.url = url;
+        return this;
+    }
+
+    public MockJdbcConnection setProductVersion(String productVersion) {
+        this.productVersion = productVersion;
+        return this;
+    }
+
+    public List<String> getExecuted() {
+        synchronized (executed) {
+            return new ArrayList<>(executed);
+        }
+    }
+
+    public JdbcConnection toJdbcConnection() {
+        return new JdbcConnection(createConnection());
+    }
+
+    public Connection createConnection() {
+        return proxy(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "createStatement":
+                    return createStatement(null);
+                case "prepareStatement":
+                    return createStatement((String) args[0]);
+                case "getMetaData":
+                    return createMetaData();
+                case "isClosed":
+                    return closed;
+                case "isValid":
+                    return !closed;
+                case "close":
+                    closed = true;
+                    return null;
+                case "getAutoCommit":
+                    return true;
+                case "getCatalog":
+                    return "testdb";
+                case "unwrap":
+                    return proxy;
+                case "isWrapperFor":
+                    return false;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "MockJdbcConnection";
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private DatabaseMetaData createMetaData() {
+        return proxy(DatabaseMetaData.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getURL":
+                    return url;
+                case "getUserName":
+                    return "user@localhost";
+                case "getDatabaseProductName":
+                    return "MySQL";
+                case "getDatabaseProductVersion":
+                    return productVersion;
+                case "getDatabaseMajorVersion":
+                case "getDatabaseMinorVersion":
+                    return 0;
+                default:
+                    return method.getReturnType() == String.class ? "" : defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private PreparedStatement createStatement(String preparedSql) {
+        final ResultSet[] current = new ResultSet[1];
+        final List<Object> parameters = new ArrayList<>();
+        return proxy(PreparedStatement.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "setString":
+                case "setLong":
+                case "setInt":
+                case "setDouble":
+                case "setObject":
+                    int index = (Integer) args[0];
+                    while (parameters.size() < index) {
+                        parameters.add(null);
+                    }
+                    parameters.set(index - 1, args[1]);
+                    return null;
+                case "execute":
+                case "executeQuery":
+                case "executeUpdate":
+                    String sql = args != null && args.length > 0 ? (String) args[0] : preparedSql;
+                    current[0] = run(sql, parameters);
+                    if ("executeQuery".equals(method.getName())) {
+                        return current[0];
+                    }
+                    return "execute".equals(method.getName()) ? Boolean.TRUE : Integer.valueOf(0);
+                case "getResultSet":
+                    return current[0];
+                case "close":
+                    return null;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private ResultSet run(String sql, List<Object> parameters) throws SQLException {
+        executed.add(parameters.isEmpty() ? sql : sql + " " + parameters);
+        for (Map.Entry<String, SQLException> error : errors.entrySet()) {
+            if (sql.contains(error.getKey())) {
+                throw error.getValue();
+            }
+        }
+        // the latest registered result wins
+        List<Map.Entry<String, List<Object[]>>> entries = new ArrayList<>(results.entrySet());
+        Collections.reverse(entries);
+        for (Map.Entry<String, List<Object[]>> result : entries) {
+            if (sql.contains(result.getKey())) {
+                return createResultSet(result.getValue(), labels.get(result.getKey()));
+            }
+        }
+        return createResultSet(Collections.<Object[]>emptyList(), null);
+    }
+
+    private static ResultSet createResultSet(final List<Object[]> rows, final List<String> columnLabels) {
+        final int[] index = {-1};
+        return proxy(ResultSet.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    index[0]++;
+                    return index[0] < rows.size();
+                case "getString":
+                    Object value = column(rows, columnLabels, index[0], args[0]);
+                    return value == null ? null : String.valueOf(value);
+                case "getLong":
+                    value = column(rows, columnLabels, index[0], args[0]);
+                    return value == null ? 0L : ((Number) value).longValue();
+                case "getInt":
+                    value = column(rows, columnLabels, index[0], args[0]);
+                    return value == null ? 0 : ((Number) value).intValue();
+                case "getDouble":
+                    value = column(rows, columnLabels, index[0], args[0]);
+                    return value == null ? 0.0 : ((Number) value).doubleValue();
+                case "getObject":
+                    return column(rows, columnLabels, index[0], args[0]);
+                case "wasNull":
+                    return false;
+                case "close":
+                    return null;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static Object column(List<Object[]> rows, List<String> columnLabels, int row, Object column) {
+        if (column instanceof String && columnLabels != null && columnLabels.contains(column)) {
+            return rows.get(row)[columnLabels.indexOf(column)];
+        }
+        if (!(column instanceof Integer)) {
+            throw new UnsupportedOperationException("Only column indexes are supported");
+        }
+        return rows.get(row)[(Integer) column - 1];
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(MockJdbcConnection.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+}
@@ -16,6 +16,8 @@ package liquibase.ext.mariadbtools;
 
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import com.mysql.cj.NativeSession;
@@ -42,7 +44,11 @@ public class NoOpMySqlConnection extends ConnectionImpl {
         ConnectionUrlParser con = ConnectionUrlParser.parseConnectionString(url);
         String user = info.getProperty(PropertyKey.USER.getKeyName());
         String password = info.getProperty(PropertyKey.PASSWORD.getKeyName());
-        HostInfo hostInfo = new HostInfo(con, hostToConnectTo, portToConnectTo, user, password);
+        Map<String, String> properties = new HashMap<>();
+        for (String name : info.stringPropertyNames()) {
+            properties.put(name, info.getProperty(name));
+        }
+        HostInfo hostInfo = new HostInfo(con, hostToConnectTo, portToConnectTo, user, password, properties);
         return hostInfo;
     }
 